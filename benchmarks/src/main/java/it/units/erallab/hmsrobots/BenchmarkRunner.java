@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2022 Eric Medvet <eric.medvet@gmail.com> (as Eric Medvet <eric.medvet@gmail.com>)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.units.erallab.hmsrobots;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler enabled, so that allocation rates are reported alongside throughputs.
+ * Arguments are the usual JMH command line ones (e.g., a regex selecting the benchmarks to run).
+ */
+public class BenchmarkRunner {
+
+  public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+    ChainedOptionsBuilder builder = new OptionsBuilder()
+        .parent(new CommandLineOptions(args))
+        .addProfiler(GCProfiler.class);
+    new Runner(builder.build()).run();
+  }
+
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2022 Eric Medvet <eric.medvet@gmail.com> (as Eric Medvet <eric.medvet@gmail.com>)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.units.erallab.hmsrobots;
+
+import it.units.erallab.hmsrobots.core.controllers.CentralizedSensing;
+import it.units.erallab.hmsrobots.core.controllers.MultiLayerPerceptron;
+import it.units.erallab.hmsrobots.core.objects.Ground;
+import it.units.erallab.hmsrobots.core.objects.Robot;
+import it.units.erallab.hmsrobots.core.objects.Voxel;
+import it.units.erallab.hmsrobots.core.objects.WorldObject;
+import it.units.erallab.hmsrobots.util.Grid;
+import it.units.erallab.hmsrobots.util.RobotUtils;
+import org.dyn4j.dynamics.Body;
+import org.dyn4j.dynamics.Settings;
+import org.dyn4j.geometry.Vector2;
+import org.dyn4j.world.World;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+
+public class BenchmarkUtils {
+
+  public final static String SENSORS = "uniform-t+a+vxy-0";
+  private final static double INITIAL_PLACEMENT_X = 10d;
+  private final static double INITIAL_PLACEMENT_Y_GAP = 1d;
+
+  private BenchmarkUtils() {
+  }
+
+  public static Robot buildRobot(String shape, String sensors, long seed) {
+    Grid<Voxel> body = RobotUtils.buildSensorizingFunction(sensors).apply(RobotUtils.buildShape(shape));
+    MultiLayerPerceptron mlp = new MultiLayerPerceptron(
+        MultiLayerPerceptron.ActivationFunction.TANH,
+        CentralizedSensing.nOfInputs(body),
+        new int[]{CentralizedSensing.nOfInputs(body)},
+        CentralizedSensing.nOfOutputs(body)
+    );
+    mlp.setParams(new Random(seed).doubles(mlp.getParams().length, -1d, 1d).toArray());
+    return new Robot(new CentralizedSensing(body, mlp), body);
+  }
+
+  public static List<WorldObject> buildWorld(World<Body> world, Robot robot, Ground ground) {
+    world.removeAllBodiesAndJoints();
+    world.setSettings(new Settings());
+    ground.addTo(world);
+    robot.reset();
+    robot.translate(new Vector2(INITIAL_PLACEMENT_X - robot.boundingBox().min().x(), 0));
+    double minYGap = robot.getVoxels().values().stream()
+        .filter(Objects::nonNull)
+        .mapToDouble(v -> v.boundingBox().min().y() - ground.yAt(v.center().x()))
+        .min().orElse(0d);
+    robot.translate(new Vector2(0, INITIAL_PLACEMENT_Y_GAP - minYGap));
+    robot.addTo(world);
+    return List.of(ground, robot);
+  }
+
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2022 Eric Medvet <eric.medvet@gmail.com> (as Eric Medvet <eric.medvet@gmail.com>)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.units.erallab.hmsrobots.core.controllers;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ControllerFunctionBenchmark {
+
+  @Param({"8", "32", "128"})
+  private int size;
+
+  private MultiLayerPerceptron mlp;
+  private SelfAttention selfAttention;
+  private double[] mlpInput;
+  private double[] mlpOutput;
+  private double[] selfAttentionInput;
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(0);
+    mlp = new MultiLayerPerceptron(MultiLayerPerceptron.ActivationFunction.TANH, size, new int[]{size}, size / 2);
+    mlp.setParams(random.doubles(mlp.getParams().length, -1d, 1d).toArray());
+    mlpInput = random.doubles(size, -1d, 1d).toArray();
+    mlpOutput = new double[mlp.getOutputDimension()];
+    int n = (int) Math.round(Math.sqrt(size));
+    int dk = 4;
+    selfAttention = new SelfAttention(
+        new MultiLayerPerceptron(MultiLayerPerceptron.ActivationFunction.TANH, n * n, new int[]{n * n}, n),
+        n,
+        n,
+        dk,
+        new double[n][dk],
+        new double[n][dk],
+        new double[dk],
+        new double[dk]
+    );
+    selfAttention.setParams(random.doubles(selfAttention.getParams().length, -1d, 1d).toArray());
+    selfAttentionInput = random.doubles(selfAttention.getInputDimension(), -1d, 1d).toArray();
+  }
+
+  @Benchmark
+  public double[] mlpApply() {
+    return mlp.apply(mlpInput);
+  }
+
+  @Benchmark
+  public double[] mlpApplyWithOutput() {
+    mlp.apply(mlpInput, mlpOutput);
+    return mlpOutput;
+  }
+
+  @Benchmark
+  public double[] selfAttentionApply() {
+    return selfAttention.apply(selfAttentionInput);
+  }
+
+}
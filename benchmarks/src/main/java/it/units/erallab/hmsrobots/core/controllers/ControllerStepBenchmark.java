@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2021 Eric Medvet <eric.medvet@gmail.com> (as Eric Medvet <eric.medvet@gmail.com>)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.units.erallab.hmsrobots.core.controllers;
+
+import it.units.erallab.hmsrobots.BenchmarkUtils;
+import it.units.erallab.hmsrobots.core.objects.Ground;
+import it.units.erallab.hmsrobots.core.objects.Robot;
+import it.units.erallab.hmsrobots.core.objects.Voxel;
+import it.units.erallab.hmsrobots.tasks.locomotion.Locomotion;
+import it.units.erallab.hmsrobots.util.Grid;
+import org.dyn4j.dynamics.Body;
+import org.dyn4j.world.World;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ControllerStepBenchmark {
+
+  @Param({"biped-7x4", "worm-10x2"})
+  private String shape;
+
+  private Grid<Voxel> voxels;
+  private CentralizedSensing centralizedSensing;
+  private DistributedSensing distributedSensing;
+  private double t;
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(0);
+    Robot robot = BenchmarkUtils.buildRobot(shape, BenchmarkUtils.SENSORS, 0);
+    World<Body> world = new World<>();
+    double[][] profile = Locomotion.createTerrain("flat");
+    BenchmarkUtils.buildWorld(world, robot, new Ground(profile[0], profile[1]));
+    for (int i = 0; i < 60; i++) {
+      world.step(1);
+      robot.act(i / 60d);
+    }
+    voxels = robot.getVoxels();
+    MultiLayerPerceptron mlp = new MultiLayerPerceptron(
+        MultiLayerPerceptron.ActivationFunction.TANH,
+        CentralizedSensing.nOfInputs(voxels),
+        new int[]{CentralizedSensing.nOfInputs(voxels)},
+        CentralizedSensing.nOfOutputs(voxels)
+    );
+    mlp.setParams(random.doubles(mlp.getParams().length, -1d, 1d).toArray());
+    centralizedSensing = new CentralizedSensing(voxels, mlp);
+    distributedSensing = new DistributedSensingNonDirectional(voxels, 1);
+    Voxel voxel = voxels.values().stream().filter(Objects::nonNull).findFirst().orElseThrow();
+    MultiLayerPerceptron sharedMlp = new MultiLayerPerceptron(
+        MultiLayerPerceptron.ActivationFunction.TANH,
+        DistributedSensing.nOfInputs(voxel, 1),
+        new int[]{DistributedSensing.nOfInputs(voxel, 1)},
+        DistributedSensingNonDirectional.nOfOutputs(voxel, 1)
+    );
+    sharedMlp.setParams(random.doubles(sharedMlp.getParams().length, -1d, 1d).toArray());
+    for (Grid.Entry<Voxel> entry : voxels) {
+      if (entry.value() != null) {
+        distributedSensing.getFunctions().set(entry.key().x(), entry.key().y(), sharedMlp);
+      }
+    }
+  }
+
+  @Benchmark
+  public Grid<Voxel> centralizedSensingControl() {
+    t = t + 1d / 60d;
+    centralizedSensing.control(t, voxels);
+    return voxels;
+  }
+
+  @Benchmark
+  public Grid<Voxel> distributedSensingControl() {
+    t = t + 1d / 60d;
+    distributedSensing.control(t, voxels);
+    return voxels;
+  }
+
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2021 Eric Medvet <eric.medvet@gmail.com> (as Eric Medvet <eric.medvet@gmail.com>)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.units.erallab.hmsrobots.core.controllers;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the flat-buffer implementation of {@link SelfAttention} against the same computation done with its
+ * (allocating) static matrix methods.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class SelfAttentionBenchmark {
+
+  @Param({"8", "16", "32"})
+  private int n;
+  @Param({"4", "8"})
+  private int dk;
+
+  private SelfAttention selfAttention;
+  private MultiLayerPerceptron downstream;
+  private double[][] wq;
+  private double[][] wk;
+  private double[] qbias;
+  private double[] kbias;
+  private double[] input;
+  private double[] output;
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(0);
+    int din = n;
+    downstream = new MultiLayerPerceptron(MultiLayerPerceptron.ActivationFunction.TANH, n * din, new int[]{n}, n);
+    wq = new double[din][dk];
+    wk = new double[din][dk];
+    qbias = new double[dk];
+    kbias = new double[dk];
+    selfAttention = new SelfAttention(downstream, n, din, dk, wq, wk, qbias, kbias);
+    selfAttention.setParams(random.doubles(selfAttention.getParams().length, -1d, 1d).toArray());
+    input = random.doubles(selfAttention.getInputDimension(), -1d, 1d).toArray();
+    output = new double[selfAttention.getOutputDimension()];
+  }
+
+  @Benchmark
+  public double[] apply() {
+    return selfAttention.apply(input);
+  }
+
+  @Benchmark
+  public double[] applyWithOutput() {
+    selfAttention.apply(input, output);
+    return output;
+  }
+
+  @Benchmark
+  public double[] applyWithMatrices() {
+    double[][] reshaped = SelfAttention.reshapeVector(input, n, n);
+    double[][] q = SelfAttention.linearTransform(reshaped, wq, qbias, new double[n][dk]);
+    double[][] keys = SelfAttention.matrixTranspose(SelfAttention.linearTransform(reshaped, wk, kbias, new double[n][dk]));
+    double[][] attention = new double[n][n];
+    SelfAttention.matrixMult(q, keys, attention);
+    SelfAttention.matrixDiv(attention, Math.sqrt(dk));
+    for (double[] row : attention) {
+      SelfAttention.tanh(row);
+    }
+    double[][] latentCode = new double[n][n];
+    SelfAttention.matrixMult(attention, SelfAttention.matrixTranspose(reshaped), latentCode);
+    return downstream.apply(SelfAttention.flat(latentCode));
+  }
+
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2022 Eric Medvet <eric.medvet@gmail.com> (as Eric Medvet <eric.medvet@gmail.com>)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.units.erallab.hmsrobots.core.objects;
+
+import it.units.erallab.hmsrobots.BenchmarkUtils;
+import it.units.erallab.hmsrobots.core.snapshots.VoxelPoly;
+import it.units.erallab.hmsrobots.tasks.locomotion.Locomotion;
+import org.dyn4j.dynamics.Body;
+import org.dyn4j.world.World;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class VoxelBenchmark {
+
+  private Robot robot;
+  private Voxel voxel;
+
+  @Setup
+  public void setUp() {
+    robot = BenchmarkUtils.buildRobot("biped-7x4", BenchmarkUtils.SENSORS, 0);
+    World<Body> world = new World<>();
+    double[][] profile = Locomotion.createTerrain("flat");
+    BenchmarkUtils.buildWorld(world, robot, new Ground(profile[0], profile[1]));
+    for (int i = 0; i < 60; i++) {
+      world.step(1);
+      robot.act(i / 60d);
+    }
+    voxel = robot.getVoxels().values().stream().filter(Objects::nonNull).findFirst().orElseThrow();
+  }
+
+  @Benchmark
+  public VoxelPoly getVoxelPoly() {
+    return voxel.getVoxelPoly();
+  }
+
+  @Benchmark
+  public Voxel newVoxel() {
+    return new Voxel(List.of());
+  }
+
+  @Benchmark
+  public Robot resetRobot() {
+    robot.reset();
+    return robot;
+  }
+
+}
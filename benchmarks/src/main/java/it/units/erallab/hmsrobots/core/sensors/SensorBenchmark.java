@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2022 Eric Medvet <eric.medvet@gmail.com> (as Eric Medvet <eric.medvet@gmail.com>)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.units.erallab.hmsrobots.core.sensors;
+
+import it.units.erallab.hmsrobots.BenchmarkUtils;
+import it.units.erallab.hmsrobots.core.objects.Ground;
+import it.units.erallab.hmsrobots.core.objects.Robot;
+import it.units.erallab.hmsrobots.core.objects.Voxel;
+import it.units.erallab.hmsrobots.tasks.locomotion.Locomotion;
+import org.dyn4j.dynamics.Body;
+import org.dyn4j.world.World;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures sensors reading a world in which a robot has been walking for one simulated second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class SensorBenchmark {
+
+  @Param({"flat", "hilly-1-10-0"})
+  private String terrain;
+
+  private Voxel bottomVoxel;
+  private Lidar lidar;
+  private double t;
+
+  @Setup
+  public void setUp() {
+    Robot robot = BenchmarkUtils.buildRobot("biped-7x4", BenchmarkUtils.SENSORS, 0);
+    World<Body> world = new World<>();
+    double[][] profile = Locomotion.createTerrain(terrain);
+    BenchmarkUtils.buildWorld(world, robot, new Ground(profile[0], profile[1]));
+    for (int i = 0; i < 60; i++) {
+      world.step(1);
+      robot.act(i / 60d);
+    }
+    bottomVoxel = robot.getVoxels().values().stream().filter(Objects::nonNull).findFirst().orElseThrow();
+    lidar = new Lidar(10d, Map.of(Lidar.Side.S, 5, Lidar.Side.E, 5));
+    lidar.setVoxel(bottomVoxel);
+    t = 0d;
+  }
+
+  @Benchmark
+  public boolean isTouchingGround() {
+    return Touch.isTouchingGround(bottomVoxel);
+  }
+
+  @Benchmark
+  public double[] lidarSense() {
+    t = t + 1d / 60d;
+    return lidar.sense(t);
+  }
+
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2022 Eric Medvet <eric.medvet@gmail.com> (as Eric Medvet <eric.medvet@gmail.com>)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.units.erallab.hmsrobots.tasks;
+
+import it.units.erallab.hmsrobots.BenchmarkUtils;
+import it.units.erallab.hmsrobots.core.StepProfiler;
+import it.units.erallab.hmsrobots.core.objects.Ground;
+import it.units.erallab.hmsrobots.core.objects.Robot;
+import it.units.erallab.hmsrobots.core.objects.WorldObject;
+import it.units.erallab.hmsrobots.tasks.locomotion.Locomotion;
+import org.dyn4j.dynamics.Body;
+import org.dyn4j.world.World;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the simulation steps per second of {@link AbstractTask#updateWorld} for a robot controlled by a
+ * {@link it.units.erallab.hmsrobots.core.controllers.CentralizedSensing} MLP on a terrain. The world is rebuilt at
+ * every iteration, so that each iteration simulates roughly the beginning of an episode.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class UpdateWorldBenchmark {
+
+  private final static double DT = 1d / 60d;
+
+  @Param({"biped-7x4", "worm-7x1", "ball-7"})
+  private String shape;
+  @Param({"flat", "flatWithStart-1", "hilly-1-10-0", "steppy-1-10-0", "downhill-10", "uphill-10"})
+  private String terrain;
+
+  private World<Body> world;
+  private List<WorldObject> objects;
+  private StepProfiler profiler;
+  private double t;
+
+  @Setup(Level.Iteration)
+  public void setUp() {
+    Robot robot = BenchmarkUtils.buildRobot(shape, BenchmarkUtils.SENSORS, 0);
+    world = new World<>();
+    objects = BenchmarkUtils.buildWorld(world, robot, new Ground(
+        Locomotion.createTerrain(terrain)[0],
+        Locomotion.createTerrain(terrain)[1]
+    ));
+    profiler = new StepProfiler();
+    t = 0d;
+  }
+
+  @Benchmark
+  public double step() {
+    t = AbstractTask.updateWorld(t, DT, world, objects, null, profiler);
+    return t;
+  }
+
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2022 Eric Medvet <eric.medvet@gmail.com> (as Eric Medvet <eric.medvet@gmail.com>)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.units.erallab.hmsrobots.tasks.locomotion;
+
+import it.units.erallab.hmsrobots.BenchmarkUtils;
+import it.units.erallab.hmsrobots.util.DoubleRange;
+import it.units.erallab.hmsrobots.util.Grid;
+import org.dyn4j.dynamics.Settings;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.SortedMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the computation of {@link Outcome} metrics on the outcome of a 30 s episode on a flat terrain.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OutcomeBenchmark {
+
+  private Outcome outcome;
+
+  @Setup
+  public void setUp() {
+    Locomotion locomotion = new Locomotion(30, Locomotion.createTerrain("flat"), new Settings());
+    outcome = locomotion.apply(BenchmarkUtils.buildRobot("biped-7x4", BenchmarkUtils.SENSORS, 0));
+  }
+
+  @Benchmark
+  public Grid<Boolean> averagePosture() {
+    return outcome.getAveragePosture(8);
+  }
+
+  @Benchmark
+  public double controlEnergy() {
+    return outcome.getControlEnergy();
+  }
+
+  @Benchmark
+  public SortedMap<DoubleRange, Double> centerXVelocitySpectrum() {
+    return outcome.getCenterXVelocitySpectrum(0d, 10d, 8);
+  }
+
+  @Benchmark
+  public List<SortedMap<DoubleRange, Double>> footprintsSpectra() {
+    return outcome.getFootprintsSpectra(4, 0d, 10d, 8);
+  }
+
+  @Benchmark
+  public Outcome subOutcome() {
+    return outcome.subOutcome(5d, 25d);
+  }
+
+  @Benchmark
+  public double velocity() {
+    return outcome.getVelocity();
+  }
+
+}
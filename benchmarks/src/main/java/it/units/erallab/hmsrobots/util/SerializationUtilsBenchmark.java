@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2022 Eric Medvet <eric.medvet@gmail.com> (as Eric Medvet <eric.medvet@gmail.com>)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.units.erallab.hmsrobots.util;
+
+import it.units.erallab.hmsrobots.BenchmarkUtils;
+import it.units.erallab.hmsrobots.core.objects.Robot;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class SerializationUtilsBenchmark {
+
+  @Param({"biped-7x4", "worm-7x1", "ball-7"})
+  private String shape;
+
+  private Robot robot;
+
+  @State(Scope.Thread)
+  public static class ModeState {
+    @Param
+    private SerializationUtils.Mode mode;
+  }
+
+  @Setup
+  public void setUp() {
+    robot = BenchmarkUtils.buildRobot(shape, BenchmarkUtils.SENSORS, 0);
+  }
+
+  @Benchmark
+  public Robot cloneRobot(ModeState modeState) {
+    return SerializationUtils.clone(robot, modeState.mode);
+  }
+
+  @Benchmark
+  public Robot copyRobot() {
+    return SerializationUtils.copy(robot);
+  }
+
+  @Benchmark
+  public byte[] serializeRobot(ModeState modeState) {
+    return SerializationUtils.toBytes(robot, modeState.mode);
+  }
+
+}
@@ -233,18 +233,13 @@ public class BehaviorUtils {
   public static SortedMap<DoubleRange, Double> computeQuantizedSpectrum(
       SortedMap<Double, Double> signal, double minF, double maxF, int nBins
   ) {
-    SortedMap<Double, Double> spectrum = computeSpectrum(signal);
-    SortedMap<DoubleRange, Double> qSpectrum = new TreeMap<>(Comparator.comparingDouble(DoubleRange::min));
-    double binSpan = (maxF - minF) / (double) nBins;
-    for (int i = 0; i < nBins; i++) {
-      double binMinF = minF + binSpan * (double) i;
-      double binMaxF = minF + binSpan * ((double) i + 1d);
-      qSpectrum.put(
-          DoubleRange.of(binMinF, binMaxF),
-          spectrum.subMap(binMinF, binMaxF).values().stream().mapToDouble(d -> d).average().orElse(0d)
-      );
-    }
-    return qSpectrum;
+    return quantizeSpectrum(computeSpectrum(signal), minF, maxF, nBins);
+  }
+
+  public static SortedMap<DoubleRange, Double> computeQuantizedSpectrum(
+      double[] signal, double dT, double minF, double maxF, int nBins
+  ) {
+    return quantizeSpectrum(computeSpectrum(signal, dT), minF, maxF, nBins);
   }
 
   public static SortedMap<Double, Double> computeSpectrum(SortedMap<Double, Double> signal) {
@@ -315,6 +310,22 @@ public class BehaviorUtils {
         .getKey();
   }
 
+  private static SortedMap<DoubleRange, Double> quantizeSpectrum(
+      SortedMap<Double, Double> spectrum, double minF, double maxF, int nBins
+  ) {
+    SortedMap<DoubleRange, Double> qSpectrum = new TreeMap<>(Comparator.comparingDouble(DoubleRange::min));
+    double binSpan = (maxF - minF) / (double) nBins;
+    for (int i = 0; i < nBins; i++) {
+      double binMinF = minF + binSpan * (double) i;
+      double binMaxF = minF + binSpan * ((double) i + 1d);
+      qSpectrum.put(
+          DoubleRange.of(binMinF, binMaxF),
+          spectrum.subMap(binMinF, binMaxF).values().stream().mapToDouble(d -> d).average().orElse(0d)
+      );
+    }
+    return qSpectrum;
+  }
+
   public static Function<Snapshot, Grid<? extends VoxelPoly>> voxelPolyGrid() {
     return s -> {
       if (!RobotShape.class.isAssignableFrom(s.getContent().getClass())) {
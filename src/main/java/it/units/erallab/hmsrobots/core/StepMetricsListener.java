@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2022 Eric Medvet <eric.medvet@gmail.com> (as Eric Medvet <eric.medvet@gmail.com>)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.units.erallab.hmsrobots.core;
+
+import it.units.erallab.hmsrobots.core.snapshots.Snapshot;
+import it.units.erallab.hmsrobots.core.snapshots.SnapshotListener;
+
+/**
+ * A listener that is notified, after every simulation step, of the cumulative {@link StepProfiler.Metrics} of the
+ * ongoing simulation. It can be passed to a task as a {@link SnapshotListener}: by default, it does not need
+ * snapshots, so the task does not build them. The same metrics object, updated in place, is passed at every step.
+ */
+public interface StepMetricsListener extends SnapshotListener {
+
+  void listen(double t, StepProfiler.Metrics metrics);
+
+  @Override
+  default void listen(double t, Snapshot snapshot) {
+  }
+
+  @Override
+  default boolean needsSnapshot(double t) {
+    return false;
+  }
+
+}
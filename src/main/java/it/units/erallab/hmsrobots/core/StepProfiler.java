@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2022 Eric Medvet <eric.medvet@gmail.com> (as Eric Medvet <eric.medvet@gmail.com>)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.units.erallab.hmsrobots.core;
+
+import it.units.erallab.hmsrobots.core.sensors.CompositeSensor;
+import it.units.erallab.hmsrobots.core.sensors.Sensor;
+import it.units.erallab.hmsrobots.core.snapshots.SnapshotListener;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.*;
+
+/**
+ * Measures the time spent in the phases of a simulation step, i.e., the update of the physics engine, the action of
+ * the objects (sensing and control) and the construction of the snapshot. Phases are always timed, since it costs
+ * just a few calls to {@link System#nanoTime()} per step.
+ * <p>
+ * If the profiler is detailed, i.e., it has been built with a {@link StepMetricsListener}, it also measures the time
+ * spent by every sensor class and controller class and, if the JVM supports it, the memory allocated in every phase.
+ * Sensors and controllers find the profiler of the step being performed through {@link #current()}. Sensors wrapped
+ * in {@link CompositeSensor}s are accounted to the class of the innermost sensor.
+ */
+public class StepProfiler {
+
+  private static final ThreadLocal<StepProfiler> CURRENT = new ThreadLocal<>();
+  private static final com.sun.management.ThreadMXBean ALLOCATION_BEAN = allocationBean();
+
+  private final StepMetricsListener listener;
+  private final Counter[] phaseCounters;
+  private final Map<Class<?>, Counter> sensorCounters;
+  private final Map<Class<?>, Counter> controllerCounters;
+  private final Metrics metrics;
+  private long nOfSteps;
+
+  public StepProfiler(StepMetricsListener listener) {
+    this.listener = listener;
+    phaseCounters = new Counter[Phase.values().length];
+    Map<Phase, Counter> phases = new EnumMap<>(Phase.class);
+    for (Phase phase : Phase.values()) {
+      phaseCounters[phase.ordinal()] = new Counter();
+      phases.put(phase, phaseCounters[phase.ordinal()]);
+    }
+    sensorCounters = new LinkedHashMap<>();
+    controllerCounters = new LinkedHashMap<>();
+    metrics = new Metrics(
+        Collections.unmodifiableMap(phases),
+        Collections.unmodifiableMap(sensorCounters),
+        Collections.unmodifiableMap(controllerCounters)
+    );
+  }
+
+  public StepProfiler() {
+    this(null);
+  }
+
+  public enum Phase {WORLD_STEP, ACT, SNAPSHOT}
+
+  public static final class Counter {
+    private long count;
+    private long nanos;
+    private long allocatedBytes;
+
+    private Counter() {
+    }
+
+    public long allocatedBytes() {
+      return allocatedBytes;
+    }
+
+    public long count() {
+      return count;
+    }
+
+    public long nanos() {
+      return nanos;
+    }
+
+    public double seconds() {
+      return (double) nanos / 1e9d;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("Counter{count=%d, nanos=%d, allocatedBytes=%d}", count, nanos, allocatedBytes);
+    }
+  }
+
+  /**
+   * The metrics of a profiler, as a view which is updated in place at every step: values have to be copied for being
+   * kept.
+   */
+  public final class Metrics {
+    private final Map<Phase, Counter> phases;
+    private final Map<Class<?>, Counter> sensors;
+    private final Map<Class<?>, Counter> controllers;
+
+    private Metrics(Map<Phase, Counter> phases, Map<Class<?>, Counter> sensors, Map<Class<?>, Counter> controllers) {
+      this.phases = phases;
+      this.sensors = sensors;
+      this.controllers = controllers;
+    }
+
+    public Map<Class<?>, Counter> controllers() {
+      return controllers;
+    }
+
+    public long nOfSteps() {
+      return nOfSteps;
+    }
+
+    public Map<Phase, Counter> phases() {
+      return phases;
+    }
+
+    public Map<Class<?>, Counter> sensors() {
+      return sensors;
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder sb = new StringBuilder(String.format("Metrics{steps=%d", nOfSteps));
+      phases.forEach((phase, counter) -> sb.append(String.format(
+          ", %s=%.3fs",
+          phase.toString().toLowerCase(),
+          counter.seconds()
+      )));
+      return sb.append("}").toString();
+    }
+  }
+
+  private static com.sun.management.ThreadMXBean allocationBean() {
+    ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (bean instanceof com.sun.management.ThreadMXBean sunBean && sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled()) {
+      return sunBean;
+    }
+    return null;
+  }
+
+  public static StepProfiler current() {
+    return CURRENT.get();
+  }
+
+  public static StepProfiler of(SnapshotListener listener) {
+    return new StepProfiler(listener instanceof StepMetricsListener stepMetricsListener ? stepMetricsListener : null);
+  }
+
+  private static Class<?> sensorClass(Sensor sensor) {
+    while (sensor instanceof CompositeSensor compositeSensor) {
+      sensor = compositeSensor.getSensor();
+    }
+    return sensor.getClass();
+  }
+
+  public long allocatedBytes() {
+    return (listener != null && ALLOCATION_BEAN != null) ? ALLOCATION_BEAN.getCurrentThreadAllocatedBytes() : 0L;
+  }
+
+  /**
+   * Makes this profiler the {@link #current()} one: the caller has to invoke {@link #release()} in a {@code finally}
+   * block, not to leave it current after a failed step.
+   */
+  public void begin() {
+    if (listener != null) {
+      CURRENT.set(this);
+    }
+  }
+
+  public void end(double t) {
+    nOfSteps = nOfSteps + 1;
+    if (listener != null) {
+      listener.listen(t, metrics);
+    }
+  }
+
+  public Metrics getMetrics() {
+    return metrics;
+  }
+
+  public long getNOfSteps() {
+    return nOfSteps;
+  }
+
+  public double[] getPhaseSeconds() {
+    double[] seconds = new double[phaseCounters.length];
+    for (int i = 0; i < seconds.length; i++) {
+      seconds[i] = phaseCounters[i].seconds();
+    }
+    return seconds;
+  }
+
+  public boolean isDetailed() {
+    return listener != null;
+  }
+
+  public void release() {
+    if (listener != null) {
+      CURRENT.remove();
+    }
+  }
+
+  public void stopController(Object controller, long startNanos, long startAllocatedBytes) {
+    update(
+        controllerCounters.computeIfAbsent(controller.getClass(), c -> new Counter()),
+        startNanos,
+        startAllocatedBytes
+    );
+  }
+
+  public void stopPhase(Phase phase, long startNanos, long startAllocatedBytes) {
+    update(phaseCounters[phase.ordinal()], startNanos, startAllocatedBytes);
+  }
+
+  public void stopSensor(Sensor sensor, long startNanos, long startAllocatedBytes) {
+    update(
+        sensorCounters.computeIfAbsent(sensorClass(sensor), c -> new Counter()),
+        startNanos,
+        startAllocatedBytes
+    );
+  }
+
+  private void update(Counter counter, long startNanos, long startAllocatedBytes) {
+    counter.count = counter.count + 1;
+    counter.nanos = counter.nanos + System.nanoTime() - startNanos;
+    if (listener != null) {
+      counter.allocatedBytes = counter.allocatedBytes + allocatedBytes() - startAllocatedBytes;
+    }
+  }
+
+}
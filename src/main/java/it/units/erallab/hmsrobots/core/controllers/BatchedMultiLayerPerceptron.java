@@ -0,0 +1,372 @@
+/*
+ * Copyright (C) 2022 Eric Medvet <eric.medvet@gmail.com> (as Eric Medvet <eric.medvet@gmail.com>)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.units.erallab.hmsrobots.core.controllers;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Computes the forward pass of many MLPs sharing the same topology and activation function, but having different
+ * weights, at once. Weights and activations are stored member-contiguous (i.e., the value of a given weight or neuron
+ * for all the members is stored in adjacent cells), so that the innermost loop runs over the members and can be
+ * vectorized by the JIT.
+ * <p>
+ * Members can be plugged in {@link CentralizedSensing} through {@link #members(int)}: in this case, the episodes of
+ * the members of one group have to be run in lock-step, each in its own thread, since every member waits for all the
+ * others of its group before the forward pass of the group is computed. Hence, groups have to be not larger than the
+ * number of threads which can run them at once. A member whose episode is over (or is interrupted) has to
+ * {@link Member#leave()}: the other members of its group go on without it. A member which has left takes part again in
+ * the group, for a new episode, once it is reset (as it happens when the robot driven by it is reset at the beginning
+ * of an episode): hence, the same batch can be evaluated many times.
+ */
+public class BatchedMultiLayerPerceptron {
+
+  private final MultiLayerPerceptron.ActivationFunction activationFunction;
+  private final int[] neurons;
+  private final int n;
+  private final double[][] weights;
+  private final double[][] activationValues;
+  private final double[] inputs;
+  private final Map<Integer, List<Member>> members;
+
+  public BatchedMultiLayerPerceptron(
+      MultiLayerPerceptron.ActivationFunction activationFunction,
+      int[] neurons,
+      List<double[]> weights
+  ) {
+    if (weights.isEmpty()) {
+      throw new IllegalArgumentException("Cannot build a batch of 0 MLPs");
+    }
+    this.activationFunction = activationFunction;
+    this.neurons = neurons;
+    n = weights.size();
+    int nOfWeights = MultiLayerPerceptron.countWeights(neurons);
+    for (double[] memberWeights : weights) {
+      if (memberWeights.length != nOfWeights) {
+        throw new IllegalArgumentException(String.format(
+            "Wrong number of weights: %d expected, %d found",
+            nOfWeights,
+            memberWeights.length
+        ));
+      }
+    }
+    this.weights = new double[neurons.length - 1][];
+    activationValues = new double[neurons.length][];
+    activationValues[0] = new double[neurons[0] * n];
+    inputs = new double[neurons[0] * n];
+    int c = 0;
+    for (int i = 1; i < neurons.length; i++) {
+      int layerSize = neurons[i] * (neurons[i - 1] + 1);
+      this.weights[i - 1] = new double[layerSize * n];
+      for (int w = 0; w < layerSize; w++) {
+        for (int m = 0; m < n; m++) {
+          this.weights[i - 1][w * n + m] = weights.get(m)[c + w];
+        }
+      }
+      c = c + layerSize;
+      activationValues[i] = new double[neurons[i] * n];
+    }
+    members = new HashMap<>();
+  }
+
+  public BatchedMultiLayerPerceptron(List<? extends MultiLayerPerceptron> mlps) {
+    this(
+        mlps.get(0).activationFunction,
+        mlps.get(0).getNeurons(),
+        mlps.stream().map(MultiLayerPerceptron::getParams).toList()
+    );
+    for (MultiLayerPerceptron mlp : mlps) {
+      if (mlp.activationFunction != activationFunction || !Arrays.equals(mlp.getNeurons(), neurons)) {
+        throw new IllegalArgumentException(String.format(
+            "Cannot batch MLPs with different topologies: %s and %s",
+            mlps.get(0),
+            mlp
+        ));
+      }
+    }
+  }
+
+  public class Member implements TimedRealFunction, Resettable {
+    private final int index;
+    private final Group group;
+    private final double[] output;
+    private boolean left;
+
+    private Member(int index, Group group) {
+      this.index = index;
+      this.group = group;
+      output = new double[getOutputDimension()];
+    }
+
+    /**
+     * Waits for all the other members still in the group and returns the output of this member, in an array which is
+     * reused by the next invocations. If the thread is interrupted while waiting, the arrival of this member is
+     * withdrawn, the interrupted status is set again, and an output of zeros is returned: the caller is expected to
+     * check the interrupted status and then leave.
+     */
+    @Override
+    public double[] apply(double t, double[] input) {
+      synchronized (group) {
+        if (left) {
+          throw new IllegalStateException(String.format(
+              "Member %d already left the batch: it has to be reset to take part in a new episode",
+              index
+          ));
+        }
+        setInput(index, input);
+        try {
+          group.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          Arrays.fill(output, 0d);
+          return output;
+        }
+        getOutput(index, output);
+      }
+      return output;
+    }
+
+    public BatchedMultiLayerPerceptron getBatch() {
+      return BatchedMultiLayerPerceptron.this;
+    }
+
+    public int getGroupSize() {
+      return group.to - group.from;
+    }
+
+    public int getIndex() {
+      return index;
+    }
+
+    @Override
+    public int getInputDimension() {
+      return neurons[0];
+    }
+
+    @Override
+    public int getOutputDimension() {
+      return neurons[neurons.length - 1];
+    }
+
+    public void leave() {
+      synchronized (group) {
+        if (!left) {
+          left = true;
+          group.leave();
+        }
+      }
+    }
+
+    /**
+     * Makes this member, if it has left, take part again in its group, for a new episode.
+     */
+    @Override
+    public void reset() {
+      synchronized (group) {
+        if (left) {
+          left = false;
+          group.nOfMembers = group.nOfMembers + 1;
+        }
+      }
+    }
+
+    @Override
+    public String toString() {
+      return "Member{" + "index=" + index + ", batch=" + BatchedMultiLayerPerceptron.this + '}';
+    }
+  }
+
+  //a barrier over the members in [from,to): the last arriving member computes the forward pass for all of them;
+  //all the fields are guarded by the group itself, and groups work on disjoint cells of the shared arrays
+  private class Group {
+    private final int from;
+    private final int to;
+    private int nOfMembers;
+    private int nOfArrived;
+    private long step;
+
+    private Group(int from, int to) {
+      this.from = from;
+      this.to = to;
+      nOfMembers = to - from;
+    }
+
+    private void advance() {
+      apply(from, to);
+      nOfArrived = 0;
+      step = step + 1;
+      notifyAll();
+    }
+
+    private void await() throws InterruptedException {
+      long arrivalStep = step;
+      nOfArrived = nOfArrived + 1;
+      if (nOfArrived == nOfMembers) {
+        advance();
+        return;
+      }
+      while (step == arrivalStep) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          if (step == arrivalStep) {
+            nOfArrived = nOfArrived - 1;
+            throw e;
+          }
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+
+    private void leave() {
+      nOfMembers = nOfMembers - 1;
+      if (nOfMembers > 0 && nOfArrived == nOfMembers) {
+        advance();
+      }
+    }
+  }
+
+  public void apply() {
+    apply(0, n);
+  }
+
+  //computes the forward pass of the members in [from,to) only
+  private void apply(int from, int to) {
+    double[] inputValues = activationValues[0];
+    for (int k = 0; k < neurons[0]; k++) {
+      for (int m = from; m < to; m++) {
+        inputValues[k * n + m] = activationFunction.getOperator().applyAsDouble(inputs[k * n + m]);
+      }
+    }
+    for (int i = 1; i < neurons.length; i++) {
+      double[] previousValues = activationValues[i - 1];
+      double[] values = activationValues[i];
+      double[] layerWeights = weights[i - 1];
+      int nOfInputs = neurons[i - 1];
+      for (int j = 0; j < neurons[i]; j++) {
+        int vOffset = j * n;
+        int wOffset = j * (nOfInputs + 1) * n;
+        System.arraycopy(layerWeights, wOffset + from, values, vOffset + from, to - from); //set the bias
+        for (int k = 0; k < nOfInputs; k++) {
+          int pOffset = k * n;
+          int kOffset = wOffset + (k + 1) * n;
+          for (int m = from; m < to; m++) {
+            values[vOffset + m] = values[vOffset + m] + previousValues[pOffset + m] * layerWeights[kOffset + m];
+          }
+        }
+        for (int m = from; m < to; m++) {
+          values[vOffset + m] = activationFunction.getOperator().applyAsDouble(values[vOffset + m]);
+        }
+      }
+    }
+  }
+
+  public void apply(double[][] inputs, double[][] outputs) {
+    if (inputs.length != n || outputs.length != n) {
+      throw new IllegalArgumentException(String.format(
+          "Expected %d inputs and outputs: found %d and %d",
+          n,
+          inputs.length,
+          outputs.length
+      ));
+    }
+    for (int m = 0; m < n; m++) {
+      setInput(m, inputs[m]);
+    }
+    apply();
+    for (int m = 0; m < n; m++) {
+      getOutput(m, outputs[m]);
+    }
+  }
+
+  public double[][] apply(double[][] inputs) {
+    double[][] outputs = new double[n][neurons[neurons.length - 1]];
+    apply(inputs, outputs);
+    return outputs;
+  }
+
+  public int getBatchSize() {
+    return n;
+  }
+
+  public int[] getNeurons() {
+    return neurons;
+  }
+
+  public void getOutput(int index, double[] output) {
+    double[] values = activationValues[neurons.length - 1];
+    if (output.length != neurons[neurons.length - 1]) {
+      throw new IllegalArgumentException(String.format(
+          "Expected output length is %d: found %d",
+          neurons[neurons.length - 1],
+          output.length
+      ));
+    }
+    for (int j = 0; j < output.length; j++) {
+      output[j] = values[j * n + index];
+    }
+  }
+
+  public List<Member> members() {
+    return members(n);
+  }
+
+  /**
+   * Returns the members of this batch, split in groups of consecutive members of at most {@code groupSize} members
+   * each, which are run in lock-step independently of the other groups. Members are built once per group size; since
+   * members with the same index share the same cells, members built with different group sizes cannot be run at the
+   * same time.
+   */
+  public synchronized List<Member> members(int groupSize) {
+    if (groupSize <= 0) {
+      throw new IllegalArgumentException(String.format("Group size has to be positive: %d found", groupSize));
+    }
+    return members.computeIfAbsent(Math.min(groupSize, n), size -> {
+      List<Member> localMembers = new ArrayList<>(n);
+      for (int from = 0; from < n; from = from + size) {
+        Group group = new Group(from, Math.min(from + size, n));
+        for (int m = group.from; m < group.to; m++) {
+          localMembers.add(new Member(m, group));
+        }
+      }
+      return Collections.unmodifiableList(localMembers);
+    });
+  }
+
+  public void setInput(int index, double[] input) {
+    if (input.length != neurons[0]) {
+      throw new IllegalArgumentException(String.format(
+          "Expected input length is %d: found %d",
+          neurons[0],
+          input.length
+      ));
+    }
+    for (int k = 0; k < input.length; k++) {
+      inputs[k * n + index] = input[k];
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "BatchedMLP." + activationFunction.toString().toLowerCase() + "[" +
+        Arrays.stream(neurons)
+            .mapToObj(Integer::toString)
+            .collect(Collectors.joining(",")) + "]x" + n;
+  }
+
+}
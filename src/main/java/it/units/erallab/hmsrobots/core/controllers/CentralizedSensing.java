@@ -19,16 +19,15 @@ package it.units.erallab.hmsrobots.core.controllers;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
 import it.units.erallab.hmsrobots.core.objects.Voxel;
-import it.units.erallab.hmsrobots.core.sensors.Sensor;
 import it.units.erallab.hmsrobots.core.snapshots.ScopedReadings;
 import it.units.erallab.hmsrobots.core.snapshots.Snapshot;
+import it.units.erallab.hmsrobots.core.snapshots.SnapshotFilter;
 import it.units.erallab.hmsrobots.core.snapshots.Snapshottable;
 import it.units.erallab.hmsrobots.core.snapshots.StackedScopedReadings;
 import it.units.erallab.hmsrobots.util.DoubleRange;
 import it.units.erallab.hmsrobots.util.Grid;
-import org.apache.commons.lang3.ArrayUtils;
 
-import java.util.Collection;
+import java.util.Arrays;
 import java.util.Objects;
 
 /**
@@ -47,6 +46,7 @@ public class CentralizedSensing extends AbstractController implements Snapshotta
   private double[] inputs;
   private double[] outputs;
   private DoubleRange[] inputDomains;
+  private transient SensorReadings readings;
 
   public CentralizedSensing(
       @JsonProperty("nOfInputs") int nOfInputs,
@@ -84,21 +84,7 @@ public class CentralizedSensing extends AbstractController implements Snapshotta
 
   @Override
   public Grid<Double> computeControlSignals(double t, Grid<Voxel> voxels) {
-    //collect inputs
-    inputs = voxels.values().stream()
-        .filter(Objects::nonNull)
-        .map(Voxel::getSensorReadings)
-        .reduce(ArrayUtils::addAll)
-        .orElse(new double[nOfInputs]);
-    inputDomains = voxels.values().stream()
-        .filter(Objects::nonNull)
-        .map(Voxel::getSensors)
-        .flatMap(Collection::stream)
-        .map(Sensor::getDomains)
-        .reduce(ArrayUtils::addAll)
-        .orElse(DoubleRange.of(-1d, 1d, nOfInputs));
-    //compute outputs
-    outputs = function != null ? function.apply(t, inputs) : new double[nOfOutputs];
+    computeOutputs(t, voxels);
     //apply inputs
     Grid<Double> controlSignals = Grid.create(voxels.getW(), voxels.getH());
     int c = 0;
@@ -113,6 +99,34 @@ public class CentralizedSensing extends AbstractController implements Snapshotta
     return controlSignals;
   }
 
+  @Override
+  public void control(double t, Grid<Voxel> voxels) {
+    computeOutputs(t, voxels);
+    Voxel[] sensingVoxels = readings.voxels();
+    for (int i = 0; i < Math.min(sensingVoxels.length, outputs.length); i++) {
+      sensingVoxels[i].applyForce(outputs[i]);
+    }
+  }
+
+  private void computeOutputs(double t, Grid<Voxel> voxels) {
+    //collect inputs
+    if (readings == null || !readings.isValidFor(voxels)) {
+      readings = new SensorReadings(voxels);
+    }
+    readings.update();
+    inputs = readings.values();
+    inputDomains = readings.domains();
+    //compute outputs
+    if (function != null && function.getClass().equals(MultiLayerPerceptron.class)) {
+      if (outputs == null || outputs.length != function.getOutputDimension()) {
+        outputs = new double[function.getOutputDimension()];
+      }
+      ((MultiLayerPerceptron) function).apply(inputs, outputs);
+    } else {
+      outputs = function != null ? function.apply(t, inputs) : new double[nOfOutputs];
+    }
+  }
+
   public TimedRealFunction getFunction() {
     return function;
   }
@@ -130,15 +144,20 @@ public class CentralizedSensing extends AbstractController implements Snapshotta
 
   @Override
   public Snapshot getSnapshot() {
+    return getSnapshot(SnapshotFilter.all());
+  }
+
+  @Override
+  public Snapshot getSnapshot(SnapshotFilter filter) {
     Snapshot snapshot = new Snapshot(
         new StackedScopedReadings(
-            new ScopedReadings(inputs, inputDomains),
-            new ScopedReadings(outputs, outputDomains)
+            new ScopedReadings(inputs == null ? null : Arrays.copyOf(inputs, inputs.length), inputDomains),
+            new ScopedReadings(outputs == null ? null : Arrays.copyOf(outputs, outputs.length), outputDomains)
         ),
         getClass()
     );
-    if (function instanceof Snapshottable) {
-      snapshot.getChildren().add(((Snapshottable) function).getSnapshot());
+    if (function instanceof Snapshottable snapshottable && filter.includes(snapshottable.getClass(), null)) {
+      snapshot.getChildren().add(snapshottable.getSnapshot(filter));
     }
     return snapshot;
   }
@@ -153,6 +172,7 @@ public class CentralizedSensing extends AbstractController implements Snapshotta
 
   @Override
   public void reset() {
+    readings = null;
     if (function instanceof Resettable) {
       ((Resettable) function).reset();
     }
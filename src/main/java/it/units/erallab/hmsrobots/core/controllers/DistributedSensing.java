@@ -23,9 +23,12 @@ import it.units.erallab.hmsrobots.core.snapshots.Snapshot;
 import it.units.erallab.hmsrobots.core.snapshots.Snapshottable;
 import it.units.erallab.hmsrobots.util.DoubleRange;
 import it.units.erallab.hmsrobots.util.Grid;
-import org.apache.commons.lang3.ArrayUtils;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 
 /**
@@ -35,15 +38,17 @@ public class DistributedSensing extends AbstractController implements Snapshotta
 
   @JsonProperty
   protected final int signals;
-  protected final Grid<double[]> lastSignalsGrid;
   @JsonProperty
   private final Grid<Integer> nOfInputGrid;
   @JsonProperty
   private final Grid<Integer> nOfOutputGrid;
   @JsonProperty
   private final Grid<TimedRealFunction> functions;
-  private final Grid<double[]> currentSignalsGrid;
-  private final Grid<Double> controlSignalsGrid;
+  private final int cellSignals;
+  private final double[] lastSignals;
+  private final double[] currentSignals;
+  private final double[] controlSignals;
+  private transient Layout layout;
 
   @JsonCreator
   public DistributedSensing(
@@ -56,9 +61,10 @@ public class DistributedSensing extends AbstractController implements Snapshotta
     this.nOfInputGrid = nOfInputGrid;
     this.nOfOutputGrid = nOfOutputGrid;
     this.functions = functions;
-    lastSignalsGrid = Grid.create(functions, f -> new double[signals * Dir.values().length]);
-    currentSignalsGrid = Grid.create(functions, f -> new double[signals * Dir.values().length]);
-    controlSignalsGrid = Grid.create(functions, f -> 0d);
+    cellSignals = signals * Dir.values().length;
+    lastSignals = new double[functions.getW() * functions.getH() * cellSignals];
+    currentSignals = new double[lastSignals.length];
+    controlSignals = new double[functions.getW() * functions.getH()];
     reset();
   }
 
@@ -149,63 +155,94 @@ public class DistributedSensing extends AbstractController implements Snapshotta
 
   @Override
   public Grid<Double> computeControlSignals(double t, Grid<Voxel> voxels) {
-    for (Grid.Entry<Voxel> entry : voxels) {
-      if (entry.value() == null) {
-        continue;
+    computeSignals(t, voxels);
+    return Grid.create(functions.getW(), functions.getH(), (x, y) -> controlSignals[y * functions.getW() + x]);
+  }
+
+  @Override
+  public void control(double t, Grid<Voxel> voxels) {
+    computeSignals(t, voxels);
+    for (int i = 0; i < layout.cells.length; i++) {
+      layout.voxels[i].applyForce(controlSignals[layout.cells[i]]);
+    }
+  }
+
+  private void computeSignals(double t, Grid<Voxel> voxels) {
+    if (layout == null || !layout.isValidFor(voxels)) {
+      layout = new Layout(voxels);
+    }
+    //get inputs
+    layout.readings.update();
+    for (int i = 0; i < layout.cells.length; i++) {
+      double[] inputs = layout.inputs[i];
+      int c = layout.readingsLengths[i];
+      System.arraycopy(layout.readings.values(), layout.readingsOffsets[i], inputs, 0, c);
+      for (int d = 0; d < Dir.values().length; d++) {
+        int offset = layout.neighborOffsets[i * Dir.values().length + d];
+        if (offset >= 0) {
+          System.arraycopy(lastSignals, offset, inputs, c, signals);
+        }
+        c = c + signals;
       }
-      //get inputs
-      double[] signals = getLastSignals(entry.key().x(), entry.key().y());
-      double[] inputs = ArrayUtils.addAll(entry.value().getSensorReadings(), signals);
-      //compute outputs
-      TimedRealFunction function = functions.get(entry.key().x(), entry.key().y());
-      double[] outputs = function != null ? function.apply(t, inputs) : new double[nOfOutputs(
-          entry.key().x(),
-          entry.key().y()
-      )];
-      //save outputs
-      controlSignalsGrid.set(entry.key().x(), entry.key().y(), outputs[0]);
-      System.arraycopy(outputs, 1, currentSignalsGrid.get(entry.key().x(), entry.key().y()), 0, outputs.length - 1);
     }
-    for (Grid.Entry<Voxel> entry : voxels) {
-      if (entry.value() == null) {
-        continue;
+    //compute outputs
+    for (int g = 0; g < layout.groupFunctions.length; g++) {
+      layout.groupFunctions[g].apply(layout.groupInputs[g], layout.groupOutputs[g], layout.groupInputs[g].length);
+    }
+    for (int i = 0; i < layout.cells.length; i++) {
+      if (!layout.batched[i] && layout.voxelFunctions[i] != null) {
+        layout.outputs[i] = layout.voxelFunctions[i].apply(t, layout.inputs[i]);
       }
-      int x = entry.key().x();
-      int y = entry.key().y();
-      System.arraycopy(
-          currentSignalsGrid.get(x, y),
-          0,
-          lastSignalsGrid.get(x, y),
-          0,
-          currentSignalsGrid.get(x, y).length
-      );
     }
-    return Grid.copy(controlSignalsGrid);
+    //save outputs
+    for (int i = 0; i < layout.cells.length; i++) {
+      double[] outputs = layout.outputs[i];
+      controlSignals[layout.cells[i]] = outputs[0];
+      System.arraycopy(outputs, 1, currentSignals, layout.cells[i] * cellSignals, outputs.length - 1);
+    }
+    System.arraycopy(currentSignals, 0, lastSignals, 0, currentSignals.length);
   }
 
   public Grid<TimedRealFunction> getFunctions() {
     return functions;
   }
 
+  /**
+   * Returns the signals received by the voxel in {@code x}, {@code y} from its neighbors at the last step, i.e., the
+   * last part of the inputs of its function, with zeros for the missing neighbors.
+   */
   protected double[] getLastSignals(int x, int y) {
-    double[] values = new double[signals * Dir.values().length];
-    if (signals <= 0) {
-      return values;
-    }
+    double[] values = new double[cellSignals];
     int c = 0;
     for (Dir dir : Dir.values()) {
-      int adjacentX = x + dir.dx;
-      int adjacentY = y + dir.dy;
-      double[] lastSignals = lastSignalsGrid.get(adjacentX, adjacentY);
-      if (lastSignals != null) {
-        int index = Dir.adjacent(dir).index;
-        System.arraycopy(lastSignals, index * signals, values, c, signals);
+      int offset = neighborOffset(x, y, dir);
+      if (offset >= 0) {
+        System.arraycopy(lastSignals, offset, values, c, signals);
       }
       c = c + signals;
     }
     return values;
   }
 
+  //the position, in the flat signals array, of the signals received by the voxel in x,y along dir, -1 if none
+  private int neighborOffset(int x, int y, Dir dir) {
+    int w = functions.getW();
+    int adjacentX = x + dir.dx;
+    int adjacentY = y + dir.dy;
+    if (adjacentX < 0 || adjacentX >= w || adjacentY < 0 || adjacentY >= functions.getH() || signals <= 0) {
+      return -1;
+    }
+    return (adjacentY * w + adjacentX) * cellSignals + signalsOffset(dir);
+  }
+
+  /**
+   * Returns the position, in the signals emitted by the voxel adjacent along {@code dir}, of the ones directed to
+   * the voxel.
+   */
+  protected int signalsOffset(Dir dir) {
+    return Dir.adjacent(dir).index * signals;
+  }
+
   public int nOfInputs(int x, int y) {
     return nOfInputGrid.get(x, y);
   }
@@ -216,11 +253,16 @@ public class DistributedSensing extends AbstractController implements Snapshotta
 
   @Override
   public Snapshot getSnapshot() {
+    int w = functions.getW();
     return new Snapshot(
         new DistributedSensingState(
             Grid.create(nOfInputGrid, i -> i > 0),
-            Grid.copy(controlSignalsGrid),
-            Grid.create(lastSignalsGrid, a -> Arrays.copyOf(a, a.length)),
+            Grid.create(w, functions.getH(), (x, y) -> controlSignals[y * w + x]),
+            Grid.create(w, functions.getH(), (x, y) -> Arrays.copyOfRange(
+                lastSignals,
+                (y * w + x) * cellSignals,
+                (y * w + x + 1) * cellSignals
+            )),
             DoubleRange.of(-1d, 1d)
         ),
         getClass()
@@ -229,16 +271,9 @@ public class DistributedSensing extends AbstractController implements Snapshotta
 
   @Override
   public void reset() {
-    for (int x = 0; x < lastSignalsGrid.getW(); x++) {
-      for (int y = 0; y < lastSignalsGrid.getH(); y++) {
-        lastSignalsGrid.set(x, y, new double[signals * Dir.values().length]);
-      }
-    }
-    for (int x = 0; x < currentSignalsGrid.getW(); x++) {
-      for (int y = 0; y < currentSignalsGrid.getH(); y++) {
-        currentSignalsGrid.set(x, y, new double[signals * Dir.values().length]);
-      }
-    }
+    layout = null;
+    Arrays.fill(lastSignals, 0d);
+    Arrays.fill(currentSignals, 0d);
     functions.values().stream().filter(Objects::nonNull).forEach(f -> {
       if (f instanceof Resettable) {
         ((Resettable) f).reset();
@@ -246,6 +281,98 @@ public class DistributedSensing extends AbstractController implements Snapshotta
     });
   }
 
+  /**
+   * The voxels of a grid along with what is needed to run a control step on them without allocating: the buffer of the
+   * sensor readings, the reusable input (and, for functions writing on them, output) buffers, the positions in the flat signals array of the
+   * signals coming from the neighbors, and the groups of voxels sharing the same {@link MultiLayerPerceptron}, which
+   * are evaluated in batch. A layout is valid as long as the voxels and the functions in the grids do not change.
+   */
+  private class Layout {
+
+    private final SensorReadings readings;
+    private final TimedRealFunction[] cellFunctions;
+    private final int[] cells;
+    private final Voxel[] voxels;
+    private final TimedRealFunction[] voxelFunctions;
+    private final boolean[] batched;
+    private final int[] readingsOffsets;
+    private final int[] readingsLengths;
+    private final double[][] inputs;
+    private final double[][] outputs;
+    private final int[] neighborOffsets;
+    private final MultiLayerPerceptron[] groupFunctions;
+    private final double[][][] groupInputs;
+    private final double[][][] groupOutputs;
+
+    private Layout(Grid<Voxel> voxelsGrid) {
+      readings = new SensorReadings(voxelsGrid);
+      int w = DistributedSensing.this.functions.getW();
+      int h = DistributedSensing.this.functions.getH();
+      cellFunctions = new TimedRealFunction[w * h];
+      List<Integer> localCells = new ArrayList<>();
+      for (int y = 0; y < h; y++) {
+        for (int x = 0; x < w; x++) {
+          cellFunctions[y * w + x] = DistributedSensing.this.functions.get(x, y);
+          if (voxelsGrid.get(x, y) != null) {
+            localCells.add(y * w + x);
+          }
+        }
+      }
+      cells = localCells.stream().mapToInt(i -> i).toArray();
+      voxels = new Voxel[cells.length];
+      voxelFunctions = new TimedRealFunction[cells.length];
+      batched = new boolean[cells.length];
+      readingsOffsets = new int[cells.length];
+      readingsLengths = new int[cells.length];
+      inputs = new double[cells.length][];
+      outputs = new double[cells.length][];
+      neighborOffsets = new int[cells.length * Dir.values().length];
+      Map<MultiLayerPerceptron, List<Integer>> groups = new IdentityHashMap<>();
+      for (int i = 0; i < cells.length; i++) {
+        int x = cells[i] % w;
+        int y = cells[i] / w;
+        voxels[i] = voxelsGrid.get(x, y);
+        voxelFunctions[i] = cellFunctions[cells[i]];
+        readingsOffsets[i] = readings.offset(x, y);
+        readingsLengths[i] = readings.length(x, y);
+        inputs[i] = new double[readingsLengths[i] + cellSignals];
+        for (Dir dir : Dir.values()) {
+          neighborOffsets[i * Dir.values().length + dir.index] = neighborOffset(x, y, dir);
+        }
+        TimedRealFunction function = voxelFunctions[i] instanceof FunctionWrapper wrapper ? wrapper.inner : voxelFunctions[i];
+        if (function != null && function.getClass().equals(MultiLayerPerceptron.class)) {
+          MultiLayerPerceptron mlp = (MultiLayerPerceptron) function;
+          batched[i] = true;
+          outputs[i] = new double[mlp.getOutputDimension()];
+          groups.computeIfAbsent(mlp, m -> new ArrayList<>()).add(i);
+        } else if (function == null) {
+          outputs[i] = new double[nOfOutputs(x, y)];
+        }
+      }
+      groupFunctions = groups.keySet().toArray(MultiLayerPerceptron[]::new);
+      groupInputs = new double[groupFunctions.length][][];
+      groupOutputs = new double[groupFunctions.length][][];
+      for (int g = 0; g < groupFunctions.length; g++) {
+        groupInputs[g] = groups.get(groupFunctions[g]).stream().map(i -> inputs[i]).toArray(double[][]::new);
+        groupOutputs[g] = groups.get(groupFunctions[g]).stream().map(i -> outputs[i]).toArray(double[][]::new);
+      }
+    }
+
+    private boolean isValidFor(Grid<Voxel> voxelsGrid) {
+      if (!readings.isValidFor(voxelsGrid)) {
+        return false;
+      }
+      int w = DistributedSensing.this.functions.getW();
+      for (int c = 0; c < cellFunctions.length; c++) {
+        if (DistributedSensing.this.functions.get(c % w, c / w) != cellFunctions[c]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+  }
+
   @Override
   public String toString() {
     return "DistributedSensing{" +
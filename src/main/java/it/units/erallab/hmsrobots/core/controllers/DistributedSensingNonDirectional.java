@@ -59,22 +59,8 @@ public class DistributedSensingNonDirectional extends DistributedSensing {
   }
 
   @Override
-  protected double[] getLastSignals(int x, int y) {
-    double[] values = new double[signals * Dir.values().length];
-    if (signals <= 0) {
-      return values;
-    }
-    int c = 0;
-    for (Dir dir : Dir.values()) {
-      int adjacentX = x + dir.dx;
-      int adjacentY = y + dir.dy;
-      double[] lastSignals = lastSignalsGrid.get(adjacentX, adjacentY);
-      if (lastSignals != null) {
-        System.arraycopy(lastSignals, 0, values, c, signals);
-      }
-      c = c + signals;
-    }
-    return values;
+  protected int signalsOffset(Dir dir) {
+    return 0;
   }
 
   @Override
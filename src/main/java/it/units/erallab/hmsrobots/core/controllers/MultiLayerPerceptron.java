@@ -24,9 +24,13 @@ import it.units.erallab.hmsrobots.core.snapshots.Snapshottable;
 import it.units.erallab.hmsrobots.util.DoubleRange;
 import it.units.erallab.hmsrobots.util.Parametrized;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serial;
 import java.io.Serializable;
 import java.util.Arrays;
 import java.util.Objects;
+import java.util.function.DoubleUnaryOperator;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
@@ -42,7 +46,15 @@ public class MultiLayerPerceptron implements Serializable, RealFunction, Paramet
   @JsonProperty
   protected final int[] neurons;
   protected final double[][] activationValues;
-
+  protected transient double[] flatWeights;
+  private transient double[][] batchActivationValues;
+  private transient int batchCapacity;
+
+  /**
+   * Builds an MLP using {@code weights} as is, without copying it: weights have to be modified through
+   * {@link #setParams(double[])} or through the array returned by {@link #getWeights()}, followed by
+   * {@link #invalidate()}.
+   */
   @JsonCreator
   public MultiLayerPerceptron(
       @JsonProperty("activationFunction") ActivationFunction activationFunction,
@@ -53,11 +65,15 @@ public class MultiLayerPerceptron implements Serializable, RealFunction, Paramet
     this.weights = weights;
     this.neurons = neurons;
     activationValues = new double[neurons.length][];
-    if (flat(weights, neurons).length != countWeights(neurons)) {
+    for (int i = 0; i < neurons.length; i++) {
+      activationValues[i] = new double[neurons[i]];
+    }
+    flatWeights = flat(weights, neurons);
+    if (flatWeights.length != countWeights(neurons)) {
       throw new IllegalArgumentException(String.format(
           "Wrong number of weights: %d expected, %d found",
           countWeights(neurons),
-          flat(weights, neurons).length
+          flatWeights.length
       ));
     }
   }
@@ -94,16 +110,16 @@ public class MultiLayerPerceptron implements Serializable, RealFunction, Paramet
     SIGN(Math::signum, DoubleRange.of(-1d, 1d)),
     IDENTITY(x -> x, DoubleRange.of(Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY));
 
-    private final Function<Double, Double> f;
+    private final DoubleUnaryOperator f;
     private final DoubleRange domain;
 
-    ActivationFunction(Function<Double, Double> f, DoubleRange domain) {
+    ActivationFunction(DoubleUnaryOperator f, DoubleRange domain) {
       this.f = f;
       this.domain = domain;
     }
 
     public Double apply(Double x) {
-      return f.apply(x);
+      return f.applyAsDouble(x);
     }
 
     public DoubleRange getDomain() {
@@ -111,6 +127,13 @@ public class MultiLayerPerceptron implements Serializable, RealFunction, Paramet
     }
 
     public Function<Double, Double> getF() {
+      return this;
+    }
+
+    /**
+     * Returns this function as an operator on primitive values, for computing it without boxing.
+     */
+    public DoubleUnaryOperator getOperator() {
       return f;
     }
   }
@@ -167,6 +190,16 @@ public class MultiLayerPerceptron implements Serializable, RealFunction, Paramet
 
   @Override
   public double[] apply(double[] input) {
+    double[] output = new double[neurons[neurons.length - 1]];
+    apply(input, output);
+    return output;
+  }
+
+  /**
+   * Computes the output of the network for the given input and writes it in {@code output}, without allocating
+   * memory: layer activations are kept in the buffers returned by {@link #getActivationValues()}.
+   */
+  public void apply(double[] input, double[] output) {
     if (input.length != neurons[0]) {
       throw new IllegalArgumentException(String.format(
           "Expected input length is %d: found %d",
@@ -174,18 +207,106 @@ public class MultiLayerPerceptron implements Serializable, RealFunction, Paramet
           input.length
       ));
     }
-    activationValues[0] = Arrays.stream(input).map(activationFunction.f::apply).toArray();
+    if (output.length != neurons[neurons.length - 1]) {
+      throw new IllegalArgumentException(String.format(
+          "Expected output length is %d: found %d",
+          neurons[neurons.length - 1],
+          output.length
+      ));
+    }
+    double[] inputValues = activationValues[0];
+    for (int k = 0; k < inputValues.length; k++) {
+      inputValues[k] = activationFunction.getOperator().applyAsDouble(input[k]);
+    }
+    int c = 0;
     for (int i = 1; i < neurons.length; i++) {
-      activationValues[i] = new double[neurons[i]];
+      double[] previousValues = activationValues[i - 1];
+      double[] values = activationValues[i];
+      int nOfInputs = neurons[i - 1];
+      for (int j = 0; j < neurons[i]; j++) {
+        double sum = flatWeights[c]; //set the bias
+        c = c + 1;
+        for (int k = 0; k < nOfInputs; k++) {
+          sum = sum + previousValues[k] * flatWeights[c + k];
+        }
+        c = c + nOfInputs;
+        values[j] = activationFunction.getOperator().applyAsDouble(sum);
+      }
+    }
+    System.arraycopy(activationValues[neurons.length - 1], 0, output, 0, output.length);
+  }
+
+  /**
+   * Computes the outputs of the network for the first {@code n} inputs, with the same result of invoking {@link
+   * #apply(double[], double[])} on each of them in order, but visiting each weight once for all the inputs. Useful when
+   * the same network is shared among many modules (e.g., the voxels of a {@link DistributedSensing}).
+   */
+  public void apply(double[][] inputs, double[][] outputs, int n) {
+    if (n <= 0) {
+      return;
+    }
+    for (int m = 0; m < n; m++) {
+      if (inputs[m].length != neurons[0] || outputs[m].length != neurons[neurons.length - 1]) {
+        throw new IllegalArgumentException(String.format(
+            "Expected input and output lengths are %d and %d: found %d and %d",
+            neurons[0],
+            neurons[neurons.length - 1],
+            inputs[m].length,
+            outputs[m].length
+        ));
+      }
+    }
+    if (batchActivationValues == null || batchCapacity < n) {
+      batchActivationValues = new double[neurons.length][];
+      for (int i = 0; i < neurons.length; i++) {
+        batchActivationValues[i] = new double[neurons[i] * n];
+      }
+      batchCapacity = n;
+    }
+    //values are stored member-contiguous, as in BatchedMultiLayerPerceptron
+    double[] inputValues = batchActivationValues[0];
+    for (int m = 0; m < n; m++) {
+      for (int k = 0; k < neurons[0]; k++) {
+        inputValues[k * n + m] = activationFunction.getOperator().applyAsDouble(inputs[m][k]);
+      }
+    }
+    int c = 0;
+    for (int i = 1; i < neurons.length; i++) {
+      double[] previousValues = batchActivationValues[i - 1];
+      double[] values = batchActivationValues[i];
+      int nOfInputs = neurons[i - 1];
       for (int j = 0; j < neurons[i]; j++) {
-        double sum = weights[i - 1][j][0]; //set the bias
-        for (int k = 1; k < neurons[i - 1] + 1; k++) {
-          sum = sum + activationValues[i - 1][k - 1] * weights[i - 1][j][k];
+        int vOffset = j * n;
+        double bias = flatWeights[c];
+        c = c + 1;
+        for (int m = 0; m < n; m++) {
+          values[vOffset + m] = bias;
+        }
+        for (int k = 0; k < nOfInputs; k++) {
+          double weight = flatWeights[c + k];
+          int pOffset = k * n;
+          for (int m = 0; m < n; m++) {
+            values[vOffset + m] = values[vOffset + m] + previousValues[pOffset + m] * weight;
+          }
+        }
+        c = c + nOfInputs;
+        for (int m = 0; m < n; m++) {
+          values[vOffset + m] = activationFunction.getOperator().applyAsDouble(values[vOffset + m]);
         }
-        activationValues[i][j] = activationFunction.apply(sum);
       }
     }
-    return activationValues[neurons.length - 1];
+    for (int m = 0; m < n; m++) {
+      double[] values = batchActivationValues[neurons.length - 1];
+      for (int j = 0; j < outputs[m].length; j++) {
+        outputs[m][j] = values[j * n + m];
+      }
+    }
+    //leave the activations of the last input, as after a sequence of single applications
+    for (int i = 0; i < neurons.length; i++) {
+      for (int j = 0; j < neurons[i]; j++) {
+        activationValues[i][j] = batchActivationValues[i][j * n + n - 1];
+      }
+    }
   }
 
   public double[][] getActivationValues() {
@@ -219,20 +340,44 @@ public class MultiLayerPerceptron implements Serializable, RealFunction, Paramet
         System.arraycopy(newWeights[l][s], 0, weights[l][s], 0, newWeights[l][s].length);
       }
     }
+    System.arraycopy(params, 0, flatWeights, 0, flatWeights.length);
   }
 
   @Override
   public Snapshot getSnapshot() {
     return new Snapshot(
-        new MLPState(getActivationValues(), getWeights(), activationFunction.getDomain()),
+        new MLPState(getActivationValues(), weights, activationFunction.getDomain()),
         getClass()
     );
   }
 
+  /**
+   * Returns the weights of this MLP, not a copy: after changing them through the returned array, {@link #invalidate()}
+   * has to be invoked for the changes to be seen by the forward pass.
+   */
   public double[][][] getWeights() {
     return weights;
   }
 
+  /**
+   * Rebuilds the flat copy of the weights used in the forward pass from the weights returned by {@link #getWeights()}.
+   */
+  public void invalidate() {
+    int c = 0;
+    for (double[][] layerWeights : weights) {
+      for (double[] neuronWeights : layerWeights) {
+        System.arraycopy(neuronWeights, 0, flatWeights, c, neuronWeights.length);
+        c = c + neuronWeights.length;
+      }
+    }
+  }
+
+  @Serial
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    flatWeights = flat(weights, neurons);
+  }
+
   @Override
   public int hashCode() {
     int hash = 5;
@@ -118,9 +118,10 @@ public class PruningMultiLayerPerceptron extends MultiLayerPerceptron implements
           input.length
       ));
     }
-    activationValues[0] = Arrays.stream(input).map(activationFunction::apply).toArray();
+    for (int k = 0; k < input.length; k++) {
+      activationValues[0][k] = activationFunction.getOperator().applyAsDouble(input[k]);
+    }
     for (int i = 1; i < neurons.length; i++) {
-      activationValues[i] = new double[neurons[i]];
       for (int j = 0; j < neurons[i]; j++) {
         double sum = prunedWeights[i - 1][j][0]; //set the bias
         for (int k = 1; k < neurons[i - 1] + 1; k++) {
@@ -131,11 +132,11 @@ public class PruningMultiLayerPerceptron extends MultiLayerPerceptron implements
           absMeans[i - 1][j][k] = absMeans[i - 1][j][k] + (Math.abs(signal) - absMeans[i - 1][j][k]) / ((double) counter + 1d);
           meanDiffSquareSums[i - 1][j][k] = meanDiffSquareSums[i - 1][j][k] + delta * (signal - means[i - 1][j][k]);
         }
-        activationValues[i][j] = activationFunction.apply(sum);
+        activationValues[i][j] = activationFunction.getOperator().applyAsDouble(sum);
       }
     }
     counter = counter + 1;
-    return activationValues[neurons.length - 1];
+    return Arrays.copyOf(activationValues[neurons.length - 1], neurons[neurons.length - 1]);
   }
 
   private void prune(List<PruningPair> localPairs) {
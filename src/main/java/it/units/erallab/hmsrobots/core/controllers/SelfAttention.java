@@ -36,6 +36,10 @@ public class SelfAttention implements Serializable, Parametrized, RealFunction,
   private final double[][] latentCode;
   private final double[][] q;
   private final double[][] k;
+  private final double[] qValues;
+  private final double[] kValues;
+  private final double[] attentionValues;
+  private final double[] latentCodeValues;
 
   @JsonCreator
   public SelfAttention(@JsonProperty("dowstream") MultiLayerPerceptron downstream,
@@ -58,6 +62,10 @@ public class SelfAttention implements Serializable, Parametrized, RealFunction,
     this.latentCode = new double[din][n];
     this.q = new double[din][dk];
     this.k = new double[din][dk];
+    this.qValues = new double[din * dk];
+    this.kValues = new double[din * dk];
+    this.attentionValues = new double[din * din];
+    this.latentCodeValues = new double[din * n];
   }
 
   public SelfAttention(MultiLayerPerceptron downstream, int n, int din, int dk) {
@@ -110,22 +118,89 @@ public class SelfAttention implements Serializable, Parametrized, RealFunction,
 
   @Override
   public double[] apply(double[] inputs) {
-    return this.downstream.apply(flat(this.applyAttention(inputs)));
+    double[] outputs = new double[this.downstream.getOutputDimension()];
+    this.apply(inputs, outputs);
+    return outputs;
+  }
+
+  /**
+   * Computes the output for the given input and writes it in {@code outputs}, without allocating memory.
+   */
+  public void apply(double[] inputs, double[] outputs) {
+    this.computeAttention(inputs);
+    this.downstream.apply(this.latentCodeValues, outputs);
   }
 
   public double[][] applyAttention(double[] inputs) {
-    double[][] reshaped = reshapeVector(inputs, this.n, this.din);
-    linearTransform(reshaped, this.wq, this.qbias, this.q);
-    double[][] keys = matrixTranspose(linearTransform(reshaped, this.wk, this.kbias, this.k));
-    matrixMult(this.q, keys, this.attention);
-    matrixDiv(this.attention, Math.sqrt(this.dk));
-    for (double[] row : this.attention) {
-      tanh(row);
-    }
-    matrixMult(this.attention, matrixTranspose(reshaped), this.latentCode);
+    this.computeAttention(inputs);
+    for (int i = 0; i < this.din; ++i) {
+      System.arraycopy(this.latentCodeValues, i * this.n, this.latentCode[i], 0, this.n);
+    }
     return this.latentCode;
   }
 
+  /**
+   * Computes the latent code in flat row-major buffers, with the same operations (and order of sums) of the static
+   * matrix methods, but without building the reshaped input and the transposes: products by a transposed matrix are
+   * computed as dot products of rows, and products by the weights as sums of scaled rows, so that the innermost loops
+   * run over contiguous memory.
+   */
+  private void computeAttention(double[] inputs) {
+    if (inputs.length != this.n * this.din) {
+      throw new IllegalArgumentException(String.format(
+          "Cannot reshape vector of size %d into (%d,%d)",
+          inputs.length,
+          this.n,
+          this.din
+      ));
+    }
+    linearTransform(inputs, this.n, this.din, this.wq, this.qbias, this.qValues);
+    linearTransform(inputs, this.n, this.din, this.wk, this.kbias, this.kValues);
+    //attention = tanh(q k^T / sqrt(dk))
+    double scale = Math.sqrt(this.dk);
+    for (int i = 0; i < this.din; ++i) {
+      int qOffset = i * this.dk;
+      for (int j = 0; j < this.din; ++j) {
+        int kOffset = j * this.dk;
+        double sum = 0.0;
+        for (int c = 0; c < this.dk; ++c) {
+          sum += this.qValues[qOffset + c] * this.kValues[kOffset + c];
+        }
+        this.attentionValues[i * this.din + j] = Math.tanh(sum / scale);
+      }
+    }
+    //latent code = attention x^T
+    for (int i = 0; i < this.din; ++i) {
+      int aOffset = i * this.din;
+      for (int j = 0; j < this.n; ++j) {
+        int xOffset = j * this.din;
+        double sum = 0.0;
+        for (int c = 0; c < this.din; ++c) {
+          sum += this.attentionValues[aOffset + c] * inputs[xOffset + c];
+        }
+        this.latentCodeValues[i * this.n + j] = sum;
+      }
+    }
+  }
+
+  private static void linearTransform(double[] x, int rows, int columns, double[][] a, double[] b, double[] y) {
+    int outColumns = b.length;
+    for (int i = 0; i < rows; ++i) {
+      int yOffset = i * outColumns;
+      Arrays.fill(y, yOffset, yOffset + outColumns, 0.0);
+      for (int c = 0; c < a.length; ++c) {
+        double xValue = x[i * columns + c];
+        double[] aRow = a[c];
+        for (int j = 0; j < outColumns; ++j) {
+          y[yOffset + j] += xValue * aRow[j];
+        }
+      }
+      for (int j = 0; j < outColumns; ++j) {
+        y[yOffset + j] += b[j];
+      }
+    }
+  }
+
   public static double[][] reshapeVector(double[] v, int p, int n) {
     if (v.length != p * n) {
       throw new RuntimeException(String.format("Cannot reshape vector of size %d into (%d,%d)", v.length, p, n));
@@ -213,6 +288,9 @@ public class SelfAttention implements Serializable, Parametrized, RealFunction,
   public Snapshot getSnapshot() {
     double[][][] weights = new double[1][][];
     weights[0] = reshapeVector(this.getAttentionParams(), 1, this.countAttentionParams());
+    for (int i = 0; i < this.din; ++i) {
+      System.arraycopy(this.attentionValues, i * this.din, this.attention[i], 0, this.din);
+    }
     return new Snapshot(new MLPState(this.attention, weights, DoubleRange.of(-1d, 1d)), this.getClass());
   }
 
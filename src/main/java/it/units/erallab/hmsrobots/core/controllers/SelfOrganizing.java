@@ -22,6 +22,7 @@ import it.units.erallab.hmsrobots.util.Grid;
 
 import java.io.Serializable;
 import java.util.*;
+import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
 
 /**
@@ -32,6 +33,8 @@ public class SelfOrganizing implements Controller {
   @JsonProperty
   private final Map<Integer, Neuron> neurons;
 
+  private transient Plan plan;
+
   @JsonCreator
   public SelfOrganizing(@JsonProperty("neurons") Map<Integer, Neuron> neurons) {
     this.neurons = new HashMap<>();
@@ -56,10 +59,9 @@ public class SelfOrganizing implements Controller {
     }
 
     @Override
-    public void forward(Grid<Voxel> voxels, SelfOrganizing controller) {
-      Voxel voxel = voxels.get(x, y);
-      message = function.apply(ingoingEdges.stream().mapToDouble(e -> propagate(e, controller)).sum());
-      voxel.applyForce(message);
+    public void forward(double input, Grid<Voxel> voxels) {
+      super.forward(input, voxels);
+      voxels.get(x, y).applyForce(message);
     }
 
     @Override
@@ -154,11 +156,6 @@ public class SelfOrganizing implements Controller {
       super(idx, coord1, coord2, a);
     }
 
-    @Override
-    public void forward(Grid<Voxel> voxels, SelfOrganizing controller) {
-      message = function.apply(ingoingEdges.stream().mapToDouble(e -> propagate(e, controller)).sum());
-    }
-
     @Override
     public boolean isActuator() {
       return false;
@@ -196,9 +193,9 @@ public class SelfOrganizing implements Controller {
     @JsonProperty
     protected final List<SelfOrganizing.Edge> ingoingEdges;
 
-    protected transient double message;
+    protected double message;
 
-    protected transient double cache;
+    protected double cache;
 
     @JsonCreator
     public Neuron(
@@ -211,11 +208,17 @@ public class SelfOrganizing implements Controller {
       this.x = x;
       this.y = y;
       this.function = function;
-      ingoingEdges = new ArrayList<>();
+      ingoingEdges = new EdgeList();
       resetState();
     }
 
-    public abstract void forward(Grid<Voxel> voxels, SelfOrganizing controller);
+    /**
+     * Computes the message of this neuron from its input, that is, the reading of its sensor for sensing neurons and
+     * the sum of the signals coming through the ingoing edges for the other neurons.
+     */
+    public void forward(double input, Grid<Voxel> voxels) {
+      message = function.getOperator().applyAsDouble(input);
+    }
 
     public abstract boolean isActuator();
 
@@ -245,6 +248,11 @@ public class SelfOrganizing implements Controller {
       return x;
     }
 
+    //changes whenever the ingoing edges change, however they are changed
+    private int getEdgesVersion() {
+      return ingoingEdges instanceof EdgeList edgeList ? edgeList.getVersion() : ingoingEdges.size();
+    }
+
     public int getY() {
       return y;
     }
@@ -280,11 +288,6 @@ public class SelfOrganizing implements Controller {
       return !(isSensing() || isActuator());
     }
 
-    protected double propagate(SelfOrganizing.Edge e, SelfOrganizing controller) {
-      double[] params = e.getParams();
-      return controller.getNeuronsMap().get(e.getSource()).send() * params[0] + params[1];
-    }
-
     public void resetState() {
       message = 0.0;
       cache = 0.0;
@@ -312,13 +315,6 @@ public class SelfOrganizing implements Controller {
       numSensor = s;
     }
 
-    @Override
-    public void forward(Grid<Voxel> voxels, SelfOrganizing controller) {
-      Voxel voxel = voxels.get(x, y);
-      message = function.apply(voxel.getSensors().stream().flatMapToDouble(x -> Arrays.stream(x.getReadings()))
-          .toArray()[numSensor]);
-    }
-
     @Override
     public boolean isActuator() {
       return false;
@@ -371,8 +367,11 @@ public class SelfOrganizing implements Controller {
 
   @Override
   public void control(double t, Grid<Voxel> voxels) {
-    getNeurons().forEach(n -> n.forward(voxels, this));
-    getNeurons().forEach(Neuron::advance);
+    if (plan == null || !plan.isValidFor(neurons)) {
+      plan = new Plan(neurons);
+    }
+    plan.forward(voxels);
+    plan.advance();
   }
 
   public void copyNeuron(Neuron neuron) {
@@ -392,7 +391,7 @@ public class SelfOrganizing implements Controller {
     }
     neurons.put(idx, newComer);
     for (Edge edge : neuron.getIngoingEdges()) {
-      addEdge(edge.getSource(), edge.getTarget(), edge.getParams()[0], edge.getParams()[1]);
+      addEdge(edge.getSource(), edge.getTarget(), edge.weight, edge.bias);
     }
   }
 
@@ -454,11 +453,149 @@ public class SelfOrganizing implements Controller {
     neurons.remove(neuron.getIndex());
   }
 
+
   @Override
   public void reset() {
+    plan = null;
     getNeurons().forEach(Neuron::resetState);
   }
 
+  /**
+   * The neurons and their ingoing edges laid out in flat arrays (edges of the i-th neuron are those between {@code
+   * edgeStarts[i]} and {@code edgeStarts[i+1]}, with sources given as positions in the neuron array) and the positions
+   * of the readings of the sensing neurons in a {@link SensorReadings} buffer, so that a control step visits each edge
+   * once and does not allocate. Each neuron computes its message with {@link Neuron#forward(double, Grid)}. Weights and
+   * biases are read from the edges, hence changing them with {@link Edge#setParams(List)} does not require a new plan;
+   * changes to the topology do, and are detected by comparing the plan with the neurons of the controller before each
+   * step, whether they have been done through the controller or directly on its neurons.
+   */
+  private static class Plan {
+
+    private final Neuron[] neurons;
+    private final int[] edgesVersions;
+    private final int[] edgeStarts;
+    private final int[] sources;
+    private final Edge[] edges;
+    private final int[] readingIndexes;
+    private SensorReadings readings;
+
+    private Plan(Map<Integer, Neuron> neuronsMap) {
+      neurons = neuronsMap.values().toArray(Neuron[]::new);
+      edgesVersions = new int[neurons.length];
+      for (int i = 0; i < neurons.length; i++) {
+        edgesVersions[i] = neurons[i].getEdgesVersion();
+      }
+      Map<Integer, Integer> positions = new HashMap<>();
+      for (int i = 0; i < neurons.length; i++) {
+        positions.put(neurons[i].getIndex(), i);
+      }
+      edgeStarts = new int[neurons.length + 1];
+      for (int i = 0; i < neurons.length; i++) {
+        edgeStarts[i + 1] = edgeStarts[i] + neurons[i].ingoingEdges.size();
+      }
+      sources = new int[edgeStarts[neurons.length]];
+      edges = new Edge[sources.length];
+      int k = 0;
+      for (Neuron neuron : neurons) {
+        for (Edge edge : neuron.ingoingEdges) {
+          Integer position = positions.get(edge.getSource());
+          if (position == null) {
+            throw new IllegalArgumentException(String.format("Edge from missing neuron: %s", edge));
+          }
+          sources[k] = position;
+          edges[k] = edge;
+          k = k + 1;
+        }
+      }
+      readingIndexes = new int[neurons.length];
+    }
+
+    private boolean isValidFor(Map<Integer, Neuron> neuronsMap) {
+      if (neuronsMap.size() != neurons.length) {
+        return false;
+      }
+      int i = 0;
+      for (Neuron neuron : neuronsMap.values()) {
+        if (neuron != neurons[i] || neuron.getEdgesVersion() != edgesVersions[i]) {
+          return false;
+        }
+        i = i + 1;
+      }
+      return true;
+    }
+
+    private void advance() {
+      for (Neuron neuron : neurons) {
+        neuron.advance();
+      }
+    }
+
+    private void forward(Grid<Voxel> voxels) {
+      if (readings == null || !readings.isValidFor(voxels)) {
+        locateReadings(voxels);
+      }
+      readings.update();
+      double[] values = readings.values();
+      for (int i = 0; i < neurons.length; i++) {
+        double input;
+        if (neurons[i] instanceof SensingNeuron) {
+          input = values[readingIndexes[i]];
+        } else {
+          //compensated (Kahan) sum
+          input = 0d;
+          double compensation = 0d;
+          for (int k = edgeStarts[i]; k < edgeStarts[i + 1]; k++) {
+            double y = neurons[sources[k]].send() * edges[k].weight + edges[k].bias - compensation;
+            double t = input + y;
+            compensation = (t - input) - y;
+            input = t;
+          }
+        }
+        neurons[i].forward(input, voxels);
+      }
+    }
+
+    private void locateReadings(Grid<Voxel> voxels) {
+      readings = new SensorReadings(voxels);
+      for (int i = 0; i < neurons.length; i++) {
+        if (neurons[i] instanceof SensingNeuron sensingNeuron) {
+          if (sensingNeuron.getNumSensor() < 0
+              || sensingNeuron.getNumSensor() >= readings.length(sensingNeuron.x, sensingNeuron.y)) {
+            throw new IndexOutOfBoundsException(String.format(
+                "Reading %d out of bounds for voxel in (%d,%d)",
+                sensingNeuron.getNumSensor(),
+                sensingNeuron.x,
+                sensingNeuron.y
+            ));
+          }
+          readingIndexes[i] = readings.offset(sensingNeuron.x, sensingNeuron.y) + sensingNeuron.getNumSensor();
+        }
+      }
+    }
+
+  }
+
+  //an edge list which counts also the replacements of its elements among its modifications
+  private static class EdgeList extends ArrayList<Edge> {
+
+    private int getVersion() {
+      return modCount;
+    }
+
+    @Override
+    public Edge set(int index, Edge edge) {
+      modCount = modCount + 1;
+      return super.set(index, edge);
+    }
+
+    @Override
+    public void replaceAll(UnaryOperator<Edge> operator) {
+      modCount = modCount + 1;
+      super.replaceAll(operator);
+    }
+
+  }
+
   @Override
   public String toString() {
     return "SelfOrganizing{" + neurons.values().stream().map(Neuron::toString).collect(Collectors.joining("-")) + "}";
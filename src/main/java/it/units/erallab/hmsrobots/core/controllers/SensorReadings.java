@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2021 Eric Medvet <eric.medvet@gmail.com> (as Eric Medvet <eric.medvet@gmail.com>)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.units.erallab.hmsrobots.core.controllers;
+
+import it.units.erallab.hmsrobots.core.objects.Voxel;
+import it.units.erallab.hmsrobots.core.sensors.Sensor;
+import it.units.erallab.hmsrobots.util.DoubleRange;
+import it.units.erallab.hmsrobots.util.Grid;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Keeps the readings of all the sensors of the voxels of a grid in one buffer, where each voxel writes its readings
+ * (see {@link Voxel#copySensorReadings(double[], int)}) in a slice whose position is computed once, together with the
+ * domains of the readings. Voxels are taken row by row, that is, the voxel in {@code (x,y)} is the {@code (y*w+x)}-th
+ * cell of a grid with width {@code w}, skipping empty cells. The buffer is valid as long as the voxels in the grid and
+ * their sensors do not change.
+ */
+class SensorReadings {
+
+  private final Grid<Voxel> voxelsGrid;
+  private final Voxel[] cellVoxels;
+  private final Voxel[] voxels;
+  private final int[] offsets;
+  private final int[] cellOffsets;
+  private final int[] cellLengths;
+  private final Sensor[] sensors;
+  private final int[] sensorStarts;
+  private final double[] values;
+  private final DoubleRange[] domains;
+
+  SensorReadings(Grid<Voxel> voxelsGrid) {
+    this.voxelsGrid = voxelsGrid;
+    int w = voxelsGrid.getW();
+    cellVoxels = new Voxel[w * voxelsGrid.getH()];
+    cellOffsets = new int[cellVoxels.length];
+    cellLengths = new int[cellVoxels.length];
+    List<Voxel> localVoxels = new ArrayList<>();
+    List<DoubleRange> localDomains = new ArrayList<>();
+    List<Sensor> localSensors = new ArrayList<>();
+    for (int c = 0; c < cellVoxels.length; c++) {
+      cellVoxels[c] = voxelsGrid.get(c % w, c / w);
+      cellOffsets[c] = cellVoxels[c] == null ? -1 : localDomains.size();
+      if (cellVoxels[c] != null) {
+        localVoxels.add(cellVoxels[c]);
+        localSensors.addAll(cellVoxels[c].getSensors());
+        for (Sensor sensor : cellVoxels[c].getSensors()) {
+          localDomains.addAll(Arrays.asList(sensor.getDomains()));
+        }
+        cellLengths[c] = localDomains.size() - cellOffsets[c];
+      }
+    }
+    voxels = localVoxels.toArray(Voxel[]::new);
+    offsets = new int[voxels.length];
+    sensorStarts = new int[voxels.length + 1];
+    for (int i = 0, c = 0; c < cellVoxels.length; c++) {
+      if (cellVoxels[c] != null) {
+        offsets[i] = cellOffsets[c];
+        sensorStarts[i + 1] = sensorStarts[i] + cellVoxels[c].getSensors().size();
+        i = i + 1;
+      }
+    }
+    sensors = localSensors.toArray(Sensor[]::new);
+    domains = localDomains.toArray(DoubleRange[]::new);
+    values = new double[domains.length];
+  }
+
+  DoubleRange[] domains() {
+    return domains;
+  }
+
+  boolean isValidFor(Grid<Voxel> voxelsGrid) {
+    if (this.voxelsGrid != voxelsGrid) {
+      return false;
+    }
+    int w = voxelsGrid.getW();
+    for (int c = 0; c < cellVoxels.length; c++) {
+      if (voxelsGrid.get(c % w, c / w) != cellVoxels[c]) {
+        return false;
+      }
+    }
+    for (int i = 0; i < voxels.length; i++) {
+      List<Sensor> voxelSensors = voxels[i].getSensors();
+      if (voxelSensors.size() != sensorStarts[i + 1] - sensorStarts[i]) {
+        return false;
+      }
+      for (int j = 0; j < voxelSensors.size(); j++) {
+        if (voxelSensors.get(j) != sensors[sensorStarts[i] + j]) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  int length(int x, int y) {
+    return cellLengths[checkedCell(x, y)];
+  }
+
+  int offset(int x, int y) {
+    return cellOffsets[checkedCell(x, y)];
+  }
+
+  void update() {
+    for (int i = 0; i < voxels.length; i++) {
+      voxels[i].copySensorReadings(values, offsets[i]);
+    }
+  }
+
+  double[] values() {
+    return values;
+  }
+
+  Voxel[] voxels() {
+    return voxels;
+  }
+
+  private int checkedCell(int x, int y) {
+    int c = y * voxelsGrid.getW() + x;
+    if (x < 0 || x >= voxelsGrid.getW() || y < 0 || y >= voxelsGrid.getH() || cellOffsets[c] < 0) {
+      throw new IllegalArgumentException(String.format("No voxel in (%d,%d)", x, y));
+    }
+    return c;
+  }
+
+}
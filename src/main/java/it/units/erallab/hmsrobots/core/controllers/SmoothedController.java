@@ -68,6 +68,10 @@ public class SmoothedController extends AbstractController {
     });
   }
 
+  public AbstractController getInnerController() {
+    return innerController;
+  }
+
   @Override
   public void reset() {
     innerController.reset();
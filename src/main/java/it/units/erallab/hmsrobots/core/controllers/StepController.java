@@ -21,6 +21,7 @@ import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import it.units.erallab.hmsrobots.core.objects.Voxel;
 import it.units.erallab.hmsrobots.core.snapshots.Snapshot;
+import it.units.erallab.hmsrobots.core.snapshots.SnapshotFilter;
 import it.units.erallab.hmsrobots.core.snapshots.Snapshottable;
 import it.units.erallab.hmsrobots.util.Grid;
 
@@ -56,6 +57,10 @@ public class StepController extends AbstractController implements Snapshottable
     return lastControlSignals;
   }
 
+  public AbstractController getInnerController() {
+    return innerController;
+  }
+
   @Override
   public void reset() {
     innerController.reset();
@@ -64,9 +69,14 @@ public class StepController extends AbstractController implements Snapshottable
 
   @Override
   public Snapshot getSnapshot() {
+    return getSnapshot(SnapshotFilter.all());
+  }
+
+  @Override
+  public Snapshot getSnapshot(SnapshotFilter filter) {
     Snapshot snapshot = new Snapshot(new StepControllerState(stepT), getClass());
-    if (innerController instanceof Snapshottable snapshottable) {
-      snapshot.getChildren().add(snapshottable.getSnapshot());
+    if (innerController instanceof Snapshottable snapshottable && filter.includes(snapshottable.getClass(), null)) {
+      snapshot.getChildren().add(snapshottable.getSnapshot(filter));
     }
     return snapshot;
   }
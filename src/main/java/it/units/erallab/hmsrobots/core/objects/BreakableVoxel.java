@@ -43,12 +43,12 @@ public class BreakableVoxel extends Voxel {
   private final long randomSeed;
   private final EnumMap<MalfunctionTrigger, Double> triggerCounters;
   private final EnumMap<ComponentType, MalfunctionType> state;
-  private transient double lastT;
-  private transient double lastBreakT;
-  private transient double lastControlEnergy;
-  private transient double lastAreaRatioEnergy;
-  private transient double[] sensorReadings;
-  private transient RandomGenerator random;
+  private double lastT;
+  private double lastBreakT;
+  private double lastControlEnergy;
+  private double lastAreaRatioEnergy;
+  private double[] sensorReadings;
+  private RandomGenerator random;
 
   @JsonCreator
   public BreakableVoxel(
@@ -185,6 +185,12 @@ public class BreakableVoxel extends Voxel {
     super.applyForce(f);
   }
 
+  @Override
+  public void copySensorReadings(double[] destination, int offset) {
+    double[] readings = getSensorReadings();
+    System.arraycopy(readings, 0, destination, offset, readings.length);
+  }
+
   @Override
   public double[] getSensorReadings() {
     return switch (state.get(ComponentType.SENSORS)) {
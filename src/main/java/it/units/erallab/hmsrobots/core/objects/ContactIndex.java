@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2021 Eric Medvet <eric.medvet@gmail.com> (as Eric Medvet <eric.medvet@gmail.com>)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.units.erallab.hmsrobots.core.objects;
+
+import org.dyn4j.dynamics.Body;
+import org.dyn4j.dynamics.TimeStep;
+import org.dyn4j.dynamics.contact.ContactConstraint;
+import org.dyn4j.world.ContactCollisionData;
+import org.dyn4j.world.PhysicsWorld;
+import org.dyn4j.world.World;
+import org.dyn4j.world.listener.ContactListener;
+import org.dyn4j.world.listener.ContactListenerAdapter;
+import org.dyn4j.world.listener.StepListener;
+
+import java.util.List;
+
+/**
+ * Keeps, for each body of a world, a few bits telling what the body is in contact with after the last step. The bits
+ * are set by listening to the contacts found by dyn4j at the end of each step, hence a query takes constant time and
+ * does not allocate, whereas {@link World#getInContactBodies(org.dyn4j.dynamics.PhysicsBody, boolean)} builds a new
+ * list at each invocation. Sensor contacts are ignored, as in {@code getInContactBodies(body, false)}.
+ */
+public class ContactIndex extends ContactListenerAdapter<Body> implements StepListener<Body> {
+
+  private static final int TOUCHING = 1;
+  private static final int TOUCHING_GROUND = 1 << 1;
+  private static final int TOUCHING_ROBOT = 1 << 2;
+  private static final int INITIAL_CAPACITY = 64;
+
+  //open addressing identity map from bodies to bits; occupied slots are emptied at each step
+  private Body[] bodies;
+  private int[] bits;
+  private int[] occupied;
+  private int size;
+
+  private ContactIndex() {
+    bodies = new Body[INITIAL_CAPACITY];
+    bits = new int[INITIAL_CAPACITY];
+    occupied = new int[INITIAL_CAPACITY];
+  }
+
+  /**
+   * Returns the contact index of the given world, attaching a new one to the world if needed. A new index is filled with
+   * the contacts currently known by the world. Since this method scans the listeners of the world, the index should be
+   * resolved once, when an object is added to the world, rather than at each query.
+   */
+  public static ContactIndex of(World<Body> world) {
+    List<ContactListener<Body>> listeners = world.getContactListeners();
+    for (int i = 0; i < listeners.size(); i++) {
+      if (listeners.get(i) instanceof ContactIndex contactIndex) {
+        return contactIndex;
+      }
+    }
+    ContactIndex contactIndex = new ContactIndex();
+    for (Body body : world.getBodies()) {
+      for (Body otherBody : world.getInContactBodies(body, false)) {
+        contactIndex.mark(body, otherBody);
+      }
+    }
+    world.addContactListener(contactIndex);
+    world.addStepListener(contactIndex);
+    return contactIndex;
+  }
+
+  private static int bits(Body body, Body otherBody) {
+    Object userData = body.getUserData();
+    Object otherUserData = otherBody.getUserData();
+    int bits = 0;
+    if (otherUserData == null || otherUserData != userData) {
+      bits = bits | TOUCHING;
+    }
+    if (Ground.class.equals(otherUserData)) {
+      bits = bits | TOUCHING_GROUND;
+    }
+    if (otherUserData instanceof Robot && otherUserData != userData) {
+      bits = bits | TOUCHING_ROBOT;
+    }
+    return bits;
+  }
+
+  @Override
+  public void begin(TimeStep step, PhysicsWorld<Body, ?> world) {
+  }
+
+  @Override
+  public void collision(ContactCollisionData<Body> collision) {
+    ContactConstraint<Body> contactConstraint = collision.getContactConstraint();
+    if (!contactConstraint.isSensor()) {
+      mark(collision.getBody1(), collision.getBody2());
+      mark(collision.getBody2(), collision.getBody1());
+    }
+  }
+
+  @Override
+  public void end(TimeStep step, PhysicsWorld<Body, ?> world) {
+  }
+
+  /**
+   * Tells if the body is in contact with a body which is not owned by the same owner (e.g., a body of another robot,
+   * or the ground).
+   */
+  public boolean isTouching(Body body) {
+    return (get(body) & TOUCHING) != 0;
+  }
+
+  public boolean isTouchingGround(Body body) {
+    return (get(body) & TOUCHING_GROUND) != 0;
+  }
+
+  public boolean isTouchingRobot(Body body) {
+    return (get(body) & TOUCHING_ROBOT) != 0;
+  }
+
+  @Override
+  public void postSolve(TimeStep step, PhysicsWorld<Body, ?> world) {
+    //contacts are detected again after the bodies have been moved
+    clear();
+  }
+
+  @Override
+  public void updatePerformed(TimeStep step, PhysicsWorld<Body, ?> world) {
+  }
+
+  void clear() {
+    for (int j = 0; j < size; j++) {
+      bodies[occupied[j]] = null;
+    }
+    size = 0;
+  }
+
+  private int get(Body body) {
+    int mask = bodies.length - 1;
+    for (int i = System.identityHashCode(body) & mask; bodies[i] != null; i = (i + 1) & mask) {
+      if (bodies[i] == body) {
+        return bits[i];
+      }
+    }
+    return 0;
+  }
+
+  void mark(Body body, Body otherBody) {
+    int newBits = bits(body, otherBody);
+    if (newBits == 0) {
+      return;
+    }
+    if (2 * (size + 1) > bodies.length) {
+      grow();
+    }
+    int mask = bodies.length - 1;
+    int i = System.identityHashCode(body) & mask;
+    while (bodies[i] != null) {
+      if (bodies[i] == body) {
+        bits[i] = bits[i] | newBits;
+        return;
+      }
+      i = (i + 1) & mask;
+    }
+    bodies[i] = body;
+    bits[i] = newBits;
+    occupied[size] = i;
+    size = size + 1;
+  }
+
+  private void grow() {
+    Body[] oldBodies = bodies;
+    int[] oldBits = bits;
+    int[] oldOccupied = occupied;
+    bodies = new Body[oldBodies.length * 2];
+    bits = new int[oldBodies.length * 2];
+    occupied = new int[oldBodies.length * 2];
+    int mask = bodies.length - 1;
+    for (int j = 0; j < size; j++) {
+      Body body = oldBodies[oldOccupied[j]];
+      int i = System.identityHashCode(body) & mask;
+      while (bodies[i] != null) {
+        i = (i + 1) & mask;
+      }
+      bodies[i] = body;
+      bits[i] = oldBits[oldOccupied[j]];
+      occupied[j] = i;
+    }
+  }
+
+}
@@ -101,6 +101,14 @@ public class Ground extends RigidBody {
     return new Snapshot(Poly.of(vertices), getClass());
   }
 
+  double[] getXs() {
+    return xs;
+  }
+
+  double[] getYs() {
+    return ys;
+  }
+
   public double yAt(double x) {
     for (int i = 1; i < xs.length; i++) {
       if ((xs[i - 1] <= x) && (x <= xs[i])) {
@@ -0,0 +1,689 @@
+/*
+ * Copyright (C) 2021 Eric Medvet <eric.medvet@gmail.com> (as Eric Medvet <eric.medvet@gmail.com>)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.units.erallab.hmsrobots.core.objects;
+
+import org.dyn4j.dynamics.Body;
+import org.dyn4j.dynamics.BodyFixture;
+import org.dyn4j.dynamics.joint.DistanceJoint;
+import org.dyn4j.dynamics.joint.Joint;
+import org.dyn4j.geometry.Polygon;
+import org.dyn4j.geometry.Transform;
+import org.dyn4j.geometry.Vector2;
+import org.dyn4j.world.World;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Simulates the voxels of one or more {@link Robot}s on a {@link Ground} as a lattice of rigid nodes connected by
+ * springs, in place of the general-purpose dyn4j solver. Positions, angles, velocities and forces of the nodes, as well
+ * as the parameters of the springs, are kept in primitive arrays and integrated explicitly (semi-implicit Euler) with a
+ * few substeps per step.
+ * <p>
+ * The model is derived from the dyn4j bodies and joints of the robots, which remain the public view of the state: after
+ * each step, positions, angles and velocities are written back to the bodies and ground contacts are published to the
+ * {@link ContactIndex} of the world, hence voxels, sensors and controllers work unchanged. In particular:
+ * <ul>
+ *   <li>the vertex bodies welded together (i.e., the coincident corners of adjacent voxels) are fused in a single
+ *   rigid node, as the vertex bodies shared by adjacent voxels already are (see {@link Robot.Assembly});</li>
+ *   <li>each {@link DistanceJoint} is a spring-damper between its anchors, with the stiffness and damping of a dyn4j
+ *   soft joint having the same frequency and damping ratio (a frequency of 0, i.e., a rigid joint, becomes a stiff
+ *   spring) and with its current rest distance (hence actuation works through {@link Voxel#applyForce(double)});
+ *   limits are stiff springs too;</li>
+ *   <li>the corners of the fixtures of the vertex bodies penetrating the ground polyline get a penalty normal force and a friction force
+ *   from a tangential spring anchored where the corner started sticking, capped as in Coulomb friction (beyond the
+ *   cap, the corner slides and the anchor follows it), with the friction coefficients mixed as in dyn4j;</li>
+ *   <li>overlapping fixtures of bodies of different nodes are pushed apart along the normal of the side of least
+ *   penetration (as in the separating axis test), with a penalty normal force and a viscous friction force, capped as
+ *   in Coulomb friction, at each corner beyond that side: as in dyn4j, where the springs of voxels allow collisions,
+ *   bodies of the same robot collide, unless welded together.</li>
+ * </ul>
+ * The dyn4j world is not stepped. The model is experimental: trajectories are similar to those obtained with dyn4j
+ * only for some bodies. The stiffness of contacts has been chosen such that, with the default voxels, a
+ * {@link it.units.erallab.hmsrobots.core.controllers.PhaseSin} controller, and flat terrain, the velocities of a 5x1
+ * worm, of an 8x1 worm, and of a 4x3 biped are within about 10% of the dyn4j ones. The velocity of other bodies may be
+ * far from the dyn4j one, or even have the opposite sign (e.g., a 7x2 comb moves slowly backward, rather than slowly
+ * forward): hence, {@link it.units.erallab.hmsrobots.tasks.PhysicsBackend#MASS_SPRING} refuses them.
+ */
+public class MassSpringLattice {
+
+  private static final int MIN_SUBSTEPS = 4;
+  private static final double MAX_OMEGA_DT = 1d;
+  private static final double STIFF_OMEGA_DT = 0.2d;
+  private static final double STIFF_DAMPING_RATIO = 0.7d;
+  private static final double CONTACT_FREQUENCY = 20d; //with the friction one, calibrated on the gaits of dyn4j
+  private static final double FRICTION_FREQUENCY = 7d;
+  private static final double CONTACT_DAMPING_RATIO = 0.7d;
+  private static final double COLLISION_MARGIN = 0.25d; //more than bodies approach each other in one step
+
+  private final ContactIndex contactIndex;
+  private final Body groundBody;
+  private final int substeps;
+  private final double dt;
+  private final double gravityX;
+  private final double gravityY;
+  private final double stiffOmega;
+  private final double contactOmega;
+  private final double frictionOmega;
+  //bodies
+  private final Body[] bodies;
+  private final int[] bodyNodes;
+  private final double[] bodyOffsets; //x, y of the origin in the frame of the node
+  private final double[] bodyAngles; //angle in the frame of the node
+  private final int[] firstCorners; //index of the first corner of each body, and the number of corners as last
+  private final boolean[] touching;
+  private final int[] segments;
+  //corners of the fixtures of the bodies
+  private final double[] corners; //x, y in the frame of the node
+  private final double[] frictions;
+  private final double[] stickPoints; //x, y where the corner started sticking, NaN if not in contact
+  private final double[] rotatedCorners; //x, y relative to the node, in the world frame
+  //fixtures of the bodies, i.e., convex polygons
+  private final int[] polygonNodes;
+  private final int[] firstPolygonCorners; //index of the first corner of each polygon, and the number of corners as last
+  private final double[] polygonOrientations; //1 if the corners are counterclockwise, -1 otherwise
+  private final double[] polygonFrictions;
+  private final double[] polygonBounds; //min x, min y, max x, max y, enlarged by the margin
+  private final int[] polygonOrder; //by min x
+  private final double[] pAxis; //normal x, y and offset of the side of least penetration
+  private final double[] qAxis;
+  private int[] collisionPairs;
+  private int nOfCollisionPairs;
+  //nodes
+  private final double[] xs;
+  private final double[] ys;
+  private final double[] angles;
+  private final double[] coss;
+  private final double[] sins;
+  private final double[] vxs;
+  private final double[] vys;
+  private final double[] ws;
+  private final double[] fxs;
+  private final double[] fys;
+  private final double[] torques;
+  private final double[] masses;
+  private final double[] inverseMasses;
+  private final double[] inverseInertias;
+  private final double[] linearDampings;
+  private final double[] angularDampings;
+  //springs, i.e., distance joints
+  private final DistanceJoint<Body>[] joints;
+  private final int[] springNodes1;
+  private final int[] springNodes2;
+  private final double[] springAnchors; //x1, y1, x2, y2 in the frames of the nodes
+  private final double[] springRests;
+  private final double[] springOmegas;
+  private final double[] springDampingRatios;
+  private final double[] springMins;
+  private final double[] springMaxs;
+  //ground segments
+  private final double[] groundXs;
+  private final double[] groundYs;
+  private final double[] groundNormals;
+
+  @SuppressWarnings("unchecked")
+  public MassSpringLattice(World<Body> world, Ground ground, List<Robot> robots) {
+    contactIndex = ContactIndex.of(world);
+    groundBody = ground.getBodies().get(0);
+    dt = world.getSettings().getStepFrequency();
+    gravityX = world.getGravity().x;
+    gravityY = world.getGravity().y;
+    //collect bodies (possibly shared among voxels) and joints
+    Map<Body, Integer> indexes = new IdentityHashMap<>();
+    List<Body> allBodies = new ArrayList<>();
+    List<DistanceJoint<Body>> springs = new ArrayList<>();
+    List<Joint<Body>> welds = new ArrayList<>();
+    for (Robot robot : robots) {
+      for (Voxel voxel : robot.getVoxels().values()) {
+        if (voxel != null) {
+          for (Body body : voxel.getVertexBodies()) {
+            if (indexes.putIfAbsent(body, allBodies.size()) == null) {
+              allBodies.add(body);
+            }
+          }
+          springs.addAll(voxel.springJoints);
+        }
+      }
+      welds.addAll(robot.getJoints());
+    }
+    bodies = allBodies.toArray(Body[]::new);
+    //group welded bodies in nodes
+    int[] parents = new int[bodies.length];
+    for (int b = 0; b < bodies.length; b++) {
+      parents[b] = b;
+    }
+    for (Joint<Body> weld : welds) {
+      parents[root(parents, indexes.get(weld.getBody1()))] = root(parents, indexes.get(weld.getBody2()));
+    }
+    bodyNodes = new int[bodies.length];
+    int[] rootNodes = new int[bodies.length];
+    Arrays.fill(rootNodes, -1);
+    int nOfNodes = 0;
+    for (int b = 0; b < bodies.length; b++) {
+      int root = root(parents, b);
+      if (rootNodes[root] < 0) {
+        rootNodes[root] = nOfNodes;
+        nOfNodes = nOfNodes + 1;
+      }
+      bodyNodes[b] = rootNodes[root];
+    }
+    //build nodes, with the frame aligned with the world frame
+    xs = new double[nOfNodes];
+    ys = new double[nOfNodes];
+    angles = new double[nOfNodes];
+    coss = new double[nOfNodes];
+    sins = new double[nOfNodes];
+    vxs = new double[nOfNodes];
+    vys = new double[nOfNodes];
+    ws = new double[nOfNodes];
+    fxs = new double[nOfNodes];
+    fys = new double[nOfNodes];
+    torques = new double[nOfNodes];
+    masses = new double[nOfNodes];
+    inverseMasses = new double[nOfNodes];
+    inverseInertias = new double[nOfNodes];
+    linearDampings = new double[nOfNodes];
+    angularDampings = new double[nOfNodes];
+    int[] sizes = new int[nOfNodes];
+    for (int b = 0; b < bodies.length; b++) {
+      int n = bodyNodes[b];
+      double mass = bodies[b].getMass().getMass();
+      masses[n] = masses[n] + mass;
+      xs[n] = xs[n] + mass * bodies[b].getWorldCenter().x;
+      ys[n] = ys[n] + mass * bodies[b].getWorldCenter().y;
+      vxs[n] = vxs[n] + mass * bodies[b].getLinearVelocity().x;
+      vys[n] = vys[n] + mass * bodies[b].getLinearVelocity().y;
+      ws[n] = ws[n] + bodies[b].getAngularVelocity();
+      linearDampings[n] = linearDampings[n] + bodies[b].getLinearDamping();
+      angularDampings[n] = angularDampings[n] + bodies[b].getAngularDamping();
+      sizes[n] = sizes[n] + 1;
+    }
+    for (int n = 0; n < nOfNodes; n++) {
+      xs[n] = xs[n] / masses[n];
+      ys[n] = ys[n] / masses[n];
+      vxs[n] = vxs[n] / masses[n];
+      vys[n] = vys[n] / masses[n];
+      ws[n] = ws[n] / sizes[n];
+      linearDampings[n] = linearDampings[n] / sizes[n];
+      angularDampings[n] = angularDampings[n] / sizes[n];
+      inverseMasses[n] = 1d / masses[n];
+    }
+    bodyOffsets = new double[2 * bodies.length];
+    bodyAngles = new double[bodies.length];
+    firstCorners = new int[bodies.length + 1];
+    touching = new boolean[bodies.length];
+    segments = new int[bodies.length];
+    for (int b = 0; b < bodies.length; b++) {
+      int nOfCorners = 0;
+      for (BodyFixture fixture : bodies[b].getFixtures()) {
+        nOfCorners = nOfCorners + ((Polygon) fixture.getShape()).getVertices().length;
+      }
+      firstCorners[b + 1] = firstCorners[b] + nOfCorners;
+    }
+    int nOfPolygons = 0;
+    for (Body body : bodies) {
+      nOfPolygons = nOfPolygons + body.getFixtureCount();
+    }
+    polygonNodes = new int[nOfPolygons];
+    firstPolygonCorners = new int[nOfPolygons + 1];
+    polygonOrientations = new double[nOfPolygons];
+    polygonFrictions = new double[nOfPolygons];
+    polygonBounds = new double[4 * nOfPolygons];
+    polygonOrder = new int[nOfPolygons];
+    collisionPairs = new int[2 * nOfPolygons];
+    pAxis = new double[3];
+    qAxis = new double[3];
+    corners = new double[2 * firstCorners[bodies.length]];
+    rotatedCorners = new double[2 * firstCorners[bodies.length]];
+    frictions = new double[firstCorners[bodies.length]];
+    stickPoints = new double[2 * firstCorners[bodies.length]];
+    Arrays.fill(stickPoints, Double.NaN);
+    double[] inertias = new double[nOfNodes];
+    double groundFriction = groundBody.getFixture(0).getFriction();
+    int p = 0;
+    for (int b = 0; b < bodies.length; b++) {
+      int n = bodyNodes[b];
+      Transform transform = bodies[b].getTransform();
+      bodyOffsets[2 * b] = transform.getTranslationX() - xs[n];
+      bodyOffsets[2 * b + 1] = transform.getTranslationY() - ys[n];
+      bodyAngles[b] = transform.getRotationAngle();
+      int c = firstCorners[b];
+      for (BodyFixture fixture : bodies[b].getFixtures()) {
+        for (Vector2 vertex : ((Polygon) fixture.getShape()).getVertices()) {
+          Vector2 corner = transform.getTransformed(vertex);
+          corners[2 * c] = corner.x - xs[n];
+          corners[2 * c + 1] = corner.y - ys[n];
+          frictions[c] = Math.sqrt(fixture.getFriction() * groundFriction);
+          c = c + 1;
+        }
+        polygonNodes[p] = n;
+        firstPolygonCorners[p + 1] = c;
+        polygonFrictions[p] = fixture.getFriction();
+        polygonOrder[p] = p;
+        p = p + 1;
+      }
+      double ox = bodies[b].getWorldCenter().x - xs[n];
+      double oy = bodies[b].getWorldCenter().y - ys[n];
+      inertias[n] = inertias[n] + bodies[b].getMass().getInertia() + bodies[b].getMass()
+          .getMass() * (ox * ox + oy * oy);
+    }
+    for (int n = 0; n < nOfNodes; n++) {
+      inverseInertias[n] = 1d / inertias[n];
+    }
+    for (int q = 0; q < nOfPolygons; q++) {
+      double area = 0d;
+      for (int c = firstPolygonCorners[q]; c < firstPolygonCorners[q + 1]; c++) {
+        int next = c + 1 < firstPolygonCorners[q + 1] ? c + 1 : firstPolygonCorners[q];
+        area = area + corners[2 * c] * corners[2 * next + 1] - corners[2 * next] * corners[2 * c + 1];
+      }
+      polygonOrientations[q] = Math.signum(area);
+    }
+    //build springs
+    int nOfSprings = springs.size();
+    joints = springs.toArray(DistanceJoint[]::new);
+    springNodes1 = new int[nOfSprings];
+    springNodes2 = new int[nOfSprings];
+    springAnchors = new double[4 * nOfSprings];
+    springRests = new double[nOfSprings];
+    springOmegas = new double[nOfSprings];
+    springDampingRatios = new double[nOfSprings];
+    springMins = new double[nOfSprings];
+    springMaxs = new double[nOfSprings];
+    for (int s = 0; s < nOfSprings; s++) {
+      int n1 = bodyNodes[indexes.get(joints[s].getBody1())];
+      int n2 = bodyNodes[indexes.get(joints[s].getBody2())];
+      springNodes1[s] = n1;
+      springNodes2[s] = n2;
+      springAnchors[4 * s] = joints[s].getAnchor1().x - xs[n1];
+      springAnchors[4 * s + 1] = joints[s].getAnchor1().y - ys[n1];
+      springAnchors[4 * s + 2] = joints[s].getAnchor2().x - xs[n2];
+      springAnchors[4 * s + 3] = joints[s].getAnchor2().y - ys[n2];
+      springMins[s] = joints[s].isLowerLimitEnabled() ? joints[s].getLowerLimit() : Double.NEGATIVE_INFINITY;
+      springMaxs[s] = joints[s].isUpperLimitEnabled() ? joints[s].getUpperLimit() : Double.POSITIVE_INFINITY;
+    }
+    //set the number of substeps according to the node with the stiffest soft springs
+    double[] squaredOmegas = new double[nOfNodes];
+    updateSprings(0d);
+    for (int s = 0; s < nOfSprings; s++) {
+      squaredOmegas[springNodes1[s]] = squaredOmegas[springNodes1[s]] + springOmegas[s] * springOmegas[s];
+      squaredOmegas[springNodes2[s]] = squaredOmegas[springNodes2[s]] + springOmegas[s] * springOmegas[s];
+    }
+    contactOmega = 2d * Math.PI * CONTACT_FREQUENCY;
+    frictionOmega = 2d * Math.PI * FRICTION_FREQUENCY;
+    double maxOmega = Math.sqrt(Arrays.stream(squaredOmegas).max().orElse(0d) + 4d * contactOmega * contactOmega);
+    substeps = Math.max(MIN_SUBSTEPS, (int) Math.ceil(dt * maxOmega / MAX_OMEGA_DT));
+    stiffOmega = STIFF_OMEGA_DT * substeps / dt;
+    //build ground segments, with upward unit normals
+    groundXs = ground.getXs();
+    groundYs = ground.getYs();
+    groundNormals = new double[2 * (groundXs.length - 1)];
+    for (int i = 0; i < groundXs.length - 1; i++) {
+      double dx = groundXs[i + 1] - groundXs[i];
+      double dy = groundYs[i + 1] - groundYs[i];
+      double length = Math.sqrt(dx * dx + dy * dy);
+      groundNormals[2 * i] = -dy / length;
+      groundNormals[2 * i + 1] = dx / length;
+    }
+  }
+
+  private static int root(int[] parents, int i) {
+    while (parents[i] != i) {
+      parents[i] = parents[parents[i]];
+      i = parents[i];
+    }
+    return i;
+  }
+
+  /**
+   * Advances the lattice by one step of the world settings, then updates the bodies and the contact index of the
+   * world.
+   */
+  public void step() {
+    updateSprings(stiffOmega);
+    findCollisionPairs();
+    double h = dt / substeps;
+    for (int i = 0; i < substeps; i++) {
+      substep(h);
+    }
+    //write back
+    for (int b = 0; b < bodies.length; b++) {
+      int n = bodyNodes[b];
+      double cos = Math.cos(angles[n]);
+      double sin = Math.sin(angles[n]);
+      double rx = cos * bodyOffsets[2 * b] - sin * bodyOffsets[2 * b + 1];
+      double ry = sin * bodyOffsets[2 * b] + cos * bodyOffsets[2 * b + 1];
+      bodies[b].getTransform().setTranslation(xs[n] + rx, ys[n] + ry);
+      bodies[b].getTransform().setRotation(angles[n] + bodyAngles[b]);
+      bodies[b].setLinearVelocity(vxs[n] - ws[n] * ry, vys[n] + ws[n] * rx);
+      bodies[b].setAngularVelocity(ws[n]);
+    }
+    contactIndex.clear();
+    for (int b = 0; b < bodies.length; b++) {
+      if (touching[b]) {
+        contactIndex.mark(bodies[b], groundBody);
+      }
+    }
+  }
+
+  private void substep(double h) {
+    rotate();
+    for (int n = 0; n < xs.length; n++) {
+      fxs[n] = masses[n] * gravityX;
+      fys[n] = masses[n] * gravityY;
+      torques[n] = 0d;
+    }
+    //springs
+    for (int s = 0; s < springNodes1.length; s++) {
+      int n1 = springNodes1[s];
+      int n2 = springNodes2[s];
+      double rx1 = coss[n1] * springAnchors[4 * s] - sins[n1] * springAnchors[4 * s + 1];
+      double ry1 = sins[n1] * springAnchors[4 * s] + coss[n1] * springAnchors[4 * s + 1];
+      double rx2 = coss[n2] * springAnchors[4 * s + 2] - sins[n2] * springAnchors[4 * s + 3];
+      double ry2 = sins[n2] * springAnchors[4 * s + 2] + coss[n2] * springAnchors[4 * s + 3];
+      double dx = xs[n2] + rx2 - xs[n1] - rx1;
+      double dy = ys[n2] + ry2 - ys[n1] - ry1;
+      double length = Math.sqrt(dx * dx + dy * dy);
+      if (length == 0d || n1 == n2) {
+        continue;
+      }
+      double nx = dx * (1d / length);
+      double ny = dy * (1d / length);
+      double dvx = vxs[n2] - ws[n2] * ry2 - vxs[n1] + ws[n1] * ry1;
+      double dvy = vys[n2] + ws[n2] * rx2 - vys[n1] - ws[n1] * rx1;
+      //effective mass along the spring, as in dyn4j
+      double cross1 = rx1 * ny - ry1 * nx;
+      double cross2 = rx2 * ny - ry2 * nx;
+      double mass = 1d / (inverseMasses[n1] + inverseMasses[n2]
+          + inverseInertias[n1] * cross1 * cross1 + inverseInertias[n2] * cross2 * cross2);
+      double omega = springOmegas[s];
+      double f = mass * omega * (omega * (length - springRests[s]) + 2d * springDampingRatios[s] * (dvx * nx + dvy * ny));
+      if (length < springMins[s]) {
+        f = f + mass * stiffOmega * stiffOmega * (length - springMins[s]);
+      } else if (length > springMaxs[s]) {
+        f = f + mass * stiffOmega * stiffOmega * (length - springMaxs[s]);
+      }
+      apply(n1, f * nx, f * ny, rx1, ry1);
+      apply(n2, -f * nx, -f * ny, rx2, ry2);
+    }
+    //ground contacts
+    for (int b = 0; b < bodies.length; b++) {
+      contact(b);
+    }
+    //collisions among bodies
+    for (int i = 0; i < nOfCollisionPairs; i++) {
+      collide(collisionPairs[2 * i], collisionPairs[2 * i + 1]);
+    }
+    //integrate
+    for (int n = 0; n < xs.length; n++) {
+      double linearDamping = Math.max(0d, 1d - h * linearDampings[n]);
+      double angularDamping = Math.max(0d, 1d - h * angularDampings[n]);
+      vxs[n] = (vxs[n] + fxs[n] * inverseMasses[n] * h) * linearDamping;
+      vys[n] = (vys[n] + fys[n] * inverseMasses[n] * h) * linearDamping;
+      ws[n] = (ws[n] + torques[n] * inverseInertias[n] * h) * angularDamping;
+      xs[n] = xs[n] + vxs[n] * h;
+      ys[n] = ys[n] + vys[n] * h;
+      angles[n] = angles[n] + ws[n] * h;
+    }
+  }
+
+  private void apply(int n, double fx, double fy, double rx, double ry) {
+    fxs[n] = fxs[n] + fx;
+    fys[n] = fys[n] + fy;
+    torques[n] = torques[n] + rx * fy - ry * fx;
+  }
+
+  private void contact(int b) {
+    int n = bodyNodes[b];
+    touching[b] = false;
+    for (int c = firstCorners[b]; c < firstCorners[b + 1]; c++) {
+      int k = 2 * c;
+      double rx = rotatedCorners[k];
+      double ry = rotatedCorners[k + 1];
+      double x = xs[n] + rx;
+      double y = ys[n] + ry;
+      int i = segment(b, x);
+      double nx = groundNormals[2 * i];
+      double ny = groundNormals[2 * i + 1];
+      double penetration = (groundXs[i] - x) * nx + (groundYs[i] - y) * ny;
+      double vx = vxs[n] - ws[n] * ry;
+      double vy = vys[n] + ws[n] * rx;
+      double rn = rx * ny - ry * nx;
+      double normalMass = 1d / (inverseMasses[n] + inverseInertias[n] * rn * rn);
+      double normalForce = normalMass * contactOmega * (
+          contactOmega * penetration - 2d * CONTACT_DAMPING_RATIO * (vx * nx + vy * ny)
+      );
+      if (penetration <= 0d || normalForce <= 0d) {
+        stickPoints[k] = Double.NaN;
+        continue;
+      }
+      touching[b] = true;
+      if (Double.isNaN(stickPoints[k])) {
+        stickPoints[k] = x;
+        stickPoints[k + 1] = y;
+      }
+      //friction
+      double tx = ny;
+      double ty = -nx;
+      double rt = rx * ty - ry * tx;
+      double tangentialMass = 1d / (inverseMasses[n] + inverseInertias[n] * rt * rt);
+      double slip = (x - stickPoints[k]) * tx + (y - stickPoints[k + 1]) * ty;
+      double frictionForce = -tangentialMass * frictionOmega * (
+          frictionOmega * slip + 2d * CONTACT_DAMPING_RATIO * (vx * tx + vy * ty)
+      );
+      double maxFrictionForce = frictions[c] * normalForce;
+      if (Math.abs(frictionForce) > maxFrictionForce) {
+        frictionForce = Math.signum(frictionForce) * maxFrictionForce;
+        //slide: move the anchor where the spring force equals the maximum force
+        double newSlip = -frictionForce / (tangentialMass * frictionOmega * frictionOmega);
+        stickPoints[k] = x - newSlip * tx;
+        stickPoints[k + 1] = y - newSlip * ty;
+      }
+      apply(n, normalForce * nx + frictionForce * tx, normalForce * ny + frictionForce * ty, rx, ry);
+    }
+  }
+
+  //pushes apart two overlapping polygons along the normal of the side, among the ones of both, they penetrate least
+  private void collide(int p, int q) {
+    double pSeparation = separation(p, q, pAxis);
+    if (pSeparation >= 0d) {
+      return;
+    }
+    double qSeparation = separation(q, p, qAxis);
+    if (qSeparation >= 0d) {
+      return;
+    }
+    if (pSeparation >= qSeparation) {
+      push(p, q, pAxis);
+    } else {
+      push(q, p, qAxis);
+    }
+  }
+
+  //returns the largest separation of the polygon p from a side of the polygon q, whose normal and offset go in the axis
+  private double separation(int p, int q, double[] axis) {
+    int np = polygonNodes[p];
+    int nq = polygonNodes[q];
+    int first = firstPolygonCorners[q];
+    int last = firstPolygonCorners[q + 1];
+    double maxSeparation = Double.NEGATIVE_INFINITY;
+    for (int e = first; e < last; e++) {
+      int next = e + 1 < last ? e + 1 : first;
+      double ex = rotatedCorners[2 * next] - rotatedCorners[2 * e];
+      double ey = rotatedCorners[2 * next + 1] - rotatedCorners[2 * e + 1];
+      double scale = polygonOrientations[q] / Math.sqrt(ex * ex + ey * ey);
+      double nx = ey * scale;
+      double ny = -ex * scale;
+      double offset = (xs[nq] + rotatedCorners[2 * e]) * nx + (ys[nq] + rotatedCorners[2 * e + 1]) * ny;
+      double separation = Double.POSITIVE_INFINITY;
+      for (int c = firstPolygonCorners[p]; c < firstPolygonCorners[p + 1]; c++) {
+        separation = Math.min(
+            separation,
+            (xs[np] + rotatedCorners[2 * c]) * nx + (ys[np] + rotatedCorners[2 * c + 1]) * ny - offset
+        );
+      }
+      if (separation > maxSeparation) {
+        maxSeparation = separation;
+        axis[0] = nx;
+        axis[1] = ny;
+        axis[2] = offset;
+      }
+    }
+    return maxSeparation;
+  }
+
+  //pushes the corners of the polygon p which are beyond the side of the polygon q given by the axis out of the latter
+  private void push(int p, int q, double[] axis) {
+    int np = polygonNodes[p];
+    int nq = polygonNodes[q];
+    double nx = axis[0];
+    double ny = axis[1];
+    for (int c = firstPolygonCorners[p]; c < firstPolygonCorners[p + 1]; c++) {
+      double rx = rotatedCorners[2 * c];
+      double ry = rotatedCorners[2 * c + 1];
+      double x = xs[np] + rx;
+      double y = ys[np] + ry;
+      double penetration = axis[2] - x * nx - y * ny;
+      if (penetration <= 0d) {
+        continue;
+      }
+      double qx = x - xs[nq];
+      double qy = y - ys[nq];
+      double vx = vxs[np] - ws[np] * ry - vxs[nq] + ws[nq] * qy;
+      double vy = vys[np] + ws[np] * rx - vys[nq] - ws[nq] * qx;
+      double rn = rx * ny - ry * nx;
+      double qn = qx * ny - qy * nx;
+      double normalMass = 1d / (inverseMasses[np] + inverseInertias[np] * rn * rn
+          + inverseMasses[nq] + inverseInertias[nq] * qn * qn);
+      double normalForce = normalMass * contactOmega * (
+          contactOmega * penetration - 2d * CONTACT_DAMPING_RATIO * (vx * nx + vy * ny)
+      );
+      if (normalForce <= 0d) {
+        continue;
+      }
+      //friction, as a damper capped as in Coulomb friction
+      double tx = ny;
+      double ty = -nx;
+      double rt = rx * ty - ry * tx;
+      double qt = qx * ty - qy * tx;
+      double tangentialMass = 1d / (inverseMasses[np] + inverseInertias[np] * rt * rt
+          + inverseMasses[nq] + inverseInertias[nq] * qt * qt);
+      double frictionForce = -tangentialMass * 2d * CONTACT_DAMPING_RATIO * contactOmega * (vx * tx + vy * ty);
+      double maxFrictionForce = Math.sqrt(polygonFrictions[p] * polygonFrictions[q]) * normalForce;
+      frictionForce = Math.max(-maxFrictionForce, Math.min(maxFrictionForce, frictionForce));
+      double fx = normalForce * nx + frictionForce * tx;
+      double fy = normalForce * ny + frictionForce * ty;
+      apply(np, fx, fy, rx, ry);
+      apply(nq, -fx, -fy, qx, qy);
+    }
+  }
+
+  //finds the pairs of polygons of different nodes whose bounds, enlarged by the margin, overlap, by sweep and prune
+  private void findCollisionPairs() {
+    rotate();
+    for (int p = 0; p < polygonNodes.length; p++) {
+      int n = polygonNodes[p];
+      double minX = Double.POSITIVE_INFINITY;
+      double minY = Double.POSITIVE_INFINITY;
+      double maxX = Double.NEGATIVE_INFINITY;
+      double maxY = Double.NEGATIVE_INFINITY;
+      for (int c = firstPolygonCorners[p]; c < firstPolygonCorners[p + 1]; c++) {
+        minX = Math.min(minX, xs[n] + rotatedCorners[2 * c]);
+        minY = Math.min(minY, ys[n] + rotatedCorners[2 * c + 1]);
+        maxX = Math.max(maxX, xs[n] + rotatedCorners[2 * c]);
+        maxY = Math.max(maxY, ys[n] + rotatedCorners[2 * c + 1]);
+      }
+      polygonBounds[4 * p] = minX - COLLISION_MARGIN;
+      polygonBounds[4 * p + 1] = minY - COLLISION_MARGIN;
+      polygonBounds[4 * p + 2] = maxX + COLLISION_MARGIN;
+      polygonBounds[4 * p + 3] = maxY + COLLISION_MARGIN;
+    }
+    //insertion sort, which takes about linear time, since the order changes little from one step to the next
+    for (int i = 1; i < polygonOrder.length; i++) {
+      int p = polygonOrder[i];
+      int j = i - 1;
+      while (j >= 0 && polygonBounds[4 * polygonOrder[j]] > polygonBounds[4 * p]) {
+        polygonOrder[j + 1] = polygonOrder[j];
+        j = j - 1;
+      }
+      polygonOrder[j + 1] = p;
+    }
+    nOfCollisionPairs = 0;
+    for (int i = 0; i < polygonOrder.length; i++) {
+      int p = polygonOrder[i];
+      for (int j = i + 1; j < polygonOrder.length && polygonBounds[4 * polygonOrder[j]] <= polygonBounds[4 * p + 2]; j++) {
+        int q = polygonOrder[j];
+        if (polygonNodes[p] != polygonNodes[q]
+            && polygonBounds[4 * p + 1] <= polygonBounds[4 * q + 3]
+            && polygonBounds[4 * q + 1] <= polygonBounds[4 * p + 3]) {
+          if (2 * nOfCollisionPairs + 2 > collisionPairs.length) {
+            collisionPairs = Arrays.copyOf(collisionPairs, 2 * collisionPairs.length + 2);
+          }
+          collisionPairs[2 * nOfCollisionPairs] = p;
+          collisionPairs[2 * nOfCollisionPairs + 1] = q;
+          nOfCollisionPairs = nOfCollisionPairs + 1;
+        }
+      }
+    }
+  }
+
+  //updates the orientation of the nodes and the corners
+  private void rotate() {
+    for (int n = 0; n < xs.length; n++) {
+      coss[n] = Math.cos(angles[n]);
+      sins[n] = Math.sin(angles[n]);
+    }
+    for (int b = 0; b < bodies.length; b++) {
+      int n = bodyNodes[b];
+      for (int k = 2 * firstCorners[b]; k < 2 * firstCorners[b + 1]; k = k + 2) {
+        rotatedCorners[k] = coss[n] * corners[k] - sins[n] * corners[k + 1];
+        rotatedCorners[k + 1] = sins[n] * corners[k] + coss[n] * corners[k + 1];
+      }
+    }
+  }
+
+  //returns the index of the ground segment spanning x, starting from the one of the previous query for the body
+  private int segment(int b, double x) {
+    int i = segments[b];
+    while (i > 0 && x < groundXs[i]) {
+      i = i - 1;
+    }
+    while (i < groundXs.length - 2 && x > groundXs[i + 1]) {
+      i = i + 1;
+    }
+    segments[b] = i;
+    return i;
+  }
+
+  //reads the current parameters of the joints, which may be changed by the voxels (e.g., by actuation)
+  private void updateSprings(double stiffOmega) {
+    for (int s = 0; s < joints.length; s++) {
+      double frequency = joints[s].getFrequency();
+      springRests[s] = joints[s].getRestDistance();
+      if (frequency > 0d) {
+        springOmegas[s] = 2d * Math.PI * frequency;
+        springDampingRatios[s] = joints[s].getDampingRatio();
+      } else {
+        springOmegas[s] = stiffOmega;
+        springDampingRatios[s] = STIFF_DAMPING_RATIO;
+      }
+    }
+  }
+
+}
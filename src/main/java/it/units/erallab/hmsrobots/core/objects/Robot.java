@@ -19,18 +19,27 @@ package it.units.erallab.hmsrobots.core.objects;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import it.units.erallab.hmsrobots.core.Actionable;
+import it.units.erallab.hmsrobots.core.StepProfiler;
 import it.units.erallab.hmsrobots.core.controllers.Controller;
 import it.units.erallab.hmsrobots.core.geometry.BoundingBox;
 import it.units.erallab.hmsrobots.core.geometry.Point2;
 import it.units.erallab.hmsrobots.core.geometry.Shape;
+import it.units.erallab.hmsrobots.core.sensors.CompositeSensor;
+import it.units.erallab.hmsrobots.core.sensors.Lidar;
+import it.units.erallab.hmsrobots.core.sensors.LidarRaycaster;
+import it.units.erallab.hmsrobots.core.sensors.Sensor;
 import it.units.erallab.hmsrobots.core.snapshots.RobotShape;
 import it.units.erallab.hmsrobots.core.snapshots.Snapshot;
+import it.units.erallab.hmsrobots.core.snapshots.SnapshotFilter;
 import it.units.erallab.hmsrobots.core.snapshots.Snapshottable;
 import it.units.erallab.hmsrobots.core.snapshots.VoxelPoly;
 import it.units.erallab.hmsrobots.util.Grid;
 import org.dyn4j.dynamics.Body;
+import org.dyn4j.dynamics.BodyFixture;
 import org.dyn4j.dynamics.joint.Joint;
 import org.dyn4j.dynamics.joint.WeldJoint;
+import org.dyn4j.geometry.MassType;
+import org.dyn4j.geometry.Rectangle;
 import org.dyn4j.geometry.Vector2;
 import org.dyn4j.world.World;
 
@@ -39,8 +48,13 @@ import java.io.ObjectInputStream;
 import java.io.Serial;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 
 /**
  * @author Eric Medvet <eric.medvet@gmail.com>
@@ -51,18 +65,47 @@ public class Robot implements Actionable, Serializable, WorldObject, Snapshottab
   private final Controller controller;
   @JsonProperty
   private final Grid<Voxel> voxels;
+  @JsonProperty
+  private final Assembly assembly;
 
   private transient List<Joint<Body>> joints;
+  private transient List<Lidar> lidars;
+  private transient LidarRaycaster lidarRaycaster;
 
   @JsonCreator
   public Robot(
-      @JsonProperty("controller") Controller controller, @JsonProperty("voxels") Grid<Voxel> voxels
+      @JsonProperty("controller") Controller controller,
+      @JsonProperty("voxels") Grid<Voxel> voxels,
+      @JsonProperty("assembly") Assembly assembly
   ) {
     this.controller = controller;
     this.voxels = voxels;
+    this.assembly = assembly == null ? Assembly.WELDED_VERTICES : assembly;
     reset();
   }
 
+  public Robot(Controller controller, Grid<Voxel> voxels) {
+    this(controller, voxels, Assembly.WELDED_VERTICES);
+  }
+
+  //builds a robot with the voxels and controller of an ongoing episode: voxels are assembled, but not reset
+  Robot(Controller controller, Grid<Voxel> voxels, Assembly assembly, Assembly actualAssembly) {
+    this.controller = controller;
+    this.voxels = voxels;
+    this.assembly = assembly;
+    assemble(actualAssembly);
+  }
+
+  /**
+   * How the coincident vertices of adjacent voxels are connected. With {@link #WELDED_VERTICES}, each voxel has its own
+   * vertex bodies and the coincident ones are welded together. With {@link #SHARED_VERTICES}, the coincident vertex
+   * bodies are fused in a single body, having one fixture for each voxel, which is shared by the voxels: there are no
+   * welds and, for large robots, about one quarter of the bodies.
+   */
+  public enum Assembly {
+    WELDED_VERTICES, SHARED_VERTICES
+  }
+
   private static Joint<Body> join(Body body1, Body body2) {
     return new WeldJoint<>(body1, body2, new Vector2(
         (body1.getWorldCenter().x + body1.getWorldCenter().x) / 2d,
@@ -70,10 +113,63 @@ public class Robot implements Actionable, Serializable, WorldObject, Snapshottab
     ));
   }
 
+  //builds a single body with one fixture for each of the given (not yet rotated) bodies, with the same mass and center
+  private static Body fuse(List<Body> bodies) {
+    double cx = 0d;
+    double cy = 0d;
+    for (Body body : bodies) {
+      cx = cx + body.getWorldCenter().x / bodies.size();
+      cy = cy + body.getWorldCenter().y / bodies.size();
+    }
+    Body fused = new Body();
+    for (Body body : bodies) {
+      BodyFixture fixture = body.getFixture(0);
+      Rectangle rectangle = (Rectangle) fixture.getShape();
+      Rectangle shape = new Rectangle(rectangle.getWidth(), rectangle.getHeight());
+      shape.translate(body.getWorldCenter().x - cx, body.getWorldCenter().y - cy);
+      fused.addFixture(shape, fixture.getDensity(), fixture.getFriction(), fixture.getRestitution())
+          .setFilter(fixture.getFilter());
+    }
+    fused.translate(cx, cy);
+    fused.setMass(MassType.NORMAL);
+    fused.setLinearDamping(bodies.get(0).getLinearDamping());
+    fused.setAngularDamping(bodies.get(0).getAngularDamping());
+    fused.setUserData(bodies.get(0).getUserData());
+    return fused;
+  }
+
+  private static void collectLidars(Sensor sensor, List<Lidar> lidars) {
+    if (sensor instanceof Lidar lidar) {
+      lidars.add(lidar);
+    } else if (sensor instanceof CompositeSensor compositeSensor) {
+      collectLidars(compositeSensor.getSensor(), lidars);
+    }
+  }
+
   @Override
   public void act(final double t) {
+    if (lidars == null) {
+      lidars = new ArrayList<>();
+      voxels.values().stream().filter(Objects::nonNull).forEach(v -> v.getSensors().forEach(s -> collectLidars(s, lidars)));
+      lidarRaycaster = new LidarRaycaster();
+    }
+    lidarRaycaster.cast(lidars, t);
     voxels.values().stream().filter(Objects::nonNull).forEach(v -> v.act(t));
-    controller.control(t, voxels);
+    StepProfiler profiler = StepProfiler.current();
+    if (profiler == null) {
+      controller.control(t, voxels);
+    } else {
+      long startNanos = System.nanoTime();
+      long startAllocatedBytes = profiler.allocatedBytes();
+      controller.control(t, voxels);
+      profiler.stopController(controller, startNanos, startAllocatedBytes);
+    }
+  }
+
+  private void addControllerSnapshot(Snapshot snapshot, SnapshotFilter filter) {
+    if (controller instanceof Snapshottable snapshottable && filter.includes(snapshottable.getClass(), null)) {
+      snapshot.getChildren().add(snapshottable.getSnapshot(filter));
+    }
   }
 
   @Override
@@ -88,7 +184,7 @@ public class Robot implements Actionable, Serializable, WorldObject, Snapshottab
     }
   }
 
-  private void assemble() {
+  private void assemble(Assembly assembly) {
     joints = new ArrayList<>();
     //translate voxels
     for (int gx = 0; gx < voxels.getW(); gx++) {
@@ -98,6 +194,9 @@ public class Robot implements Actionable, Serializable, WorldObject, Snapshottab
           voxel.setOwner(this);
           voxel.translate(new Vector2((double) gx * voxel.getSideLength(), (double) gy * voxel.getSideLength()));
           //check for adjacent voxels
+          if (assembly == Assembly.SHARED_VERTICES) {
+            continue;
+          }
           if ((gx > 0) && (voxels.get(gx - 1, gy) != null)) {
             Voxel adjacent = voxels.get(gx - 1, gy);
             joints.add(join(voxel.getVertexBodies()[0], adjacent.getVertexBodies()[1]));
@@ -111,6 +210,78 @@ public class Robot implements Actionable, Serializable, WorldObject, Snapshottab
         }
       }
     }
+    if (assembly == Assembly.SHARED_VERTICES) {
+      shareVertexBodies();
+    }
+  }
+
+  //replaces the vertex bodies that would be welded together with a single body shared by the voxels
+  private void shareVertexBodies() {
+    int w = voxels.getW();
+    int[] parents = new int[4 * w * voxels.getH()];
+    for (int k = 0; k < parents.length; k++) {
+      parents[k] = k;
+    }
+    for (int gx = 0; gx < w; gx++) {
+      for (int gy = 0; gy < voxels.getH(); gy++) {
+        if (voxels.get(gx, gy) == null) {
+          continue;
+        }
+        int k = 4 * (gy * w + gx);
+        if ((gx > 0) && (voxels.get(gx - 1, gy) != null)) {
+          int adjacentK = 4 * (gy * w + gx - 1);
+          union(parents, k, adjacentK + 1);
+          union(parents, k + 3, adjacentK + 2);
+        }
+        if ((gy > 0) && (voxels.get(gx, gy - 1) != null)) {
+          int adjacentK = 4 * ((gy - 1) * w + gx);
+          union(parents, k + 3, adjacentK);
+          union(parents, k + 2, adjacentK + 1);
+        }
+      }
+    }
+    Map<Integer, List<Integer>> groups = new LinkedHashMap<>();
+    for (int k = 0; k < parents.length; k++) {
+      if (voxels.get(k / 4 % w, k / 4 / w) != null) {
+        groups.computeIfAbsent(root(parents, k), r -> new ArrayList<>()).add(k);
+      }
+    }
+    Body[] bodies = new Body[parents.length];
+    int[] fixtures = new int[parents.length];
+    for (List<Integer> group : groups.values()) {
+      List<Body> groupBodies = group.stream()
+          .map(k -> voxels.get(k / 4 % w, k / 4 / w).getVertexBodies()[k % 4])
+          .toList();
+      Body body = groupBodies.size() == 1 ? groupBodies.get(0) : fuse(groupBodies);
+      for (int i = 0; i < group.size(); i++) {
+        bodies[group.get(i)] = body;
+        fixtures[group.get(i)] = i;
+      }
+    }
+    for (int gx = 0; gx < w; gx++) {
+      for (int gy = 0; gy < voxels.getH(); gy++) {
+        Voxel voxel = voxels.get(gx, gy);
+        if (voxel != null) {
+          int k = 4 * (gy * w + gx);
+          voxel.setVertexBodies(
+              new Body[]{bodies[k], bodies[k + 1], bodies[k + 2], bodies[k + 3]},
+              new int[]{fixtures[k], fixtures[k + 1], fixtures[k + 2], fixtures[k + 3]}
+          );
+        }
+      }
+    }
+  }
+
+  private static int root(int[] parents, int k) {
+    while (parents[k] != k) {
+      parents[k] = parents[parents[k]];
+      k = parents[k];
+    }
+    return k;
+  }
+
+  private static void union(int[] parents, int k1, int k2) {
+    parents[root(parents, k1)] = root(parents, k2);
   }
 
   @SuppressWarnings("OptionalGetWithoutIsPresent")
@@ -129,24 +300,43 @@ public class Robot implements Actionable, Serializable, WorldObject, Snapshottab
     return voxels.values().stream().filter(Objects::nonNull).mapToDouble(Voxel::area).sum();
   }
 
+  public Assembly getAssembly() {
+    return assembly;
+  }
+
   public Controller getController() {
     return controller;
   }
 
   @Override
   public Snapshot getSnapshot() {
-    Grid<Snapshot> voxelSnapshots = Grid.create(voxels, v -> v == null ? null : v.getSnapshot());
+    return getSnapshot(SnapshotFilter.all());
+  }
+
+  @Override
+  public Snapshot getSnapshot(SnapshotFilter filter) {
+    if (!filter.includes(Voxel.class, VoxelPoly.class)) {
+      Snapshot snapshot = new Snapshot(new RobotShape(
+          Grid.create(voxels, v -> v == null ? null : v.getVoxelPoly()),
+          boundingBox()
+      ), getClass());
+      addControllerSnapshot(snapshot, filter);
+      return snapshot;
+    }
+    Grid<Snapshot> voxelSnapshots = Grid.create(voxels, v -> v == null ? null : v.getSnapshot(filter));
     Snapshot snapshot = new Snapshot(new RobotShape(Grid.create(
         voxelSnapshots,
         s -> s == null ? null : ((VoxelPoly) s.getContent())
     ), boundingBox()), getClass());
-    if (controller instanceof Snapshottable) {
-      snapshot.getChildren().add(((Snapshottable) controller).getSnapshot());
-    }
+    addControllerSnapshot(snapshot, filter);
     snapshot.getChildren().addAll(voxelSnapshots.values().stream().filter(Objects::nonNull).toList());
     return snapshot;
   }
 
+  List<Joint<Body>> getJoints() {
+    return joints;
+  }
+
   public Grid<Voxel> getVoxels() {
     return voxels;
   }
@@ -159,20 +349,34 @@ public class Robot implements Actionable, Serializable, WorldObject, Snapshottab
 
   @Override
   public void reset() {
+    reset(assembly);
+  }
+
+  /**
+   * Resets this robot as {@link #reset()}, but assembles its voxels with the given assembly, in place of the one of the
+   * robot, until the next reset.
+   */
+  public void reset(Assembly assembly) {
     voxels.values().stream().filter(Objects::nonNull).forEach(Voxel::reset);
-    assemble();
+    assemble(assembly);
     controller.reset();
   }
 
   @Override
   public String toString() {
-    return "Robot{" + "controller=" + controller + ", voxels=" + voxels + '}';
+    return "Robot{" + "controller=" + controller + ", voxels=" + voxels + ", assembly=" + assembly + '}';
   }
 
   public void translate(Vector2 v) {
+    //vertex bodies may be shared among voxels, hence each one is translated once
+    Set<Body> translated = Collections.newSetFromMap(new IdentityHashMap<>());
     for (Voxel voxel : voxels.values()) {
       if (voxel != null) {
-        voxel.translate(v);
+        for (Body body : voxel.getVertexBodies()) {
+          if (translated.add(body)) {
+            body.translate(v);
+          }
+        }
       }
     }
   }
@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2021 Eric Medvet <eric.medvet@gmail.com> (as Eric Medvet <eric.medvet@gmail.com>)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.units.erallab.hmsrobots.core.objects;
+
+import it.units.erallab.hmsrobots.core.controllers.Controller;
+import it.units.erallab.hmsrobots.util.Grid;
+import it.units.erallab.hmsrobots.util.SerializationUtils;
+import org.dyn4j.dynamics.Body;
+import org.dyn4j.dynamics.joint.DistanceJoint;
+import org.dyn4j.geometry.Transform;
+
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * The state of a {@link Robot} in an ongoing episode, which can be restored, also many times, for continuing the
+ * episode from it. It consists of the positions and velocities of the vertex bodies and of the rest distances of the
+ * springs, kept in primitive arrays, and of the state of the voxels (e.g., their energies), of their sensors (e.g., the
+ * windows of aggregator sensors), and of the controller, i.e., their non-transient fields, which are kept
+ * Java-serialized and gzipped. Transient fields are meant as caches and are rebuilt after restoring.
+ * <p>
+ * The impulses cached by dyn4j for warm starting the solution of contacts and joints are not part of the state: a
+ * restored episode closely follows the original one, but is not bit-identical to it.
+ */
+public class RobotState implements Serializable {
+
+  private static final int BODY_SIZE = 7; //x, y, cosine and sine of the angle, linear and angular velocities
+
+  private final byte[] parts;
+  private final Robot.Assembly actualAssembly;
+  private final List<Set<Voxel.SpringScaffolding>> springScaffoldings;
+  private final double[] bodies;
+  private final double[] restDistances;
+
+  private record Parts(Controller controller, Grid<Voxel> voxels, Robot.Assembly assembly) implements Serializable {}
+
+  //a transform with the given (possibly not exactly unit) cosine and sine, as those of the integrated bodies
+  private static class ExactTransform extends Transform {
+    void set(double x, double y, double cost, double sint) {
+      setTranslation(x, y);
+      this.cost = cost;
+      this.sint = sint;
+    }
+  }
+
+  private RobotState(
+      byte[] parts,
+      Robot.Assembly actualAssembly,
+      List<Set<Voxel.SpringScaffolding>> springScaffoldings,
+      double[] bodies,
+      double[] restDistances
+  ) {
+    this.parts = parts;
+    this.actualAssembly = actualAssembly;
+    this.springScaffoldings = springScaffoldings;
+    this.bodies = bodies;
+    this.restDistances = restDistances;
+  }
+
+  public static RobotState of(Robot robot) {
+    List<Voxel> voxels = voxels(robot);
+    List<Body> bodies = bodies(voxels);
+    double[] bodyStates = new double[bodies.size() * BODY_SIZE];
+    for (int i = 0; i < bodies.size(); i++) {
+      Body body = bodies.get(i);
+      Transform transform = body.getTransform();
+      int offset = i * BODY_SIZE;
+      bodyStates[offset] = transform.getTranslationX();
+      bodyStates[offset + 1] = transform.getTranslationY();
+      bodyStates[offset + 2] = transform.getCost();
+      bodyStates[offset + 3] = transform.getSint();
+      bodyStates[offset + 4] = body.getLinearVelocity().x;
+      bodyStates[offset + 5] = body.getLinearVelocity().y;
+      bodyStates[offset + 6] = body.getAngularVelocity();
+    }
+    return new RobotState(
+        SerializationUtils.toBytes(
+            new Parts(robot.getController(), robot.getVoxels(), robot.getAssembly()),
+            SerializationUtils.Mode.GZIPPED_JAVA
+        ),
+        //only shared vertex bodies are fewer than the vertices
+        bodies.size() < 4 * voxels.size() ? Robot.Assembly.SHARED_VERTICES : Robot.Assembly.WELDED_VERTICES,
+        voxels.stream()
+            .map(v -> (Set<Voxel.SpringScaffolding>) EnumSet.copyOf(v.getActiveSpringScaffoldings()))
+            .toList(),
+        bodyStates,
+        springs(voxels).stream().mapToDouble(DistanceJoint::getRestDistance).toArray()
+    );
+  }
+
+  private static List<Body> bodies(List<Voxel> voxels) {
+    Set<Body> bodies = Collections.newSetFromMap(new IdentityHashMap<>());
+    List<Body> orderedBodies = new ArrayList<>();
+    for (Voxel voxel : voxels) {
+      for (Body body : voxel.getVertexBodies()) {
+        if (bodies.add(body)) {
+          orderedBodies.add(body);
+        }
+      }
+    }
+    return orderedBodies;
+  }
+
+  private static List<DistanceJoint<Body>> springs(List<Voxel> voxels) {
+    List<DistanceJoint<Body>> springs = new ArrayList<>();
+    for (Voxel voxel : voxels) {
+      springs.addAll(voxel.springJoints);
+    }
+    return springs;
+  }
+
+  private static List<Voxel> voxels(Robot robot) {
+    return robot.getVoxels().values().stream().filter(Objects::nonNull).toList();
+  }
+
+  /**
+   * Resets the given robot, which has to have the same body of the robot of this state, and moves its vertex bodies
+   * and springs to this state. Differently from {@link #restore()}, voxels, sensors, and controller of the given robot
+   * are not restored, but just reset: this allows, e.g., to start episodes of robots with different controllers from a
+   * common pose.
+   */
+  public void applyTo(Robot robot) {
+    robot.reset(actualAssembly);
+    reduceSpringScaffoldings(voxels(robot));
+    set(voxels(robot));
+  }
+
+  double[] getBodies() {
+    return bodies;
+  }
+
+  public int getByteSize() {
+    return parts.length + Double.BYTES * (bodies.length + restDistances.length);
+  }
+
+  double[] getRestDistances() {
+    return restDistances;
+  }
+
+  private void reduceSpringScaffoldings(List<Voxel> voxels) {
+    if (voxels.size() != springScaffoldings.size()) {
+      throw new IllegalArgumentException(String.format(
+          "Wrong number of voxels: %d expected, %d found",
+          springScaffoldings.size(),
+          voxels.size()
+      ));
+    }
+    for (int i = 0; i < voxels.size(); i++) {
+      if (!voxels.get(i).getActiveSpringScaffoldings().equals(springScaffoldings.get(i))) {
+        voxels.get(i).reduceSpringScaffoldings(springScaffoldings.get(i));
+      }
+    }
+  }
+
+  /**
+   * Builds a new robot in this state, including the state of its voxels, sensors, and controller.
+   */
+  public Robot restore() {
+    Parts restoredParts = SerializationUtils.fromBytes(parts, Parts.class, SerializationUtils.Mode.GZIPPED_JAVA);
+    if (restoredParts == null) {
+      throw new IllegalStateException("Cannot deserialize the robot state");
+    }
+    List<Voxel> voxels = restoredParts.voxels().values().stream().filter(Objects::nonNull).toList();
+    reduceSpringScaffoldings(voxels);
+    Robot robot = new Robot(
+        restoredParts.controller(),
+        restoredParts.voxels(),
+        restoredParts.assembly(),
+        actualAssembly
+    );
+    set(voxels);
+    return robot;
+  }
+
+  private void set(List<Voxel> voxels) {
+    List<Body> vertexBodies = bodies(voxels);
+    List<DistanceJoint<Body>> springs = springs(voxels);
+    if (vertexBodies.size() * BODY_SIZE != bodies.length || springs.size() != restDistances.length) {
+      throw new IllegalArgumentException(String.format(
+          "Wrong robot: %d bodies and %d springs expected, %d and %d found",
+          bodies.length / BODY_SIZE,
+          restDistances.length,
+          vertexBodies.size(),
+          springs.size()
+      ));
+    }
+    ExactTransform transform = new ExactTransform();
+    for (int i = 0; i < vertexBodies.size(); i++) {
+      Body body = vertexBodies.get(i);
+      int offset = i * BODY_SIZE;
+      transform.set(bodies[offset], bodies[offset + 1], bodies[offset + 2], bodies[offset + 3]);
+      body.setTransform(transform);
+      body.getPreviousTransform().set(transform);
+      body.setLinearVelocity(bodies[offset + 4], bodies[offset + 5]);
+      body.setAngularVelocity(bodies[offset + 6]);
+      body.setAtRest(false);
+    }
+    for (int i = 0; i < springs.size(); i++) {
+      springs.get(i).setRestDistance(restDistances[i]);
+    }
+  }
+
+}
@@ -20,19 +20,19 @@ import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
 import it.units.erallab.hmsrobots.core.Actionable;
+import it.units.erallab.hmsrobots.core.StepProfiler;
 import it.units.erallab.hmsrobots.core.geometry.*;
 import it.units.erallab.hmsrobots.core.sensors.Sensor;
 import it.units.erallab.hmsrobots.core.sensors.Touch;
 import it.units.erallab.hmsrobots.core.snapshots.Snapshot;
+import it.units.erallab.hmsrobots.core.snapshots.SnapshotFilter;
 import it.units.erallab.hmsrobots.core.snapshots.Snapshottable;
 import it.units.erallab.hmsrobots.core.snapshots.VoxelPoly;
 import it.units.erallab.hmsrobots.util.DoubleRange;
-import org.apache.commons.lang3.ArrayUtils;
 import org.dyn4j.collision.Filter;
 import org.dyn4j.dynamics.Body;
 import org.dyn4j.dynamics.joint.DistanceJoint;
 import org.dyn4j.dynamics.joint.Joint;
-import org.dyn4j.geometry.MassType;
 import org.dyn4j.geometry.Rectangle;
 import org.dyn4j.geometry.Transform;
 import org.dyn4j.geometry.Vector2;
@@ -42,10 +42,9 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.Serial;
 import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * @author Eric Medvet <eric.medvet@gmail.com>
@@ -95,10 +94,14 @@ public class Voxel implements Actionable, Serializable, Snapshottable, WorldObje
 
   protected transient Body[] vertexBodies;
   protected transient List<DistanceJoint<Body>> springJoints;
+  private transient int[] vertexFixtures;
+  private transient VoxelTemplate template;
+  private transient EnumSet<SpringScaffolding> activeSpringScaffoldings;
   private transient World<Body> world;
-  private transient double areaRatioEnergy;
-  private transient double controlEnergy;
-  private transient double lastAppliedForce;
+  private transient ContactIndex contactIndex;
+  private double areaRatioEnergy;
+  private double controlEnergy;
+  private double lastAppliedForce;
 
   @JsonCreator
   public Voxel(
@@ -159,6 +162,27 @@ public class Voxel implements Actionable, Serializable, Snapshottable, WorldObje
     );
   }
 
+  /**
+   * Returns a new voxel, in its initial state, with the same parameters of this voxel and the given sensors.
+   */
+  public Voxel copy(List<Sensor> sensors) {
+    return new Voxel(
+        sideLength,
+        massSideLengthRatio,
+        springF,
+        springD,
+        massLinearDamping,
+        massAngularDamping,
+        friction,
+        restitution,
+        mass,
+        areaRatioPassiveRange,
+        areaRatioActiveRange,
+        EnumSet.copyOf(springScaffoldings),
+        sensors
+    );
+  }
+
   public enum SpringScaffolding {
     SIDE_EXTERNAL, SIDE_INTERNAL, SIDE_CROSS, CENTRAL_CROSS
   }
@@ -184,7 +208,7 @@ public class Voxel implements Actionable, Serializable, Snapshottable, WorldObje
 
   }
 
-  private record SpringRange(double min, double rest, double max) {
+  record SpringRange(double min, double rest, double max) {
 
     public SpringRange {
       if ((min > rest) || (max < rest) || (min < 0)) {
@@ -199,7 +223,17 @@ public class Voxel implements Actionable, Serializable, Snapshottable, WorldObje
     double areaRatio = getAreaRatio();
     areaRatioEnergy = areaRatioEnergy + areaRatio * areaRatio;
     controlEnergy = controlEnergy + lastAppliedForce * lastAppliedForce;
-    sensors.forEach(s -> s.act(t));
+    StepProfiler profiler = StepProfiler.current();
+    if (profiler == null) {
+      sensors.forEach(s -> s.act(t));
+    } else {
+      for (Sensor sensor : sensors) {
+        long startNanos = System.nanoTime();
+        long startAllocatedBytes = profiler.allocatedBytes();
+        sensor.act(t);
+        profiler.stopSensor(sensor, startNanos, startAllocatedBytes);
+      }
+    }
   }
 
   @Override
@@ -214,11 +248,14 @@ public class Voxel implements Actionable, Serializable, Snapshottable, WorldObje
     }
     this.world = world;
     for (Body body : vertexBodies) {
-      world.addBody(body);
+      if (!world.containsBody(body)) { //vertex bodies may be shared with adjacent voxels
+        world.addBody(body);
+      }
     }
     for (Joint<Body> joint : springJoints) {
       world.addJoint(joint);
     }
+    contactIndex = ContactIndex.of(world);
   }
 
   public void applyForce(double f) {
@@ -226,7 +263,8 @@ public class Voxel implements Actionable, Serializable, Snapshottable, WorldObje
       f = Math.signum(f);
     }
     lastAppliedForce = f;
-    for (DistanceJoint<Body> joint : springJoints) {
+    for (int i = 0; i < springJoints.size(); i++) {
+      DistanceJoint<Body> joint = springJoints.get(i);
       Voxel.SpringRange range = (SpringRange) joint.getUserData();
       if (f >= 0) { // shrink
         joint.setRestDistance(range.rest - (range.rest - range.min) * f);
@@ -237,245 +275,24 @@ public class Voxel implements Actionable, Serializable, Snapshottable, WorldObje
   }
 
   private void assemble() {
-    //compute densities
-    double massSideLength = sideLength * massSideLengthRatio;
-    double density = (mass / 4) / (massSideLength * massSideLength);
-    //build bodies
-    vertexBodies = new Body[4];
-    vertexBodies[0] = new Body(); //NW
-    vertexBodies[1] = new Body(); //NE
-    vertexBodies[2] = new Body(); //SE
-    vertexBodies[3] = new Body(); //SW
-    vertexBodies[0].addFixture(new Rectangle(massSideLength, massSideLength), density, friction, restitution);
-    vertexBodies[1].addFixture(new Rectangle(massSideLength, massSideLength), density, friction, restitution);
-    vertexBodies[2].addFixture(new Rectangle(massSideLength, massSideLength), density, friction, restitution);
-    vertexBodies[3].addFixture(new Rectangle(massSideLength, massSideLength), density, friction, restitution);
-    vertexBodies[0].translate(-(sideLength / 2d - massSideLength / 2d), +(sideLength / 2d - massSideLength / 2d));
-    vertexBodies[1].translate(+(sideLength / 2d - massSideLength / 2d), +(sideLength / 2d - massSideLength / 2d));
-    vertexBodies[2].translate(+(sideLength / 2d - massSideLength / 2d), -(sideLength / 2d - massSideLength / 2d));
-    vertexBodies[3].translate(-(sideLength / 2d - massSideLength / 2d), -(sideLength / 2d - massSideLength / 2d));
-    for (Body body : vertexBodies) {
-      body.setMass(MassType.NORMAL);
-      body.setLinearDamping(massLinearDamping);
-      body.setAngularDamping(massAngularDamping);
-    }
-    //build distance joints constraints
-    List<DistanceJoint<Body>> allSpringJoints = new ArrayList<>();
-    DoubleRange passiveSideRange = DoubleRange.of(
-        Math.sqrt(sideLength * sideLength * areaRatioPassiveRange.min()),
-        Math.sqrt(sideLength * sideLength * areaRatioPassiveRange.max())
+    template = VoxelTemplate.of(
+        sideLength,
+        massSideLengthRatio,
+        springF,
+        springD,
+        massLinearDamping,
+        massAngularDamping,
+        friction,
+        restitution,
+        mass,
+        areaRatioPassiveRange,
+        areaRatioActiveRange,
+        springScaffoldings
     );
-    DoubleRange activeSideRange = DoubleRange.of(
-        Math.sqrt(sideLength * sideLength * areaRatioActiveRange.min()),
-        Math.sqrt(sideLength * sideLength * areaRatioActiveRange.max())
-    );
-    SpringRange sideParallelPassiveRange = new SpringRange(
-        passiveSideRange.min() - 2d * massSideLength,
-        sideLength - 2d * massSideLength,
-        passiveSideRange.max() - 2d * massSideLength
-    );
-    SpringRange sideCrossPassiveRange = new SpringRange(
-        Math.sqrt(massSideLength * massSideLength + sideParallelPassiveRange.min * sideParallelPassiveRange.min),
-        Math.sqrt(massSideLength * massSideLength + sideParallelPassiveRange.rest * sideParallelPassiveRange.rest),
-        Math.sqrt(massSideLength * massSideLength + sideParallelPassiveRange.max * sideParallelPassiveRange.max)
-    );
-    SpringRange centralCrossPassiveRange = new SpringRange(
-        (passiveSideRange.min() - massSideLength) * Math.sqrt(2d),
-        (sideLength - massSideLength) * Math.sqrt(2d),
-        (passiveSideRange.max() - massSideLength) * Math.sqrt(2d)
-    );
-    SpringRange sideParallelActiveRange = new SpringRange(
-        activeSideRange.min() - 2d * massSideLength,
-        sideLength - 2d * massSideLength,
-        activeSideRange.max() - 2d * massSideLength
-    );
-    SpringRange sideCrossActiveRange = new SpringRange(
-        Math.sqrt(massSideLength * massSideLength + sideParallelActiveRange.min * sideParallelActiveRange.min),
-        Math.sqrt(massSideLength * massSideLength + sideParallelActiveRange.rest * sideParallelActiveRange.rest),
-        Math.sqrt(massSideLength * massSideLength + sideParallelActiveRange.max * sideParallelActiveRange.max)
-    );
-    SpringRange centralCrossActiveRange = new SpringRange(
-        (activeSideRange.min() - massSideLength) * Math.sqrt(2d),
-        (sideLength - massSideLength) * Math.sqrt(2d),
-        (activeSideRange.max() - massSideLength) * Math.sqrt(2d)
-    );
-    //build distance joints
-    if (springScaffoldings.contains(SpringScaffolding.SIDE_INTERNAL)) {
-      List<DistanceJoint<Body>> localSpringJoints = new ArrayList<>();
-      localSpringJoints.add(new DistanceJoint<>(
-          vertexBodies[0],
-          vertexBodies[1],
-          vertexBodies[0].getWorldCenter().copy().add(+massSideLength / 2d, -massSideLength / 2d),
-          vertexBodies[1].getWorldCenter().copy().add(-massSideLength / 2d, -massSideLength / 2d)
-      ));
-      localSpringJoints.add(new DistanceJoint<>(
-          vertexBodies[1],
-          vertexBodies[2],
-          vertexBodies[1].getWorldCenter().copy().add(-massSideLength / 2d, -massSideLength / 2d),
-          vertexBodies[2].getWorldCenter().copy().add(-massSideLength / 2d, +massSideLength / 2d)
-      ));
-      localSpringJoints.add(new DistanceJoint<>(
-          vertexBodies[2],
-          vertexBodies[3],
-          vertexBodies[2].getWorldCenter().copy().add(-massSideLength / 2d, +massSideLength / 2d),
-          vertexBodies[3].getWorldCenter().copy().add(+massSideLength / 2d, +massSideLength / 2d)
-      ));
-      localSpringJoints.add(new DistanceJoint<>(
-          vertexBodies[3],
-          vertexBodies[0],
-          vertexBodies[3].getWorldCenter().copy().add(+massSideLength / 2d, +massSideLength / 2d),
-          vertexBodies[0].getWorldCenter().copy().add(+massSideLength / 2d, -massSideLength / 2d)
-      ));
-      for (DistanceJoint<Body> joint : localSpringJoints) {
-        joint.setUserData(sideParallelActiveRange);
-        if (sideParallelPassiveRange.min > Double.NEGATIVE_INFINITY) {
-          joint.setLowerLimit(sideParallelPassiveRange.min);
-          joint.setLowerLimitEnabled(true);
-        }
-        if (sideParallelPassiveRange.max < Double.POSITIVE_INFINITY) {
-          joint.setUpperLimit(sideParallelPassiveRange.max);
-          joint.setUpperLimitEnabled(true);
-        }
-      }
-      allSpringJoints.addAll(localSpringJoints);
-    }
-    if (springScaffoldings.contains(SpringScaffolding.SIDE_EXTERNAL)) {
-      List<DistanceJoint<Body>> localSpringJoints = new ArrayList<>();
-      localSpringJoints.add(new DistanceJoint<>(
-          vertexBodies[0],
-          vertexBodies[1],
-          vertexBodies[0].getWorldCenter().copy().add(+massSideLength / 2d, +massSideLength / 2d),
-          vertexBodies[1].getWorldCenter().copy().add(-massSideLength / 2d, +massSideLength / 2d)
-      ));
-      localSpringJoints.add(new DistanceJoint<>(
-          vertexBodies[1],
-          vertexBodies[2],
-          vertexBodies[1].getWorldCenter().copy().add(+massSideLength / 2d, -massSideLength / 2d),
-          vertexBodies[2].getWorldCenter().copy().add(+massSideLength / 2d, +massSideLength / 2d)
-      ));
-      localSpringJoints.add(new DistanceJoint<>(
-          vertexBodies[2],
-          vertexBodies[3],
-          vertexBodies[2].getWorldCenter().copy().add(-massSideLength / 2d, -massSideLength / 2d),
-          vertexBodies[3].getWorldCenter().copy().add(+massSideLength / 2d, -massSideLength / 2d)
-      ));
-      localSpringJoints.add(new DistanceJoint<>(
-          vertexBodies[3],
-          vertexBodies[0],
-          vertexBodies[3].getWorldCenter().copy().add(-massSideLength / 2d, +massSideLength / 2d),
-          vertexBodies[0].getWorldCenter().copy().add(-massSideLength / 2d, -massSideLength / 2d)
-      ));
-      for (DistanceJoint<Body> joint : localSpringJoints) {
-        joint.setUserData(sideParallelActiveRange);
-        if (sideParallelPassiveRange.min > Double.NEGATIVE_INFINITY) {
-          joint.setLowerLimit(sideParallelPassiveRange.min);
-          joint.setLowerLimitEnabled(true);
-        }
-        if (sideParallelPassiveRange.max < Double.POSITIVE_INFINITY) {
-          joint.setUpperLimit(sideParallelPassiveRange.max);
-          joint.setUpperLimitEnabled(true);
-        }
-      }
-      allSpringJoints.addAll(localSpringJoints);
-    }
-    if (springScaffoldings.contains(SpringScaffolding.SIDE_CROSS)) {
-      List<DistanceJoint<Body>> localSpringJoints = new ArrayList<>();
-      localSpringJoints.add(new DistanceJoint<>(
-          vertexBodies[0],
-          vertexBodies[1],
-          vertexBodies[0].getWorldCenter().copy().add(+massSideLength / 2d, +massSideLength / 2d),
-          vertexBodies[1].getWorldCenter().copy().add(-massSideLength / 2d, -massSideLength / 2d)
-      ));
-      localSpringJoints.add(new DistanceJoint<>(
-          vertexBodies[0],
-          vertexBodies[1],
-          vertexBodies[0].getWorldCenter().copy().add(+massSideLength / 2d, -massSideLength / 2d),
-          vertexBodies[1].getWorldCenter().copy().add(-massSideLength / 2d, +massSideLength / 2d)
-      ));
-      localSpringJoints.add(new DistanceJoint<>(
-          vertexBodies[1],
-          vertexBodies[2],
-          vertexBodies[1].getWorldCenter().copy().add(+massSideLength / 2d, -massSideLength / 2d),
-          vertexBodies[2].getWorldCenter().copy().add(-massSideLength / 2d, +massSideLength / 2d)
-      ));
-      localSpringJoints.add(new DistanceJoint<>(
-          vertexBodies[1],
-          vertexBodies[2],
-          vertexBodies[1].getWorldCenter().copy().add(-massSideLength / 2d, -massSideLength / 2d),
-          vertexBodies[2].getWorldCenter().copy().add(+massSideLength / 2d, +massSideLength / 2d)
-      ));
-      localSpringJoints.add(new DistanceJoint<>(
-          vertexBodies[2],
-          vertexBodies[3],
-          vertexBodies[2].getWorldCenter().copy().add(-massSideLength / 2d, +massSideLength / 2d),
-          vertexBodies[3].getWorldCenter().copy().add(+massSideLength / 2d, -massSideLength / 2d)
-      ));
-      localSpringJoints.add(new DistanceJoint<>(
-          vertexBodies[2],
-          vertexBodies[3],
-          vertexBodies[2].getWorldCenter().copy().add(-massSideLength / 2d, -massSideLength / 2d),
-          vertexBodies[3].getWorldCenter().copy().add(+massSideLength / 2d, +massSideLength / 2d)
-      ));
-      localSpringJoints.add(new DistanceJoint<>(
-          vertexBodies[3],
-          vertexBodies[0],
-          vertexBodies[3].getWorldCenter().copy().add(-massSideLength / 2d, +massSideLength / 2d),
-          vertexBodies[0].getWorldCenter().copy().add(+massSideLength / 2d, -massSideLength / 2d)
-      ));
-      localSpringJoints.add(new DistanceJoint<>(
-          vertexBodies[3],
-          vertexBodies[0],
-          vertexBodies[3].getWorldCenter().copy().add(+massSideLength / 2d, +massSideLength / 2d),
-          vertexBodies[0].getWorldCenter().copy().add(-massSideLength / 2d, -massSideLength / 2d)
-      ));
-      for (DistanceJoint<Body> joint : localSpringJoints) {
-        joint.setUserData(sideCrossActiveRange);
-        if (sideCrossPassiveRange.min > Double.NEGATIVE_INFINITY) {
-          joint.setLowerLimit(sideCrossPassiveRange.min);
-          joint.setLowerLimitEnabled(true);
-        }
-        if (sideCrossPassiveRange.max < Double.POSITIVE_INFINITY) {
-          joint.setUpperLimit(sideCrossPassiveRange.max);
-          joint.setUpperLimitEnabled(true);
-        }
-      }
-      allSpringJoints.addAll(localSpringJoints);
-    }
-    if (springScaffoldings.contains(SpringScaffolding.CENTRAL_CROSS)) {
-      List<DistanceJoint<Body>> localSpringJoints = new ArrayList<>();
-      localSpringJoints.add(new DistanceJoint<>(
-          vertexBodies[0],
-          vertexBodies[2],
-          vertexBodies[0].getWorldCenter(),
-          vertexBodies[2].getWorldCenter()
-      ));
-      localSpringJoints.add(new DistanceJoint<>(
-          vertexBodies[1],
-          vertexBodies[3],
-          vertexBodies[1].getWorldCenter(),
-          vertexBodies[3].getWorldCenter()
-      ));
-      for (DistanceJoint<Body> joint : localSpringJoints) {
-        joint.setUserData(centralCrossActiveRange);
-        if (centralCrossPassiveRange.min > Double.NEGATIVE_INFINITY) {
-          joint.setLowerLimit(centralCrossPassiveRange.min);
-          joint.setLowerLimitEnabled(true);
-        }
-        if (centralCrossPassiveRange.max < Double.POSITIVE_INFINITY) {
-          joint.setUpperLimit(centralCrossPassiveRange.max);
-          joint.setUpperLimitEnabled(true);
-        }
-      }
-      allSpringJoints.addAll(localSpringJoints);
-    }
-    //setup spring joints
-    for (DistanceJoint<Body> joint : allSpringJoints) {
-      joint.setRestDistance(((SpringRange) joint.getUserData()).rest);
-      joint.setCollisionAllowed(true);
-      joint.setFrequency(springF);
-      joint.setDampingRatio(springD);
-    }
-    springJoints = Collections.unmodifiableList(allSpringJoints);
+    activeSpringScaffoldings = springScaffoldings;
+    vertexBodies = template.buildVertexBodies();
+    vertexFixtures = new int[vertexBodies.length];
+    springJoints = template.buildSpringJoints(vertexBodies, vertexFixtures);
   }
 
   @Override
@@ -498,9 +315,10 @@ public class Voxel implements Actionable, Serializable, Snapshottable, WorldObje
   public Point2 center() {
     double xc = 0d;
     double yc = 0d;
-    for (Body vertex : vertexBodies) {
-      xc = xc + vertex.getWorldCenter().x;
-      yc = yc + vertex.getWorldCenter().y;
+    for (int i = 0; i < vertexBodies.length; i++) {
+      Vector2 vertexCenter = getVertexCenter(i);
+      xc = xc + vertexCenter.x;
+      yc = yc + vertexCenter.y;
     }
     return Point2.of(xc / (double) vertexBodies.length, yc / (double) vertexBodies.length);
   }
@@ -515,9 +333,14 @@ public class Voxel implements Actionable, Serializable, Snapshottable, WorldObje
     ).area();
   }
 
+  //the spring scaffoldings which are simulated, i.e., the ones of this voxel, possibly reduced
+  Set<SpringScaffolding> getActiveSpringScaffoldings() {
+    return activeSpringScaffoldings;
+  }
+
   public double getAngle() {
-    Vector2 upSide = vertexBodies[1].getWorldCenter().copy().subtract(vertexBodies[0].getWorldCenter());
-    Vector2 downSide = vertexBodies[2].getWorldCenter().copy().subtract(vertexBodies[3].getWorldCenter());
+    Vector2 upSide = getVertexCenter(1).subtract(getVertexCenter(0));
+    Vector2 downSide = getVertexCenter(2).subtract(getVertexCenter(3));
     return (upSide.getDirection() + downSide.getDirection()) / 2d;
   }
 
@@ -535,7 +358,7 @@ public class Voxel implements Actionable, Serializable, Snapshottable, WorldObje
 
   private Vector2 getIndexedVertex(int i, int j) {
     Transform t = vertexBodies[i].getTransform();
-    Rectangle rectangle = (Rectangle) vertexBodies[i].getFixture(0).getShape();
+    Rectangle rectangle = (Rectangle) vertexBodies[i].getFixture(vertexFixtures[i]).getShape();
     Vector2 tV = rectangle.getVertices()[j].copy();
     t.transform(tV);
     return tV;
@@ -555,11 +378,29 @@ public class Voxel implements Actionable, Serializable, Snapshottable, WorldObje
     return Point2.of(x / (double) vertexBodies.length, y / (double) vertexBodies.length);
   }
 
+  /**
+   * Writes the readings of all the sensors in {@code destination}, starting from {@code offset}, with the same content
+   * of {@link #getSensorReadings()}, but without allocating.
+   */
+  public void copySensorReadings(double[] destination, int offset) {
+    copyReadings(destination, offset);
+  }
+
   public double[] getSensorReadings() {
-    return sensors.stream()
-        .map(Sensor::getReadings)
-        .reduce(ArrayUtils::addAll)
-        .orElse(new double[sensors.stream().mapToInt(s -> s.getDomains().length).sum()]);
+    int n = 0;
+    for (Sensor sensor : sensors) {
+      n = n + sensor.getReadings().length;
+    }
+    double[] readings = new double[n];
+    copyReadings(readings, 0);
+    return readings;
+  }
+
+  private void copyReadings(double[] destination, int offset) {
+    for (int i = 0; i < sensors.size(); i++) {
+      sensors.get(i).copyReadings(destination, offset);
+      offset = offset + sensors.get(i).getReadings().length;
+    }
   }
 
   public List<Sensor> getSensors() {
@@ -570,29 +411,58 @@ public class Voxel implements Actionable, Serializable, Snapshottable, WorldObje
     return sideLength;
   }
 
+  public double getSpringF() {
+    return springF;
+  }
+
   @Override
   public Snapshot getSnapshot() {
+    return getSnapshot(SnapshotFilter.all());
+  }
+
+  @Override
+  public Snapshot getSnapshot(SnapshotFilter filter) {
     Snapshot snapshot = new Snapshot(getVoxelPoly(), getClass());
     //add parts
-    for (Body body : vertexBodies) {
-      snapshot.getChildren().add(new Snapshot(rectangleToPoly(body), getClass()));
+    if (filter.includes(getClass(), Poly.class)) {
+      for (int i = 0; i < vertexBodies.length; i++) {
+        snapshot.getChildren().add(new Snapshot(rectangleToPoly(vertexBodies[i], vertexFixtures[i]), getClass()));
+      }
     }
     //add joints
-    for (DistanceJoint<Body> joint : springJoints) {
-      snapshot.getChildren()
-          .add(new Snapshot(Vector.of(Point2.of(joint.getAnchor1()), Point2.of(joint.getAnchor2())), getClass()));
+    if (filter.includes(getClass(), Vector.class)) {
+      for (DistanceJoint<Body> joint : springJoints) {
+        snapshot.getChildren()
+            .add(new Snapshot(Vector.of(Point2.of(joint.getAnchor1()), Point2.of(joint.getAnchor2())), getClass()));
+      }
     }
     //add sensors
     for (Sensor sensor : sensors) {
-      snapshot.getChildren().add(sensor.getSnapshot());
+      if (filter.includes(sensor.getClass(), null)) {
+        snapshot.getChildren().add(sensor.getSnapshot(filter));
+      }
     }
     return snapshot;
   }
 
+  /**
+   * Returns the bodies of the four masses of this voxel (NW, NE, SE, SW). When the voxel is part of a {@link Robot}
+   * assembled with {@link Robot.Assembly#SHARED_VERTICES}, a body may be shared with adjacent voxels and the mass of
+   * this voxel is only one of its fixtures: see {@link #getVertexCenter(int)}.
+   */
   public Body[] getVertexBodies() {
     return vertexBodies;
   }
 
+  /**
+   * Returns the current position of the center of the {@code i}-th mass of this voxel, which is the center of the
+   * corresponding vertex body, unless the body is shared with adjacent voxels.
+   */
+  public Vector2 getVertexCenter(int i) {
+    Body body = vertexBodies[i];
+    return body.getTransform().getTransformed(body.getFixture(vertexFixtures[i]).getShape().getCenter());
+  }
+
   protected List<Point2> getVertices() {
     return List.of(
         Point2.of(getIndexedVertex(0, 3)),
@@ -619,16 +489,23 @@ public class Voxel implements Actionable, Serializable, Snapshottable, WorldObje
     return world;
   }
 
+  /**
+   * Returns the contact index of the world the voxel has been added to.
+   */
+  public ContactIndex getContactIndex() {
+    return contactIndex;
+  }
+
   @Serial
   private void readObject(ObjectInputStream ois) throws ClassNotFoundException, IOException {
     ois.defaultReadObject();
     assemble();
   }
 
-  private Poly rectangleToPoly(Body body) {
+  private Poly rectangleToPoly(Body body, int fixture) {
     Point2[] vertices = new Point2[4];
     Transform t = body.getTransform();
-    Rectangle rectangle = (Rectangle) body.getFixture(0).getShape();
+    Rectangle rectangle = (Rectangle) body.getFixture(fixture).getShape();
     for (int i = 0; i < 4; i++) {
       Vector2 tV = rectangle.getVertices()[i].copy();
       t.transform(tV);
@@ -650,6 +527,13 @@ public class Voxel implements Actionable, Serializable, Snapshottable, WorldObje
     });
   }
 
+  //replaces the vertex bodies with the given ones, possibly shared with adjacent voxels, and rebuilds the springs
+  void setVertexBodies(Body[] vertexBodies, int[] vertexFixtures) {
+    this.vertexBodies = vertexBodies;
+    this.vertexFixtures = vertexFixtures;
+    springJoints = template.buildSpringJoints(vertexBodies, vertexFixtures);
+  }
+
   public void setOwner(Robot robot) {
     Filter filter = new RobotFilter();
     for (Body vertexBody : vertexBodies) {
@@ -658,6 +542,32 @@ public class Voxel implements Actionable, Serializable, Snapshottable, WorldObje
     }
   }
 
+  /**
+   * Rebuilds the springs of this voxel keeping only the ones of the given scaffoldings, among those of the voxel, e.g.,
+   * for a cheaper simulation. It has to be invoked after a {@link #reset()} and before adding the voxel to a world and
+   * lasts until the next reset.
+   */
+  public void reduceSpringScaffoldings(Set<SpringScaffolding> springScaffoldings) {
+    EnumSet<SpringScaffolding> reducedSpringScaffoldings = EnumSet.copyOf(this.springScaffoldings);
+    reducedSpringScaffoldings.retainAll(springScaffoldings);
+    template = VoxelTemplate.of(
+        sideLength,
+        massSideLengthRatio,
+        springF,
+        springD,
+        massLinearDamping,
+        massAngularDamping,
+        friction,
+        restitution,
+        mass,
+        areaRatioPassiveRange,
+        areaRatioActiveRange,
+        reducedSpringScaffoldings
+    );
+    activeSpringScaffoldings = reducedSpringScaffoldings;
+    springJoints = template.buildSpringJoints(vertexBodies, vertexFixtures);
+  }
+
   @Override
   public String toString() {
     return "Voxel{" +
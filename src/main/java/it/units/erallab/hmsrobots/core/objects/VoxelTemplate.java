@@ -0,0 +1,272 @@
+/*
+ * Copyright (C) 2021 Eric Medvet <eric.medvet@gmail.com> (as Eric Medvet <eric.medvet@gmail.com>)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.units.erallab.hmsrobots.core.objects;
+
+import it.units.erallab.hmsrobots.util.DoubleRange;
+import org.dyn4j.dynamics.Body;
+import org.dyn4j.dynamics.joint.DistanceJoint;
+import org.dyn4j.geometry.MassType;
+import org.dyn4j.geometry.Rectangle;
+import org.dyn4j.geometry.Vector2;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Holds what is needed to build the bodies and the spring joints of a {@link Voxel} and depends only on its immutable
+ * parameters: the shape of the masses, their offsets from the voxel center, the spring ranges and the anchors of the
+ * joints. Templates are cached, so that the many voxels sharing the same parameters (e.g., all the voxels of a
+ * population of robots) do not recompute them at each construction, reset and deserialization. When the cache is full,
+ * the least recently used template is evicted.
+ */
+class VoxelTemplate {
+
+  private static final int MAX_CACHE_SIZE = 256;
+  //least recently used templates are evicted first
+  private static final Map<Key, VoxelTemplate> CACHE = Collections.synchronizedMap(new LinkedHashMap<>(
+      16,
+      0.75f,
+      true
+  ) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Key, VoxelTemplate> eldest) {
+      return size() > MAX_CACHE_SIZE;
+    }
+  });
+
+  private final Rectangle massShape;
+  private final double density;
+  private final double friction;
+  private final double restitution;
+  private final double massLinearDamping;
+  private final double massAngularDamping;
+  private final double[] massOffsets; //x and y of NW, NE, SE, SW masses
+  private final double springF;
+  private final double springD;
+  private final List<JointSpec> jointSpecs;
+
+  private VoxelTemplate(Key key) {
+    //compute densities
+    double massSideLength = key.sideLength * key.massSideLengthRatio;
+    density = (key.mass / 4) / (massSideLength * massSideLength);
+    massShape = new Rectangle(massSideLength, massSideLength);
+    friction = key.friction;
+    restitution = key.restitution;
+    massLinearDamping = key.massLinearDamping;
+    massAngularDamping = key.massAngularDamping;
+    springF = key.springF;
+    springD = key.springD;
+    double d = key.sideLength / 2d - massSideLength / 2d;
+    massOffsets = new double[]{-d, +d, +d, +d, +d, -d, -d, -d};
+    //compute ranges
+    double sideLength = key.sideLength;
+    DoubleRange passiveSideRange = DoubleRange.of(
+        Math.sqrt(sideLength * sideLength * key.areaRatioPassiveRange.min()),
+        Math.sqrt(sideLength * sideLength * key.areaRatioPassiveRange.max())
+    );
+    DoubleRange activeSideRange = DoubleRange.of(
+        Math.sqrt(sideLength * sideLength * key.areaRatioActiveRange.min()),
+        Math.sqrt(sideLength * sideLength * key.areaRatioActiveRange.max())
+    );
+    Voxel.SpringRange sideParallelPassiveRange = new Voxel.SpringRange(
+        passiveSideRange.min() - 2d * massSideLength,
+        sideLength - 2d * massSideLength,
+        passiveSideRange.max() - 2d * massSideLength
+    );
+    Voxel.SpringRange sideCrossPassiveRange = new Voxel.SpringRange(
+        Math.sqrt(massSideLength * massSideLength + sideParallelPassiveRange.min() * sideParallelPassiveRange.min()),
+        Math.sqrt(massSideLength * massSideLength + sideParallelPassiveRange.rest() * sideParallelPassiveRange.rest()),
+        Math.sqrt(massSideLength * massSideLength + sideParallelPassiveRange.max() * sideParallelPassiveRange.max())
+    );
+    Voxel.SpringRange centralCrossPassiveRange = new Voxel.SpringRange(
+        (passiveSideRange.min() - massSideLength) * Math.sqrt(2d),
+        (sideLength - massSideLength) * Math.sqrt(2d),
+        (passiveSideRange.max() - massSideLength) * Math.sqrt(2d)
+    );
+    Voxel.SpringRange sideParallelActiveRange = new Voxel.SpringRange(
+        activeSideRange.min() - 2d * massSideLength,
+        sideLength - 2d * massSideLength,
+        activeSideRange.max() - 2d * massSideLength
+    );
+    Voxel.SpringRange sideCrossActiveRange = new Voxel.SpringRange(
+        Math.sqrt(massSideLength * massSideLength + sideParallelActiveRange.min() * sideParallelActiveRange.min()),
+        Math.sqrt(massSideLength * massSideLength + sideParallelActiveRange.rest() * sideParallelActiveRange.rest()),
+        Math.sqrt(massSideLength * massSideLength + sideParallelActiveRange.max() * sideParallelActiveRange.max())
+    );
+    Voxel.SpringRange centralCrossActiveRange = new Voxel.SpringRange(
+        (activeSideRange.min() - massSideLength) * Math.sqrt(2d),
+        (sideLength - massSideLength) * Math.sqrt(2d),
+        (activeSideRange.max() - massSideLength) * Math.sqrt(2d)
+    );
+    //compute joints, as offsets of the anchors from the centers of the masses
+    double h = massSideLength / 2d;
+    List<JointSpec> specs = new ArrayList<>();
+    if (key.springScaffoldings.contains(Voxel.SpringScaffolding.SIDE_INTERNAL)) {
+      specs.add(new JointSpec(0, 1, +h, -h, -h, -h, sideParallelActiveRange, sideParallelPassiveRange));
+      specs.add(new JointSpec(1, 2, -h, -h, -h, +h, sideParallelActiveRange, sideParallelPassiveRange));
+      specs.add(new JointSpec(2, 3, -h, +h, +h, +h, sideParallelActiveRange, sideParallelPassiveRange));
+      specs.add(new JointSpec(3, 0, +h, +h, +h, -h, sideParallelActiveRange, sideParallelPassiveRange));
+    }
+    if (key.springScaffoldings.contains(Voxel.SpringScaffolding.SIDE_EXTERNAL)) {
+      specs.add(new JointSpec(0, 1, +h, +h, -h, +h, sideParallelActiveRange, sideParallelPassiveRange));
+      specs.add(new JointSpec(1, 2, +h, -h, +h, +h, sideParallelActiveRange, sideParallelPassiveRange));
+      specs.add(new JointSpec(2, 3, -h, -h, +h, -h, sideParallelActiveRange, sideParallelPassiveRange));
+      specs.add(new JointSpec(3, 0, -h, +h, -h, -h, sideParallelActiveRange, sideParallelPassiveRange));
+    }
+    if (key.springScaffoldings.contains(Voxel.SpringScaffolding.SIDE_CROSS)) {
+      specs.add(new JointSpec(0, 1, +h, +h, -h, -h, sideCrossActiveRange, sideCrossPassiveRange));
+      specs.add(new JointSpec(0, 1, +h, -h, -h, +h, sideCrossActiveRange, sideCrossPassiveRange));
+      specs.add(new JointSpec(1, 2, +h, -h, -h, +h, sideCrossActiveRange, sideCrossPassiveRange));
+      specs.add(new JointSpec(1, 2, -h, -h, +h, +h, sideCrossActiveRange, sideCrossPassiveRange));
+      specs.add(new JointSpec(2, 3, -h, +h, +h, -h, sideCrossActiveRange, sideCrossPassiveRange));
+      specs.add(new JointSpec(2, 3, -h, -h, +h, +h, sideCrossActiveRange, sideCrossPassiveRange));
+      specs.add(new JointSpec(3, 0, -h, +h, +h, -h, sideCrossActiveRange, sideCrossPassiveRange));
+      specs.add(new JointSpec(3, 0, +h, +h, -h, -h, sideCrossActiveRange, sideCrossPassiveRange));
+    }
+    if (key.springScaffoldings.contains(Voxel.SpringScaffolding.CENTRAL_CROSS)) {
+      specs.add(new JointSpec(0, 2, 0d, 0d, 0d, 0d, centralCrossActiveRange, centralCrossPassiveRange));
+      specs.add(new JointSpec(1, 3, 0d, 0d, 0d, 0d, centralCrossActiveRange, centralCrossPassiveRange));
+    }
+    jointSpecs = Collections.unmodifiableList(specs);
+  }
+
+  private record JointSpec(
+      int body1, int body2,
+      double dx1, double dy1, double dx2, double dy2,
+      Voxel.SpringRange activeRange, Voxel.SpringRange passiveRange
+  ) {}
+
+  private record Key(
+      double sideLength,
+      double massSideLengthRatio,
+      double springF,
+      double springD,
+      double massLinearDamping,
+      double massAngularDamping,
+      double friction,
+      double restitution,
+      double mass,
+      DoubleRange areaRatioPassiveRange,
+      DoubleRange areaRatioActiveRange,
+      EnumSet<Voxel.SpringScaffolding> springScaffoldings
+  ) {}
+
+  static VoxelTemplate of(
+      double sideLength,
+      double massSideLengthRatio,
+      double springF,
+      double springD,
+      double massLinearDamping,
+      double massAngularDamping,
+      double friction,
+      double restitution,
+      double mass,
+      DoubleRange areaRatioPassiveRange,
+      DoubleRange areaRatioActiveRange,
+      EnumSet<Voxel.SpringScaffolding> springScaffoldings
+  ) {
+    Key key = new Key(
+        sideLength,
+        massSideLengthRatio,
+        springF,
+        springD,
+        massLinearDamping,
+        massAngularDamping,
+        friction,
+        restitution,
+        mass,
+        areaRatioPassiveRange,
+        areaRatioActiveRange,
+        springScaffoldings
+    );
+    VoxelTemplate template = CACHE.get(key);
+    if (template == null) {
+      //built out of the lock: concurrent misses on the same key may build equal templates, the last one is kept
+      template = new VoxelTemplate(key);
+      //the key is stored with its own copy of the (mutable) set
+      CACHE.put(new Key(
+          sideLength,
+          massSideLengthRatio,
+          springF,
+          springD,
+          massLinearDamping,
+          massAngularDamping,
+          friction,
+          restitution,
+          mass,
+          areaRatioPassiveRange,
+          areaRatioActiveRange,
+          EnumSet.copyOf(springScaffoldings)
+      ), template);
+    }
+    return template;
+  }
+
+  Body[] buildVertexBodies() {
+    Body[] vertexBodies = new Body[4];
+    for (int i = 0; i < vertexBodies.length; i++) {
+      vertexBodies[i] = new Body();
+      //the shape is only read, hence it can be shared among bodies
+      vertexBodies[i].addFixture(massShape, density, friction, restitution);
+      vertexBodies[i].translate(massOffsets[2 * i], massOffsets[2 * i + 1]);
+      vertexBodies[i].setMass(MassType.NORMAL);
+      vertexBodies[i].setLinearDamping(massLinearDamping);
+      vertexBodies[i].setAngularDamping(massAngularDamping);
+    }
+    return vertexBodies;
+  }
+
+  //the masses are the fixtures with the given indexes of the vertex bodies, which may be shared among voxels
+  List<DistanceJoint<Body>> buildSpringJoints(Body[] vertexBodies, int[] vertexFixtures) {
+    List<DistanceJoint<Body>> springJoints = new ArrayList<>(jointSpecs.size());
+    for (JointSpec spec : jointSpecs) {
+      Vector2 center1 = center(vertexBodies[spec.body1], vertexFixtures[spec.body1]);
+      Vector2 center2 = center(vertexBodies[spec.body2], vertexFixtures[spec.body2]);
+      DistanceJoint<Body> joint = new DistanceJoint<>(
+          vertexBodies[spec.body1],
+          vertexBodies[spec.body2],
+          new Vector2(center1.x + spec.dx1, center1.y + spec.dy1),
+          new Vector2(center2.x + spec.dx2, center2.y + spec.dy2)
+      );
+      joint.setUserData(spec.activeRange);
+      if (spec.passiveRange.min() > Double.NEGATIVE_INFINITY) {
+        joint.setLowerLimit(spec.passiveRange.min());
+        joint.setLowerLimitEnabled(true);
+      }
+      if (spec.passiveRange.max() < Double.POSITIVE_INFINITY) {
+        joint.setUpperLimit(spec.passiveRange.max());
+        joint.setUpperLimitEnabled(true);
+      }
+      joint.setRestDistance(spec.activeRange.rest());
+      joint.setCollisionAllowed(true);
+      joint.setFrequency(springF);
+      joint.setDampingRatio(springD);
+      springJoints.add(joint);
+    }
+    return Collections.unmodifiableList(springJoints);
+  }
+
+  private static Vector2 center(Body body, int fixture) {
+    return body.getTransform().getTransformed(body.getFixture(fixture).getShape().getCenter());
+  }
+
+}
@@ -19,30 +19,53 @@ package it.units.erallab.hmsrobots.core.sensors;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
 import it.units.erallab.hmsrobots.util.DoubleRange;
-
-import java.util.TreeMap;
+import it.units.erallab.hmsrobots.util.DoubleTimeWindow;
 
 /**
+ * A sensor aggregating the readings of another sensor over a sliding time window. Aggregators that can be updated
+ * incrementally override {@link #added(int)}, {@link #evicting()} and {@link #cleared()}, which are invoked whenever the
+ * window changes, so that {@link #aggregate(double)} does not need to scan the window.
+ *
  * @author "Eric Medvet" on 2021/08/13 for 2dhmsr
  */
 public abstract class AggregatorSensor extends CompositeSensor {
   @JsonProperty
   protected final double interval;
-  protected final TreeMap<Double, double[]> readings;
+  protected final DoubleTimeWindow readings;
 
   public AggregatorSensor(DoubleRange[] domains, Sensor sensor, double interval) {
     super(domains, sensor);
     this.interval = interval;
-    readings = new TreeMap<>();
-    reset();
+    readings = new DoubleTimeWindow(sensor.getDomains().length);
+    //the window is empty: the hooks, which subclasses override relying on their own fields, are not invoked
+    super.reset();
   }
 
   protected abstract double[] aggregate(double t);
 
+  /**
+   * Invoked after the {@code i}-th sample of the window has been added.
+   */
+  protected void added(int i) {
+  }
+
+  /**
+   * Invoked after the window has been emptied.
+   */
+  protected void cleared() {
+  }
+
+  /**
+   * Invoked before the oldest sample of the window is evicted.
+   */
+  protected void evicting() {
+  }
+
   @Override
   public void reset() {
     super.reset();
     readings.clear();
+    cleared();
   }
 
   @Override
@@ -55,12 +78,20 @@ public abstract class AggregatorSensor extends CompositeSensor {
 
   @Override
   protected double[] sense(double t) {
-    double[] currentReadings = sensor.getReadings();
-    readings.put(t, currentReadings);
-    double t0 = readings.firstKey();
-    while (t0 < (t - interval)) {
-      readings.remove(t0);
-      t0 = readings.firstKey();
+    boolean inOrder = readings.isEmpty() || t > readings.lastTime();
+    readings.add(t, sensor.getReadings());
+    if (inOrder) {
+      added(readings.size() - 1);
+    } else {
+      //the last sample has been replaced or the window restarted: rebuild
+      cleared();
+      for (int i = 0; i < readings.size(); i++) {
+        added(i);
+      }
+    }
+    while (readings.firstTime() < t - interval) {
+      evicting();
+      readings.evictFirst();
     }
     return aggregate(t);
   }
@@ -19,7 +19,7 @@ package it.units.erallab.hmsrobots.core.sensors;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
-public class Average extends AggregatorSensor {
+public class Average extends MomentsAggregator {
 
   @JsonCreator
   public Average(
@@ -27,21 +27,15 @@ public class Average extends AggregatorSensor {
       @JsonProperty("interval") double interval
   ) {
     super(sensor.getDomains(), sensor, interval);
-    reset();
   }
 
   @Override
   protected double[] aggregate(double t) {
-    double[] sums = new double[readings.firstEntry().getValue().length];
-    for (double[] pastReadings : readings.values()) {
-      for (int i = 0; i < sums.length; i++) {
-        sums[i] = sums[i] + pastReadings[i];
-      }
+    double[] means = new double[moments.length];
+    for (int i = 0; i < means.length; i++) {
+      means[i] = moments[i].mean();
     }
-    for (int i = 0; i < sums.length; i++) {
-      sums[i] = sums[i] / (double) readings.size();
-    }
-    return sums;
+    return means;
   }
 
 }
@@ -20,6 +20,7 @@ package it.units.erallab.hmsrobots.core.sensors;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import it.units.erallab.hmsrobots.core.objects.Voxel;
 import it.units.erallab.hmsrobots.core.snapshots.Snapshot;
+import it.units.erallab.hmsrobots.core.snapshots.SnapshotFilter;
 import it.units.erallab.hmsrobots.util.DoubleRange;
 
 /**
@@ -45,8 +46,15 @@ public abstract class CompositeSensor extends AbstractSensor {
 
   @Override
   public Snapshot getSnapshot() {
+    return getSnapshot(SnapshotFilter.all());
+  }
+
+  @Override
+  public Snapshot getSnapshot(SnapshotFilter filter) {
     Snapshot snapshot = super.getSnapshot();
-    snapshot.getChildren().add(sensor.getSnapshot());
+    if (filter.includes(sensor.getClass(), null)) {
+      snapshot.getChildren().add(sensor.getSnapshot(filter));
+    }
     return snapshot;
   }
 
@@ -34,7 +34,7 @@ public class Crumpling extends AbstractSensor {
     double c = 0d;
     for (int i = 0; i < voxel.getVertexBodies().length; i++) {
       for (int j = i + 1; j < voxel.getVertexBodies().length; j++) {
-        double d = voxel.getVertexBodies()[i].getWorldCenter().distance(voxel.getVertexBodies()[j].getWorldCenter());
+        double d = voxel.getVertexCenter(i).distance(voxel.getVertexCenter(j));
         if (d < voxel.getSideLength() * THRESHOLD) {
           c = c + 1d;
         }
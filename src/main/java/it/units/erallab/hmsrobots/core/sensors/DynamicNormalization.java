@@ -19,12 +19,14 @@ package it.units.erallab.hmsrobots.core.sensors;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import it.units.erallab.hmsrobots.util.DoubleRange;
+import it.units.erallab.hmsrobots.util.SlidingMinMax;
 
-import java.util.Arrays;
 import java.util.Collections;
 
 public class DynamicNormalization extends AggregatorSensor {
 
+  private final SlidingMinMax[] minMaxes;
+
   @JsonCreator
   public DynamicNormalization(
       @JsonProperty("sensor") Sensor sensor,
@@ -35,25 +37,41 @@ public class DynamicNormalization extends AggregatorSensor {
         sensor,
         interval
     );
-    reset();
+    minMaxes = new SlidingMinMax[sensor.getDomains().length];
+    for (int i = 0; i < minMaxes.length; i++) {
+      minMaxes[i] = new SlidingMinMax();
+    }
+  }
+
+  @Override
+  protected void added(int i) {
+    for (int j = 0; j < minMaxes.length; j++) {
+      minMaxes[j].add(readings.value(i, j));
+    }
+  }
+
+  @Override
+  protected void cleared() {
+    for (SlidingMinMax minMax : minMaxes) {
+      minMax.clear();
+    }
+  }
+
+  @Override
+  protected void evicting() {
+    for (SlidingMinMax minMax : minMaxes) {
+      minMax.remove();
+    }
   }
 
   @Override
   protected double[] aggregate(double t) {
     double[] currentReadings = sensor.getReadings();
-    double[] mins = new double[currentReadings.length];
-    double[] maxs = new double[currentReadings.length];
-    Arrays.fill(mins, Double.POSITIVE_INFINITY);
-    Arrays.fill(maxs, Double.NEGATIVE_INFINITY);
-    for (double[] pastReadings : readings.values()) {
-      for (int i = 0; i < currentReadings.length; i++) {
-        mins[i] = Math.min(mins[i], pastReadings[i]);
-        maxs[i] = Math.max(maxs[i], pastReadings[i]);
-      }
-    }
     double[] values = new double[currentReadings.length];
     for (int i = 0; i < values.length; i++) {
-      values[i] = Math.min(Math.max((currentReadings[i] - mins[i]) / (maxs[i] - mins[i]), 0d), 1d);
+      double min = minMaxes[i].min();
+      double max = minMaxes[i].max();
+      values[i] = Math.min(Math.max((currentReadings[i] - min) / (max - min), 0d), 1d);
     }
     return values;
   }
@@ -18,18 +18,10 @@ package it.units.erallab.hmsrobots.core.sensors;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
-import it.units.erallab.hmsrobots.core.geometry.Point2;
-import it.units.erallab.hmsrobots.core.objects.Voxel;
 import it.units.erallab.hmsrobots.core.snapshots.LidarReadings;
 import it.units.erallab.hmsrobots.core.snapshots.Snapshot;
 import it.units.erallab.hmsrobots.util.DoubleRange;
 import org.apache.commons.lang3.ArrayUtils;
-import org.dyn4j.dynamics.Body;
-import org.dyn4j.dynamics.BodyFixture;
-import org.dyn4j.geometry.Ray;
-import org.dyn4j.geometry.Vector2;
-import org.dyn4j.world.DetectFilter;
-import org.dyn4j.world.result.RaycastResult;
 
 import java.util.Arrays;
 import java.util.Collections;
@@ -38,20 +30,16 @@ import java.util.Map;
 import java.util.stream.DoubleStream;
 
 public class Lidar extends AbstractSensor {
-  private final static DetectFilter<Body, BodyFixture> FILTER = new DetectFilter<>(
-      true,
-      true,
-      f -> {
-        if (f == null)
-          return true;
-        return !(f instanceof Voxel.ParentFilter) && !(f instanceof Voxel.RobotFilter);
-      }
-  );
   @JsonProperty
   private final double rayLength;
   @JsonProperty
   private final double[] rayDirections;
 
+  private transient double castT;
+  private transient double[] castReadings;
+  private transient LidarRaycaster raycaster;
+  private transient List<Lidar> self;
+
   @JsonCreator
   public Lidar(
       @JsonProperty("rayLength") double rayLength,
@@ -107,14 +95,40 @@ public class Lidar extends AbstractSensor {
             .toArray();
   }
 
+  public double getRayLength() {
+    return rayLength;
+  }
+
+  public double[] getRayDirections() {
+    return rayDirections;
+  }
+
+  //the array where the readings cast at time t are written: it is reused across steps
+  double[] castReadings(double t) {
+    if (castReadings == null) {
+      castReadings = new double[rayDirections.length];
+    }
+    castT = t;
+    return castReadings;
+  }
+
   @Override
   public double[] sense(double t) {
-    return Arrays.stream(rayDirections).map(rayDirection -> {
-      Point2 center = voxel.center();
-      Ray ray = new Ray(new Vector2(center.x(), center.y()), rayDirection + voxel.getAngle());
-      List<RaycastResult<Body, BodyFixture>> results = voxel.getWorld().raycast(ray, rayLength, FILTER);
-      return results.stream().mapToDouble(r -> r.getRaycast().getDistance()).min().orElse(rayLength);
-    }).toArray();
+    if (castReadings != null && t == castT) { //already cast in batch with the other lidars of the robot
+      return castReadings;
+    }
+    if (raycaster == null) {
+      raycaster = new LidarRaycaster();
+      self = List.of(this);
+    }
+    raycaster.cast(self, t);
+    return castReadings;
+  }
+
+  @Override
+  public void reset() {
+    super.reset();
+    castT = Double.NaN;
   }
 
   @Override
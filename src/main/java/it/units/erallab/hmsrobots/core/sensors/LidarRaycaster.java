@@ -0,0 +1,322 @@
+/*
+ * Copyright (C) 2021 Eric Medvet <eric.medvet@gmail.com> (as Eric Medvet <eric.medvet@gmail.com>)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.units.erallab.hmsrobots.core.sensors;
+
+import it.units.erallab.hmsrobots.core.geometry.Point2;
+import it.units.erallab.hmsrobots.core.objects.Ground;
+import it.units.erallab.hmsrobots.core.objects.Voxel;
+import org.dyn4j.collision.Filter;
+import org.dyn4j.dynamics.Body;
+import org.dyn4j.dynamics.BodyFixture;
+import org.dyn4j.geometry.Polygon;
+import org.dyn4j.geometry.Ray;
+import org.dyn4j.geometry.Transform;
+import org.dyn4j.geometry.Vector2;
+import org.dyn4j.world.DetectFilter;
+import org.dyn4j.world.World;
+import org.dyn4j.world.result.RaycastResult;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.DoubleStream;
+
+/**
+ * Casts the rays of {@link Lidar}s against the {@link Ground} analytically, i.e., without going through the dyn4j
+ * broadphase and narrowphase. The polygons of the ground are cached, sorted along the x-axis: then, all the rays of the
+ * lidars of a robot are cast in one pass, only against the polygons overlapping the x-range spanned by the rays. Other
+ * bodies which can be seen by lidars, if any, are still handled by dyn4j.
+ * <p>
+ * The cache is rebuilt whenever the bodies of the world, or the position of the ground bodies, are not the ones it was
+ * built from: this is checked once per time step, i.e., at the first cast with a given {@code t}, hence the world is not
+ * expected to change within a step. A raycaster is not thread-safe: it is meant to be owned by a {@link
+ * it.units.erallab.hmsrobots.core.objects.Robot} or by a {@link Lidar}.
+ * <p>
+ * As in dyn4j, a polygon is hit by a ray only if the ray starts outside the polygon.
+ */
+public class LidarRaycaster {
+
+  private static final Filter LIDAR_FILTER = f -> f == null || !(f instanceof Voxel.ParentFilter) && !(f instanceof Voxel.RobotFilter);
+  private static final DetectFilter<Body, BodyFixture> NON_GROUND_FILTER = new DetectFilter<>(true, true, LIDAR_FILTER) {
+    @Override
+    public boolean isAllowed(Body body, BodyFixture fixture) {
+      return body.getUserData() != Ground.class && super.isAllowed(body, fixture);
+    }
+  };
+
+  private World<Body> world;
+  //bodies of the world and position of the ground ones, as when the polygons were cached
+  private Body[] bodies = new Body[0];
+  private double[] groundTransforms = new double[0];
+  private double checkedT = Double.NaN;
+  //polygons, sorted by min x
+  private double[] minXs;
+  private double[] maxXs;
+  private int[] offsets; //offsets[i] is the index of the first vertex of the i-th polygon; last is the overall count
+  private double[] vxs;
+  private double[] vys;
+  private double[] runningMaxXs; //runningMaxXs[i] is the largest max x among the first i+1 polygons, hence sorted
+  private boolean hasOtherBodies;
+  //rays of the current batch
+  private double[] oxs = new double[0];
+  private double[] oys = new double[0];
+  private double[] dxs = new double[0];
+  private double[] dys = new double[0];
+  private double[] lengths = new double[0];
+
+  public LidarRaycaster() {
+  }
+
+  /**
+   * Casts the rays of all the given lidars, which are expected to be in the same world, and makes the readings available
+   * to each lidar for the current time {@code t}.
+   */
+  public void cast(List<Lidar> lidars, double t) {
+    if (lidars.isEmpty()) {
+      return;
+    }
+    World<Body> world = lidars.get(0).getVoxel().getWorld();
+    if (world != this.world || t != checkedT) {
+      update(world);
+      checkedT = t;
+    }
+    int nOfRays = 0;
+    for (Lidar lidar : lidars) {
+      nOfRays = nOfRays + lidar.getRayDirections().length;
+    }
+    ensureCapacity(nOfRays);
+    int c = 0;
+    double minX = Double.POSITIVE_INFINITY;
+    double maxX = Double.NEGATIVE_INFINITY;
+    for (Lidar lidar : lidars) {
+      Point2 center = lidar.getVoxel().center();
+      double angle = lidar.getVoxel().getAngle();
+      for (double rayDirection : lidar.getRayDirections()) {
+        setRay(c, center.x(), center.y(), rayDirection + angle, lidar.getRayLength());
+        minX = Math.min(minX, Math.min(center.x(), center.x() + dxs[c] * lengths[c]));
+        maxX = Math.max(maxX, Math.max(center.x(), center.x() + dxs[c] * lengths[c]));
+        c = c + 1;
+      }
+    }
+    int from = firstPolygon(minX);
+    c = 0;
+    for (Lidar lidar : lidars) {
+      double[] distances = lidar.castReadings(t);
+      for (int i = 0; i < distances.length; i++) {
+        distances[i] = cast(c, from, maxX);
+        c = c + 1;
+      }
+    }
+  }
+
+  private double cast(int r, int from, double maxX) {
+    double ox = oxs[r];
+    double oy = oys[r];
+    double dx = dxs[r];
+    double dy = dys[r];
+    double length = lengths[r];
+    double rayMinX = Math.min(ox, ox + dx * length);
+    double rayMaxX = Math.max(ox, ox + dx * length);
+    double distance = length;
+    for (int p = from; p < minXs.length && minXs[p] <= maxX; p++) {
+      if (maxXs[p] < rayMinX || minXs[p] > rayMaxX) {
+        continue;
+      }
+      double d = castPolygon(p, ox, oy, dx, dy, distance);
+      if (d < distance) {
+        distance = d;
+      }
+    }
+    if (hasOtherBodies) {
+      List<RaycastResult<Body, BodyFixture>> results = world.raycast(
+          new Ray(new Vector2(ox, oy), new Vector2(dx, dy)),
+          length,
+          NON_GROUND_FILTER
+      );
+      for (RaycastResult<Body, BodyFixture> result : results) {
+        distance = Math.min(distance, result.getRaycast().getDistance());
+      }
+    }
+    return distance;
+  }
+
+  /**
+   * Casts a single ray in the given world, starting from {@code (x,y)} with the given direction angle. The cache is
+   * checked at every invocation.
+   *
+   * @return the distance of the closest hit, or {@code length} if nothing is hit.
+   */
+  public double cast(World<Body> world, double x, double y, double angle, double length) {
+    update(world);
+    checkedT = Double.NaN;
+    ensureCapacity(1);
+    setRay(0, x, y, angle, length);
+    double rayMinX = Math.min(x, x + dxs[0] * length);
+    double rayMaxX = Math.max(x, x + dxs[0] * length);
+    return cast(0, firstPolygon(rayMinX), rayMaxX);
+  }
+
+  //Cyrus-Beck clipping of the ray against a convex polygon with counterclockwise vertices
+  private double castPolygon(int p, double ox, double oy, double dx, double dy, double maxDistance) {
+    double tEnter = Double.NEGATIVE_INFINITY;
+    double tExit = Double.POSITIVE_INFINITY;
+    int first = offsets[p];
+    int last = offsets[p + 1] - 1;
+    for (int i = first; i <= last; i++) {
+      int j = i == last ? first : i + 1;
+      double ex = vxs[j] - vxs[i];
+      double ey = vys[j] - vys[i];
+      //outward normal of a counterclockwise edge is (ey, -ex)
+      double denominator = ey * dx - ex * dy;
+      double numerator = ey * (vxs[i] - ox) - ex * (vys[i] - oy);
+      if (denominator == 0) {
+        if (numerator < 0) { //parallel and outside
+          return Double.POSITIVE_INFINITY;
+        }
+        continue;
+      }
+      double tEdge = numerator / denominator;
+      if (denominator < 0) {
+        tEnter = Math.max(tEnter, tEdge);
+      } else {
+        tExit = Math.min(tExit, tEdge);
+      }
+      if (tEnter > tExit || tEnter > maxDistance) {
+        return Double.POSITIVE_INFINITY;
+      }
+    }
+    if (tEnter < 0) { //the ray starts inside the polygon
+      return Double.POSITIVE_INFINITY;
+    }
+    return tEnter;
+  }
+
+  private void ensureCapacity(int n) {
+    if (oxs.length < n) {
+      oxs = new double[n];
+      oys = new double[n];
+      dxs = new double[n];
+      dys = new double[n];
+      lengths = new double[n];
+    }
+  }
+
+  private int firstPolygon(double minX) {
+    //index of the first polygon such that it, or any polygon before it, reaches minX
+    int low = 0;
+    int high = runningMaxXs.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (runningMaxXs[mid] < minX) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  private void setRay(int r, double x, double y, double angle, double length) {
+    oxs[r] = x;
+    oys[r] = y;
+    dxs[r] = Math.cos(angle);
+    dys[r] = Math.sin(angle);
+    lengths[r] = length;
+  }
+
+  private boolean isUpToDate(World<Body> world) {
+    if (world != this.world || world.getBodyCount() != bodies.length) {
+      return false;
+    }
+    int g = 0;
+    for (int i = 0; i < bodies.length; i++) {
+      Body body = world.getBody(i);
+      if (body != bodies[i]) {
+        return false;
+      }
+      if (body.getUserData() == Ground.class) {
+        Transform transform = body.getTransform();
+        if (transform.getTranslationX() != groundTransforms[g] || transform.getTranslationY() != groundTransforms[g + 1]
+            || transform.getCost() != groundTransforms[g + 2] || transform.getSint() != groundTransforms[g + 3]) {
+          return false;
+        }
+        g = g + 4;
+      }
+    }
+    return true;
+  }
+
+  private void update(World<Body> world) {
+    if (isUpToDate(world)) {
+      return;
+    }
+    this.world = world;
+    bodies = world.getBodies().toArray(Body[]::new);
+    groundTransforms = Arrays.stream(bodies)
+        .filter(body -> body.getUserData() == Ground.class)
+        .flatMapToDouble(body -> DoubleStream.of(
+            body.getTransform().getTranslationX(),
+            body.getTransform().getTranslationY(),
+            body.getTransform().getCost(),
+            body.getTransform().getSint()
+        ))
+        .toArray();
+    hasOtherBodies = false;
+    List<double[][]> polygons = new ArrayList<>();
+    for (Body body : world.getBodies()) {
+      boolean isGround = body.getUserData() == Ground.class;
+      for (BodyFixture fixture : body.getFixtures()) {
+        if (!LIDAR_FILTER.isAllowed(fixture.getFilter()) || fixture.isSensor()) {
+          continue;
+        }
+        if (isGround && fixture.getShape() instanceof Polygon polygon) {
+          Transform transform = body.getTransform();
+          Vector2[] vertices = polygon.getVertices();
+          double[][] xys = new double[2][vertices.length];
+          for (int i = 0; i < vertices.length; i++) {
+            Vector2 v = transform.getTransformed(vertices[i]);
+            xys[0][i] = v.x;
+            xys[1][i] = v.y;
+          }
+          polygons.add(xys);
+        } else {
+          hasOtherBodies = true;
+        }
+      }
+    }
+    polygons.sort(Comparator.comparingDouble(xys -> Arrays.stream(xys[0]).min().orElse(0d)));
+    minXs = new double[polygons.size()];
+    maxXs = new double[polygons.size()];
+    runningMaxXs = new double[polygons.size()];
+    offsets = new int[polygons.size() + 1];
+    int nOfVertices = polygons.stream().mapToInt(xys -> xys[0].length).sum();
+    vxs = new double[nOfVertices];
+    vys = new double[nOfVertices];
+    for (int p = 0; p < polygons.size(); p++) {
+      double[][] xys = polygons.get(p);
+      minXs[p] = Arrays.stream(xys[0]).min().orElse(0d);
+      maxXs[p] = Arrays.stream(xys[0]).max().orElse(0d);
+      runningMaxXs[p] = p == 0 ? maxXs[p] : Math.max(runningMaxXs[p - 1], maxXs[p]);
+      offsets[p + 1] = offsets[p] + xys[0].length;
+      System.arraycopy(xys[0], 0, vxs, offsets[p], xys[0].length);
+      System.arraycopy(xys[1], 0, vys, offsets[p], xys[1].length);
+    }
+  }
+
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2021 Eric Medvet <eric.medvet@gmail.com> (as Eric Medvet <eric.medvet@gmail.com>)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.units.erallab.hmsrobots.core.sensors;
+
+import it.units.erallab.hmsrobots.util.DoubleRange;
+import it.units.erallab.hmsrobots.util.SlidingMoments;
+
+/**
+ * An aggregator sensor whose readings are computed from the moments (sum, mean, variance) of the readings of its
+ * sensor in the time window, which are kept updated incrementally.
+ */
+public abstract class MomentsAggregator extends AggregatorSensor {
+
+  protected final SlidingMoments[] moments;
+
+  public MomentsAggregator(DoubleRange[] domains, Sensor sensor, double interval) {
+    super(domains, sensor, interval);
+    moments = new SlidingMoments[sensor.getDomains().length];
+    for (int i = 0; i < moments.length; i++) {
+      moments[i] = new SlidingMoments();
+    }
+  }
+
+  @Override
+  protected void added(int i) {
+    for (int j = 0; j < moments.length; j++) {
+      moments[j].add(readings.value(i, j));
+    }
+  }
+
+  @Override
+  protected void cleared() {
+    for (SlidingMoments m : moments) {
+      m.clear();
+    }
+  }
+
+  @Override
+  protected void evicting() {
+    for (int j = 0; j < moments.length; j++) {
+      moments[j].remove(readings.value(0, j));
+    }
+  }
+
+}
@@ -29,6 +29,14 @@ public interface Sensor extends Actionable, Snapshottable {
 
   double[] getReadings();
 
+  /**
+   * Writes the current readings in {@code destination}, starting from {@code offset}.
+   */
+  default void copyReadings(double[] destination, int offset) {
+    double[] readings = getReadings();
+    System.arraycopy(readings, 0, destination, offset, readings.length);
+  }
+
   void setVoxel(Voxel voxel);
 
 }
@@ -16,13 +16,11 @@
  */
 package it.units.erallab.hmsrobots.core.sensors;
 
-import it.units.erallab.hmsrobots.core.objects.Ground;
+import it.units.erallab.hmsrobots.core.objects.ContactIndex;
 import it.units.erallab.hmsrobots.core.objects.Voxel;
 import it.units.erallab.hmsrobots.util.DoubleRange;
 import org.dyn4j.dynamics.Body;
 
-import java.util.List;
-
 public class Touch extends AbstractSensor {
   private final static DoubleRange[] DOMAINS = new DoubleRange[]{
       DoubleRange.of(0d, 1d)
@@ -33,27 +31,30 @@ public class Touch extends AbstractSensor {
   }
 
   public static boolean isTouching(Voxel voxel) {
+    ContactIndex contactIndex = voxel.getContactIndex();
     for (Body vertexBody : voxel.getVertexBodies()) {
-      List<Body> inContactBodies = voxel.getWorld().getInContactBodies(vertexBody, false);
-      for (Body inContactBody : inContactBodies) {
-        Object userData = inContactBody.getUserData();
-        if (userData == null) {
-          return true;
-        } else if (userData != vertexBody.getUserData()) {
-          return true;
-        }
+      if (contactIndex.isTouching(vertexBody)) {
+        return true;
       }
     }
     return false;
   }
 
   public static boolean isTouchingGround(Voxel voxel) {
+    ContactIndex contactIndex = voxel.getContactIndex();
+    for (Body vertexBody : voxel.getVertexBodies()) {
+      if (contactIndex.isTouchingGround(vertexBody)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  public static boolean isTouchingRobot(Voxel voxel) {
+    ContactIndex contactIndex = voxel.getContactIndex();
     for (Body vertexBody : voxel.getVertexBodies()) {
-      List<Body> inContactBodies = voxel.getWorld().getInContactBodies(vertexBody, false);
-      for (Body inContactBody : inContactBodies) {
-        if ((inContactBody.getUserData() != null) && (inContactBody.getUserData().equals(Ground.class))) {
-          return true;
-        }
+      if (contactIndex.isTouchingRobot(vertexBody)) {
+        return true;
       }
     }
     return false;
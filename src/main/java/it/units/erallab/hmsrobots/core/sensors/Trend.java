@@ -36,15 +36,14 @@ public class Trend extends AggregatorSensor {
 
   @Override
   protected double[] aggregate(double t) {
-    double localInterval = readings.lastKey() - readings.firstKey();
+    double localInterval = readings.lastTime() - readings.firstTime();
     if (localInterval == 0) {
       return new double[domains.length];
     }
-    double[] firsts = readings.firstEntry().getValue();
-    double[] lasts = readings.lastEntry().getValue();
-    double[] changes = new double[firsts.length];
+    int last = readings.size() - 1;
+    double[] changes = new double[readings.getWidth()];
     for (int i = 0; i < changes.length; i++) {
-      changes[i] = (lasts[i] - firsts[i]) / (localInterval);
+      changes[i] = (readings.value(last, i) - readings.value(0, i)) / (localInterval);
     }
     return changes;
   }
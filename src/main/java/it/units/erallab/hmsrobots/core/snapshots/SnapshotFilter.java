@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2022 Eric Medvet <eric.medvet@gmail.com> (as Eric Medvet <eric.medvet@gmail.com>)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.units.erallab.hmsrobots.core.snapshots;
+
+/**
+ * Tells which subtrees of a {@link Snapshot} have to be built. A subtree is identified by the class of the
+ * {@link Snapshottable} producing it and, when known before building it, by the class of its content: the two classes
+ * have the same meaning they have in the extractors of the drawers. When a subtree is not included, it is not built at
+ * all.
+ */
+@FunctionalInterface
+public interface SnapshotFilter {
+
+  SnapshotFilter ALL = (snapshottableClass, contentClass) -> true;
+  SnapshotFilter NONE = (snapshottableClass, contentClass) -> false;
+
+  /**
+   * @param contentClass the class of the content of the root of the subtree, or {@code null} if it is not known
+   *                     before building the subtree.
+   */
+  boolean includes(Class<? extends Snapshottable> snapshottableClass, Class<?> contentClass);
+
+  static SnapshotFilter all() {
+    return ALL;
+  }
+
+  static SnapshotFilter none() {
+    return NONE;
+  }
+
+  static SnapshotFilter excluding(Class<? extends Snapshottable> snapshottableClass, Class<?> contentClass) {
+    return all().without(snapshottableClass, contentClass);
+  }
+
+  /**
+   * Returns a filter including the subtrees included by this filter or by {@code other}, e.g., for building the
+   * snapshots needed by many drawers at once.
+   */
+  default SnapshotFilter or(SnapshotFilter other) {
+    if (this == ALL || other == ALL) {
+      return ALL;
+    }
+    if (this == NONE) {
+      return other;
+    }
+    if (other == NONE) {
+      return this;
+    }
+    SnapshotFilter inner = this;
+    return (sClass, cClass) -> inner.includes(sClass, cClass) || other.includes(sClass, cClass);
+  }
+
+  /**
+   * Returns a filter excluding also the subtrees whose root matches the given classes, where a {@code null} class
+   * matches any class. Subtrees whose content class is not known before building them are excluded only if
+   * {@code contentClass} is {@code null}.
+   */
+  default SnapshotFilter without(Class<? extends Snapshottable> snapshottableClass, Class<?> contentClass) {
+    SnapshotFilter inner = this;
+    return (sClass, cClass) -> {
+      boolean matches = (snapshottableClass == null || snapshottableClass.isAssignableFrom(sClass))
+          && (contentClass == null || (cClass != null && contentClass.isAssignableFrom(cClass)));
+      return !matches && inner.includes(sClass, cClass);
+    };
+  }
+
+}
@@ -23,4 +23,19 @@ public interface SnapshotListener {
 
   void listen(double t, Snapshot snapshot);
 
+  /**
+   * Tells which parts of the snapshots this listener uses: the other parts are not built.
+   */
+  default SnapshotFilter getSnapshotFilter() {
+    return SnapshotFilter.all();
+  }
+
+  /**
+   * Tells if this listener is going to use the snapshot at time {@code t}: if not, the snapshot is not built and
+   * {@link #listen(double, Snapshot)} is not invoked. It is invoked with non-decreasing values of {@code t}.
+   */
+  default boolean needsSnapshot(double t) {
+    return true;
+  }
+
 }
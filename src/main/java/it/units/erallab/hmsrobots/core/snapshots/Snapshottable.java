@@ -22,4 +22,8 @@ package it.units.erallab.hmsrobots.core.snapshots;
  */
 public interface Snapshottable {
   Snapshot getSnapshot();
+
+  default Snapshot getSnapshot(SnapshotFilter filter) {
+    return getSnapshot();
+  }
 }
@@ -17,25 +17,70 @@
 package it.units.erallab.hmsrobots.tasks;
 
 import it.units.erallab.hmsrobots.core.Actionable;
+import it.units.erallab.hmsrobots.core.StepProfiler;
+import it.units.erallab.hmsrobots.core.objects.Robot;
+import it.units.erallab.hmsrobots.core.objects.Voxel;
 import it.units.erallab.hmsrobots.core.objects.WorldObject;
 import it.units.erallab.hmsrobots.core.snapshots.Snapshot;
+import it.units.erallab.hmsrobots.core.snapshots.SnapshotFilter;
 import it.units.erallab.hmsrobots.core.snapshots.SnapshotListener;
 import it.units.erallab.hmsrobots.core.snapshots.Snapshottable;
 import org.dyn4j.dynamics.Body;
 import org.dyn4j.dynamics.Settings;
 import org.dyn4j.world.World;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 
 /**
  * @author Eric Medvet <eric.medvet@gmail.com>
  */
 public abstract class AbstractTask<T, R> implements Task<T, R> {
 
+  protected static final double MAX_SPRING_OMEGA_DT = 2d;
+
   protected final Settings settings;
+  protected final Fidelity fidelity;
 
   public AbstractTask(Settings settings) {
-    this.settings = settings;
+    this(settings, Fidelity.HIGH);
+  }
+
+  /**
+   * If the fidelity has a step multiplier larger than 1, the settings of the task are a copy of the given ones with a
+   * proportionally longer step.
+   */
+  public AbstractTask(Settings settings, Fidelity fidelity) {
+    this.fidelity = fidelity;
+    if (fidelity.stepMultiplier() == 1d) {
+      this.settings = settings;
+    } else {
+      this.settings = settings.copy();
+      this.settings.setStepFrequency(settings.getStepFrequency() * fidelity.stepMultiplier());
+    }
+  }
+
+  //steps the world for dT, with as many steps as needed by the settings of the world
+  protected static Runnable physicsStep(World<Body> world, double dT) {
+    int nOfSteps = Math.max(1, (int) Math.round(dT / world.getSettings().getStepFrequency()));
+    return () -> world.step(nOfSteps);
+  }
+
+  //returns the reason of the first satisfied condition, if any, or null
+  protected static Termination.Reason stopReason(
+      List<StopCondition> stopConditions,
+      double t,
+      Robot robot,
+      double terrainHeight,
+      double elapsedSeconds
+  ) {
+    for (StopCondition stopCondition : stopConditions) {
+      if (stopCondition.test(t, robot, terrainHeight, elapsedSeconds)) {
+        return stopCondition.reason();
+      }
+    }
+    return null;
   }
 
   protected static double updateWorld(
@@ -44,27 +89,117 @@ public abstract class AbstractTask<T, R> implements Task<T, R> {
       final World<Body> world,
       final List<WorldObject> objects,
       final SnapshotListener listener
+  ) {
+    return updateWorld(t, dT, world, objects, listener, StepProfiler.of(listener));
+  }
+
+  protected static double updateWorld(
+      final double t,
+      final double dT,
+      final World<Body> world,
+      final List<WorldObject> objects,
+      final SnapshotListener listener,
+      final StepProfiler profiler
+  ) {
+    return updateWorld(t, dT, physicsStep(world, dT), objects, listener, profiler);
+  }
+
+  /**
+   * Updates the world as {@link #updateWorld(double, double, World, List, SnapshotListener, StepProfiler)}, but lets
+   * {@code physicsStep} move the objects in place of {@link World#step(int)}, e.g., for using a different
+   * {@link PhysicsBackend}.
+   */
+  protected static double updateWorld(
+      final double t,
+      final double dT,
+      final Runnable physicsStep,
+      final List<WorldObject> objects,
+      final SnapshotListener listener,
+      final StepProfiler profiler
   ) {
     double newT = t + dT;
-    world.step(1);
-    objects.stream().filter(o -> o instanceof Actionable).forEach(o -> ((Actionable) o).act(newT));
-    //possibly output snapshot
-    if (listener != null) {
-      listener.listen(
-          newT,
-          Snapshot.world(
-              objects.stream()
-                  .filter(o -> o instanceof Snapshottable)
-                  .map(o -> ((Snapshottable) o).getSnapshot())
-                  .toList()
-          )
-      );
+    profiler.begin();
+    try {
+      long startNanos = System.nanoTime();
+      long startAllocatedBytes = profiler.allocatedBytes();
+      physicsStep.run();
+      profiler.stopPhase(StepProfiler.Phase.WORLD_STEP, startNanos, startAllocatedBytes);
+      startNanos = System.nanoTime();
+      startAllocatedBytes = profiler.allocatedBytes();
+      for (WorldObject object : objects) {
+        if (object instanceof Actionable actionable) {
+          actionable.act(newT);
+        }
+      }
+      profiler.stopPhase(StepProfiler.Phase.ACT, startNanos, startAllocatedBytes);
+      //possibly output snapshot
+      if (listener != null && listener.needsSnapshot(newT)) {
+        startNanos = System.nanoTime();
+        startAllocatedBytes = profiler.allocatedBytes();
+        SnapshotFilter filter = listener.getSnapshotFilter();
+        List<Snapshot> snapshots = new ArrayList<>(objects.size());
+        for (WorldObject object : objects) {
+          if (object instanceof Snapshottable snapshottable && filter.includes(snapshottable.getClass(), null)) {
+            snapshots.add(snapshottable.getSnapshot(filter));
+          }
+        }
+        Snapshot snapshot = Snapshot.world(snapshots);
+        profiler.stopPhase(StepProfiler.Phase.SNAPSHOT, startNanos, startAllocatedBytes);
+        listener.listen(newT, snapshot);
+      }
+    } finally {
+      profiler.release();
     }
+    profiler.end(newT);
     return newT;
   }
 
+  public Fidelity getFidelity() {
+    return fidelity;
+  }
+
   public Settings getSettings() {
     return settings;
   }
 
+  /**
+   * Resets the given robot and adapts it to the fidelity of this task, i.e., possibly with a different assembly and
+   * fewer springs: it has to be invoked in place of {@link Robot#reset()}, before adding the robot to the world.
+   */
+  protected void prepare(Robot robot) {
+    if (fidelity.assembly() == null) {
+      robot.reset();
+    } else {
+      robot.reset(fidelity.assembly());
+    }
+    if (fidelity.reducesSpringScaffoldings()) {
+      robot.getVoxels().values().stream()
+          .filter(Objects::nonNull)
+          .forEach(v -> v.reduceSpringScaffoldings(fidelity.springScaffoldings()));
+    }
+  }
+
+  /**
+   * Returns the settings of a world simulating the given robot with the time step of this task. When the step has been
+   * made longer by the fidelity, the world may be stepped with a shorter one (down to the step of the original
+   * settings), so that the product of the step and the angular frequency of the stiffest spring of the robot does not
+   * exceed {@link #MAX_SPRING_OMEGA_DT}: {@link #updateWorld(double, double, World, List, SnapshotListener)} makes as
+   * many steps as needed.
+   */
+  protected Settings worldSettings(Robot robot) {
+    double dT = settings.getStepFrequency();
+    double maxOmega = 2d * Math.PI * robot.getVoxels().values().stream()
+        .filter(Objects::nonNull)
+        .mapToDouble(Voxel::getSpringF)
+        .max().orElse(0d);
+    double physicsDT = Math.max(dT / fidelity.stepMultiplier(), Math.min(dT, MAX_SPRING_OMEGA_DT / maxOmega));
+    int nOfSteps = (int) Math.ceil(dT / physicsDT - 1e-6);
+    if (nOfSteps <= 1) {
+      return settings;
+    }
+    Settings worldSettings = settings.copy();
+    worldSettings.setStepFrequency(dT / nOfSteps);
+    return worldSettings;
+  }
+
 }
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2021 Eric Medvet <eric.medvet@gmail.com> (as Eric Medvet <eric.medvet@gmail.com>)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.units.erallab.hmsrobots.tasks;
+
+import it.units.erallab.hmsrobots.core.objects.Robot;
+import it.units.erallab.hmsrobots.core.objects.Voxel;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * The fidelity of the simulation of a task, i.e., a tradeoff between its accuracy and its cost. {@link #HIGH} is the
+ * default one. {@link #LOW} is meant for cheaply screening many solutions (e.g., with {@link TwoStageEvaluator}): it
+ * doubles the time step, drops the {@link Voxel.SpringScaffolding#SIDE_INTERNAL} springs, which largely overlap with
+ * the external ones, and shares the vertex bodies of adjacent voxels. Outcomes are only roughly ranked as with the
+ * high fidelity.
+ *
+ * @param stepMultiplier     the ratio between the time step of the task and the one of its settings; the physics may
+ *                           still be stepped with a shorter step for keeping stiff springs stable (see
+ *                           {@link AbstractTask#worldSettings(Robot)})
+ * @param springScaffoldings the spring scaffoldings of the voxels, among their own ones, which are kept in the
+ *                           simulation
+ * @param assembly           the assembly of the robots, or {@code null} for the own one of each robot
+ * @param snapshots          if false, snapshot listeners are ignored and tasks keep only the observations needed for
+ *                           their outcomes
+ */
+public record Fidelity(
+    double stepMultiplier,
+    Set<Voxel.SpringScaffolding> springScaffoldings,
+    Robot.Assembly assembly,
+    boolean snapshots
+) {
+
+  public static final Fidelity HIGH = new Fidelity(
+      1d,
+      EnumSet.allOf(Voxel.SpringScaffolding.class),
+      null,
+      true
+  );
+  public static final Fidelity LOW = new Fidelity(
+      2d,
+      EnumSet.of(
+          Voxel.SpringScaffolding.SIDE_EXTERNAL,
+          Voxel.SpringScaffolding.SIDE_CROSS,
+          Voxel.SpringScaffolding.CENTRAL_CROSS
+      ),
+      Robot.Assembly.SHARED_VERTICES,
+      false
+  );
+
+  public Fidelity {
+    if (stepMultiplier < 1d) {
+      throw new IllegalArgumentException(String.format("Step multiplier should be at least 1: %f", stepMultiplier));
+    }
+    springScaffoldings = Collections.unmodifiableSet(EnumSet.copyOf(springScaffoldings));
+  }
+
+  public boolean reducesSpringScaffoldings() {
+    return !springScaffoldings.containsAll(EnumSet.allOf(Voxel.SpringScaffolding.class));
+  }
+
+}
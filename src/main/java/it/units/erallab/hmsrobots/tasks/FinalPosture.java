@@ -18,6 +18,7 @@
 package it.units.erallab.hmsrobots.tasks;
 
 import it.units.erallab.hmsrobots.behavior.BehaviorUtils;
+import it.units.erallab.hmsrobots.core.StepProfiler;
 import it.units.erallab.hmsrobots.core.objects.Robot;
 import it.units.erallab.hmsrobots.core.objects.Voxel;
 import it.units.erallab.hmsrobots.core.objects.WorldObject;
@@ -38,26 +39,34 @@ public class FinalPosture extends AbstractTask<Robot, Grid<Boolean>> {
   private final double finalT;
 
   public FinalPosture(int gridSize, double finalT) {
-    super(new Settings());
+    this(gridSize, finalT, Fidelity.HIGH);
+  }
+
+  public FinalPosture(int gridSize, double finalT, Fidelity fidelity) {
+    super(new Settings(), fidelity);
     this.gridSize = gridSize;
     this.finalT = finalT;
   }
 
   @Override
   public Grid<Boolean> apply(Robot robot, SnapshotListener listener) {
+    if (!fidelity.snapshots()) {
+      listener = null;
+    }
     //init world
     World<Body> world = new World<>();
-    world.setSettings(settings);
     world.setGravity(Vector2.create(0d, Math.PI));
     List<WorldObject> worldObjects = new ArrayList<>();
-    robot.reset();
+    prepare(robot);
+    world.setSettings(worldSettings(robot));
     //add robot to world
     robot.addTo(world);
     worldObjects.add(robot);
     //run
+    StepProfiler profiler = StepProfiler.of(listener);
     double t = 0d;
     while (t < finalT) {
-      t = AbstractTask.updateWorld(t, settings.getStepFrequency(), world, worldObjects, listener);
+      t = AbstractTask.updateWorld(t, settings.getStepFrequency(), world, worldObjects, listener, profiler);
     }
     //get final posture
     return BehaviorUtils.computePosture(
@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2021 Eric Medvet <eric.medvet@gmail.com> (as Eric Medvet <eric.medvet@gmail.com>)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.units.erallab.hmsrobots.tasks;
+
+import it.units.erallab.hmsrobots.core.objects.MassSpringLattice;
+import it.units.erallab.hmsrobots.core.objects.Robot;
+import it.units.erallab.hmsrobots.util.Grid;
+import it.units.erallab.hmsrobots.util.RobotUtils;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The engine moving the bodies of a task.
+ */
+public enum PhysicsBackend {
+  /**
+   * The general-purpose dyn4j solver, i.e., the reference one.
+   */
+  DYN4J,
+  /**
+   * The mass-spring integrator of {@link MassSpringLattice}, which is faster, but approximate. It is experimental: it
+   * {@link #supports(Robot) supports} only the bodies whose gaits have been validated against the ones of
+   * {@link #DYN4J}, i.e., the 5x1 and 8x1 worms and the 4x3 biped, since the gaits of other bodies may be far from the
+   * reference ones, or even go in the opposite direction.
+   */
+  MASS_SPRING;
+
+  private static final List<String> MASS_SPRING_SHAPES = List.of("worm-5x1", "worm-8x1", "biped-4x3");
+
+  /**
+   * Returns true if this engine can simulate the given robot, based on the shape of its body.
+   */
+  public boolean supports(Robot robot) {
+    if (this == DYN4J) {
+      return true;
+    }
+    Grid<Boolean> shape = Grid.create(robot.getVoxels(), Objects::nonNull);
+    return MASS_SPRING_SHAPES.stream().anyMatch(name -> RobotUtils.buildShape(name).equals(shape));
+  }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2021 Eric Medvet <eric.medvet@gmail.com> (as Eric Medvet <eric.medvet@gmail.com>)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.units.erallab.hmsrobots.tasks;
+
+import it.units.erallab.hmsrobots.core.objects.Robot;
+import it.units.erallab.hmsrobots.core.objects.Voxel;
+import it.units.erallab.hmsrobots.core.sensors.Touch;
+import it.units.erallab.hmsrobots.util.DoubleTimeWindow;
+
+/**
+ * A rule for ending an episode before its final time, checked by tasks at every control step. Since a task may run
+ * many episodes, also concurrently, conditions keeping a state across steps return a fresh copy of themselves in
+ * {@link #newEpisode()}.
+ */
+public interface StopCondition {
+
+  Termination.Reason reason();
+
+  boolean test(double t, Robot robot, double terrainHeight, double elapsedSeconds);
+
+  default StopCondition newEpisode() {
+    return this;
+  }
+
+  /**
+   * Stops an episode that lasted more than {@code maxSeconds} of wall-clock time. Since it depends on the machine
+   * load, outcomes of episodes stopped by this condition are not reproducible.
+   */
+  static StopCondition computeBudget(double maxSeconds) {
+    return of(
+        Termination.Reason.COMPUTE_BUDGET,
+        (t, robot, terrainHeight, elapsedSeconds) -> elapsedSeconds > maxSeconds
+    );
+  }
+
+  /**
+   * Stops an episode when the absolute orientation of the robot, i.e., the circular mean of the angles of its voxels,
+   * exceeds {@code maxAngle}, e.g., {@code Math.PI / 2} for a robot lying on its side.
+   */
+  static StopCondition flipped(double maxAngle) {
+    return of(Termination.Reason.FLIPPED, (t, robot, terrainHeight, elapsedSeconds) -> {
+      double sin = 0d;
+      double cos = 0d;
+      for (Voxel voxel : robot.getVoxels().values()) {
+        if (voxel != null) {
+          double angle = voxel.getAngle();
+          sin = sin + Math.sin(angle);
+          cos = cos + Math.cos(angle);
+        }
+      }
+      return Math.abs(Math.atan2(sin, cos)) > maxAngle;
+    });
+  }
+
+  static StopCondition belowTerrain() {
+    return of(
+        Termination.Reason.BELOW_TERRAIN,
+        (t, robot, terrainHeight, elapsedSeconds) -> robot.center().y() < terrainHeight
+    );
+  }
+
+  static StopCondition groundContact() {
+    return of(Termination.Reason.GROUND_CONTACT, (t, robot, terrainHeight, elapsedSeconds) -> {
+      for (Voxel voxel : robot.getVoxels().values()) {
+        if (voxel != null && Touch.isTouchingGround(voxel)) {
+          return true;
+        }
+      }
+      return false;
+    });
+  }
+
+  /**
+   * Stops an episode when the center of the robot moved, along x, less than {@code minDistance} in the last
+   * {@code window} seconds.
+   */
+  static StopCondition noProgress(double window, double minDistance) {
+    return new StopCondition() {
+      private final DoubleTimeWindow xs = new DoubleTimeWindow(1);
+      private final double[] sample = new double[1];
+      private double startT = Double.NaN;
+
+      @Override
+      public Termination.Reason reason() {
+        return Termination.Reason.NO_PROGRESS;
+      }
+
+      @Override
+      public boolean test(double t, Robot robot, double terrainHeight, double elapsedSeconds) {
+        sample[0] = robot.center().x();
+        xs.add(t, sample);
+        if (Double.isNaN(startT)) {
+          startT = t;
+        }
+        if (t - startT < window) {
+          return false;
+        }
+        xs.evictBefore(t - window);
+        return Math.abs(sample[0] - xs.value(0, 0)) < minDistance;
+      }
+
+      @Override
+      public StopCondition newEpisode() {
+        return noProgress(window, minDistance);
+      }
+    };
+  }
+
+  /**
+   * Builds a condition without a state across steps.
+   */
+  static StopCondition of(Termination.Reason reason, Check check) {
+    return new StopCondition() {
+      @Override
+      public Termination.Reason reason() {
+        return reason;
+      }
+
+      @Override
+      public boolean test(double t, Robot robot, double terrainHeight, double elapsedSeconds) {
+        return check.test(t, robot, terrainHeight, elapsedSeconds);
+      }
+    };
+  }
+
+  @FunctionalInterface
+  interface Check {
+    boolean test(double t, Robot robot, double terrainHeight, double elapsedSeconds);
+  }
+
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2021 Eric Medvet <eric.medvet@gmail.com> (as Eric Medvet <eric.medvet@gmail.com>)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.units.erallab.hmsrobots.tasks;
+
+/**
+ * How and when an episode ended. An episode ended early (i.e., not at its final time) has been stopped by a
+ * {@link StopCondition} or interrupted.
+ *
+ * @param reason the reason of the termination
+ * @param t      the time of the last step of the episode
+ * @param finalT the time at which the episode would have ended if not stopped
+ */
+public record Termination(Reason reason, double t, double finalT) {
+
+  public enum Reason {FINAL_TIME, INTERRUPTED, NO_PROGRESS, BELOW_TERRAIN, FLIPPED, COMPUTE_BUDGET, GROUND_CONTACT}
+
+  public boolean isEarly() {
+    return reason != Reason.FINAL_TIME;
+  }
+
+  /**
+   * Returns the termination of the part of the episode which ends at {@code endT}: it is early only if this episode
+   * ended early before {@code endT}, and its final time is {@code endT}, unless this episode would have ended before.
+   */
+  public Termination until(double endT) {
+    if (t >= endT) {
+      return new Termination(Reason.FINAL_TIME, endT, Math.min(finalT, endT));
+    }
+    return new Termination(reason, t, Math.min(finalT, endT));
+  }
+
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2021 Eric Medvet <eric.medvet@gmail.com> (as Eric Medvet <eric.medvet@gmail.com>)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.units.erallab.hmsrobots.tasks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+import java.util.logging.Logger;
+import java.util.stream.IntStream;
+
+/**
+ * Evaluates a population of solutions in two stages: all the solutions are evaluated with a cheap, low fidelity,
+ * evaluator (e.g., a task with {@link Fidelity#LOW}), then only the best ones, according to a fitness function to be
+ * maximized, are re-evaluated with the high fidelity evaluator. The agreement between the two levels is measured with
+ * the rank correlation of the fitness of the re-evaluated solutions.
+ * <p>
+ * Evaluators process lists of solutions, hence they can be parallel (e.g.,
+ * {@link it.units.erallab.hmsrobots.tasks.locomotion.BatchLocomotion}); failed evaluations are {@code null} outcomes,
+ * which are considered the worst ones.
+ */
+public class TwoStageEvaluator<S, R> implements Function<List<S>, TwoStageEvaluator.Evaluation<R>> {
+
+  private static final Logger L = Logger.getLogger(TwoStageEvaluator.class.getName());
+
+  private final Function<List<S>, List<R>> lowFidelityEvaluator;
+  private final Function<List<S>, List<R>> highFidelityEvaluator;
+  private final ToDoubleFunction<R> fitnessFunction;
+  private final double topFraction;
+
+  public TwoStageEvaluator(
+      Function<List<S>, List<R>> lowFidelityEvaluator,
+      Function<List<S>, List<R>> highFidelityEvaluator,
+      ToDoubleFunction<R> fitnessFunction,
+      double topFraction
+  ) {
+    if (topFraction < 0d || topFraction > 1d) {
+      throw new IllegalArgumentException(String.format("Top fraction should be in [0,1]: %f", topFraction));
+    }
+    this.lowFidelityEvaluator = lowFidelityEvaluator;
+    this.highFidelityEvaluator = highFidelityEvaluator;
+    this.fitnessFunction = fitnessFunction;
+    this.topFraction = topFraction;
+  }
+
+  public TwoStageEvaluator(
+      Task<S, R> lowFidelityTask,
+      Task<S, R> highFidelityTask,
+      ToDoubleFunction<R> fitnessFunction,
+      double topFraction
+  ) {
+    this(
+        solutions -> solutions.stream().map(lowFidelityTask).toList(),
+        solutions -> solutions.stream().map(highFidelityTask).toList(),
+        fitnessFunction,
+        topFraction
+    );
+  }
+
+  /**
+   * The outcomes of the evaluation of a population, in the order of the solutions.
+   *
+   * @param lowFidelityOutcomes  the low fidelity outcomes of all the solutions
+   * @param highFidelityOutcomes the high fidelity outcomes, {@code null} for the solutions not re-evaluated
+   * @param rankCorrelation      the Spearman's rank correlation between the low and high fidelity fitness of the
+   *                             re-evaluated solutions, {@code NaN} if less than 2 of them have both
+   */
+  public record Evaluation<R>(List<R> lowFidelityOutcomes, List<R> highFidelityOutcomes, double rankCorrelation) {
+    /**
+     * Returns, for each solution, the high fidelity outcome, if any, or the low fidelity one.
+     */
+    public List<R> outcomes() {
+      return IntStream.range(0, lowFidelityOutcomes.size())
+          .mapToObj(i -> highFidelityOutcomes.get(i) != null ? highFidelityOutcomes.get(i) : lowFidelityOutcomes.get(i))
+          .toList();
+    }
+  }
+
+  /**
+   * Computes the Spearman's rank correlation between {@code xs} and {@code ys}, with tied values getting the average
+   * of their ranks.
+   */
+  public static double rankCorrelation(double[] xs, double[] ys) {
+    if (xs.length != ys.length) {
+      throw new IllegalArgumentException(String.format("Different lengths: %d and %d", xs.length, ys.length));
+    }
+    if (xs.length < 2) {
+      return Double.NaN;
+    }
+    double[] xRanks = ranks(xs);
+    double[] yRanks = ranks(ys);
+    double mean = (xs.length - 1) / 2d;
+    double covariance = 0d;
+    double xVariance = 0d;
+    double yVariance = 0d;
+    for (int i = 0; i < xs.length; i++) {
+      covariance = covariance + (xRanks[i] - mean) * (yRanks[i] - mean);
+      xVariance = xVariance + (xRanks[i] - mean) * (xRanks[i] - mean);
+      yVariance = yVariance + (yRanks[i] - mean) * (yRanks[i] - mean);
+    }
+    return covariance / Math.sqrt(xVariance * yVariance);
+  }
+
+  private static double[] ranks(double[] values) {
+    Integer[] indexes = IntStream.range(0, values.length).boxed().toArray(Integer[]::new);
+    Arrays.sort(indexes, Comparator.comparingDouble(i -> values[i]));
+    double[] ranks = new double[values.length];
+    int i = 0;
+    while (i < indexes.length) {
+      int j = i;
+      while (j + 1 < indexes.length && values[indexes[j + 1]] == values[indexes[i]]) {
+        j = j + 1;
+      }
+      for (int k = i; k <= j; k++) {
+        ranks[indexes[k]] = (i + j) / 2d;
+      }
+      i = j + 1;
+    }
+    return ranks;
+  }
+
+  @Override
+  public Evaluation<R> apply(List<S> solutions) {
+    List<R> lowFidelityOutcomes = lowFidelityEvaluator.apply(solutions);
+    double[] lowFidelityFitnesses = fitnesses(lowFidelityOutcomes);
+    //re-evaluate the best ones
+    int n = (int) Math.ceil(topFraction * solutions.size());
+    List<Integer> topIndexes = IntStream.range(0, solutions.size()).boxed()
+        .sorted(Comparator.comparingDouble((Integer i) -> Double.isNaN(lowFidelityFitnesses[i]) ?
+            Double.NEGATIVE_INFINITY : lowFidelityFitnesses[i]).reversed())
+        .limit(n)
+        .toList();
+    List<R> topOutcomes = highFidelityEvaluator.apply(topIndexes.stream().map(solutions::get).toList());
+    List<R> highFidelityOutcomes = new ArrayList<>(Collections.nCopies(solutions.size(), null));
+    for (int i = 0; i < topIndexes.size(); i++) {
+      highFidelityOutcomes.set(topIndexes.get(i), topOutcomes.get(i));
+    }
+    //compare levels
+    double[] highFidelityFitnesses = fitnesses(highFidelityOutcomes);
+    int[] comparableIndexes = IntStream.range(0, solutions.size())
+        .filter(i -> !Double.isNaN(lowFidelityFitnesses[i]) && !Double.isNaN(highFidelityFitnesses[i]))
+        .toArray();
+    double rankCorrelation = rankCorrelation(
+        Arrays.stream(comparableIndexes).mapToDouble(i -> lowFidelityFitnesses[i]).toArray(),
+        Arrays.stream(comparableIndexes).mapToDouble(i -> highFidelityFitnesses[i]).toArray()
+    );
+    L.fine(String.format(
+        "%d solutions evaluated, %d re-evaluated, rank correlation %.3f",
+        solutions.size(),
+        topIndexes.size(),
+        rankCorrelation
+    ));
+    return new Evaluation<>(
+        Collections.unmodifiableList(lowFidelityOutcomes),
+        Collections.unmodifiableList(highFidelityOutcomes),
+        rankCorrelation
+    );
+  }
+
+  //NaN for missing outcomes, which are then sorted as the worst ones
+  private double[] fitnesses(List<R> outcomes) {
+    return outcomes.stream()
+        .mapToDouble(o -> o == null ? Double.NaN : fitnessFunction.applyAsDouble(o))
+        .toArray();
+  }
+
+}
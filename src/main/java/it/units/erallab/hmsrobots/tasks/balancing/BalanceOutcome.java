@@ -1,6 +1,8 @@
 package it.units.erallab.hmsrobots.tasks.balancing;
 
+import it.units.erallab.hmsrobots.tasks.Termination;
 import it.units.erallab.hmsrobots.tasks.locomotion.Outcome;
+import it.units.erallab.hmsrobots.tasks.locomotion.TrajectoryStore;
 
 import java.util.Collections;
 import java.util.Map;
@@ -13,7 +15,15 @@ public class BalanceOutcome extends Outcome {
   private final SortedMap<Double, Double> angles;
 
   public BalanceOutcome(Map<Double, Observation> observations, Map<Double, Double> angles) {
-    super(observations);
+    this(TrajectoryStore.of(observations), angles);
+  }
+
+  public BalanceOutcome(TrajectoryStore trajectory, Map<Double, Double> angles) {
+    this(trajectory, angles, null);
+  }
+
+  public BalanceOutcome(TrajectoryStore trajectory, Map<Double, Double> angles, Termination termination) {
+    super(trajectory, termination);
     this.angles = Collections.unmodifiableSortedMap(new TreeMap<>(angles));
   }
 
@@ -22,7 +32,11 @@ public class BalanceOutcome extends Outcome {
   }
 
   public BalanceOutcome subOutcome(double startT, double endT) {
-    return new BalanceOutcome(observations.subMap(startT, endT), angles.subMap(startT, endT));
+    return new BalanceOutcome(
+        trajectory.sub(trajectory.indexOf(startT), trajectory.indexOf(endT)),
+        angles.subMap(startT, endT),
+        getTermination() == null ? null : getTermination().until(endT)
+    );
   }
 
 }
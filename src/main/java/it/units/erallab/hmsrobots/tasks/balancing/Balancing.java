@@ -1,10 +1,15 @@
 package it.units.erallab.hmsrobots.tasks.balancing;
 
+import it.units.erallab.hmsrobots.core.StepProfiler;
 import it.units.erallab.hmsrobots.core.geometry.BoundingBox;
 import it.units.erallab.hmsrobots.core.objects.*;
 import it.units.erallab.hmsrobots.core.snapshots.SnapshotListener;
 import it.units.erallab.hmsrobots.tasks.AbstractTask;
+import it.units.erallab.hmsrobots.tasks.Fidelity;
+import it.units.erallab.hmsrobots.tasks.StopCondition;
+import it.units.erallab.hmsrobots.tasks.Termination;
 import it.units.erallab.hmsrobots.tasks.locomotion.Outcome;
+import it.units.erallab.hmsrobots.tasks.locomotion.TrajectoryStore;
 import it.units.erallab.hmsrobots.util.Grid;
 import org.apache.commons.lang3.time.StopWatch;
 import org.dyn4j.dynamics.Body;
@@ -30,6 +35,7 @@ public class Balancing extends AbstractTask<Robot, BalanceOutcome> {
   private final double platformHeight;
   private final double placement;
   private final double impulse;
+  private final List<StopCondition> stopConditions;
 
   public Balancing(
       double finalT,
@@ -39,21 +45,63 @@ public class Balancing extends AbstractTask<Robot, BalanceOutcome> {
       double impulse,
       Settings settings
   ) {
-    super(settings);
+    this(finalT, angle, halfPlatformWidth, placement, impulse, settings, Fidelity.HIGH);
+  }
+
+  public Balancing(
+      double finalT,
+      double angle,
+      double halfPlatformWidth,
+      double placement,
+      double impulse,
+      Settings settings,
+      Fidelity fidelity
+  ) {
+    this(
+        finalT,
+        angle,
+        halfPlatformWidth,
+        placement,
+        impulse,
+        settings,
+        fidelity,
+        List.of(StopCondition.groundContact())
+    );
+  }
+
+  /**
+   * @param stopConditions the conditions checked before every step, with the height of the platform as terrain height;
+   *                       after a stop, the remaining angles are set to 1 and the robot is observed in the pose of the
+   *                       stop until the final time.
+   */
+  public Balancing(
+      double finalT,
+      double angle,
+      double halfPlatformWidth,
+      double placement,
+      double impulse,
+      Settings settings,
+      Fidelity fidelity,
+      List<StopCondition> stopConditions
+  ) {
+    super(settings, fidelity);
     this.finalT = finalT;
     this.angle = angle;
     this.halfPlatformWidth = halfPlatformWidth;
     platformHeight = Math.sin(angle * Math.PI / 180.0D) * halfPlatformWidth;
     this.placement = placement;
     this.impulse = impulse;
+    this.stopConditions = stopConditions;
   }
 
   @Override
   public BalanceOutcome apply(Robot robot, SnapshotListener listener) {
     StopWatch stopWatch = StopWatch.createStarted();
+    if (!fidelity.snapshots()) {
+      listener = null;
+    }
     //init world
     World<Body> world = new World<>();
-    world.setSettings(settings);
     List<WorldObject> worldObjects = new ArrayList<>();
     Ground ground = new Ground(new double[]{-GROUND_HALF_LENGTH, GROUND_HALF_LENGTH}, new double[]{0, 0});
     ground.addTo(world);
@@ -61,7 +109,8 @@ public class Balancing extends AbstractTask<Robot, BalanceOutcome> {
     Swing swing = new Swing(halfPlatformWidth, platformHeight, impulse);
     swing.addTo(world);
     worldObjects.add(swing);
-    robot.reset();
+    prepare(robot);
+    world.setSettings(worldSettings(robot));
     //position robot: translate on x
     BoundingBox boundingBox = robot.boundingBox();
     robot.translate(new Vector2(placement - boundingBox.min().x(), 0));
@@ -74,52 +123,53 @@ public class Balancing extends AbstractTask<Robot, BalanceOutcome> {
     Map<Double, Outcome.Observation> observations = new HashMap<>((int) Math.ceil(finalT / settings.getStepFrequency()));
     double t = 0d;
     Map<Double, Double> angles = new HashMap<>((int) Math.ceil(finalT / settings.getStepFrequency()));
-    boolean stopped = false;
+    List<StopCondition> episodeStopConditions = stopConditions.stream().map(StopCondition::newEpisode).toList();
+    Termination.Reason reason = null;
+    StepProfiler profiler = StepProfiler.of(listener);
     while (t < finalT) {
-      if (stopCondition(robot)) {
-        stopped = true;
-        break;
-      }
-      t = AbstractTask.updateWorld(t, settings.getStepFrequency(), world, worldObjects, listener);
-      observations.put(t, new Outcome.Observation(
-          Grid.create(robot.getVoxels(), v -> v == null ? null : v.getVoxelPoly()),
+      reason = stopReason(
+          episodeStopConditions,
+          t,
+          robot,
           platformHeight,
           (double) stopWatch.getTime(TimeUnit.MILLISECONDS) / 1000d
-      ));
+      );
+      if (reason != null) {
+        break;
+      }
+      t = AbstractTask.updateWorld(t, settings.getStepFrequency(), world, worldObjects, listener, profiler);
+      observations.put(t, observe(robot, stopWatch));
       angles.put(t, Math.abs(swing.getAngle()) / angle);
     }
-    if (stopped) {
+    Termination termination = new Termination(reason == null ? Termination.Reason.FINAL_TIME : reason, t, finalT);
+    if (termination.isEarly()) {
+      //the robot stays in the pose of the stop until the final time
+      Outcome.Observation observation = observations.computeIfAbsent(t, k -> observe(robot, stopWatch));
       while (t < finalT) {
-        observations.put(t, new Outcome.Observation(
-            Grid.create(robot.getVoxels(), v -> v == null ? null : v.getVoxelPoly()),
-            platformHeight,
-            (double) stopWatch.getTime(TimeUnit.MILLISECONDS) / 1000d
-        ));
+        observations.put(t, observation);
         angles.put(t, 1.0);
         t = t + settings.getStepFrequency();
       }
     }
     stopWatch.stop();
     //prepare outcome
-    return new BalanceOutcome(observations, angles);
+    return new BalanceOutcome(TrajectoryStore.of(observations), angles, termination);
   }
 
+  /**
+   * Tells if the robot touches the ground, i.e., if {@link StopCondition#groundContact()}, which is the default stop
+   * condition of this task, holds.
+   */
   public boolean stopCondition(Robot robot) {
-    for (Grid.Entry<Voxel> entry : robot.getVoxels()) {
-      if (entry.value() == null) {
-        continue;
-      }
-      Voxel voxel = entry.value();
-      for (Body vertexBody : voxel.getVertexBodies()) {
-        List<Body> inContactBodies = voxel.getWorld().getInContactBodies(vertexBody, false);
-        for (Body inContactBody : inContactBodies) {
-          if ((inContactBody.getUserData() != null) && (inContactBody.getUserData().equals(Ground.class))) {
-            return true;
-          }
-        }
-      }
-    }
-    return false;
+    return StopCondition.groundContact().test(0d, robot, platformHeight, 0d);
+  }
+
+  private Outcome.Observation observe(Robot robot, StopWatch stopWatch) {
+    return new Outcome.Observation(
+        Grid.create(robot.getVoxels(), v -> v == null ? null : v.getVoxelPoly()),
+        platformHeight,
+        (double) stopWatch.getTime(TimeUnit.MILLISECONDS) / 1000d
+    );
   }
 
 }
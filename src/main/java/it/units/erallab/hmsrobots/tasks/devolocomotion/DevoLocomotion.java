@@ -21,6 +21,7 @@ import it.units.erallab.hmsrobots.core.objects.Ground;
 import it.units.erallab.hmsrobots.core.objects.Robot;
 import it.units.erallab.hmsrobots.core.snapshots.SnapshotListener;
 import it.units.erallab.hmsrobots.tasks.AbstractTask;
+import it.units.erallab.hmsrobots.tasks.Fidelity;
 import it.units.erallab.hmsrobots.tasks.locomotion.Locomotion;
 import org.dyn4j.dynamics.Body;
 import org.dyn4j.dynamics.Settings;
@@ -40,7 +41,21 @@ public abstract class DevoLocomotion extends AbstractTask<UnaryOperator<Robot>,
   protected final double initialPlacement;
 
   public DevoLocomotion(double maxT, double[][] groundProfile, double initialPlacement, Settings settings) {
-    super(settings);
+    this(maxT, groundProfile, initialPlacement, settings, Fidelity.HIGH);
+  }
+
+  /**
+   * Since robots are built by the solution during the episode, the fidelity affects the time step and the snapshots,
+   * but not the springs and the assembly of the robots.
+   */
+  public DevoLocomotion(
+      double maxT,
+      double[][] groundProfile,
+      double initialPlacement,
+      Settings settings,
+      Fidelity fidelity
+  ) {
+    super(settings, fidelity);
     this.maxT = maxT;
     this.groundProfile = groundProfile;
     this.initialPlacement = initialPlacement;
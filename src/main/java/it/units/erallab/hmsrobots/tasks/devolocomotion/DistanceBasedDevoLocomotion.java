@@ -17,13 +17,16 @@
 
 package it.units.erallab.hmsrobots.tasks.devolocomotion;
 
+import it.units.erallab.hmsrobots.core.StepProfiler;
 import it.units.erallab.hmsrobots.core.objects.Ground;
 import it.units.erallab.hmsrobots.core.objects.Robot;
 import it.units.erallab.hmsrobots.core.objects.WorldObject;
 import it.units.erallab.hmsrobots.core.snapshots.Snapshot;
+import it.units.erallab.hmsrobots.core.snapshots.SnapshotFilter;
 import it.units.erallab.hmsrobots.core.snapshots.SnapshotListener;
 import it.units.erallab.hmsrobots.core.snapshots.Snapshottable;
 import it.units.erallab.hmsrobots.tasks.AbstractTask;
+import it.units.erallab.hmsrobots.tasks.Fidelity;
 import it.units.erallab.hmsrobots.tasks.locomotion.Locomotion;
 import it.units.erallab.hmsrobots.tasks.locomotion.Outcome;
 import it.units.erallab.hmsrobots.util.Grid;
@@ -55,7 +58,19 @@ public class DistanceBasedDevoLocomotion extends DevoLocomotion {
       double initialPlacement,
       Settings settings
   ) {
-    super(maxT, groundProfile, initialPlacement, settings);
+    this(stageMinDistance, stageMaxT, maxT, groundProfile, initialPlacement, settings, Fidelity.HIGH);
+  }
+
+  public DistanceBasedDevoLocomotion(
+      double stageMinDistance,
+      double stageMaxT,
+      double maxT,
+      double[][] groundProfile,
+      double initialPlacement,
+      Settings settings,
+      Fidelity fidelity
+  ) {
+    super(maxT, groundProfile, initialPlacement, settings, fidelity);
     this.stageMinDistance = stageMinDistance;
     this.stageMaxT = stageMaxT;
   }
@@ -93,11 +108,14 @@ public class DistanceBasedDevoLocomotion extends DevoLocomotion {
   @Override
   public DevoOutcome apply(UnaryOperator<Robot> solution, SnapshotListener listener) {
     StopWatch stopWatch = StopWatch.createStarted();
+    if (!fidelity.snapshots()) {
+      listener = null;
+    }
     //init world
     World<Body> world = new World<>();
-    world.setSettings(settings);
     Ground ground = new Ground(groundProfile[0], groundProfile[1]);
     Robot robot = solution.apply(null);
+    world.setSettings(worldSettings(robot));
     rebuildWorld(ground, robot, world, initialPlacement);
     List<WorldObject> worldObjects = List.of(ground, robot);
     //run
@@ -110,18 +128,32 @@ public class DistanceBasedDevoLocomotion extends DevoLocomotion {
     CurrentTarget currentTarget = new CurrentTarget(targetXs);
     targetXs.add(stageX);
     targetXs.add(stageX + stageMinDistance);
+    StepProfiler profiler = StepProfiler.of(listener);
     //modify listener
     if (listener != null) {
       final SnapshotListener originalListener = listener;
-      listener = (sT, s) -> {
-        s.getChildren().add(currentTarget.getSnapshot());
-        originalListener.listen(sT, s);
+      listener = new SnapshotListener() {
+        @Override
+        public void listen(double sT, Snapshot s) {
+          s.getChildren().add(currentTarget.getSnapshot());
+          originalListener.listen(sT, s);
+        }
+
+        @Override
+        public SnapshotFilter getSnapshotFilter() {
+          return originalListener.getSnapshotFilter();
+        }
+
+        @Override
+        public boolean needsSnapshot(double sT) {
+          return originalListener.needsSnapshot(sT);
+        }
       };
     }
     while (t < maxT) {
       t = AbstractTask.updateWorld(
           t, settings.getStepFrequency(), world, worldObjects,
-          listener
+          listener, profiler
       );
       observations.put(t, new Outcome.Observation(
           Grid.create(robot.getVoxels(), v -> v == null ? null : v.getVoxelPoly()),
@@ -17,11 +17,13 @@
 
 package it.units.erallab.hmsrobots.tasks.devolocomotion;
 
+import it.units.erallab.hmsrobots.core.StepProfiler;
 import it.units.erallab.hmsrobots.core.objects.Ground;
 import it.units.erallab.hmsrobots.core.objects.Robot;
 import it.units.erallab.hmsrobots.core.objects.WorldObject;
 import it.units.erallab.hmsrobots.core.snapshots.SnapshotListener;
 import it.units.erallab.hmsrobots.tasks.AbstractTask;
+import it.units.erallab.hmsrobots.tasks.Fidelity;
 import it.units.erallab.hmsrobots.tasks.devolocomotion.DevoOutcome.DevoStageOutcome;
 import it.units.erallab.hmsrobots.tasks.locomotion.Locomotion;
 import it.units.erallab.hmsrobots.tasks.locomotion.Outcome;
@@ -53,7 +55,18 @@ public class TimeBasedDevoLocomotion extends DevoLocomotion {
       double initialPlacement,
       Settings settings
   ) {
-    super(maxT, groundProfile, initialPlacement, settings);
+    this(developmentSchedule, maxT, groundProfile, initialPlacement, settings, Fidelity.HIGH);
+  }
+
+  public TimeBasedDevoLocomotion(
+      List<Double> developmentSchedule,
+      double maxT,
+      double[][] groundProfile,
+      double initialPlacement,
+      Settings settings,
+      Fidelity fidelity
+  ) {
+    super(maxT, groundProfile, initialPlacement, settings, fidelity);
     this.developmentSchedule = new LinkedList<>(developmentSchedule);
   }
 
@@ -90,11 +103,14 @@ public class TimeBasedDevoLocomotion extends DevoLocomotion {
   public DevoOutcome apply(UnaryOperator<Robot> solution, SnapshotListener listener) {
     List<Double> copiedDevelopmentSchedule = new LinkedList<>(developmentSchedule);
     StopWatch stopWatch = StopWatch.createStarted();
+    if (!fidelity.snapshots()) {
+      listener = null;
+    }
     //init world
     World<Body> world = new World<>();
-    world.setSettings(settings);
     Ground ground = new Ground(groundProfile[0], groundProfile[1]);
     Robot robot = solution.apply(null);
+    world.setSettings(worldSettings(robot));
     rebuildWorld(ground, robot, world, initialPlacement);
     List<WorldObject> worldObjects = List.of(ground, robot);
     //run
@@ -102,10 +118,11 @@ public class TimeBasedDevoLocomotion extends DevoLocomotion {
     Map<Double, Outcome.Observation> observations = new HashMap<>();
     double t = 0d;
     double stageFinalT = copiedDevelopmentSchedule.size() > 0 ? copiedDevelopmentSchedule.remove(0) : maxT;
+    StepProfiler profiler = StepProfiler.of(listener);
     while (t < maxT) {
       t = AbstractTask.updateWorld(
           t, settings.getStepFrequency(), world, worldObjects,
-          listener
+          listener, profiler
       );
       observations.put(t, new Outcome.Observation(
           Grid.create(robot.getVoxels(), v -> v == null ? null : v.getVoxelPoly()),
@@ -0,0 +1,345 @@
+/*
+ * Copyright (C) 2022 Eric Medvet <eric.medvet@gmail.com> (as Eric Medvet <eric.medvet@gmail.com>)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.units.erallab.hmsrobots.tasks.locomotion;
+
+import it.units.erallab.hmsrobots.core.controllers.BatchedMultiLayerPerceptron;
+import it.units.erallab.hmsrobots.core.controllers.CentralizedSensing;
+import it.units.erallab.hmsrobots.core.controllers.Controller;
+import it.units.erallab.hmsrobots.core.controllers.SmoothedController;
+import it.units.erallab.hmsrobots.core.controllers.StepController;
+import it.units.erallab.hmsrobots.core.objects.Ground;
+import it.units.erallab.hmsrobots.core.objects.Robot;
+import it.units.erallab.hmsrobots.tasks.Termination;
+import it.units.erallab.hmsrobots.util.Grid;
+import org.apache.commons.lang3.time.StopWatch;
+import org.dyn4j.dynamics.Body;
+import org.dyn4j.world.World;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Evaluates many robots on the same {@link Locomotion} task in parallel. Each {@link World} and {@link Ground} is
+ * reused across episodes, by one episode at a time. An instance built with a parallelism level owns its pool of threads,
+ * which is shut down on {@link #close()}.
+ * <p>
+ * Robots driven by members of a {@link BatchedMultiLayerPerceptron} are run in lock-step with the other members of
+ * their group: groups cannot be larger than the number of threads of the executor (hence, members should be built with
+ * {@link BatchedMultiLayerPerceptron#members(int)} and the parallelism level) and all the members of a group have to be
+ * evaluated in the same invocation. The members of a group are submitted one after the other, so that a FIFO executor
+ * (as the one built by this class) never leaves a group waiting for members which cannot get a thread.
+ */
+public class BatchLocomotion implements AutoCloseable {
+
+  private static final Logger L = Logger.getLogger(BatchLocomotion.class.getName());
+
+  private final Locomotion locomotion;
+  private final ExecutorService executor;
+  private final boolean ownsExecutor;
+  private final int parallelism;
+  private final double episodeTimeout;
+  private final Deque<Arena> arenas;
+  private final List<Future<Outcome>> futures;
+  private final Set<Episode> runningEpisodes;
+  private Stats lastStats;
+
+  private BatchLocomotion(
+      Locomotion locomotion,
+      ExecutorService executor,
+      boolean ownsExecutor,
+      double episodeTimeout
+  ) {
+    this.locomotion = locomotion;
+    this.executor = executor;
+    this.ownsExecutor = ownsExecutor;
+    parallelism = parallelism(executor);
+    this.episodeTimeout = episodeTimeout;
+    arenas = new ConcurrentLinkedDeque<>();
+    futures = new ArrayList<>();
+    runningEpisodes = ConcurrentHashMap.newKeySet();
+  }
+
+  public BatchLocomotion(Locomotion locomotion, ExecutorService executor, double episodeTimeout) {
+    this(locomotion, executor, false, episodeTimeout);
+  }
+
+  public BatchLocomotion(Locomotion locomotion, int parallelism) {
+    this(
+        locomotion,
+        Executors.newFixedThreadPool(parallelism, r -> {
+          Thread thread = new Thread(r, "batch-locomotion-worker");
+          thread.setDaemon(true);
+          return thread;
+        }),
+        true,
+        Double.POSITIVE_INFINITY
+    );
+  }
+
+  //the world and the ground of one running episode
+  private record Arena(World<Body> world, Ground ground) {}
+
+  public record Stats(int nOfEpisodes, int nOfFailedEpisodes, long nOfSteps, double elapsedTime) {
+    public double episodesPerSecond() {
+      return (double) nOfEpisodes / elapsedTime;
+    }
+
+    public double stepsPerSecond() {
+      return (double) nOfSteps / elapsedTime;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "Stats{episodes=%d, failed=%d, steps=%d, elapsedTime=%.2fs, episodes/s=%.2f, steps/s=%.0f}",
+          nOfEpisodes,
+          nOfFailedEpisodes,
+          nOfSteps,
+          elapsedTime,
+          episodesPerSecond(),
+          stepsPerSecond()
+      );
+    }
+  }
+
+  public List<Outcome> apply(List<Robot> robots) {
+    StopWatch stopWatch = StopWatch.createStarted();
+    List<Integer> order = submissionOrder(robots);
+    List<Future<Outcome>> localFutures = new ArrayList<>(Collections.nCopies(robots.size(), null));
+    List<StepCounter> stepCounters = new ArrayList<>(robots.size());
+    for (int i = 0; i < robots.size(); i++) {
+      stepCounters.add(new StepCounter());
+    }
+    synchronized (futures) {
+      for (int i : order) {
+        Robot robot = robots.get(i);
+        StepCounter stepCounter = stepCounters.get(i);
+        localFutures.set(i, executor.submit(() -> runEpisode(robot, stepCounter)));
+      }
+      futures.addAll(localFutures);
+    }
+    List<Outcome> outcomes = new ArrayList<>(robots.size());
+    int nOfFailedEpisodes = 0;
+    long nOfSteps = 0;
+    for (int i = 0; i < localFutures.size(); i++) {
+      Outcome outcome = null;
+      try {
+        outcome = localFutures.get(i).get();
+      } catch (CancellationException e) {
+        L.fine("Episode cancelled");
+      } catch (InterruptedException | ExecutionException e) {
+        L.log(Level.SEVERE, String.format("Cannot obtain one outcome due to %s", e), e);
+      }
+      if (outcome == null) {
+        nOfFailedEpisodes = nOfFailedEpisodes + 1;
+      }
+      nOfSteps = nOfSteps + stepCounters.get(i).get();
+      outcomes.add(outcome);
+    }
+    synchronized (futures) {
+      futures.removeAll(localFutures);
+    }
+    stopWatch.stop();
+    lastStats = new Stats(
+        robots.size(),
+        nOfFailedEpisodes,
+        nOfSteps,
+        stopWatch.getTime(TimeUnit.MILLISECONDS) / 1000d
+    );
+    L.fine(String.format("Batch done: %s", lastStats));
+    return outcomes;
+  }
+
+  public Grid<Outcome> apply(Grid<Robot> robots) {
+    List<Grid.Key> keys = new ArrayList<>();
+    List<Robot> robotList = new ArrayList<>();
+    for (Grid.Entry<Robot> entry : robots) {
+      if (entry.value() != null) {
+        keys.add(entry.key());
+        robotList.add(entry.value());
+      }
+    }
+    List<Outcome> outcomes = apply(robotList);
+    Grid<Outcome> outcomesGrid = Grid.create(robots);
+    for (int i = 0; i < keys.size(); i++) {
+      outcomesGrid.set(keys.get(i).x(), keys.get(i).y(), outcomes.get(i));
+    }
+    return outcomesGrid;
+  }
+
+  public void cancel() {
+    synchronized (futures) {
+      futures.forEach(f -> f.cancel(true));
+    }
+    //not all executors interrupt on cancel (e.g., ForkJoinPool)
+    runningEpisodes.forEach(Episode::interrupt);
+  }
+
+  /**
+   * Cancels the running episodes and, if this instance has built its own pool of threads, shuts it down. Executors
+   * given to the constructor are left untouched.
+   */
+  @Override
+  public void close() {
+    cancel();
+    if (ownsExecutor) {
+      executor.shutdownNow();
+    }
+    arenas.clear();
+  }
+
+  public Stats getLastStats() {
+    return lastStats;
+  }
+
+  private Outcome runEpisode(Robot robot, StepCounter stepCounter) {
+    Episode episode = new Episode(Thread.currentThread());
+    runningEpisodes.add(episode);
+    ScheduledFuture<?> watchdog = null;
+    if (Double.isFinite(episodeTimeout)) {
+      watchdog = Watchdog.EXECUTOR.schedule(
+          episode::interrupt,
+          Math.round(episodeTimeout * 1000d),
+          TimeUnit.MILLISECONDS
+      );
+    }
+    Arena arena = arenas.poll();
+    if (arena == null) {
+      arena = new Arena(new World<>(), locomotion.buildGround());
+    }
+    try {
+      Outcome outcome = locomotion.apply(robot, null, List.of(stepCounter), arena.world(), arena.ground());
+      if (outcome.getTermination().reason().equals(Termination.Reason.INTERRUPTED)) {
+        L.warning(String.format("Episode interrupted after %d steps", stepCounter.get()));
+        return null;
+      }
+      return outcome;
+    } finally {
+      //do not keep the robot alive while the arena is unused
+      arena.world().removeAllBodiesAndJoints();
+      arenas.push(arena);
+      runningEpisodes.remove(episode);
+      //let lock-stepped episodes go on without this one
+      batchMembers(robot.getController()).forEach(BatchedMultiLayerPerceptron.Member::leave);
+      if (watchdog != null) {
+        watchdog.cancel(false);
+      }
+      episode.end();
+    }
+  }
+
+  //indexes of the robots sorted so that the members of the same batch, hence of the same group, are consecutive
+  private List<Integer> submissionOrder(List<Robot> robots) {
+    Map<BatchedMultiLayerPerceptron, List<Integer>> batchIndexes = new LinkedHashMap<>();
+    List<Integer> order = new ArrayList<>(robots.size());
+    for (int i = 0; i < robots.size(); i++) {
+      List<BatchedMultiLayerPerceptron.Member> members = batchMembers(robots.get(i).getController());
+      if (members.isEmpty()) {
+        order.add(i);
+        continue;
+      }
+      BatchedMultiLayerPerceptron.Member member = members.get(0);
+      if (member.getGroupSize() > parallelism) {
+        throw new IllegalArgumentException(String.format(
+            "Cannot run a group of %d batch members with %d threads: build members with groups of at most %d",
+            member.getGroupSize(),
+            parallelism,
+            parallelism
+        ));
+      }
+      batchIndexes.computeIfAbsent(member.getBatch(), b -> new ArrayList<>()).add(i);
+    }
+    for (List<Integer> indexes : batchIndexes.values()) {
+      indexes.sort(Comparator.comparingInt(i -> batchMembers(robots.get(i).getController()).get(0).getIndex()));
+      order.addAll(indexes);
+    }
+    return order;
+  }
+
+  //the number of threads of the executor, if known
+  private static int parallelism(ExecutorService executor) {
+    if (executor instanceof ThreadPoolExecutor threadPoolExecutor) {
+      return threadPoolExecutor.getMaximumPoolSize();
+    }
+    if (executor instanceof ForkJoinPool forkJoinPool) {
+      return forkJoinPool.getParallelism();
+    }
+    return Integer.MAX_VALUE;
+  }
+
+  private static List<BatchedMultiLayerPerceptron.Member> batchMembers(Controller controller) {
+    List<BatchedMultiLayerPerceptron.Member> members = new ArrayList<>();
+    if (controller instanceof CentralizedSensing centralizedSensing) {
+      if (centralizedSensing.getFunction() instanceof BatchedMultiLayerPerceptron.Member member) {
+        members.add(member);
+      }
+    } else if (controller instanceof SmoothedController smoothedController) {
+      members.addAll(batchMembers(smoothedController.getInnerController()));
+    } else if (controller instanceof StepController stepController) {
+      members.addAll(batchMembers(stepController.getInnerController()));
+    }
+    return members;
+  }
+
+  //the thread of an episode can be interrupted only until the episode ends, hence a late watchdog or cancel() cannot
+  //interrupt another episode run later by the same pooled thread
+  private static class Episode {
+    private final Thread thread;
+    private boolean ended;
+
+    private Episode(Thread thread) {
+      this.thread = thread;
+    }
+
+    private synchronized void end() {
+      ended = true;
+      Thread.interrupted();
+    }
+
+    private synchronized void interrupt() {
+      if (!ended) {
+        thread.interrupt();
+      }
+    }
+  }
+
+  private static class StepCounter implements OutcomeAccumulator<Long> {
+    private volatile long n;
+
+    @Override
+    public void accumulate(double t, Robot robot, double terrainHeight) {
+      n = n + 1;
+    }
+
+    @Override
+    public Long get() {
+      return n;
+    }
+  }
+
+  private static class Watchdog {
+    private static final ScheduledExecutorService EXECUTOR = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, "batch-locomotion-watchdog");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+}
@@ -16,12 +16,20 @@
  */
 package it.units.erallab.hmsrobots.tasks.locomotion;
 
+import it.units.erallab.hmsrobots.core.StepProfiler;
 import it.units.erallab.hmsrobots.core.geometry.BoundingBox;
 import it.units.erallab.hmsrobots.core.objects.Ground;
+import it.units.erallab.hmsrobots.core.objects.MassSpringLattice;
 import it.units.erallab.hmsrobots.core.objects.Robot;
+import it.units.erallab.hmsrobots.core.objects.RobotState;
+import it.units.erallab.hmsrobots.core.objects.Voxel;
 import it.units.erallab.hmsrobots.core.objects.WorldObject;
 import it.units.erallab.hmsrobots.core.snapshots.SnapshotListener;
 import it.units.erallab.hmsrobots.tasks.AbstractTask;
+import it.units.erallab.hmsrobots.tasks.Fidelity;
+import it.units.erallab.hmsrobots.tasks.PhysicsBackend;
+import it.units.erallab.hmsrobots.tasks.StopCondition;
+import it.units.erallab.hmsrobots.tasks.Termination;
 import it.units.erallab.hmsrobots.util.Grid;
 import it.units.erallab.hmsrobots.util.Utils;
 import org.apache.commons.lang3.time.StopWatch;
@@ -30,8 +38,10 @@ import org.dyn4j.dynamics.Settings;
 import org.dyn4j.geometry.Vector2;
 import org.dyn4j.world.World;
 
+import java.io.Serializable;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
 import java.util.random.RandomGenerator;
 import java.util.stream.IntStream;
 
@@ -46,18 +56,94 @@ public class Locomotion extends AbstractTask<Robot, Outcome> {
   private final double finalT;
   private final double[][] groundProfile;
   private final double initialPlacement;
+  private final boolean keepObservations;
+  private final PhysicsBackend physicsBackend;
+  private final List<StopCondition> stopConditions;
 
   public Locomotion(double finalT, double[][] groundProfile, Settings settings) {
     this(finalT, groundProfile, groundProfile[0][1] + INITIAL_PLACEMENT_X_GAP, settings);
   }
 
   public Locomotion(double finalT, double[][] groundProfile, double initialPlacement, Settings settings) {
-    super(settings);
+    this(finalT, groundProfile, initialPlacement, settings, true);
+  }
+
+  /**
+   * @param keepObservations if false, only the first and the last observations are stored in the {@link Outcome}:
+   *                         metrics computed on the episode endpoints (distance, velocity, energies) are unaffected,
+   *                         while per-step metrics have to be computed with {@link OutcomeAccumulator}s.
+   */
+  public Locomotion(
+      double finalT,
+      double[][] groundProfile,
+      double initialPlacement,
+      Settings settings,
+      boolean keepObservations
+  ) {
+    this(finalT, groundProfile, initialPlacement, settings, keepObservations, PhysicsBackend.DYN4J);
+  }
+
+  public Locomotion(
+      double finalT,
+      double[][] groundProfile,
+      double initialPlacement,
+      Settings settings,
+      boolean keepObservations,
+      PhysicsBackend physicsBackend
+  ) {
+    this(finalT, groundProfile, initialPlacement, settings, keepObservations, physicsBackend, Fidelity.HIGH);
+  }
+
+  /**
+   * @param fidelity if it does not take {@link Fidelity#snapshots()}, observations are not kept, regardless of
+   *                 {@code keepObservations}.
+   */
+  public Locomotion(
+      double finalT,
+      double[][] groundProfile,
+      double initialPlacement,
+      Settings settings,
+      boolean keepObservations,
+      PhysicsBackend physicsBackend,
+      Fidelity fidelity
+  ) {
+    this(finalT, groundProfile, initialPlacement, settings, keepObservations, physicsBackend, fidelity, List.of());
+  }
+
+  /**
+   * @param stopConditions the conditions checked after every step, with the height of the terrain below the center of
+   *                       the robot: the first satisfied one ends the episode, which is recorded in the
+   *                       {@link Outcome#getTermination()}.
+   */
+  public Locomotion(
+      double finalT,
+      double[][] groundProfile,
+      double initialPlacement,
+      Settings settings,
+      boolean keepObservations,
+      PhysicsBackend physicsBackend,
+      Fidelity fidelity,
+      List<StopCondition> stopConditions
+  ) {
+    super(settings, fidelity);
     this.finalT = finalT;
     this.groundProfile = groundProfile;
     this.initialPlacement = initialPlacement;
+    this.keepObservations = keepObservations && fidelity.snapshots();
+    this.physicsBackend = physicsBackend;
+    this.stopConditions = stopConditions;
   }
 
+  /**
+   * The state of an episode at time {@code t}, which can be continued, also many times, with
+   * {@link #apply(Checkpoint, SnapshotListener)}.
+   *
+   * @param t          the time of the episode
+   * @param groundGap  the minimum vertical distance between the voxels of the robot and the ground
+   * @param robotState the state of the robot
+   */
+  public record Checkpoint(double t, double groundGap, RobotState robotState) implements Serializable {}
+
   public static double[][] createTerrain(String name) {
     String flat = "flat";
     String flatWithStart = "flatWithStart-(?<seed>[0-9]+)";
@@ -167,42 +253,216 @@ public class Locomotion extends AbstractTask<Robot, Outcome> {
 
   @Override
   public Outcome apply(Robot robot, SnapshotListener listener) {
+    return apply(robot, listener, List.of());
+  }
+
+  public Outcome apply(Robot robot, SnapshotListener listener, List<? extends OutcomeAccumulator<?>> accumulators) {
+    return apply(robot, listener, accumulators, new World<>(), buildGround());
+  }
+
+  public Outcome apply(
+      Robot robot,
+      SnapshotListener listener,
+      List<? extends OutcomeAccumulator<?>> accumulators,
+      World<Body> world,
+      Ground ground
+  ) {
     StopWatch stopWatch = StopWatch.createStarted();
-    //init world
-    World<Body> world = new World<>();
-    world.setSettings(settings);
-    List<WorldObject> worldObjects = new ArrayList<>();
-    Ground ground = new Ground(groundProfile[0], groundProfile[1]);
-    ground.addTo(world);
-    worldObjects.add(ground);
-    robot.reset();
+    prepare(robot);
+    place(robot, ground);
+    return run(robot, 0d, finalT, listener, accumulators, stopConditions, keepObservations, world, ground, stopWatch);
+  }
+
+  /**
+   * Continues the episode of the given checkpoint, from its time to the final time of this task, with a robot restored
+   * from the checkpoint. The same checkpoint can be used many times and on tasks with a different terrain: the robot is
+   * moved vertically so as to keep its distance from the ground.
+   */
+  public Outcome apply(Checkpoint checkpoint, SnapshotListener listener) {
+    StopWatch stopWatch = StopWatch.createStarted();
+    Robot robot = checkpoint.robotState().restore();
+    Ground ground = buildGround();
+    align(robot, ground, checkpoint.groundGap());
+    return run(
+        robot,
+        checkpoint.t(),
+        finalT,
+        listener,
+        List.of(),
+        stopConditions,
+        keepObservations,
+        new World<>(),
+        ground,
+        stopWatch
+    );
+  }
+
+  /**
+   * Continues the episode of the given checkpoint as {@link #apply(Checkpoint, SnapshotListener)}, but with the given
+   * robot, which has to have the same body of the one of the checkpoint, moved in its pose (see
+   * {@link RobotState#applyTo(Robot)}), e.g., for evaluating many controllers on a body already settled on the ground.
+   */
+  public Outcome apply(Robot robot, Checkpoint checkpoint, SnapshotListener listener) {
+    StopWatch stopWatch = StopWatch.createStarted();
+    checkpoint.robotState().applyTo(robot);
+    Ground ground = buildGround();
+    align(robot, ground, checkpoint.groundGap());
+    return run(
+        robot,
+        checkpoint.t(),
+        finalT,
+        listener,
+        List.of(),
+        stopConditions,
+        keepObservations,
+        new World<>(),
+        ground,
+        stopWatch
+    );
+  }
+
+  /**
+   * Runs the episode of the given robot up to (at least) time {@code t}, with no stop conditions, and returns its
+   * state.
+   */
+  public Checkpoint checkpoint(Robot robot, double t) {
+    StopWatch stopWatch = StopWatch.createStarted();
+    Ground ground = buildGround();
+    prepare(robot);
+    place(robot, ground);
+    Outcome outcome = run(robot, 0d, t, null, List.of(), List.of(), false, new World<>(), ground, stopWatch);
+    return new Checkpoint(outcome.getTermination().t(), minYGap(robot, ground), RobotState.of(robot));
+  }
+
+  private static void align(Robot robot, Ground ground, double groundGap) {
+    double dY = groundGap - minYGap(robot, ground);
+    if (dY != 0d) {
+      robot.translate(new Vector2(0, dY));
+    }
+  }
+
+  private static double minYGap(Robot robot, Ground ground) {
+    return robot.getVoxels().values().stream()
+        .filter(Objects::nonNull)
+        .mapToDouble(v -> v.boundingBox().min().y() - ground.yAt(v.center().x()))
+        .min().orElse(0d);
+  }
+
+  private void place(Robot robot, Ground ground) {
     //position robot: translate on x
     BoundingBox boundingBox = robot.boundingBox();
     robot.translate(new Vector2(initialPlacement - boundingBox.min().x(), 0));
     //translate on y
-    double minYGap = robot.getVoxels().values().stream()
-        .filter(Objects::nonNull)
-        .mapToDouble(v -> v.boundingBox().min().y() - ground.yAt(v.center().x()))
-        .min().orElse(0d);
-    robot.translate(new Vector2(0, INITIAL_PLACEMENT_Y_GAP - minYGap));
-    //get initial x
-    double initCenterX = robot.center().x();
+    robot.translate(new Vector2(0, INITIAL_PLACEMENT_Y_GAP - minYGap(robot, ground)));
+  }
+
+  //runs the episode of a robot already prepared and placed, from startT to endT
+  private Outcome run(
+      Robot robot,
+      double startT,
+      double endT,
+      SnapshotListener listener,
+      List<? extends OutcomeAccumulator<?>> accumulators,
+      List<StopCondition> stopConditions,
+      boolean keepObservations,
+      World<Body> world,
+      Ground ground,
+      StopWatch stopWatch
+  ) {
+    if (!physicsBackend.supports(robot)) {
+      throw new IllegalArgumentException(String.format(
+          "Cannot simulate a robot with body %s with the %s physics backend",
+          Grid.toString(robot.getVoxels(), (Predicate<Voxel>) Objects::nonNull, "/"),
+          physicsBackend
+      ));
+    }
+    if (!fidelity.snapshots()) {
+      listener = null;
+    }
+    //init world
+    world.removeAllBodiesAndJoints();
+    List<WorldObject> worldObjects = new ArrayList<>();
+    ground.addTo(world);
+    worldObjects.add(ground);
+    //the mass-spring lattice has its own substeps
+    world.setSettings(physicsBackend == PhysicsBackend.DYN4J ? worldSettings(robot) : settings);
     //add robot to world
     robot.addTo(world);
     worldObjects.add(robot);
+    Runnable physicsStep = switch (physicsBackend) {
+      case DYN4J -> physicsStep(world, settings.getStepFrequency());
+      case MASS_SPRING -> new MassSpringLattice(world, ground, List.of(robot))::step;
+    };
     //run
-    Map<Double, Outcome.Observation> observations = new HashMap<>((int) Math.ceil(finalT / settings.getStepFrequency()));
-    double t = 0d;
-    while (t < finalT) {
-      t = AbstractTask.updateWorld(t, settings.getStepFrequency(), world, worldObjects, listener);
-      observations.put(t, new Outcome.Observation(
-          Grid.create(robot.getVoxels(), v -> v == null ? null : v.getVoxelPoly()),
-          ground.yAt(robot.center().x()),
-          (double) stopWatch.getTime(TimeUnit.MILLISECONDS) / 1000d
-      ));
+    TrajectoryStore trajectory = new TrajectoryStore(
+        robot.getVoxels(),
+        keepObservations ? (int) Math.ceil((endT - startT) / settings.getStepFrequency()) : 2
+    );
+    StepProfiler profiler = StepProfiler.of(listener);
+    List<StopCondition> episodeStopConditions = stopConditions.stream().map(StopCondition::newEpisode).toList();
+    Termination.Reason reason = null;
+    double t = startT;
+    while (t < endT && reason == null) {
+      if (Thread.currentThread().isInterrupted()) {
+        reason = Termination.Reason.INTERRUPTED;
+        break;
+      }
+      t = AbstractTask.updateWorld(t, settings.getStepFrequency(), physicsStep, worldObjects, listener, profiler);
+      double terrainHeight = ground.yAt(robot.center().x());
+      for (OutcomeAccumulator<?> accumulator : accumulators) {
+        accumulator.accumulate(t, robot, terrainHeight);
+      }
+      if (keepObservations || trajectory.size() == 0) {
+        observe(trajectory, t, robot, terrainHeight, stopWatch, profiler);
+      }
+      if (!episodeStopConditions.isEmpty()) {
+        reason = stopReason(
+            episodeStopConditions,
+            t,
+            robot,
+            terrainHeight,
+            (double) stopWatch.getTime(TimeUnit.MILLISECONDS) / 1000d
+        );
+      }
+    }
+    if (!keepObservations && trajectory.size() > 0 && t > trajectory.t(trajectory.size() - 1)) {
+      observe(trajectory, t, robot, ground.yAt(robot.center().x()), stopWatch, profiler);
     }
     stopWatch.stop();
     //prepare outcome
-    return new Outcome(observations);
+    Termination termination = new Termination(reason == null ? Termination.Reason.FINAL_TIME : reason, t, endT);
+    for (OutcomeAccumulator<?> accumulator : accumulators) {
+      accumulator.terminate(termination);
+    }
+    return new Outcome(trajectory, termination);
+  }
+
+  private static void observe(
+      TrajectoryStore trajectory,
+      double t,
+      Robot robot,
+      double terrainHeight,
+      StopWatch stopWatch,
+      StepProfiler profiler
+  ) {
+    trajectory.append(
+        t,
+        Grid.create(robot.getVoxels(), v -> v == null ? null : v.getVoxelPoly()),
+        terrainHeight,
+        (double) stopWatch.getTime(TimeUnit.MILLISECONDS) / 1000d,
+        profiler.getPhaseSeconds()
+    );
+  }
+
+  public Ground buildGround() {
+    return new Ground(groundProfile[0], groundProfile[1]);
+  }
+
+  public double getFinalT() {
+    return finalT;
+  }
+
+  public PhysicsBackend getPhysicsBackend() {
+    return physicsBackend;
   }
 }
@@ -19,8 +19,9 @@ package it.units.erallab.hmsrobots.tasks.locomotion;
 
 import it.units.erallab.hmsrobots.behavior.BehaviorUtils;
 import it.units.erallab.hmsrobots.behavior.Footprint;
-import it.units.erallab.hmsrobots.core.geometry.Point2;
+import it.units.erallab.hmsrobots.core.StepProfiler;
 import it.units.erallab.hmsrobots.core.snapshots.VoxelPoly;
+import it.units.erallab.hmsrobots.tasks.Termination;
 import it.units.erallab.hmsrobots.util.DoubleRange;
 import it.units.erallab.hmsrobots.util.Grid;
 
@@ -30,31 +31,35 @@ import java.util.stream.IntStream;
 
 public class Outcome {
 
-  protected final SortedMap<Double, Observation> observations;
+  protected final TrajectoryStore trajectory;
+  private final Termination termination;
+  private SortedMap<Double, Observation> observations;
 
   public Outcome(Map<Double, Observation> observations) {
-    this.observations = Collections.unmodifiableSortedMap(new TreeMap<>(observations));
+    this(TrajectoryStore.of(observations));
+  }
+
+  public Outcome(TrajectoryStore trajectory) {
+    this(trajectory, null);
+  }
+
+  /**
+   * @param termination how the episode ended, or {@code null} if it is unknown, which is meant as ended at its final
+   *                    time.
+   */
+  public Outcome(TrajectoryStore trajectory, Termination termination) {
+    this.trajectory = trajectory;
+    this.termination = termination;
   }
 
   public record Observation(Grid<VoxelPoly> voxelPolies, double terrainHeight, double computationTime) {
   }
 
   public double getAreaRatioEnergy() {
-    double initialEnergy = observations.get(observations.firstKey())
-        .voxelPolies()
-        .values()
-        .stream()
-        .filter(Objects::nonNull)
-        .mapToDouble(VoxelPoly::getAreaRatioEnergy)
-        .sum();
-    double finalEnergy = observations.get(observations.lastKey())
-        .voxelPolies()
-        .values()
-        .stream()
-        .filter(Objects::nonNull)
-        .mapToDouble(VoxelPoly::getAreaRatioEnergy)
-        .sum();
-    return finalEnergy - initialEnergy;
+    return trajectory.sum(TrajectoryStore.Attribute.AREA_RATIO_ENERGY, last()) - trajectory.sum(
+        TrajectoryStore.Attribute.AREA_RATIO_ENERGY,
+        0
+    );
   }
 
   public double getAreaRatioPower() {
@@ -62,83 +67,78 @@ public class Outcome {
   }
 
   public Grid<Boolean> getAveragePosture(int n) {
-    return BehaviorUtils.computeAveragePosture(observations.values()
-        .stream()
-        .map(o -> BehaviorUtils.computePosture(o.voxelPolies().values().stream().filter(Objects::nonNull).toList(), n))
+    return BehaviorUtils.computeAveragePosture(IntStream.range(0, trajectory.size())
+        .mapToObj(i -> BehaviorUtils.computePosture(trajectory.polies(i), n))
         .toList());
   }
 
+  public double[] getCenterAngleSignal() {
+    return trajectory.signal(TrajectoryStore.Attribute.ANGLE, trajectory.centralVoxelIndex());
+  }
+
   public SortedMap<DoubleRange, Double> getCenterAngleSpectrum(double minF, double maxF, int nBins) {
-    SortedMap<Double, Double> signal = new TreeMap<>(observations.entrySet()
-        .stream()
-        .collect(Collectors.toMap(
-            Map.Entry::getKey,
-            e -> BehaviorUtils.getCentralElement(e.getValue().voxelPolies()).getAngle()
-        )));
-    return BehaviorUtils.computeQuantizedSpectrum(signal, minF, maxF, nBins);
+    return BehaviorUtils.computeQuantizedSpectrum(getCenterAngleSignal(), getAverageInterval(), minF, maxF, nBins);
+  }
+
+  public double[] getCenterXPositionSignal() {
+    int v = trajectory.centralVoxelIndex();
+    double[] signal = new double[trajectory.size()];
+    for (int i = 0; i < signal.length; i++) {
+      signal[i] = trajectory.voxelCenterX(i, v);
+    }
+    return signal;
   }
 
   public SortedMap<DoubleRange, Double> getCenterXPositionSpectrum(double minF, double maxF, int nBins) {
-    SortedMap<Double, Double> signal = new TreeMap<>(observations.entrySet()
-        .stream()
-        .collect(Collectors.toMap(
-            Map.Entry::getKey,
-            e -> BehaviorUtils.getCentralElement(e.getValue().voxelPolies()).center().x()
-        )));
-    return BehaviorUtils.computeQuantizedSpectrum(signal, minF, maxF, nBins);
+    return BehaviorUtils.computeQuantizedSpectrum(getCenterXPositionSignal(), getAverageInterval(), minF, maxF, nBins);
+  }
+
+  public double[] getCenterXVelocitySignal() {
+    return trajectory.signal(TrajectoryStore.Attribute.VELOCITY_X, trajectory.centralVoxelIndex());
   }
 
   public SortedMap<DoubleRange, Double> getCenterXVelocitySpectrum(double minF, double maxF, int nBins) {
-    SortedMap<Double, Double> signal = new TreeMap<>(observations.entrySet()
-        .stream()
-        .collect(Collectors.toMap(
-            Map.Entry::getKey,
-            e -> BehaviorUtils.getCentralElement(e.getValue().voxelPolies()).getLinearVelocity().x()
-        )));
-    return BehaviorUtils.computeQuantizedSpectrum(signal, minF, maxF, nBins);
+    return BehaviorUtils.computeQuantizedSpectrum(getCenterXVelocitySignal(), getAverageInterval(), minF, maxF, nBins);
+  }
+
+  public double[] getCenterYPositionSignal() {
+    int v = trajectory.centralVoxelIndex();
+    double[] signal = new double[trajectory.size()];
+    for (int i = 0; i < signal.length; i++) {
+      signal[i] = trajectory.voxelCenterY(i, v);
+    }
+    return signal;
   }
 
   public SortedMap<DoubleRange, Double> getCenterYPositionSpectrum(double minF, double maxF, int nBins) {
-    SortedMap<Double, Double> signal = new TreeMap<>(observations.entrySet()
-        .stream()
-        .collect(Collectors.toMap(
-            Map.Entry::getKey,
-            e -> BehaviorUtils.getCentralElement(e.getValue().voxelPolies()).center().y()
-        )));
-    return BehaviorUtils.computeQuantizedSpectrum(signal, minF, maxF, nBins);
+    return BehaviorUtils.computeQuantizedSpectrum(getCenterYPositionSignal(), getAverageInterval(), minF, maxF, nBins);
+  }
+
+  public double[] getCenterYVelocitySignal() {
+    return trajectory.signal(TrajectoryStore.Attribute.VELOCITY_Y, trajectory.centralVoxelIndex());
   }
 
   public SortedMap<DoubleRange, Double> getCenterYVelocitySpectrum(double minF, double maxF, int nBins) {
-    SortedMap<Double, Double> signal = new TreeMap<>(observations.entrySet()
-        .stream()
-        .collect(Collectors.toMap(
-            Map.Entry::getKey,
-            e -> BehaviorUtils.getCentralElement(e.getValue().voxelPolies()).getLinearVelocity().y()
-        )));
-    return BehaviorUtils.computeQuantizedSpectrum(signal, minF, maxF, nBins);
+    return BehaviorUtils.computeQuantizedSpectrum(getCenterYVelocitySignal(), getAverageInterval(), minF, maxF, nBins);
   }
 
   public double getComputationTime() {
-    return observations.get(observations.lastKey()).computationTime() - observations.get(observations.firstKey())
-        .computationTime();
+    return trajectory.computationTime(last()) - trajectory.computationTime(0);
+  }
+
+  public Map<StepProfiler.Phase, Double> getComputationTimes() {
+    Map<StepProfiler.Phase, Double> times = new EnumMap<>(StepProfiler.Phase.class);
+    for (StepProfiler.Phase phase : StepProfiler.Phase.values()) {
+      times.put(phase, trajectory.phaseTime(phase, last()) - trajectory.phaseTime(phase, 0));
+    }
+    return times;
   }
 
   public double getControlEnergy() {
-    double initialEnergy = observations.get(observations.firstKey())
-        .voxelPolies()
-        .values()
-        .stream()
-        .filter(Objects::nonNull)
-        .mapToDouble(VoxelPoly::getControlEnergy)
-        .sum();
-    double finalEnergy = observations.get(observations.lastKey())
-        .voxelPolies()
-        .values()
-        .stream()
-        .filter(Objects::nonNull)
-        .mapToDouble(VoxelPoly::getControlEnergy)
-        .sum();
-    return finalEnergy - initialEnergy;
+    return trajectory.sum(TrajectoryStore.Attribute.CONTROL_ENERGY, last()) - trajectory.sum(
+        TrajectoryStore.Attribute.CONTROL_ENERGY,
+        0
+    );
   }
 
   public double getControlPower() {
@@ -150,68 +150,89 @@ public class Outcome {
   }
 
   public double getDistance() {
-    Point2 initialCenter = BehaviorUtils.center(observations.get(observations.firstKey())
-        .voxelPolies()
-        .values()
-        .stream()
-        .filter(Objects::nonNull)
-        .toList());
-    Point2 finalCenter = BehaviorUtils.center(observations.get(observations.lastKey())
-        .voxelPolies()
-        .values()
-        .stream()
-        .filter(Objects::nonNull)
-        .toList());
-    return finalCenter.x() - initialCenter.x();
+    return trajectory.centerX(last()) - trajectory.centerX(0);
   }
 
   public List<SortedMap<DoubleRange, Double>> getFootprintsSpectra(int n, double minF, double maxF, int nBins) {
-    SortedMap<Double, Footprint> footprints = new TreeMap<>(observations.entrySet().stream().collect(Collectors.toMap(
-        Map.Entry::getKey,
-        e -> BehaviorUtils.computeFootprint(e.getValue()
-            .voxelPolies()
-            .values()
-            .stream()
-            .filter(Objects::nonNull)
-            .toList(), n)
-    )));
-    return IntStream.range(0, n)
-        .mapToObj(i -> BehaviorUtils.computeQuantizedSpectrum(
-            new TreeMap<>(footprints.entrySet()
-                .stream()
-                .collect(Collectors.toMap(Map.Entry::getKey, e -> e.getValue().getMask()[i] ? 1d : 0d))),
-            minF,
-            maxF,
-            nBins
-        ))
+    double[][] masks = new double[n][trajectory.size()];
+    for (int i = 0; i < trajectory.size(); i++) {
+      Footprint footprint = BehaviorUtils.computeFootprint(trajectory.polies(i), n);
+      for (int j = 0; j < n; j++) {
+        masks[j][i] = footprint.getMask()[j] ? 1d : 0d;
+      }
+    }
+    double dT = getAverageInterval();
+    return Arrays.stream(masks)
+        .map(signal -> BehaviorUtils.computeQuantizedSpectrum(signal, dT, minF, maxF, nBins))
         .toList();
   }
 
-  public SortedMap<Double, Observation> getObservations() {
+  public synchronized SortedMap<Double, Observation> getObservations() {
+    if (observations == null) {
+      SortedMap<Double, Observation> localObservations = new TreeMap<>();
+      for (int i = 0; i < trajectory.size(); i++) {
+        localObservations.put(trajectory.t(i), trajectory.observation(i));
+      }
+      observations = Collections.unmodifiableSortedMap(localObservations);
+    }
     return observations;
   }
 
   public double getTime() {
-    return observations.lastKey() - observations.firstKey();
+    return trajectory.t(last()) - trajectory.t(0);
+  }
+
+  public double[] getTimes() {
+    return trajectory.ts();
+  }
+
+  public Termination getTermination() {
+    return termination;
   }
 
+  public TrajectoryStore getTrajectory() {
+    return trajectory;
+  }
+
+  /**
+   * Returns the average velocity of the robot. For an episode ended early, the robot is assumed to stand still after
+   * the termination, i.e., the velocity is computed over the entire duration the episode would have had, regardless of
+   * the trajectory being observed after the termination or not.
+   */
   public double getVelocity() {
+    if (termination != null && termination.isEarly()) {
+      return getDistance() / (termination.finalT() - trajectory.t(0));
+    }
     return getDistance() / getTime();
   }
 
+  private double getAverageInterval() {
+    return trajectory.size() > 1 ? getTime() / (double) (trajectory.size() - 1) : 0d;
+  }
+
+  private int last() {
+    return trajectory.size() - 1;
+  }
+
   public Outcome subOutcome(double startT, double endT) {
-    return new Outcome(observations.subMap(startT, endT));
+    return new Outcome(
+        trajectory.sub(trajectory.indexOf(startT), trajectory.indexOf(endT)),
+        termination == null ? null : termination.until(endT)
+    );
   }
 
   @Override
   public String toString() {
     return String.format(
-        "Outcome{computationTime=%.2fs, distance=%.2f, time=%.1fs, controlPower=%.1f, areaRatioPower=%.1f}",
+        "Outcome{computationTime=%.2fs (%s), distance=%.2f, time=%.1fs, controlPower=%.1f, areaRatioPower=%.1f}",
         getComputationTime(),
+        getComputationTimes().entrySet().stream()
+            .map(e -> String.format("%s=%.2fs", e.getKey().toString().toLowerCase(), e.getValue()))
+            .collect(Collectors.joining(", ")),
         getDistance(),
         getTime(),
         getControlPower(),
         getAreaRatioPower()
     );
   }
-}
\ No newline at end of file
+}
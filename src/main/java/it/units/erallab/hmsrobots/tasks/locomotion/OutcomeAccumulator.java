@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2022 Eric Medvet <eric.medvet@gmail.com> (as Eric Medvet <eric.medvet@gmail.com>)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.units.erallab.hmsrobots.tasks.locomotion;
+
+import it.units.erallab.hmsrobots.core.objects.Robot;
+import it.units.erallab.hmsrobots.core.objects.Voxel;
+import it.units.erallab.hmsrobots.tasks.Termination;
+import it.units.erallab.hmsrobots.util.Grid;
+
+import java.util.Arrays;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Computes a metric of an episode incrementally, being fed with the robot after every simulation step, without
+ * keeping the per-step observations.
+ */
+public interface OutcomeAccumulator<R> {
+
+  void accumulate(double t, Robot robot, double terrainHeight);
+
+  R get();
+
+  /**
+   * Informs this accumulator of how the episode ended; it is invoked once, after the last step.
+   */
+  default void terminate(Termination termination) {
+  }
+
+  record CenterTrajectory(double[] ts, double[] xs, double[] ys) {}
+
+  static OutcomeAccumulator<Double> areaRatioEnergy() {
+    return new Delta(r -> sum(r.getVoxels(), Voxel::getAreaRatioEnergy));
+  }
+
+  static OutcomeAccumulator<CenterTrajectory> centerTrajectory() {
+    return new OutcomeAccumulator<>() {
+      private double[] ts = new double[1024];
+      private double[] xs = new double[1024];
+      private double[] ys = new double[1024];
+      private int n = 0;
+
+      @Override
+      public void accumulate(double t, Robot robot, double terrainHeight) {
+        if (n == ts.length) {
+          ts = Arrays.copyOf(ts, n * 2);
+          xs = Arrays.copyOf(xs, n * 2);
+          ys = Arrays.copyOf(ys, n * 2);
+        }
+        ts[n] = t;
+        xs[n] = centerX(robot.getVoxels());
+        ys[n] = centerY(robot.getVoxels());
+        n = n + 1;
+      }
+
+      @Override
+      public CenterTrajectory get() {
+        return new CenterTrajectory(Arrays.copyOf(ts, n), Arrays.copyOf(xs, n), Arrays.copyOf(ys, n));
+      }
+    };
+  }
+
+  private static double centerX(Grid<Voxel> voxels) {
+    return sum(voxels, v -> v.center().x()) / count(voxels);
+  }
+
+  private static double centerY(Grid<Voxel> voxels) {
+    return sum(voxels, v -> v.center().y()) / count(voxels);
+  }
+
+  static OutcomeAccumulator<Double> controlEnergy() {
+    return new Delta(r -> sum(r.getVoxels(), Voxel::getControlEnergy));
+  }
+
+  private static int count(Grid<Voxel> voxels) {
+    int c = 0;
+    for (int x = 0; x < voxels.getW(); x++) {
+      for (int y = 0; y < voxels.getH(); y++) {
+        if (voxels.get(x, y) != null) {
+          c = c + 1;
+        }
+      }
+    }
+    return c;
+  }
+
+  static OutcomeAccumulator<Double> distance() {
+    return new Delta(r -> centerX(r.getVoxels()));
+  }
+
+  private static double sum(Grid<Voxel> voxels, ToDoubleFunction<Voxel> function) {
+    double s = 0d;
+    for (int x = 0; x < voxels.getW(); x++) {
+      for (int y = 0; y < voxels.getH(); y++) {
+        Voxel voxel = voxels.get(x, y);
+        if (voxel != null) {
+          s = s + function.applyAsDouble(voxel);
+        }
+      }
+    }
+    return s;
+  }
+
+  /**
+   * Returns an accumulator of the velocity along x, computed as in {@link Outcome#getVelocity()}. The velocity is 0
+   * if there is no time span to compute it over, i.e., if the episode ended (by reaching its final time or by an
+   * interruption) before two steps were accumulated.
+   */
+  static OutcomeAccumulator<Double> velocity() {
+    Delta distance = new Delta(r -> centerX(r.getVoxels()));
+    return new OutcomeAccumulator<>() {
+      private Termination termination;
+
+      @Override
+      public void accumulate(double t, Robot robot, double terrainHeight) {
+        distance.accumulate(t, robot, terrainHeight);
+      }
+
+      @Override
+      public void terminate(Termination termination) {
+        this.termination = termination;
+      }
+
+      @Override
+      public Double get() {
+        //as in Outcome.getVelocity(), an early stop counts as no progress until the final time
+        double endT = (termination != null && termination.isEarly()) ? termination.finalT() : distance.lastT;
+        if (Double.isNaN(distance.firstT) || endT <= distance.firstT) {
+          return 0d;
+        }
+        return distance.get() / (endT - distance.firstT);
+      }
+    };
+  }
+
+  class Delta implements OutcomeAccumulator<Double> {
+    private final ToDoubleFunction<Robot> function;
+    private double firstT = Double.NaN;
+    private double lastT = Double.NaN;
+    private double firstValue = Double.NaN;
+    private double lastValue = Double.NaN;
+
+    public Delta(ToDoubleFunction<Robot> function) {
+      this.function = function;
+    }
+
+    @Override
+    public void accumulate(double t, Robot robot, double terrainHeight) {
+      lastValue = function.applyAsDouble(robot);
+      lastT = t;
+      if (Double.isNaN(firstT)) {
+        firstValue = lastValue;
+        firstT = t;
+      }
+    }
+
+    @Override
+    public Double get() {
+      return lastValue - firstValue;
+    }
+  }
+
+}
@@ -0,0 +1,345 @@
+/*
+ * Copyright (C) 2022 Eric Medvet <eric.medvet@gmail.com> (as Eric Medvet <eric.medvet@gmail.com>)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.units.erallab.hmsrobots.tasks.locomotion;
+
+import it.units.erallab.hmsrobots.behavior.BehaviorUtils;
+import it.units.erallab.hmsrobots.core.StepProfiler;
+import it.units.erallab.hmsrobots.core.geometry.Point2;
+import it.units.erallab.hmsrobots.core.geometry.Poly;
+import it.units.erallab.hmsrobots.core.objects.BreakableVoxel;
+import it.units.erallab.hmsrobots.core.snapshots.VoxelPoly;
+import it.units.erallab.hmsrobots.util.Grid;
+
+import java.util.*;
+
+/**
+ * Stores the observations of an episode column-wise, with one primitive array per voxel attribute. The value of an
+ * attribute for the voxel {@code v} at the step {@code i} is at position {@code i * nOfVoxels + v} of the column.
+ */
+public class TrajectoryStore {
+
+  public enum Attribute {
+    X0, Y0, X1, Y1, X2, Y2, X3, Y3, ANGLE, VELOCITY_X, VELOCITY_Y, AREA_RATIO, AREA_RATIO_ENERGY, LAST_APPLIED_FORCE,
+    CONTROL_ENERGY
+  }
+
+  private static final int INITIAL_CAPACITY = 64;
+
+  private final int w;
+  private final int h;
+  private final int[] voxelXs;
+  private final int[] voxelYs;
+  private final int nOfVoxels;
+  private double[] ts;
+  private double[] terrainHeights;
+  private double[] computationTimes;
+  private final double[][] phaseTimes;
+  private final double[][] columns;
+  private boolean[] touchingGround;
+  private Object[] malfunctions;
+  private int size;
+
+  private TrajectoryStore(int w, int h, int[] voxelXs, int[] voxelYs, int capacity) {
+    this.w = w;
+    this.h = h;
+    this.voxelXs = voxelXs;
+    this.voxelYs = voxelYs;
+    nOfVoxels = voxelXs.length;
+    ts = new double[capacity];
+    terrainHeights = new double[capacity];
+    computationTimes = new double[capacity];
+    phaseTimes = new double[StepProfiler.Phase.values().length][capacity];
+    columns = new double[Attribute.values().length][capacity * nOfVoxels];
+    touchingGround = new boolean[capacity * nOfVoxels];
+  }
+
+  public TrajectoryStore(Grid<?> body, int capacity) {
+    this(
+        body.getW(),
+        body.getH(),
+        body.stream().filter(e -> e.value() != null).mapToInt(e -> e.key().x()).toArray(),
+        body.stream().filter(e -> e.value() != null).mapToInt(e -> e.key().y()).toArray(),
+        capacity
+    );
+  }
+
+  public TrajectoryStore(Grid<?> body) {
+    this(body, INITIAL_CAPACITY);
+  }
+
+  public static TrajectoryStore of(Map<Double, Outcome.Observation> observations) {
+    SortedMap<Double, Outcome.Observation> sortedObservations = new TreeMap<>(observations);
+    if (sortedObservations.isEmpty()) {
+      return new TrajectoryStore(0, 0, new int[0], new int[0], 0);
+    }
+    TrajectoryStore store = new TrajectoryStore(sortedObservations.get(sortedObservations.firstKey()).voxelPolies());
+    sortedObservations.forEach((t, o) -> store.append(t, o));
+    return store;
+  }
+
+  public void append(double t, Outcome.Observation observation) {
+    append(t, observation.voxelPolies(), observation.terrainHeight(), observation.computationTime());
+  }
+
+  public void append(double t, Grid<? extends VoxelPoly> voxelPolies, double terrainHeight, double computationTime) {
+    append(t, voxelPolies, terrainHeight, computationTime, null);
+  }
+
+  public void append(
+      double t,
+      Grid<? extends VoxelPoly> voxelPolies,
+      double terrainHeight,
+      double computationTime,
+      double[] phaseTimes
+  ) {
+    if (size > 0 && t <= ts[size - 1]) {
+      throw new IllegalArgumentException(String.format("Cannot append at t=%f after t=%f", t, ts[size - 1]));
+    }
+    if (voxelPolies.getW() != w || voxelPolies.getH() != h) {
+      throw new IllegalArgumentException(String.format(
+          "Wrong body size: %dx%d expected, %dx%d found",
+          w, h, voxelPolies.getW(), voxelPolies.getH()
+      ));
+    }
+    if (size == ts.length) {
+      grow();
+    }
+    ts[size] = t;
+    terrainHeights[size] = terrainHeight;
+    computationTimes[size] = computationTime;
+    if (phaseTimes != null) {
+      for (int p = 0; p < this.phaseTimes.length; p++) {
+        this.phaseTimes[p][size] = phaseTimes[p];
+      }
+    }
+    for (int v = 0; v < nOfVoxels; v++) {
+      VoxelPoly voxelPoly = voxelPolies.get(voxelXs[v], voxelYs[v]);
+      if (voxelPoly == null) {
+        throw new IllegalArgumentException(String.format("Missing voxel at %d,%d", voxelXs[v], voxelYs[v]));
+      }
+      int index = size * nOfVoxels + v;
+      Point2[] vertexes = voxelPoly.vertexes();
+      for (int j = 0; j < 4; j++) {
+        columns[Attribute.X0.ordinal() + 2 * j][index] = vertexes[j].x();
+        columns[Attribute.Y0.ordinal() + 2 * j][index] = vertexes[j].y();
+      }
+      columns[Attribute.ANGLE.ordinal()][index] = voxelPoly.getAngle();
+      columns[Attribute.VELOCITY_X.ordinal()][index] = voxelPoly.getLinearVelocity().x();
+      columns[Attribute.VELOCITY_Y.ordinal()][index] = voxelPoly.getLinearVelocity().y();
+      columns[Attribute.AREA_RATIO.ordinal()][index] = voxelPoly.getAreaRatio();
+      columns[Attribute.AREA_RATIO_ENERGY.ordinal()][index] = voxelPoly.getAreaRatioEnergy();
+      columns[Attribute.LAST_APPLIED_FORCE.ordinal()][index] = voxelPoly.getLastAppliedForce();
+      columns[Attribute.CONTROL_ENERGY.ordinal()][index] = voxelPoly.getControlEnergy();
+      touchingGround[index] = voxelPoly.isTouchingGround();
+      if (!voxelPoly.getMalfunctions().isEmpty()) {
+        if (malfunctions == null) {
+          malfunctions = new Object[touchingGround.length];
+        }
+        malfunctions[index] = voxelPoly.getMalfunctions();
+      }
+    }
+    size = size + 1;
+  }
+
+  public double centerX(int i) {
+    return vertexAverage(i, Attribute.X0);
+  }
+
+  public double centerY(int i) {
+    return vertexAverage(i, Attribute.Y0);
+  }
+
+  public int centralVoxelIndex() {
+    Grid<Integer> indexes = Grid.create(w, h);
+    for (int v = 0; v < nOfVoxels; v++) {
+      indexes.set(voxelXs[v], voxelYs[v], v);
+    }
+    return BehaviorUtils.getCentralElement(indexes);
+  }
+
+  public double computationTime(int i) {
+    checkIndex(i);
+    return computationTimes[i];
+  }
+
+  private void checkIndex(int i) {
+    if (i < 0 || i >= size) {
+      throw new NoSuchElementException(String.format("No observation at %d: %d observations", i, size));
+    }
+  }
+
+  public int getNOfVoxels() {
+    return nOfVoxels;
+  }
+
+  public double get(Attribute attribute, int i, int v) {
+    checkIndex(i);
+    return columns[attribute.ordinal()][i * nOfVoxels + v];
+  }
+
+  private void grow() {
+    int capacity = Math.max(INITIAL_CAPACITY, ts.length * 2);
+    ts = Arrays.copyOf(ts, capacity);
+    terrainHeights = Arrays.copyOf(terrainHeights, capacity);
+    computationTimes = Arrays.copyOf(computationTimes, capacity);
+    for (int p = 0; p < phaseTimes.length; p++) {
+      phaseTimes[p] = Arrays.copyOf(phaseTimes[p], capacity);
+    }
+    for (int a = 0; a < columns.length; a++) {
+      columns[a] = Arrays.copyOf(columns[a], capacity * nOfVoxels);
+    }
+    touchingGround = Arrays.copyOf(touchingGround, capacity * nOfVoxels);
+    if (malfunctions != null) {
+      malfunctions = Arrays.copyOf(malfunctions, capacity * nOfVoxels);
+    }
+  }
+
+  public int indexOf(double t) {
+    int i = Arrays.binarySearch(ts, 0, size, t);
+    return i >= 0 ? i : (-i - 1);
+  }
+
+  public boolean isTouchingGround(int i, int v) {
+    checkIndex(i);
+    return touchingGround[i * nOfVoxels + v];
+  }
+
+  public Outcome.Observation observation(int i) {
+    Grid<VoxelPoly> voxelPolies = Grid.create(w, h);
+    for (int v = 0; v < nOfVoxels; v++) {
+      voxelPolies.set(voxelXs[v], voxelYs[v], voxelPoly(i, v));
+    }
+    return new Outcome.Observation(voxelPolies, terrainHeights[i], computationTimes[i]);
+  }
+
+  public double phaseTime(StepProfiler.Phase phase, int i) {
+    checkIndex(i);
+    return phaseTimes[phase.ordinal()][i];
+  }
+
+  public List<VoxelPoly> polies(int i) {
+    List<VoxelPoly> polies = new ArrayList<>(nOfVoxels);
+    for (int v = 0; v < nOfVoxels; v++) {
+      polies.add(voxelPoly(i, v));
+    }
+    return polies;
+  }
+
+  public double[] signal(Attribute attribute, int v) {
+    double[] signal = new double[size];
+    for (int i = 0; i < size; i++) {
+      signal[i] = columns[attribute.ordinal()][i * nOfVoxels + v];
+    }
+    return signal;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public TrajectoryStore sub(int from, int to) {
+    from = Math.max(0, from);
+    to = Math.min(size, to);
+    TrajectoryStore store = new TrajectoryStore(w, h, voxelXs, voxelYs, Math.max(0, to - from));
+    if (to <= from) {
+      return store;
+    }
+    System.arraycopy(ts, from, store.ts, 0, to - from);
+    System.arraycopy(terrainHeights, from, store.terrainHeights, 0, to - from);
+    System.arraycopy(computationTimes, from, store.computationTimes, 0, to - from);
+    for (int p = 0; p < phaseTimes.length; p++) {
+      System.arraycopy(phaseTimes[p], from, store.phaseTimes[p], 0, to - from);
+    }
+    for (int a = 0; a < columns.length; a++) {
+      System.arraycopy(columns[a], from * nOfVoxels, store.columns[a], 0, (to - from) * nOfVoxels);
+    }
+    System.arraycopy(touchingGround, from * nOfVoxels, store.touchingGround, 0, (to - from) * nOfVoxels);
+    if (malfunctions != null) {
+      store.malfunctions = Arrays.copyOfRange(malfunctions, from * nOfVoxels, to * nOfVoxels);
+    }
+    store.size = to - from;
+    return store;
+  }
+
+  public double sum(Attribute attribute, int i) {
+    checkIndex(i);
+    double s = 0d;
+    for (int v = 0; v < nOfVoxels; v++) {
+      s = s + columns[attribute.ordinal()][i * nOfVoxels + v];
+    }
+    return s;
+  }
+
+  public double t(int i) {
+    checkIndex(i);
+    return ts[i];
+  }
+
+  public double terrainHeight(int i) {
+    checkIndex(i);
+    return terrainHeights[i];
+  }
+
+  public double[] ts() {
+    return Arrays.copyOf(ts, size);
+  }
+
+  private double vertexAverage(int i, Attribute first) {
+    checkIndex(i);
+    double s = 0d;
+    for (int v = 0; v < nOfVoxels; v++) {
+      for (int j = 0; j < 4; j++) {
+        s = s + columns[first.ordinal() + 2 * j][i * nOfVoxels + v];
+      }
+    }
+    return s / 4d / (double) nOfVoxels;
+  }
+
+  public double voxelCenterX(int i, int v) {
+    return (get(Attribute.X0, i, v) + get(Attribute.X1, i, v) + get(Attribute.X2, i, v) + get(Attribute.X3, i, v)) / 4d;
+  }
+
+  public double voxelCenterY(int i, int v) {
+    return (get(Attribute.Y0, i, v) + get(Attribute.Y1, i, v) + get(Attribute.Y2, i, v) + get(Attribute.Y3, i, v)) / 4d;
+  }
+
+  @SuppressWarnings("unchecked")
+  public VoxelPoly voxelPoly(int i, int v) {
+    checkIndex(i);
+    int index = i * nOfVoxels + v;
+    Point2[] vertexes = new Point2[4];
+    for (int j = 0; j < 4; j++) {
+      vertexes[j] = Point2.of(
+          columns[Attribute.X0.ordinal() + 2 * j][index],
+          columns[Attribute.Y0.ordinal() + 2 * j][index]
+      );
+    }
+    return new VoxelPoly(
+        Poly.of(vertexes),
+        columns[Attribute.ANGLE.ordinal()][index],
+        Point2.of(columns[Attribute.VELOCITY_X.ordinal()][index], columns[Attribute.VELOCITY_Y.ordinal()][index]),
+        touchingGround[index],
+        columns[Attribute.AREA_RATIO.ordinal()][index],
+        columns[Attribute.AREA_RATIO_ENERGY.ordinal()][index],
+        columns[Attribute.LAST_APPLIED_FORCE.ordinal()][index],
+        columns[Attribute.CONTROL_ENERGY.ordinal()][index],
+        (malfunctions == null || malfunctions[index] == null) ? Map.of() : (Map<BreakableVoxel.ComponentType, BreakableVoxel.MalfunctionType>) malfunctions[index]
+    );
+  }
+
+}
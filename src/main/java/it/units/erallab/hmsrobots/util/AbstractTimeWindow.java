@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2021 Eric Medvet <eric.medvet@gmail.com> (as Eric Medvet <eric.medvet@gmail.com>)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.units.erallab.hmsrobots.util;
+
+import java.io.Serializable;
+
+/**
+ * Keeps the samples of a signal taken in a sliding time window, stored in rings of primitive arrays, so that appending
+ * a sample and evicting the oldest one take constant time and do not allocate. Rings grow (doubling their capacity)
+ * only when full, hence they stop growing as soon as the window contains the largest number of samples.
+ * <p>
+ * Samples are appended with non-decreasing times: a sample with the same time of the last one replaces it, like in a
+ * map; a sample with a time lower than the last one (e.g., because a new episode started) makes the window restart.
+ */
+abstract class AbstractTimeWindow implements Serializable {
+
+  protected static final int DEFAULT_CAPACITY = 16;
+
+  private double[] times;
+  private int first;
+  private int size;
+
+  protected AbstractTimeWindow(int capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException(String.format("Capacity should be positive: %d", capacity));
+    }
+    times = new double[capacity];
+  }
+
+  protected abstract void clearSlot(int slot);
+
+  protected abstract void resize(int newCapacity, int first, int size);
+
+  protected int appendSlot(double t) {
+    if (size > 0) {
+      double lastT = times[slot(size - 1)];
+      if (t == lastT) {
+        return slot(size - 1);
+      }
+      if (t < lastT) {
+        clear();
+      }
+    }
+    if (size == times.length) {
+      int newCapacity = times.length * 2;
+      double[] newTimes = new double[newCapacity];
+      for (int i = 0; i < size; i++) {
+        newTimes[i] = times[slot(i)];
+      }
+      resize(newCapacity, first, size);
+      times = newTimes;
+      first = 0;
+    }
+    int slot = slot(size);
+    times[slot] = t;
+    size = size + 1;
+    return slot;
+  }
+
+  public void clear() {
+    while (size > 0) {
+      removeFirst();
+    }
+    first = 0;
+  }
+
+  /**
+   * Removes all the samples with time strictly lower than {@code t}.
+   *
+   * @return the number of removed samples.
+   */
+  public int evictBefore(double t) {
+    int n = 0;
+    while (size > 0 && times[first] < t) {
+      removeFirst();
+      n = n + 1;
+    }
+    return n;
+  }
+
+  /**
+   * Removes the oldest sample.
+   */
+  public void evictFirst() {
+    checkNotEmpty();
+    removeFirst();
+  }
+
+  public double firstTime() {
+    checkNotEmpty();
+    return times[first];
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public double lastTime() {
+    checkNotEmpty();
+    return times[slot(size - 1)];
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public double time(int i) {
+    return times[checkedSlot(i)];
+  }
+
+  public double[] times() {
+    double[] ts = new double[size];
+    for (int i = 0; i < size; i++) {
+      ts[i] = times[slot(i)];
+    }
+    return ts;
+  }
+
+  protected void checkNotEmpty() {
+    if (size == 0) {
+      throw new IllegalStateException("Empty time window");
+    }
+  }
+
+  protected int checkedSlot(int i) {
+    if (i < 0 || i >= size) {
+      throw new IndexOutOfBoundsException(String.format("Index %d out of bounds for size %d", i, size));
+    }
+    return slot(i);
+  }
+
+  private void removeFirst() {
+    clearSlot(first);
+    first = first + 1 == times.length ? 0 : first + 1;
+    size = size - 1;
+  }
+
+  private int slot(int i) {
+    int slot = first + i;
+    return slot >= times.length ? slot - times.length : slot;
+  }
+
+}
@@ -0,0 +1,327 @@
+/*
+ * Copyright (C) 2021 Eric Medvet <eric.medvet@gmail.com> (as Eric Medvet <eric.medvet@gmail.com>)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.units.erallab.hmsrobots.util;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes the stream of tokens Jackson produces for an object in a compact binary form. Numbers are written in their
+ * binary representation instead of as text, arrays made only of doubles (e.g., the weights of a
+ * {@link it.units.erallab.hmsrobots.core.controllers.MultiLayerPerceptron}) are written as packed blocks through a
+ * {@link ByteBuffer}, and strings (e.g., property names and class names) are written once and then referenced by index.
+ * Hence, the binary form supports exactly the objects which can be serialized to JSON.
+ */
+class BinaryCodec {
+
+  private static final byte VERSION = 1;
+
+  private static final byte START_OBJECT = 1;
+  private static final byte END_OBJECT = 2;
+  private static final byte START_ARRAY = 3;
+  private static final byte END_ARRAY = 4;
+  private static final byte FIELD_NAME = 5;
+  private static final byte STRING = 6;
+  private static final byte INT = 7;
+  private static final byte LONG = 8;
+  private static final byte BIG_INTEGER = 9;
+  private static final byte FLOAT = 10;
+  private static final byte DOUBLE = 11;
+  private static final byte BIG_DECIMAL = 12;
+  private static final byte TRUE = 13;
+  private static final byte FALSE = 14;
+  private static final byte NULL = 15;
+  private static final byte BINARY = 16;
+  private static final byte DOUBLE_ARRAY = 17;
+
+  private static final int INITIAL_CAPACITY = 1024;
+
+  private BinaryCodec() {
+  }
+
+  private static class Decoder {
+    private final ByteBuffer buffer;
+    private final List<String> strings;
+
+    private Decoder(byte[] bytes) {
+      buffer = ByteBuffer.wrap(bytes);
+      strings = new ArrayList<>();
+    }
+
+    private void decode(TokenBuffer tokenBuffer) throws IOException {
+      if (buffer.get() != VERSION) {
+        throw new IOException("Unsupported binary format version");
+      }
+      while (buffer.hasRemaining()) {
+        byte tag = buffer.get();
+        switch (tag) {
+          case START_OBJECT -> tokenBuffer.writeStartObject();
+          case END_OBJECT -> tokenBuffer.writeEndObject();
+          case START_ARRAY -> tokenBuffer.writeStartArray();
+          case END_ARRAY -> tokenBuffer.writeEndArray();
+          case FIELD_NAME -> tokenBuffer.writeFieldName(readString());
+          case STRING -> tokenBuffer.writeString(readString());
+          case INT -> tokenBuffer.writeNumber(readVarInt());
+          case LONG -> tokenBuffer.writeNumber(buffer.getLong());
+          case BIG_INTEGER -> tokenBuffer.writeNumber(new BigInteger(readString()));
+          case FLOAT -> tokenBuffer.writeNumber(buffer.getFloat());
+          case DOUBLE -> tokenBuffer.writeNumber(buffer.getDouble());
+          case BIG_DECIMAL -> tokenBuffer.writeNumber(new BigDecimal(readString()));
+          case TRUE -> tokenBuffer.writeBoolean(true);
+          case FALSE -> tokenBuffer.writeBoolean(false);
+          case NULL -> tokenBuffer.writeNull();
+          case BINARY -> {
+            byte[] bytes = new byte[readVarInt()];
+            buffer.get(bytes);
+            tokenBuffer.writeBinary(bytes);
+          }
+          case DOUBLE_ARRAY -> {
+            double[] values = new double[readVarInt()];
+            buffer.asDoubleBuffer().get(values);
+            buffer.position(buffer.position() + values.length * Double.BYTES);
+            tokenBuffer.writeStartArray();
+            for (double value : values) {
+              tokenBuffer.writeNumber(value);
+            }
+            tokenBuffer.writeEndArray();
+          }
+          default -> throw new IOException(String.format("Unknown tag %d at position %d", tag, buffer.position() - 1));
+        }
+      }
+    }
+
+    private String readString() {
+      int index = readVarInt();
+      if (index > 0) {
+        return strings.get(index - 1);
+      }
+      byte[] bytes = new byte[readVarInt()];
+      buffer.get(bytes);
+      String string = new String(bytes, StandardCharsets.UTF_8);
+      strings.add(string);
+      return string;
+    }
+
+    private int readVarInt() {
+      int zigZag = 0;
+      int shift = 0;
+      while (true) {
+        byte b = buffer.get();
+        zigZag = zigZag | ((b & 0x7F) << shift);
+        if ((b & 0x80) == 0) {
+          break;
+        }
+        shift = shift + 7;
+      }
+      return (zigZag >>> 1) ^ -(zigZag & 1);
+    }
+  }
+
+  private static class Encoder {
+    private final Map<String, Integer> strings;
+    private ByteBuffer buffer;
+    private double[] doubles;
+
+    private Encoder() {
+      buffer = ByteBuffer.allocate(INITIAL_CAPACITY);
+      strings = new HashMap<>();
+      doubles = new double[16];
+    }
+
+    private void encode(JsonParser parser) throws IOException {
+      ensureCapacity(1);
+      buffer.put(VERSION);
+      JsonToken token = parser.nextToken();
+      while (token != null) {
+        if (token == JsonToken.START_ARRAY) {
+          //look ahead for an array of doubles only
+          int n = 0;
+          token = parser.nextToken();
+          while (token == JsonToken.VALUE_NUMBER_FLOAT && parser.getNumberType() == JsonParser.NumberType.DOUBLE) {
+            if (n == doubles.length) {
+              double[] newDoubles = new double[doubles.length * 2];
+              System.arraycopy(doubles, 0, newDoubles, 0, n);
+              doubles = newDoubles;
+            }
+            doubles[n] = parser.getDoubleValue();
+            n = n + 1;
+            token = parser.nextToken();
+          }
+          if (n > 0 && token == JsonToken.END_ARRAY) {
+            writeDoubles(n);
+            token = parser.nextToken();
+          } else {
+            put(START_ARRAY);
+            for (int i = 0; i < n; i++) {
+              ensureCapacity(1 + Double.BYTES);
+              buffer.put(DOUBLE);
+              buffer.putDouble(doubles[i]);
+            }
+          }
+          continue;
+        }
+        switch (token) {
+          case START_OBJECT -> put(START_OBJECT);
+          case END_OBJECT -> put(END_OBJECT);
+          case END_ARRAY -> put(END_ARRAY);
+          case FIELD_NAME -> {
+            put(FIELD_NAME);
+            writeString(parser.getCurrentName());
+          }
+          case VALUE_STRING -> {
+            put(STRING);
+            writeString(parser.getText());
+          }
+          case VALUE_NUMBER_INT, VALUE_NUMBER_FLOAT -> writeNumber(parser);
+          case VALUE_TRUE -> put(TRUE);
+          case VALUE_FALSE -> put(FALSE);
+          case VALUE_NULL -> put(NULL);
+          case VALUE_EMBEDDED_OBJECT -> {
+            if (!(parser.getEmbeddedObject() instanceof byte[] bytes)) {
+              throw new IOException(String.format(
+                  "Cannot encode embedded object of %s",
+                  parser.getEmbeddedObject().getClass()
+              ));
+            }
+            put(BINARY);
+            writeVarInt(bytes.length);
+            ensureCapacity(bytes.length);
+            buffer.put(bytes);
+          }
+          default -> throw new IOException(String.format("Cannot encode token %s", token));
+        }
+        token = parser.nextToken();
+      }
+    }
+
+    private void ensureCapacity(int n) {
+      if (buffer.remaining() < n) {
+        ByteBuffer newBuffer = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + n));
+        buffer.flip();
+        newBuffer.put(buffer);
+        buffer = newBuffer;
+      }
+    }
+
+    private void put(byte tag) {
+      ensureCapacity(1);
+      buffer.put(tag);
+    }
+
+    private byte[] toByteArray() {
+      byte[] bytes = new byte[buffer.position()];
+      System.arraycopy(buffer.array(), 0, bytes, 0, bytes.length);
+      return bytes;
+    }
+
+    private void writeDoubles(int n) {
+      put(DOUBLE_ARRAY);
+      writeVarInt(n);
+      ensureCapacity(n * Double.BYTES);
+      buffer.asDoubleBuffer().put(doubles, 0, n);
+      buffer.position(buffer.position() + n * Double.BYTES);
+    }
+
+    private void writeNumber(JsonParser parser) throws IOException {
+      switch (parser.getNumberType()) {
+        case INT -> {
+          put(INT);
+          writeVarInt(parser.getIntValue());
+        }
+        case LONG -> {
+          put(LONG);
+          ensureCapacity(Long.BYTES);
+          buffer.putLong(parser.getLongValue());
+        }
+        case BIG_INTEGER -> {
+          put(BIG_INTEGER);
+          writeString(parser.getBigIntegerValue().toString());
+        }
+        case FLOAT -> {
+          put(FLOAT);
+          ensureCapacity(Float.BYTES);
+          buffer.putFloat(parser.getFloatValue());
+        }
+        case DOUBLE -> {
+          put(DOUBLE);
+          ensureCapacity(Double.BYTES);
+          buffer.putDouble(parser.getDoubleValue());
+        }
+        case BIG_DECIMAL -> {
+          put(BIG_DECIMAL);
+          writeString(parser.getDecimalValue().toString());
+        }
+      }
+    }
+
+    private void writeString(String string) {
+      Integer index = strings.get(string);
+      if (index != null) {
+        writeVarInt(index);
+        return;
+      }
+      strings.put(string, strings.size() + 1);
+      byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+      writeVarInt(0);
+      writeVarInt(bytes.length);
+      ensureCapacity(bytes.length);
+      buffer.put(bytes);
+    }
+
+    private void writeVarInt(int value) {
+      int zigZag = (value << 1) ^ (value >> 31);
+      ensureCapacity(5);
+      while ((zigZag & ~0x7F) != 0) {
+        buffer.put((byte) ((zigZag & 0x7F) | 0x80));
+        zigZag = zigZag >>> 7;
+      }
+      buffer.put((byte) zigZag);
+    }
+  }
+
+  static <T> T decode(ObjectMapper om, byte[] bytes, Class<T> tClass) throws IOException {
+    TokenBuffer tokenBuffer = new TokenBuffer(om, false);
+    new Decoder(bytes).decode(tokenBuffer);
+    try (JsonParser parser = tokenBuffer.asParser()) {
+      return om.readValue(parser, tClass);
+    }
+  }
+
+  static byte[] encode(ObjectMapper om, Object object) throws IOException {
+    TokenBuffer tokenBuffer = new TokenBuffer(om, false);
+    om.writeValue(tokenBuffer, object);
+    Encoder encoder = new Encoder();
+    try (JsonParser parser = tokenBuffer.asParser()) {
+      encoder.encode(parser);
+    }
+    return encoder.toByteArray();
+  }
+
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2021 Eric Medvet <eric.medvet@gmail.com> (as Eric Medvet <eric.medvet@gmail.com>)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.units.erallab.hmsrobots.util;
+
+/**
+ * A time window of samples, each being a fixed number of {@code double} values.
+ */
+public class DoubleTimeWindow extends AbstractTimeWindow {
+
+  private final int width;
+  private double[] values;
+
+  public DoubleTimeWindow(int width, int capacity) {
+    super(capacity);
+    this.width = width;
+    values = new double[capacity * width];
+  }
+
+  public DoubleTimeWindow(int width) {
+    this(width, DEFAULT_CAPACITY);
+  }
+
+  public void add(double t, double[] sample) {
+    if (sample.length != width) {
+      throw new IllegalArgumentException(String.format(
+          "Wrong sample size: %d expected, %d found",
+          width,
+          sample.length
+      ));
+    }
+    int slot = appendSlot(t);
+    System.arraycopy(sample, 0, values, slot * width, width);
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public double value(int i, int j) {
+    return values[checkedSlot(i) * width + j];
+  }
+
+  @Override
+  protected void clearSlot(int slot) {
+  }
+
+  @Override
+  protected void resize(int newCapacity, int first, int size) {
+    double[] newValues = new double[newCapacity * width];
+    int capacity = values.length / width;
+    for (int i = 0; i < size; i++) {
+      int slot = (first + i) % capacity;
+      System.arraycopy(values, slot * width, newValues, i * width, width);
+    }
+    values = newValues;
+  }
+
+}
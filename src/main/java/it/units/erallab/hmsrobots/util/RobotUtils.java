@@ -96,7 +96,8 @@ public class RobotUtils {
                   ),
                   random.nextGaussian() * restoreTimeStDev + restoreTimeMean
               )
-          )
+          ),
+          robot.getAssembly()
       );
     }
     if ((params = params(broken, name)) != null) {
@@ -116,7 +117,7 @@ public class RobotUtils {
               Map.of(BreakableVoxel.MalfunctionTrigger.TIME, 0d),
               Double.POSITIVE_INFINITY
           )
-      ));
+      ), robot.getAssembly());
     }
     throw new IllegalArgumentException(String.format("Unknown transformation name: %s", name));
   }
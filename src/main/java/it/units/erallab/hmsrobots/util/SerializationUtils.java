@@ -7,9 +7,14 @@ import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.*;
 import com.fasterxml.jackson.databind.jsontype.TypeDeserializer;
 import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
+import it.units.erallab.hmsrobots.core.objects.Robot;
+import it.units.erallab.hmsrobots.core.objects.Voxel;
+import it.units.erallab.hmsrobots.core.sensors.Sensor;
 
 import java.io.*;
 import java.util.Base64;
+import java.util.List;
+import java.util.Objects;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.zip.GZIPInputStream;
@@ -40,7 +45,7 @@ public class SerializationUtils {
   private SerializationUtils() {
   }
 
-  public enum Mode {JAVA, JSON, PRETTY_JSON, GZIPPED_JAVA, GZIPPED_JSON}
+  public enum Mode {JAVA, JSON, PRETTY_JSON, GZIPPED_JAVA, GZIPPED_JSON, BINARY, GZIPPED_BINARY}
 
   public static class LambdaJsonDeserializer extends JsonDeserializer<SerializableFunction<?, ?>> {
     @Override
@@ -93,13 +98,55 @@ public class SerializationUtils {
     }
   }
 
+  /**
+   * Clones the given object. Robots, voxels and grids of voxels are copied without serializing their structure: see
+   * {@link #copy(Robot)}.
+   */
+  @SuppressWarnings("unchecked")
   public static <T> T clone(T t) {
+    if (t instanceof Robot robot) {
+      return (T) copy(robot);
+    }
+    if (t instanceof Voxel voxel && voxel.getClass().equals(Voxel.class)) {
+      return (T) copy(voxel);
+    }
+    if (t instanceof Grid<?> grid && grid.values()
+        .stream()
+        .allMatch(v -> v == null || v.getClass().equals(Voxel.class))) {
+      return (T) Grid.create(grid, v -> v == null ? null : copy((Voxel) v));
+    }
     return clone(t, DEFAULT_CLONE_MODE);
   }
 
   @SuppressWarnings("unchecked")
   public static <T> T clone(T t, Mode mode) {
-    return (T) deserialize(serialize(t, mode), t.getClass(), mode);
+    return (T) fromBytes(toBytes(t, mode), t.getClass(), mode);
+  }
+
+  /**
+   * Copies the given robot: the voxels are rebuilt from their parameters, rather than serialized, and only their sensors
+   * are cloned with the {@link Mode#BINARY} mode. The controller, which can be of any kind and can share functions among
+   * its parts, is cloned with the default mode, that preserves sharing.
+   */
+  public static Robot copy(Robot robot) {
+    return new Robot(
+        clone(robot.getController(), DEFAULT_CLONE_MODE),
+        Grid.create(robot.getVoxels(), v -> v == null ? null : copy(v)),
+        robot.getAssembly()
+    );
+  }
+
+  /**
+   * Copies the given voxel, in its initial state, as {@link #copy(Robot)} does.
+   */
+  public static Voxel copy(Voxel voxel) {
+    if (!voxel.getClass().equals(Voxel.class)) {
+      return clone(voxel, DEFAULT_CLONE_MODE);
+    }
+    return voxel.copy(List.of(Objects.requireNonNull(clone(
+        voxel.getSensors().toArray(Sensor[]::new),
+        Mode.BINARY
+    ))));
   }
 
   private static byte[] decode(String string) {
@@ -117,6 +164,31 @@ public class SerializationUtils {
         case JSON, PRETTY_JSON -> jsonDeserialize(string, tClass);
         case GZIPPED_JAVA -> javaDeserialize(ungzip(decode(string)), tClass);
         case GZIPPED_JSON -> jsonDeserialize(new String(ungzip(decode(string))), tClass);
+        case BINARY -> BinaryCodec.decode(OM, decode(string), tClass);
+        case GZIPPED_BINARY -> BinaryCodec.decode(OM, ungzip(decode(string)), tClass);
+      };
+    } catch (IOException e) {
+      L.log(Level.SEVERE, String.format("Cannot deserialize due to %s", e), e);
+      return null;
+    }
+  }
+
+  public static <T> T deserialize(InputStream inputStream, Class<T> tClass, Mode mode) throws IOException {
+    return fromBytes(inputStream.readAllBytes(), tClass, mode);
+  }
+
+  /**
+   * Deserializes an object from the raw bytes produced by {@link #toBytes(Object, Mode)}, i.e., without Base64 decoding.
+   */
+  public static <T> T fromBytes(byte[] bytes, Class<T> tClass, Mode mode) {
+    try {
+      return switch (mode) {
+        case JAVA -> javaDeserialize(bytes, tClass);
+        case JSON, PRETTY_JSON -> OM.readValue(bytes, tClass);
+        case GZIPPED_JAVA -> javaDeserialize(ungzip(bytes), tClass);
+        case GZIPPED_JSON -> OM.readValue(ungzip(bytes), tClass);
+        case BINARY -> BinaryCodec.decode(OM, bytes, tClass);
+        case GZIPPED_BINARY -> BinaryCodec.decode(OM, ungzip(bytes), tClass);
       };
     } catch (IOException e) {
       L.log(Level.SEVERE, String.format("Cannot deserialize due to %s", e), e);
@@ -178,6 +250,8 @@ public class SerializationUtils {
         case PRETTY_JSON -> jsonSerialize(object, true);
         case GZIPPED_JAVA -> encode(gzip(javaSerialize(object)));
         case GZIPPED_JSON -> encode(gzip(jsonSerialize(object, false).getBytes()));
+        case BINARY -> encode(BinaryCodec.encode(OM, object));
+        case GZIPPED_BINARY -> encode(gzip(BinaryCodec.encode(OM, object)));
       };
     } catch (IOException e) {
       L.log(Level.SEVERE, String.format("Cannot serialize due to %s", e), e);
@@ -185,6 +259,30 @@ public class SerializationUtils {
     }
   }
 
+  public static void serialize(Object object, OutputStream outputStream, Mode mode) throws IOException {
+    outputStream.write(toBytes(object, mode));
+  }
+
+  /**
+   * Serializes an object to raw bytes, i.e., without the Base64 encoding applied by {@link #serialize(Object, Mode)}.
+   */
+  public static byte[] toBytes(Object object, Mode mode) {
+    try {
+      return switch (mode) {
+        case JAVA -> javaSerialize(object);
+        case JSON -> OM.writeValueAsBytes(object);
+        case PRETTY_JSON -> PRETTY_OM.writeValueAsBytes(object);
+        case GZIPPED_JAVA -> gzip(javaSerialize(object));
+        case GZIPPED_JSON -> gzip(OM.writeValueAsBytes(object));
+        case BINARY -> BinaryCodec.encode(OM, object);
+        case GZIPPED_BINARY -> gzip(BinaryCodec.encode(OM, object));
+      };
+    } catch (IOException e) {
+      L.log(Level.SEVERE, String.format("Cannot serialize due to %s", e), e);
+      return new byte[0];
+    }
+  }
+
   private static byte[] ungzip(byte[] raw) throws IOException {
     try (ByteArrayInputStream bais = new ByteArrayInputStream(raw); GZIPInputStream gis = new GZIPInputStream(bais); ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
       byte[] buf = new byte[1024];
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2021 Eric Medvet <eric.medvet@gmail.com> (as Eric Medvet <eric.medvet@gmail.com>)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.units.erallab.hmsrobots.util;
+
+import java.io.Serializable;
+
+/**
+ * Keeps the minimum and the maximum of the values in a sliding window, where values are removed in the same order they
+ * have been added. Both are kept in monotonic deques, hence adding and removing a value take constant amortized time,
+ * regardless of the window length.
+ */
+public class SlidingMinMax implements Serializable {
+
+  private final MonotonicDeque mins;
+  private final MonotonicDeque maxs;
+  private long nOfAdded;
+  private long nOfRemoved;
+
+  public SlidingMinMax() {
+    mins = new MonotonicDeque(true);
+    maxs = new MonotonicDeque(false);
+  }
+
+  private static class MonotonicDeque implements Serializable {
+    private final boolean isMin;
+    private long[] indexes;
+    private double[] values;
+    private int first;
+    private int size;
+
+    private MonotonicDeque(boolean isMin) {
+      this.isMin = isMin;
+      indexes = new long[16];
+      values = new double[16];
+    }
+
+    private void add(long index, double value) {
+      //drop the values that cannot be the extreme anymore
+      while (size > 0 && (isMin ? values[slot(size - 1)] >= value : values[slot(size - 1)] <= value)) {
+        size = size - 1;
+      }
+      if (size == values.length) {
+        long[] newIndexes = new long[size * 2];
+        double[] newValues = new double[size * 2];
+        for (int i = 0; i < size; i++) {
+          newIndexes[i] = indexes[slot(i)];
+          newValues[i] = values[slot(i)];
+        }
+        indexes = newIndexes;
+        values = newValues;
+        first = 0;
+      }
+      indexes[slot(size)] = index;
+      values[slot(size)] = value;
+      size = size + 1;
+    }
+
+    private void clear() {
+      first = 0;
+      size = 0;
+    }
+
+    private double get() {
+      return size == 0 ? Double.NaN : values[first];
+    }
+
+    private void remove(long index) {
+      if (size > 0 && indexes[first] == index) {
+        first = first + 1 == values.length ? 0 : first + 1;
+        size = size - 1;
+      }
+    }
+
+    private int slot(int i) {
+      int slot = first + i;
+      return slot >= values.length ? slot - values.length : slot;
+    }
+  }
+
+  public void add(double value) {
+    mins.add(nOfAdded, value);
+    maxs.add(nOfAdded, value);
+    nOfAdded = nOfAdded + 1;
+  }
+
+  public void clear() {
+    mins.clear();
+    maxs.clear();
+    nOfAdded = 0;
+    nOfRemoved = 0;
+  }
+
+  /**
+   * @return the maximum of the values in the window, or {@code NaN} if the window is empty.
+   */
+  public double max() {
+    return maxs.get();
+  }
+
+  /**
+   * @return the minimum of the values in the window, or {@code NaN} if the window is empty.
+   */
+  public double min() {
+    return mins.get();
+  }
+
+  /**
+   * Removes the oldest value in the window.
+   */
+  public void remove() {
+    if (nOfRemoved == nOfAdded) {
+      throw new IllegalStateException("Cannot remove from an empty window");
+    }
+    mins.remove(nOfRemoved);
+    maxs.remove(nOfRemoved);
+    nOfRemoved = nOfRemoved + 1;
+  }
+
+  public int size() {
+    return (int) (nOfAdded - nOfRemoved);
+  }
+
+  @Override
+  public String toString() {
+    return "SlidingMinMax{" + "min=" + min() + ", max=" + max() + ", size=" + size() + '}';
+  }
+
+}
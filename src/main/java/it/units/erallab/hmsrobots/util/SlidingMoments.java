@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2021 Eric Medvet <eric.medvet@gmail.com> (as Eric Medvet <eric.medvet@gmail.com>)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.units.erallab.hmsrobots.util;
+
+import java.io.Serializable;
+
+/**
+ * Keeps the sum, the mean and the variance of the values in a sliding window, updating them in constant time when a
+ * value is added or removed. The sum is compensated with the Kahan algorithm; mean and variance are updated with the
+ * Welford algorithm, extended to the removal of values. Non-finite values are only counted, hence they determine the
+ * statistics (as they would if these were computed on the whole window) only while they are in the window.
+ */
+public class SlidingMoments implements Serializable {
+
+  private int n;
+  private int nOfNaNs;
+  private int nOfPositiveInfinities;
+  private int nOfNegativeInfinities;
+  private double sum;
+  private double compensation;
+  private double mean;
+  private double m2;
+
+  public void add(double value) {
+    if (!Double.isFinite(value)) {
+      countNonFinite(value, 1);
+      return;
+    }
+    n = n + 1;
+    kahanAdd(value);
+    double delta = value - mean;
+    mean = mean + delta / n;
+    m2 = m2 + delta * (value - mean);
+  }
+
+  public void clear() {
+    nOfNaNs = 0;
+    nOfPositiveInfinities = 0;
+    nOfNegativeInfinities = 0;
+    clearFinite();
+  }
+
+  private void clearFinite() {
+    n = 0;
+    sum = 0d;
+    compensation = 0d;
+    mean = 0d;
+    m2 = 0d;
+  }
+
+  private void countNonFinite(double value, int delta) {
+    if (Double.isNaN(value)) {
+      nOfNaNs = nOfNaNs + delta;
+    } else if (value > 0) {
+      nOfPositiveInfinities = nOfPositiveInfinities + delta;
+    } else {
+      nOfNegativeInfinities = nOfNegativeInfinities + delta;
+    }
+  }
+
+  private boolean hasNonFinite() {
+    return nOfNaNs + nOfPositiveInfinities + nOfNegativeInfinities > 0;
+  }
+
+  //the sum of a window with some non-finite value
+  private double nonFiniteSum() {
+    if (nOfNaNs > 0 || (nOfPositiveInfinities > 0 && nOfNegativeInfinities > 0)) {
+      return Double.NaN;
+    }
+    return nOfPositiveInfinities > 0 ? Double.POSITIVE_INFINITY : Double.NEGATIVE_INFINITY;
+  }
+
+  private void kahanAdd(double value) {
+    double y = value - compensation;
+    double t = sum + y;
+    compensation = (t - sum) - y;
+    sum = t;
+  }
+
+  /**
+   * @return the mean of the values in the window, or {@code NaN} if the window is empty.
+   */
+  public double mean() {
+    if (hasNonFinite()) {
+      return nonFiniteSum();
+    }
+    return n == 0 ? Double.NaN : sum / n;
+  }
+
+  /**
+   * Removes a value from the window, which is expected to be one of the values previously added.
+   */
+  public void remove(double value) {
+    if (!Double.isFinite(value)) {
+      countNonFinite(value, -1);
+      return;
+    }
+    if (n == 0) {
+      throw new IllegalStateException("Cannot remove from a window without finite values");
+    }
+    n = n - 1;
+    if (n == 0) {
+      clearFinite();
+      return;
+    }
+    kahanAdd(-value);
+    double delta = value - mean;
+    mean = mean - delta / n;
+    m2 = Math.max(0d, m2 - delta * (value - mean));
+  }
+
+  public int size() {
+    return n + nOfNaNs + nOfPositiveInfinities + nOfNegativeInfinities;
+  }
+
+  public double sum() {
+    return hasNonFinite() ? nonFiniteSum() : sum;
+  }
+
+  /**
+   * @return the population variance of the values in the window, or {@code NaN} if the window is empty.
+   */
+  public double variance() {
+    return (n == 0 || hasNonFinite()) ? Double.NaN : m2 / n;
+  }
+
+  @Override
+  public String toString() {
+    return "SlidingMoments{" + "n=" + n + ", mean=" + mean() + ", variance=" + variance() + '}';
+  }
+
+}
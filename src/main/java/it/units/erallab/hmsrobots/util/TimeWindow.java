@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2021 Eric Medvet <eric.medvet@gmail.com> (as Eric Medvet <eric.medvet@gmail.com>)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.units.erallab.hmsrobots.util;
+
+import java.util.AbstractList;
+import java.util.List;
+
+/**
+ * A time window of samples, each being an object.
+ */
+public class TimeWindow<V> extends AbstractTimeWindow {
+
+  private Object[] values;
+
+  public TimeWindow(int capacity) {
+    super(capacity);
+    values = new Object[capacity];
+  }
+
+  public TimeWindow() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  public void add(double t, V value) {
+    int slot = appendSlot(t);
+    values[slot] = value;
+  }
+
+  public V first() {
+    checkNotEmpty();
+    return value(0);
+  }
+
+  public V last() {
+    checkNotEmpty();
+    return value(size() - 1);
+  }
+
+  @SuppressWarnings("unchecked")
+  public V value(int i) {
+    return (V) values[checkedSlot(i)];
+  }
+
+  /**
+   * Returns a view of the values in the window, from the oldest to the newest.
+   */
+  public List<V> values() {
+    return new AbstractList<>() {
+      @Override
+      public V get(int index) {
+        return value(index);
+      }
+
+      @Override
+      public int size() {
+        return TimeWindow.this.size();
+      }
+    };
+  }
+
+  @Override
+  protected void clearSlot(int slot) {
+    values[slot] = null;
+  }
+
+  @Override
+  protected void resize(int newCapacity, int first, int size) {
+    Object[] newValues = new Object[newCapacity];
+    for (int i = 0; i < size; i++) {
+      newValues[i] = values[(first + i) % values.length];
+    }
+    values = newValues;
+  }
+
+}
@@ -20,38 +20,41 @@ import it.units.erallab.hmsrobots.core.geometry.BoundingBox;
 import it.units.erallab.hmsrobots.core.geometry.Shape;
 import it.units.erallab.hmsrobots.core.objects.Robot;
 import it.units.erallab.hmsrobots.core.snapshots.Snapshot;
+import it.units.erallab.hmsrobots.core.snapshots.SnapshotFilter;
+import it.units.erallab.hmsrobots.util.TimeWindow;
 import it.units.erallab.hmsrobots.viewers.drawers.SubtreeDrawer;
 
-import java.util.SortedMap;
-import java.util.TreeMap;
-
 /**
  * @author Eric Medvet <eric.medvet@gmail.com>
  */
 public class AllRobotFollower implements Framer {
 
+  private static final SubtreeDrawer.Extractor ROBOT_EXTRACTOR = SubtreeDrawer.Extractor.matches(
+      Shape.class,
+      Robot.class,
+      null
+  );
+
   private final double sizeRelativeMargin;
   private final double windowT;
 
-  private final SortedMap<Double, BoundingBox> boundingBoxes;
+  private final TimeWindow<BoundingBox> boundingBoxes;
 
   public AllRobotFollower(double sizeRelativeMargin, double windowT) {
     this.sizeRelativeMargin = sizeRelativeMargin;
     this.windowT = windowT;
-    boundingBoxes = new TreeMap<>();
+    boundingBoxes = new TimeWindow<>();
   }
 
   @Override
   public BoundingBox getFrame(double t, Snapshot snapshot, double ratio) {
     //get current bounding box
-    SubtreeDrawer.Extractor.matches(Shape.class, Robot.class, null).extract(snapshot).stream()
+    ROBOT_EXTRACTOR.extract(snapshot).stream()
         .map(s -> ((Shape) s.getContent()).boundingBox())
         .reduce(BoundingBox::largest)
-        .ifPresent(boundingBox -> boundingBoxes.put(t, boundingBox));
+        .ifPresent(boundingBox -> boundingBoxes.add(t, boundingBox));
     //clean
-    if (boundingBoxes.firstKey() < (t - windowT)) {
-      boundingBoxes.remove(boundingBoxes.firstKey());
-    }
+    boundingBoxes.evictBefore(t - windowT);
     //aggregate
     BoundingBox aggregated = boundingBoxes.values().stream()
         .reduce(BoundingBox::largest)
@@ -90,4 +93,9 @@ public class AllRobotFollower implements Framer {
     return adjusted;
   }
 
+  @Override
+  public SnapshotFilter getSnapshotFilter() {
+    return ROBOT_EXTRACTOR.getSnapshotFilter();
+  }
+
 }
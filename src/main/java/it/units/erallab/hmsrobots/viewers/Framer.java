@@ -18,6 +18,7 @@ package it.units.erallab.hmsrobots.viewers;
 
 import it.units.erallab.hmsrobots.core.geometry.BoundingBox;
 import it.units.erallab.hmsrobots.core.snapshots.Snapshot;
+import it.units.erallab.hmsrobots.core.snapshots.SnapshotFilter;
 
 /**
  * @author Eric Medvet <eric.medvet@gmail.com>
@@ -27,4 +28,8 @@ public interface Framer {
 
   BoundingBox getFrame(double t, Snapshot snapshot, double ratio);
 
+  default SnapshotFilter getSnapshotFilter() {
+    return SnapshotFilter.all();
+  }
+
 }
@@ -18,6 +18,7 @@ package it.units.erallab.hmsrobots.viewers;
 
 import it.units.erallab.hmsrobots.core.geometry.BoundingBox;
 import it.units.erallab.hmsrobots.core.snapshots.Snapshot;
+import it.units.erallab.hmsrobots.core.snapshots.SnapshotFilter;
 import it.units.erallab.hmsrobots.core.snapshots.SnapshotListener;
 import it.units.erallab.hmsrobots.viewers.drawers.Drawer;
 
@@ -82,12 +83,20 @@ public class FramesImageBuilder implements SnapshotListener {
     return image;
   }
 
+  @Override
+  public SnapshotFilter getSnapshotFilter() {
+    return drawer.getSnapshotFilter();
+  }
+
+  @Override
+  public boolean needsSnapshot(double t) {
+    //out of time window or wait for next snapshot
+    return t >= initialT && t < finalT && t - lastT >= dT;
+  }
+
   @Override
   public void listen(double t, Snapshot snapshot) {
-    if ((t < initialT) || (t >= finalT)) { //out of time window
-      return;
-    }
-    if ((t - lastT) < dT) { //wait for next snapshot
+    if (!needsSnapshot(t)) {
       return;
     }
     lastT = t;
@@ -65,6 +65,9 @@ public class GridEpisodeRunner<S> implements Runnable {
   public void run() {
     //start episodes
     List<Future<?>> results = new ArrayList<>();
+    namedSolutionsAndTasksGrid.stream()
+        .filter(p -> p.value() == null || p.value().getLeft() == null)
+        .forEach(entry -> gridSnapshotListener.done(entry.key().x(), entry.key().y()));
     namedSolutionsAndTasksGrid.stream()
         .filter(p -> p.value() != null && p.value().getLeft() != null)
         .forEach(entry -> results.add(executor.submit(() -> {
@@ -75,10 +78,15 @@ public class GridEpisodeRunner<S> implements Runnable {
               entry.key().x(),
               entry.key().y()
           ));
-          Object outcome = episode.apply(
-              entry.value().getLeft().value(),
-              gridSnapshotListener.listener(entry.key().x(), entry.key().y())
-          );
+          Object outcome;
+          try {
+            outcome = episode.apply(
+                entry.value().getLeft().value(),
+                gridSnapshotListener.listener(entry.key().x(), entry.key().y())
+            );
+          } finally {
+            gridSnapshotListener.done(entry.key().x(), entry.key().y());
+          }
           L.fine(String.format(
               "Ended %s in position (%d,%d) with outcome %s",
               episode.getClass().getSimpleName(),
@@ -18,6 +18,7 @@ package it.units.erallab.hmsrobots.viewers;
 
 import it.units.erallab.hmsrobots.core.geometry.BoundingBox;
 import it.units.erallab.hmsrobots.core.snapshots.Snapshot;
+import it.units.erallab.hmsrobots.core.snapshots.SnapshotFilter;
 import it.units.erallab.hmsrobots.core.snapshots.SnapshotListener;
 import it.units.erallab.hmsrobots.tasks.Task;
 import it.units.erallab.hmsrobots.util.Grid;
@@ -28,24 +29,40 @@ import org.apache.commons.lang3.tuple.Pair;
 
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
 import java.io.File;
 import java.io.Flushable;
 import java.io.IOException;
 import java.nio.file.Files;
-import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.*;
 import java.util.function.Function;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
+ * Draws the snapshots of a grid of episodes on the frames of a video, which is encoded while the episodes are still
+ * running. A frame is encoded, on a dedicated thread, as soon as all the cells of the grid have been drawn on it: frames
+ * waiting for slower cells are kept in a reorder buffer. When the buffer is full, faster cells wait for the slower ones,
+ * unless some cell has not started yet (e.g., because the executor has fewer threads than cells) or a slower cell is fed
+ * by the same thread of the faster one (e.g., when cells are run one after the other by a single caller): in these
+ * cases the buffer grows beyond its size. Complete frames are handed to the encoding thread outside the monitor of the
+ * writer, hence cells keep drawing while the encoder is behind. Once flushed, the writer ignores further snapshots.
+ *
  * @author Eric Medvet <eric.medvet@gmail.com>
  */
 public class GridFileWriter implements Flushable, GridSnapshotListener {
 
   private static final Logger L = Logger.getLogger(GridFileWriter.class.getName());
+  private static final int DEFAULT_REORDER_BUFFER_SIZE = 64;
+  private static final int ENCODING_QUEUE_SIZE = 8;
+  private static final BufferedImage END_OF_VIDEO = new BufferedImage(1, 1, BufferedImage.TYPE_3BYTE_BGR);
   private final int w;
   private final int h;
   private final double startTime;
@@ -53,8 +70,22 @@ public class GridFileWriter implements Flushable, GridSnapshotListener {
   private final VideoUtils.EncoderFacility encoder;
   private final File file;
   private final Grid<Drawer> drawersGrid;
-  private final Grid<List<Double>> timesGrid;
-  private final List<BufferedImage> images;
+  private final SnapshotFilter snapshotFilter;
+  private final int reorderBufferSize;
+  private final double[][] lastTimes;
+  private final int[][] lastFrameNumbers;
+  private final boolean[][] started;
+  private final boolean[][] done;
+  private final Thread[][] feedingThreads;
+  private final Deque<BufferedImage> pendingFrames;
+  private final Deque<BufferedImage> completedFrames;
+  private final BlockingQueue<BufferedImage> encodingQueue;
+  private final Queue<BufferedImage> freeFrames;
+  private final Object encodingLock;
+  private int firstPendingFrameNumber;
+  private boolean flushed;
+  private Thread encodingThread;
+  private IOException encodingException;
 
   public GridFileWriter(
       int w,
@@ -64,11 +95,16 @@ public class GridFileWriter implements Flushable, GridSnapshotListener {
       VideoUtils.EncoderFacility encoder,
       File file,
       Grid<String> namesGrid,
-      Grid<Drawer> drawersGrid
+      Grid<Drawer> drawersGrid,
+      SnapshotFilter snapshotFilter,
+      int reorderBufferSize
   ) {
     if (namesGrid.getW() != drawersGrid.getW() || namesGrid.getH() != drawersGrid.getH()) {
       throw new IllegalArgumentException("Names grid and drawers grid should have the same size");
     }
+    if (reorderBufferSize < 1) {
+      throw new IllegalArgumentException(String.format("Reorder buffer size should be positive: %d", reorderBufferSize));
+    }
     this.drawersGrid = Grid.create(
         namesGrid.getW(),
         namesGrid.getH(),
@@ -88,8 +124,58 @@ public class GridFileWriter implements Flushable, GridSnapshotListener {
     this.frameRate = frameRate;
     this.encoder = encoder;
     this.file = file;
-    images = new ArrayList<>();
-    timesGrid = Grid.create(namesGrid.getW(), namesGrid.getH(), (x, y) -> new ArrayList<>());
+    this.snapshotFilter = snapshotFilter;
+    this.reorderBufferSize = reorderBufferSize;
+    lastTimes = new double[namesGrid.getW()][namesGrid.getH()];
+    lastFrameNumbers = new int[namesGrid.getW()][namesGrid.getH()];
+    for (int x = 0; x < namesGrid.getW(); x++) {
+      Arrays.fill(lastTimes[x], Double.NEGATIVE_INFINITY);
+      Arrays.fill(lastFrameNumbers[x], -1);
+    }
+    started = new boolean[namesGrid.getW()][namesGrid.getH()];
+    done = new boolean[namesGrid.getW()][namesGrid.getH()];
+    feedingThreads = new Thread[namesGrid.getW()][namesGrid.getH()];
+    pendingFrames = new ArrayDeque<>();
+    completedFrames = new ArrayDeque<>();
+    encodingQueue = new ArrayBlockingQueue<>(ENCODING_QUEUE_SIZE);
+    freeFrames = new ConcurrentLinkedQueue<>();
+    encodingLock = new Object();
+  }
+
+  public GridFileWriter(
+      int w,
+      int h,
+      double startTime,
+      double frameRate,
+      VideoUtils.EncoderFacility encoder,
+      File file,
+      Grid<String> namesGrid,
+      Grid<Drawer> drawersGrid,
+      SnapshotFilter snapshotFilter
+  ) {
+    this(
+        w, h, startTime, frameRate, encoder, file, namesGrid, drawersGrid, snapshotFilter,
+        DEFAULT_REORDER_BUFFER_SIZE
+    );
+  }
+
+  public GridFileWriter(
+      int w,
+      int h,
+      double startTime,
+      double frameRate,
+      VideoUtils.EncoderFacility encoder,
+      File file,
+      Grid<String> namesGrid,
+      Grid<Drawer> drawersGrid
+  ) {
+    this(
+        w, h, startTime, frameRate, encoder, file, namesGrid, drawersGrid,
+        drawersGrid.values().stream()
+            .filter(Objects::nonNull)
+            .map(Drawer::getSnapshotFilter)
+            .reduce(SnapshotFilter.none(), SnapshotFilter::or)
+    );
   }
 
   public static <S> void save(
@@ -163,11 +249,196 @@ public class GridFileWriter implements Flushable, GridSnapshotListener {
     save(task, Grid.create(1, 1, new NamedValue<>("solution", s)), w, h, startTime, frameRate, encoder, file);
   }
 
+  private boolean canDraw(int lX, int lY, int frameNumber) {
+    if (frameNumber < firstPendingFrameNumber + reorderBufferSize) {
+      return true;
+    }
+    //the slowest cells never wait
+    if (lastFrameNumbers[lX][lY] <= firstPendingFrameNumber) {
+      return true;
+    }
+    //cells not started yet, or fed by this same thread, cannot catch up while this cell waits
+    for (int x = 0; x < started.length; x++) {
+      for (int y = 0; y < started[x].length; y++) {
+        if (done[x][y]) {
+          continue;
+        }
+        boolean slowest = lastFrameNumbers[x][y] <= firstPendingFrameNumber;
+        if (!started[x][y] || (slowest && feedingThreads[x][y] == Thread.currentThread())) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  //moves the frames on which no cell will draw anymore to the completed frames, in order; requires the monitor
+  private void completeFrames() {
+    int completedFrameNumber = firstPendingFrameNumber + pendingFrames.size();
+    for (int x = 0; x < done.length; x++) {
+      for (int y = 0; y < done[x].length; y++) {
+        if (!done[x][y]) {
+          completedFrameNumber = Math.min(completedFrameNumber, Math.max(lastFrameNumbers[x][y], 0));
+        }
+      }
+    }
+    while (firstPendingFrameNumber < completedFrameNumber) {
+      completedFrames.add(pendingFrames.poll());
+      firstPendingFrameNumber = firstPendingFrameNumber + 1;
+    }
+  }
+
+  @Override
+  public void done(int x, int y) {
+    synchronized (this) {
+      done[x][y] = true;
+      completeFrames();
+      notifyAll();
+    }
+    enqueueCompletedFrames();
+  }
+
+  private void draw(int lX, int lY, double t, Snapshot snapshot) {
+    int frameNumber = (int) Math.round((t - startTime) * frameRate);
+    synchronized (this) {
+      if (flushed) {
+        return;
+      }
+      feedingThreads[lX][lY] = Thread.currentThread();
+      while (!canDraw(lX, lY, frameNumber)) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          L.warning(String.format("Frame %d of cell (%d,%d) not drawn due to interruption", frameNumber, lX, lY));
+          Thread.currentThread().interrupt();
+          return;
+        }
+      }
+      int lastFrameNumber = lastFrameNumbers[lX][lY] < 0 ? frameNumber : lastFrameNumbers[lX][lY];
+      lastTimes[lX][lY] = t;
+      lastFrameNumbers[lX][lY] = frameNumber;
+      while (frameNumber >= firstPendingFrameNumber + pendingFrames.size()) {
+        pendingFrames.add(newFrame());
+      }
+      //cells draw mostly on the last frames, hence the pending frames are visited from the last one
+      int fromFrameNumber = Math.max(lastFrameNumber, firstPendingFrameNumber);
+      int i = firstPendingFrameNumber + pendingFrames.size() - 1;
+      for (Iterator<BufferedImage> iterator = pendingFrames.descendingIterator(); i >= fromFrameNumber; i--) {
+        BufferedImage image = iterator.next();
+        if (i <= frameNumber) {
+          Graphics2D g = image.createGraphics();
+          g.setClip(0, 0, image.getWidth(), image.getHeight());
+          drawersGrid.get(lX, lY).draw(t, snapshot, g);
+          g.dispose();
+        }
+      }
+      completeFrames();
+      notifyAll();
+    }
+    enqueueCompletedFrames();
+  }
+
+  private void encode() {
+    VideoUtils.VideoWriter writer = null;
+    try {
+      writer = VideoUtils.writer(frameRate, file, encoder);
+    } catch (IOException e) {
+      L.log(Level.SEVERE, String.format("Cannot open video on %s due to %s", file, e), e);
+      encodingException = e;
+    }
+    while (true) {
+      BufferedImage image;
+      try {
+        image = encodingQueue.take();
+      } catch (InterruptedException e) {
+        break;
+      }
+      if (image == END_OF_VIDEO) {
+        break;
+      }
+      if (writer != null && encodingException == null) {
+        try {
+          writer.write(image);
+        } catch (IOException e) {
+          L.log(Level.SEVERE, String.format("Cannot encode frame due to %s", e), e);
+          encodingException = e;
+        }
+      }
+      freeFrames.offer(image);
+    }
+    if (writer != null) {
+      try {
+        writer.close();
+      } catch (IOException e) {
+        encodingException = e;
+      }
+    }
+  }
+
+  //hands the completed frames to the encoding thread, in order, waiting for room without holding the monitor
+  private void enqueueCompletedFrames() {
+    synchronized (encodingLock) {
+      while (true) {
+        BufferedImage image;
+        synchronized (this) {
+          image = completedFrames.poll();
+        }
+        if (image == null) {
+          return;
+        }
+        if (encodingThread == null) {
+          encodingThread = new Thread(this::encode, "video-encoder-" + file.getName());
+          encodingThread.setDaemon(true);
+          encodingThread.start();
+        }
+        try {
+          encodingQueue.put(image);
+        } catch (InterruptedException e) {
+          //the frame is left to the next caller
+          synchronized (this) {
+            completedFrames.addFirst(image);
+          }
+          Thread.currentThread().interrupt();
+          return;
+        }
+      }
+    }
+  }
+
   @Override
   public void flush() throws IOException {
     L.fine(String.format("Saving video on %s", file));
     StopWatch stopWatch = StopWatch.createStarted();
-    VideoUtils.encodeAndSave(images, frameRate, file, encoder);
+    synchronized (this) {
+      if (!flushed) {
+        flushed = true;
+        for (boolean[] column : done) {
+          Arrays.fill(column, true);
+        }
+        completeFrames();
+        completedFrames.add(END_OF_VIDEO);
+        notifyAll();
+      }
+    }
+    //a further flush waits for the same encoding thread
+    enqueueCompletedFrames();
+    synchronized (this) {
+      if (!completedFrames.isEmpty()) {
+        throw new IOException("Interrupted while enqueuing frames");
+      }
+    }
+    Thread thread;
+    synchronized (encodingLock) {
+      thread = encodingThread;
+    }
+    try {
+      thread.join();
+    } catch (InterruptedException e) {
+      throw new IOException(e);
+    }
+    if (encodingException != null) {
+      throw encodingException;
+    }
     long millis = stopWatch.getTime(TimeUnit.MILLISECONDS);
     L.fine(String.format(
         "Video saved: %.1fMB written in %.2fs",
@@ -178,27 +449,37 @@ public class GridFileWriter implements Flushable, GridSnapshotListener {
 
   @Override
   public SnapshotListener listener(final int lX, final int lY) {
-    return (double t, Snapshot snapshot) -> {
-      List<Double> times = timesGrid.get(lX, lY);
-      double lastT = times.isEmpty() ? Double.NEGATIVE_INFINITY : times.get(times.size() - 1);
-      if (t >= startTime && t - lastT >= 1d / frameRate) {
-        int frameNumber = (int) Math.round((t - startTime) * frameRate);
-        int lastFrameNumber = times.isEmpty() ? frameNumber : (int) Math.round((times.get(times.size() - 1) - startTime) * frameRate);
-        synchronized (images) {
-          times.add(t);
-          while (frameNumber >= images.size()) {
-            images.add(new BufferedImage(w, h, BufferedImage.TYPE_3BYTE_BGR));
-          }
-          for (int i = lastFrameNumber; i <= frameNumber; i++) {
-            BufferedImage image = images.get(i);
-            Graphics2D g = image.createGraphics();
-            g.setClip(0, 0, image.getWidth(), image.getHeight());
-            drawersGrid.get(lX, lY).draw(t, snapshot, g);
-            g.dispose();
-          }
+    synchronized (this) {
+      started[lX][lY] = true;
+      feedingThreads[lX][lY] = Thread.currentThread();
+    }
+    return new SnapshotListener() {
+      @Override
+      public SnapshotFilter getSnapshotFilter() {
+        return snapshotFilter;
+      }
+
+      @Override
+      public void listen(double t, Snapshot snapshot) {
+        if (needsSnapshot(t)) {
+          draw(lX, lY, t, snapshot);
         }
       }
+
+      @Override
+      public boolean needsSnapshot(double t) {
+        return t >= startTime && t - lastTimes[lX][lY] >= 1d / frameRate;
+      }
     };
   }
 
+  private BufferedImage newFrame() {
+    BufferedImage image = freeFrames.poll();
+    if (image == null) {
+      return new BufferedImage(w, h, BufferedImage.TYPE_3BYTE_BGR);
+    }
+    Arrays.fill(((DataBufferByte) image.getRaster().getDataBuffer()).getData(), (byte) 0);
+    return image;
+  }
+
 }
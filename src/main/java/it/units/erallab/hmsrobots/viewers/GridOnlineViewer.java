@@ -19,6 +19,7 @@ package it.units.erallab.hmsrobots.viewers;
 import com.google.common.base.Stopwatch;
 import it.units.erallab.hmsrobots.core.geometry.BoundingBox;
 import it.units.erallab.hmsrobots.core.snapshots.Snapshot;
+import it.units.erallab.hmsrobots.core.snapshots.SnapshotFilter;
 import it.units.erallab.hmsrobots.core.snapshots.SnapshotListener;
 import it.units.erallab.hmsrobots.tasks.Task;
 import it.units.erallab.hmsrobots.util.Grid;
@@ -186,10 +187,18 @@ public class GridOnlineViewer extends JFrame implements GridSnapshotListener {
 
   @Override
   public SnapshotListener listener(final int lX, final int lY) {
-    return (double t, Snapshot snapshot) -> {
-      synchronized (queueGrid) {
-        queueGrid.get(lX, lY).offer(new TimedSnapshot(t, snapshot));
-        queueGrid.notifyAll();
+    return new SnapshotListener() {
+      @Override
+      public SnapshotFilter getSnapshotFilter() {
+        return drawersGrid.get(lX, lY).getSnapshotFilter();
+      }
+
+      @Override
+      public void listen(double t, Snapshot snapshot) {
+        synchronized (queueGrid) {
+          queueGrid.get(lX, lY).offer(new TimedSnapshot(t, snapshot));
+          queueGrid.notifyAll();
+        }
       }
     };
   }
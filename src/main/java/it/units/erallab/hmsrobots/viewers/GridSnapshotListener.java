@@ -25,4 +25,11 @@ public interface GridSnapshotListener {
 
   SnapshotListener listener(int x, int y);
 
+  /**
+   * Tells that no more snapshots will be given to the listener of the cell in position {@code (x,y)}, either because
+   * its episode is over or because the cell is empty.
+   */
+  default void done(int x, int y) {
+  }
+
 }
@@ -9,14 +9,16 @@ import org.jcodec.scale.AWTUtil;
 
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.IOException;
-import java.io.InputStreamReader;
+import java.awt.image.DataBufferByte;
+import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -26,110 +28,315 @@ import java.util.logging.Logger;
 public class VideoUtils {
 
   private static final EncoderFacility DEFAULT_ENCODER = EncoderFacility.JCODEC;
+  private static final String FFMPEG_COMMAND = "ffmpeg";
+  private static final int PIPE_QUEUE_SIZE = 8;
   private static final Logger L = Logger.getLogger(VideoUtils.class.getName());
 
   private VideoUtils() {
   }
 
-  public enum EncoderFacility {JCODEC, FFMPEG_LARGE, FFMPEG_SMALL}
+  public enum EncoderFacility {JCODEC, FFMPEG_LARGE, FFMPEG_SMALL, FFMPEG_PIPE_LARGE, FFMPEG_PIPE_SMALL}
 
-  public static void encodeAndSave(List<BufferedImage> images, double frameRate, File file) throws IOException {
-    encodeAndSave(images, frameRate, file, DEFAULT_ENCODER);
+  /**
+   * Encodes frames one at a time, as they are written, so that they do not need to be kept in memory until the video
+   * is complete. The video is complete when the writer is closed.
+   */
+  public interface VideoWriter extends Closeable {
+    void write(BufferedImage image) throws IOException;
   }
 
-  public static void encodeAndSave(
-      List<BufferedImage> images,
-      double frameRate,
-      File file,
-      EncoderFacility encoder
-  ) throws IOException {
-    switch (encoder) {
-      case JCODEC -> encodeAndSaveWithJCodec(images, frameRate, file);
-      case FFMPEG_LARGE -> encodeAndSaveWithFFMpeg(images, frameRate, file, 18);
-      case FFMPEG_SMALL -> encodeAndSaveWithFFMpeg(images, frameRate, file, 30);
+  private static class FFMpegVideoWriter implements VideoWriter {
+    private final double frameRate;
+    private final File file;
+    private final int compression;
+    private final String workingDirName;
+    private final String imagesDirName;
+    private final List<Path> toDeletePaths;
+
+    public FFMpegVideoWriter(double frameRate, File file, int compression) throws IOException {
+      this.frameRate = frameRate;
+      this.file = file;
+      this.compression = compression;
+      workingDirName = file.getAbsoluteFile().getParentFile().getPath();
+      imagesDirName = workingDirName + File.separator + "imgs." + System.currentTimeMillis();
+      Files.createDirectories(Path.of(imagesDirName));
+      toDeletePaths = new ArrayList<>();
     }
-  }
 
-  private static void encodeAndSaveWithFFMpeg(
-      List<BufferedImage> images,
-      double frameRate,
-      File file,
-      int compression
-  ) throws IOException {
-    //save all files
-    String workingDirName = file.getAbsoluteFile().getParentFile().getPath();
-    String imagesDirName = workingDirName + File.separator + "imgs." + System.currentTimeMillis();
-    Files.createDirectories(Path.of(imagesDirName));
-    List<Path> toDeletePaths = new ArrayList<>();
-    L.fine(String.format("Saving %d files in %s", images.size(), imagesDirName));
-    for (int i = 0; i < images.size(); i++) {
-      File imageFile = new File(imagesDirName + File.separator + String.format("frame%06d", i) + ".jpg");
-      ImageIO.write(images.get(i), "jpg", imageFile);
+    @Override
+    public void write(BufferedImage image) throws IOException {
+      File imageFile = new File(imagesDirName + File.separator + String.format(
+          "frame%06d",
+          toDeletePaths.size()
+      ) + ".jpg");
+      ImageIO.write(image, "jpg", imageFile);
       toDeletePaths.add(imageFile.toPath());
     }
-    toDeletePaths.add(Path.of(imagesDirName));
-    //invoke ffmpeg
-    String command = String.format(
-        "ffmpeg -y -r %d -i %s/frame%%06d.jpg -vcodec libx264 -crf %d -pix_fmt yuv420p %s",
-        (int) Math.round(frameRate),
-        imagesDirName,
-        compression,
-        file.getPath()
-    );
-    L.fine(String.format("Running: %s", command));
-    ProcessBuilder pb = new ProcessBuilder(command.split(" "));
-    pb.directory(new File(workingDirName));
-    StringBuilder sb = new StringBuilder();
-    try {
-      Process process = pb.start();
-      BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
-      String line;
-      while ((line = reader.readLine()) != null) {
-        sb.append(line).append("\n");
+
+    @Override
+    public void close() throws IOException {
+      L.fine(String.format("Saved %d files in %s", toDeletePaths.size(), imagesDirName));
+      toDeletePaths.add(Path.of(imagesDirName));
+      //invoke ffmpeg
+      String command = String.format(
+          "%s -y -r %d -i %s/frame%%06d.jpg -vcodec libx264 -crf %d -pix_fmt yuv420p %s",
+          FFMPEG_COMMAND,
+          (int) Math.round(frameRate),
+          imagesDirName,
+          compression,
+          file.getPath()
+      );
+      L.fine(String.format("Running: %s", command));
+      ProcessBuilder pb = new ProcessBuilder(command.split(" "));
+      pb.directory(new File(workingDirName));
+      StringBuilder sb = new StringBuilder();
+      try {
+        Process process = pb.start();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
+        String line;
+        while ((line = reader.readLine()) != null) {
+          sb.append(line).append("\n");
+        }
+        reader.close();
+        int exitVal = process.waitFor();
+        if (exitVal < 0) {
+          throw new IOException(String.format("Unexpected exit val: %d. Full output is:%n%s", exitVal, sb.toString()));
+        }
+      } catch (IOException | InterruptedException e) {
+        throw (e instanceof IOException) ? (IOException) e : (new IOException(e));
+      } finally {
+        //delete all files
+        L.fine(String.format("Deleting %d paths", toDeletePaths.size()));
+        for (Path path : toDeletePaths) {
+          try {
+            Files.delete(path);
+          } catch (IOException e) {
+            L.log(Level.WARNING, String.format("Cannot delete %s", path), e);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Streams the raw BGR frames to the standard input of an ffmpeg process. Frames are copied and written to the
+   * process by a dedicated thread: when the process lags behind, {@link #write(BufferedImage)} blocks.
+   */
+  private static class FFMpegPipeVideoWriter implements VideoWriter {
+    private static final byte[] END_OF_VIDEO = new byte[0];
+    private final String command;
+    private final double frameRate;
+    private final File file;
+    private final int compression;
+    private final BlockingQueue<byte[]> queue;
+    private final Queue<byte[]> freeBuffers;
+    private final StringBuffer output;
+    private int w;
+    private int h;
+    private Process process;
+    private Thread readingThread;
+    private Thread writingThread;
+    private volatile IOException writingException;
+
+    public FFMpegPipeVideoWriter(String command, double frameRate, File file, int compression) {
+      this.command = command;
+      this.frameRate = frameRate;
+      this.file = file;
+      this.compression = compression;
+      queue = new ArrayBlockingQueue<>(PIPE_QUEUE_SIZE);
+      freeBuffers = new ConcurrentLinkedQueue<>();
+      output = new StringBuffer();
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (process == null) {
+        return;
+      }
+      try {
+        queue.put(END_OF_VIDEO);
+        writingThread.join();
+        int exitVal = process.waitFor();
+        readingThread.join();
+        if (exitVal != 0) {
+          throw new IOException(String.format("Unexpected exit val: %d. Full output is:%n%s", exitVal, output));
+        }
+      } catch (InterruptedException e) {
+        process.destroy();
+        throw new IOException(e);
       }
-      reader.close();
-      int exitVal = process.waitFor();
-      if (exitVal < 0) {
-        throw new IOException(String.format("Unexpected exit val: %d. Full output is:%n%s", exitVal, sb.toString()));
+      if (writingException != null) {
+        throw writingException;
       }
-    } catch (IOException | InterruptedException e) {
-      throw (e instanceof IOException) ? (IOException) e : (new IOException(e));
-    } finally {
-      //delete all files
-      L.fine(String.format("Deleting %d paths", toDeletePaths.size()));
-      for (Path path : toDeletePaths) {
-        try {
-          Files.delete(path);
+    }
+
+    private void start(int w, int h) throws IOException {
+      this.w = w;
+      this.h = h;
+      List<String> commandLine = List.of(
+          command,
+          "-y",
+          "-f", "rawvideo",
+          "-pix_fmt", "bgr24",
+          "-s", w + "x" + h,
+          "-r", Integer.toString((int) Math.round(frameRate)),
+          "-i", "-",
+          "-vcodec", "libx264",
+          "-crf", Integer.toString(compression),
+          "-pix_fmt", "yuv420p",
+          file.getPath()
+      );
+      L.fine(String.format("Running: %s", String.join(" ", commandLine)));
+      ProcessBuilder pb = new ProcessBuilder(commandLine);
+      pb.directory(file.getAbsoluteFile().getParentFile());
+      pb.redirectErrorStream(true);
+      process = pb.start();
+      readingThread = new Thread(() -> {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+          String line;
+          while ((line = reader.readLine()) != null) {
+            output.append(line).append("\n");
+          }
         } catch (IOException e) {
-          L.log(Level.WARNING, String.format("Cannot delete %s", path), e);
+          //ignore: the process is over
+        }
+      }, "ffmpeg-output-" + file.getName());
+      readingThread.setDaemon(true);
+      readingThread.start();
+      writingThread = new Thread(this::writeFrames, "ffmpeg-input-" + file.getName());
+      writingThread.setDaemon(true);
+      writingThread.start();
+    }
+
+    @Override
+    public void write(BufferedImage image) throws IOException {
+      if (process == null) {
+        start(image.getWidth(), image.getHeight());
+      }
+      if (image.getWidth() != w || image.getHeight() != h) {
+        throw new IllegalArgumentException(String.format(
+            "Unexpected frame size: %dx%d instead of %dx%d",
+            image.getWidth(),
+            image.getHeight(),
+            w,
+            h
+        ));
+      }
+      if (writingException != null) {
+        throw writingException;
+      }
+      byte[] buffer = freeBuffers.poll();
+      if (buffer == null) {
+        buffer = new byte[w * h * 3];
+      }
+      if (image.getType() == BufferedImage.TYPE_3BYTE_BGR) {
+        byte[] data = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        System.arraycopy(data, 0, buffer, 0, buffer.length);
+      } else {
+        BufferedImage bgrImage = new BufferedImage(w, h, BufferedImage.TYPE_3BYTE_BGR);
+        bgrImage.getGraphics().drawImage(image, 0, 0, null);
+        byte[] data = ((DataBufferByte) bgrImage.getRaster().getDataBuffer()).getData();
+        System.arraycopy(data, 0, buffer, 0, buffer.length);
+      }
+      try {
+        queue.put(buffer);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException(e);
+      }
+    }
+
+    private void writeFrames() {
+      try (OutputStream os = new BufferedOutputStream(process.getOutputStream())) {
+        while (true) {
+          byte[] buffer = queue.take();
+          if (buffer == END_OF_VIDEO) {
+            break;
+          }
+          if (writingException == null) {
+            try {
+              os.write(buffer);
+            } catch (IOException e) {
+              //keep consuming frames, so that writers do not block
+              L.log(Level.SEVERE, String.format("Cannot write frame to ffmpeg due to %s", e), e);
+              writingException = e;
+            }
+          }
+          freeBuffers.offer(buffer);
         }
+      } catch (InterruptedException e) {
+        writingException = new IOException(e);
+      } catch (IOException e) {
+        if (writingException == null) {
+          writingException = e;
+        }
+      }
+    }
+  }
+
+  private static class JCodecVideoWriter implements VideoWriter {
+    private final SeekableByteChannel channel;
+    private final SequenceEncoder encoder;
+
+    public JCodecVideoWriter(double frameRate, File file) throws IOException {
+      channel = NIOUtils.writableChannel(file);
+      encoder = new SequenceEncoder(
+          channel,
+          Rational.R((int) Math.round(frameRate), 1),
+          Format.MOV,
+          org.jcodec.common.Codec.H264,
+          null
+      );
+    }
+
+    @Override
+    public void write(BufferedImage image) {
+      try {
+        encoder.encodeNativeFrame(AWTUtil.fromBufferedImageRGB(image));
+      } catch (IOException ex) {
+        L.severe(String.format("Cannot encode image due to %s", ex));
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        encoder.finish();
+      } finally {
+        NIOUtils.closeQuietly(channel);
       }
     }
   }
 
-  private static void encodeAndSaveWithJCodec(
+  public static void encodeAndSave(List<BufferedImage> images, double frameRate, File file) throws IOException {
+    encodeAndSave(images, frameRate, file, DEFAULT_ENCODER);
+  }
+
+  public static void encodeAndSave(
       List<BufferedImage> images,
       double frameRate,
-      File file
+      File file,
+      EncoderFacility encoder
   ) throws IOException {
-    SeekableByteChannel channel = NIOUtils.writableChannel(file);
-    SequenceEncoder encoder = new SequenceEncoder(
-        channel,
-        Rational.R((int) Math.round(frameRate), 1),
-        Format.MOV,
-        org.jcodec.common.Codec.H264,
-        null
-    );
-    //encode
-    try {
+    try (VideoWriter writer = writer(frameRate, file, encoder)) {
       for (BufferedImage image : images) {
-        encoder.encodeNativeFrame(AWTUtil.fromBufferedImageRGB(image));
+        writer.write(image);
       }
-    } catch (IOException ex) {
-      L.severe(String.format("Cannot encode image due to %s", ex));
     }
-    encoder.finish();
-    NIOUtils.closeQuietly(channel);
+  }
+
+  public static VideoWriter writer(double frameRate, File file, EncoderFacility encoder) throws IOException {
+    return switch (encoder) {
+      case JCODEC -> new JCodecVideoWriter(frameRate, file);
+      case FFMPEG_LARGE -> new FFMpegVideoWriter(frameRate, file, 18);
+      case FFMPEG_SMALL -> new FFMpegVideoWriter(frameRate, file, 30);
+      case FFMPEG_PIPE_LARGE -> pipeWriter(FFMPEG_COMMAND, frameRate, file, 18);
+      case FFMPEG_PIPE_SMALL -> pipeWriter(FFMPEG_COMMAND, frameRate, file, 30);
+    };
+  }
+
+  public static VideoWriter pipeWriter(String command, double frameRate, File file, int compression) {
+    return new FFMpegPipeVideoWriter(command, frameRate, file, compression);
   }
 
 }
@@ -20,13 +20,13 @@ package it.units.erallab.hmsrobots.viewers.drawers;
 import it.units.erallab.hmsrobots.core.geometry.BoundingBox;
 import it.units.erallab.hmsrobots.core.snapshots.Snapshot;
 import it.units.erallab.hmsrobots.util.Grid;
+import it.units.erallab.hmsrobots.util.TimeWindow;
 import it.units.erallab.hmsrobots.viewers.DrawingUtils;
 
 import java.awt.*;
 import java.awt.geom.Path2D;
 import java.awt.geom.Rectangle2D;
 import java.util.Arrays;
-import java.util.SortedMap;
 
 import static it.units.erallab.hmsrobots.core.controllers.DistributedSensing.DistributedSensingState;
 
@@ -67,8 +67,8 @@ public class DistributedDrawer extends MemoryDrawer<DistributedSensingState> {
   }
 
   @Override
-  protected void innerDraw(double t, Snapshot snapshot, SortedMap<Double, DistributedSensingState> memory, Graphics2D g) {
-    DistributedSensingState current = memory.get(memory.lastKey());
+  protected void innerDraw(double t, Snapshot snapshot, TimeWindow<DistributedSensingState> memory, Graphics2D g) {
+    DistributedSensingState current = memory.last();
     double textWidth = g.getFontMetrics().charWidth('m');
     double legendWidth = 6 * textWidth;
     double min = current.signalsDomain().min();
@@ -19,6 +19,7 @@ package it.units.erallab.hmsrobots.viewers.drawers;
 
 import it.units.erallab.hmsrobots.core.geometry.BoundingBox;
 import it.units.erallab.hmsrobots.core.snapshots.Snapshot;
+import it.units.erallab.hmsrobots.core.snapshots.SnapshotFilter;
 import it.units.erallab.hmsrobots.viewers.DrawingUtils;
 import it.units.erallab.hmsrobots.viewers.Framer;
 
@@ -35,19 +36,27 @@ public interface Drawer {
 
   void draw(double t, Snapshot snapshot, Graphics2D g);
 
+  /**
+   * Tells which subtrees of the snapshots this drawer uses: listeners drawing only with this drawer can let the other
+   * subtrees not be built. By default, all.
+   */
+  default SnapshotFilter getSnapshotFilter() {
+    return SnapshotFilter.all();
+  }
+
   static Drawer clear() {
     return clear(Color.WHITE);
   }
 
   static Drawer clear(Color color) {
-    return (t, snapshot, g) -> {
+    return withSnapshotFilter((t, snapshot, g) -> {
       g.setColor(color);
       g.fill(g.getClip());
-    };
+    }, SnapshotFilter.none());
   }
 
   static Drawer clip(BoundingBox boundingBox, Drawer drawer) {
-    return (t, snapshot, g) -> {
+    return withSnapshotFilter((t, snapshot, g) -> {
       Shape shape = g.getClip();
       double clipX = shape.getBounds2D().getX();
       double clipY = shape.getBounds2D().getY();
@@ -63,7 +72,7 @@ public interface Drawer {
       drawer.draw(t, snapshot, g);
       //restore clip and transform
       g.setClip(shape);
-    };
+    }, drawer == null ? SnapshotFilter.none() : drawer.getSnapshotFilter());
   }
 
   static Drawer diagonals() {
@@ -71,12 +80,12 @@ public interface Drawer {
   }
 
   static Drawer diagonals(Color color) {
-    return (t, snapshot, g) -> {
+    return withSnapshotFilter((t, snapshot, g) -> {
       Rectangle2D r = (Rectangle2D) g.getClip();
       g.setColor(color);
       g.draw(new Line2D.Double(r.getX(), r.getY(), r.getMaxX(), r.getMaxY()));
       g.draw(new Line2D.Double(r.getX(), r.getMaxY(), r.getMaxX(), r.getY()));
-    };
+    }, SnapshotFilter.none());
   }
 
   static Drawer of(Drawer... drawers) {
@@ -84,7 +93,10 @@ public interface Drawer {
   }
 
   static Drawer of(List<Drawer> drawers) {
-    return (t, snapshot, g) -> drawers.forEach(d -> d.draw(t, snapshot, g));
+    return withSnapshotFilter(
+        (t, snapshot, g) -> drawers.forEach(d -> d.draw(t, snapshot, g)),
+        drawers.stream().map(Drawer::getSnapshotFilter).reduce(SnapshotFilter.none(), SnapshotFilter::or)
+    );
   }
 
   static Drawer text(String s) {
@@ -96,7 +108,7 @@ public interface Drawer {
   }
 
   static Drawer text(String s, DrawingUtils.Alignment alignment, Color color) {
-    return (t, snapshot, g) -> {
+    return withSnapshotFilter((t, snapshot, g) -> {
       g.setColor(color);
       g.drawString(
           s,
@@ -107,11 +119,11 @@ public interface Drawer {
           },
           g.getClipBounds().y + 1 + g.getFontMetrics().getMaxAscent()
       );
-    };
+    }, SnapshotFilter.none());
   }
 
   static Drawer transform(Framer framer, Drawer drawer) {
-    return (t, snapshot, g) -> {
+    return withSnapshotFilter((t, snapshot, g) -> {
       BoundingBox graphicsFrame = BoundingBox.of(
           g.getClip().getBounds2D().getX(),
           g.getClip().getBounds2D().getY(),
@@ -138,6 +150,20 @@ public interface Drawer {
       //restore transform
       g.setTransform(oAt);
       g.setStroke(oStroke);
+    }, framer.getSnapshotFilter().or(drawer.getSnapshotFilter()));
+  }
+
+  static Drawer withSnapshotFilter(Drawer drawer, SnapshotFilter snapshotFilter) {
+    return new Drawer() {
+      @Override
+      public void draw(double t, Snapshot snapshot, Graphics2D g) {
+        drawer.draw(t, snapshot, g);
+      }
+
+      @Override
+      public SnapshotFilter getSnapshotFilter() {
+        return snapshotFilter;
+      }
     };
   }
 
@@ -21,13 +21,13 @@ import it.units.erallab.hmsrobots.behavior.BehaviorUtils;
 import it.units.erallab.hmsrobots.behavior.Footprint;
 import it.units.erallab.hmsrobots.core.geometry.BoundingBox;
 import it.units.erallab.hmsrobots.core.snapshots.Snapshot;
+import it.units.erallab.hmsrobots.util.TimeWindow;
 import it.units.erallab.hmsrobots.viewers.DrawingUtils;
 
 import java.awt.*;
 import java.awt.geom.Line2D;
 import java.awt.geom.Rectangle2D;
 import java.util.Objects;
-import java.util.SortedMap;
 
 /**
  * @author "Eric Medvet" on 2021/09/22 for 2dhmsr
@@ -67,7 +67,7 @@ public class FootprintDrawer extends MemoryDrawer<Footprint> {
   }
 
   @Override
-  protected void innerDraw(double t, Snapshot snapshot, SortedMap<Double, Footprint> memory, Graphics2D g) {
+  protected void innerDraw(double t, Snapshot snapshot, TimeWindow<Footprint> memory, Graphics2D g) {
     //prepare clips
     double textH = g.getFontMetrics().getMaxAscent();
     BoundingBox oBB = BoundingBox.of(
@@ -84,7 +84,7 @@ public class FootprintDrawer extends MemoryDrawer<Footprint> {
     );
     //draw data
     g.setColor(touchColor);
-    double[] ts = memory.keySet().stream().mapToDouble(v -> v).toArray();
+    double[] ts = memory.times();
     Footprint[] footprints = memory.values().toArray(Footprint[]::new);
     double h = pBB.height() / (double) n;
     for (int i = 1; i < ts.length; i++) {
@@ -101,7 +101,7 @@ public class FootprintDrawer extends MemoryDrawer<Footprint> {
     //draw x-axis
     g.setColor(axesColor);
     g.draw(new Line2D.Double(pBB.min().x(), pBB.max().y(), pBB.max().x(), pBB.max().y()));
-    double maxT = memory.lastKey();
+    double maxT = memory.lastTime();
     for (double tickT = Math.ceil(maxT - windowT); tickT < maxT; tickT++) {
       g.setColor(axesColor);
       double x = (tickT - maxT + windowT) / windowT * (pBB.max().x() - pBB.min().x()) + pBB.min().x();
@@ -21,7 +21,9 @@ import it.units.erallab.hmsrobots.core.geometry.Point2;
 import it.units.erallab.hmsrobots.core.objects.Robot;
 import it.units.erallab.hmsrobots.core.objects.Voxel;
 import it.units.erallab.hmsrobots.core.snapshots.Snapshot;
+import it.units.erallab.hmsrobots.core.snapshots.SnapshotFilter;
 import it.units.erallab.hmsrobots.core.snapshots.VoxelPoly;
+import it.units.erallab.hmsrobots.util.TimeWindow;
 import it.units.erallab.hmsrobots.viewers.DrawingUtils;
 
 import java.awt.*;
@@ -36,7 +38,7 @@ public class InfoDrawer implements Drawer {
   private final String string;
   private final Set<RobotInfo> robotInfos;
   private final double windowT;
-  private final List<SortedMap<Double, Point2>> centerPositions;
+  private final List<TimeWindow<Point2>> centerPositions;
 
   public InfoDrawer(String string, Set<RobotInfo> robotInfos, double windowT) {
     this.string = string;
@@ -59,6 +61,15 @@ public class InfoDrawer implements Drawer {
 
   public enum RobotInfo {CENTER_POSITION, CENTER_VELOCITY}
 
+  @Override
+  public SnapshotFilter getSnapshotFilter() {
+    if (robotInfos.isEmpty()) {
+      return SnapshotFilter.none();
+    }
+    return SubtreeDrawer.Extractor.needing(null, Robot.class)
+        .or(SubtreeDrawer.Extractor.needing(VoxelPoly.class, Voxel.class));
+  }
+
   @Override
   public void draw(double t, Snapshot snapshot, Graphics2D g) {
     //prepare string
@@ -84,20 +95,16 @@ public class InfoDrawer implements Drawer {
       //add to maps
       for (int i = 0; i < currentCenterPositions.size(); i++) {
         if (centerPositions.size() <= i) {
-          centerPositions.add(new TreeMap<>());
+          centerPositions.add(new TimeWindow<>());
         }
-        centerPositions.get(i).put(t, currentCenterPositions.get(i));
+        centerPositions.get(i).add(t, currentCenterPositions.get(i));
       }
       //clean maps
-      centerPositions.forEach(m -> {
-        while (m.firstKey() < (t - windowT)) {
-          m.remove(m.firstKey());
-        }
-      });
+      centerPositions.forEach(m -> m.evictBefore(t - windowT));
       //print
       for (int i = 0; i < centerPositions.size(); i++) {
         Point2 currentPos = currentCenterPositions.get(i);
-        Point2 oldestPos = centerPositions.get(i).get(centerPositions.get(i).firstKey());
+        Point2 oldestPos = centerPositions.get(i).first();
         sb.append(String.format("robot %d:", i));
         if (robotInfos.contains(RobotInfo.CENTER_POSITION)) {
           sb.append(String.format(
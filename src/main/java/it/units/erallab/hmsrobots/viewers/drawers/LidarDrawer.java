@@ -20,6 +20,7 @@ import it.units.erallab.hmsrobots.core.geometry.Point2;
 import it.units.erallab.hmsrobots.core.objects.Voxel;
 import it.units.erallab.hmsrobots.core.snapshots.LidarReadings;
 import it.units.erallab.hmsrobots.core.snapshots.Snapshot;
+import it.units.erallab.hmsrobots.core.snapshots.SnapshotFilter;
 import it.units.erallab.hmsrobots.core.snapshots.VoxelPoly;
 import it.units.erallab.hmsrobots.viewers.DrawingUtils;
 
@@ -36,7 +37,7 @@ public class LidarDrawer extends SubtreeDrawer {
   private final Color strokeColor;
 
   public LidarDrawer(Color strokeColor) {
-    super(Extractor.matches(null, Voxel.class, null));
+    super(Extractor.matches(VoxelPoly.class, Voxel.class, null));
     this.strokeColor = strokeColor;
   }
 
@@ -45,6 +46,11 @@ public class LidarDrawer extends SubtreeDrawer {
   }
 
 
+  @Override
+  public SnapshotFilter getSnapshotFilter() {
+    return super.getSnapshotFilter().or(LIDAR_EXTRACTOR.getSnapshotFilter());
+  }
+
   @Override
   protected void innerDraw(double t, Snapshot snapshot, Graphics2D g) {
     List<Snapshot> lidarSnapshots = LIDAR_EXTRACTOR.extract(snapshot);
@@ -20,6 +20,7 @@ package it.units.erallab.hmsrobots.viewers.drawers;
 import it.units.erallab.hmsrobots.core.geometry.BoundingBox;
 import it.units.erallab.hmsrobots.core.snapshots.MLPState;
 import it.units.erallab.hmsrobots.core.snapshots.Snapshot;
+import it.units.erallab.hmsrobots.util.TimeWindow;
 import it.units.erallab.hmsrobots.viewers.DrawingUtils;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.math3.stat.descriptive.moment.Variance;
@@ -167,7 +168,7 @@ public class MLPDrawer extends MemoryDrawer<MLPState> {
 
   private void draw(
       double fT,
-      SortedMap<Double, MLPState> states,
+      TimeWindow<MLPState> states,
       Function<MLPState, double[][]> f,
       double min,
       double max,
@@ -180,7 +181,7 @@ public class MLPDrawer extends MemoryDrawer<MLPState> {
   private void draw(
       double fT,
       double vT,
-      SortedMap<Double, MLPState> states,
+      TimeWindow<MLPState> states,
       Function<MLPState, double[][]> f,
       double min,
       double max,
@@ -190,24 +191,25 @@ public class MLPDrawer extends MemoryDrawer<MLPState> {
     Variance variance = new Variance();
     double bbW = bb.max().x() - bb.min().x();
     double bbH = bb.max().y() - bb.min().y();
-    double deltaT = states.size() == 1 ? (1d / 10d) : ((states.lastKey() - states.firstKey()) / (states.size() - 1));
-    double[][] last = f.apply(states.get(states.lastKey()));
+    double deltaT = states.size() == 1 ? (1d / 10d) : ((states.lastTime() - states.firstTime()) / (states.size() - 1));
+    double[][] last = f.apply(states.last());
     double cellW = bbW * deltaT / windowT;
     double n = Arrays.stream(last).mapToInt(v -> v.length).sum();
     double cellH = bbH / n;
     double iT = fT - windowT;
-    states.forEach((t, state) -> {
+    for (int k = 0; k < states.size(); k++) {
+      double t = states.time(k);
+      MLPState state = states.value(k);
       double c = 0;
       double x = bb.min().x() + (t - iT) / windowT * bbW;
       if (x - 2 * cellW < bb.min().x()) {
-        return;
+        continue;
       }
       double[][] valuesToPlot = f.apply(state);
       if (vT > 0) {
-        List<double[][]> valuesList = states.keySet()
-            .stream()
-            .filter(t1 -> t1 <= t && t1 >= t - vT)
-            .map(t1 -> f.apply(states.get(t1)))
+        List<double[][]> valuesList = IntStream.range(0, states.size())
+            .filter(k1 -> states.time(k1) <= t && states.time(k1) >= t - vT)
+            .mapToObj(k1 -> f.apply(states.value(k1)))
             .toList();
         IntStream.range(0, valuesToPlot.length).forEach(i -> IntStream.range(0, valuesToPlot[i].length).forEach(j -> {
           variance.clear();
@@ -222,14 +224,14 @@ public class MLPDrawer extends MemoryDrawer<MLPState> {
           g.fill(new Rectangle2D.Double(x - 2 * cellW, y, 2 * cellW, cellH));
         }
       }
-    });
+    }
   }
 
   private void drawDoubleChannel(
       double fT,
       double vT1,
       double vT2,
-      SortedMap<Double, MLPState> states,
+      TimeWindow<MLPState> states,
       Function<MLPState, double[][]> f1,
       double min1,
       double max1,
@@ -242,24 +244,25 @@ public class MLPDrawer extends MemoryDrawer<MLPState> {
     Variance variance = new Variance();
     double bbW = bb.max().x() - bb.min().x();
     double bbH = bb.max().y() - bb.min().y();
-    double deltaT = states.size() == 1 ? (1d / 10d) : ((states.lastKey() - states.firstKey()) / (states.size() - 1));
-    double[][] last = f1.apply(states.get(states.lastKey()));
+    double deltaT = states.size() == 1 ? (1d / 10d) : ((states.lastTime() - states.firstTime()) / (states.size() - 1));
+    double[][] last = f1.apply(states.last());
     double cellW = bbW * deltaT / windowT;
     double n = Arrays.stream(last).mapToInt(v -> v.length).sum();
     double cellH = bbH / n;
     double iT = fT - windowT;
-    states.forEach((t, state) -> {
+    for (int k = 0; k < states.size(); k++) {
+      double t = states.time(k);
+      MLPState state = states.value(k);
       double c = 0;
       double x = bb.min().x() + (t - iT) / windowT * bbW;
       if (x - 2 * cellW < bb.min().x()) {
-        return;
+        continue;
       }
       double[][] valuesToPlot1 = f1.apply(state);
       if (vT1 > 0) {
-        List<double[][]> valuesList = states.keySet()
-            .stream()
-            .filter(t1 -> t1 <= t && t1 >= t - vT1)
-            .map(t1 -> f1.apply(states.get(t1)))
+        List<double[][]> valuesList = IntStream.range(0, states.size())
+            .filter(k1 -> states.time(k1) <= t && states.time(k1) >= t - vT1)
+            .mapToObj(k1 -> f1.apply(states.value(k1)))
             .toList();
         IntStream.range(0, valuesToPlot1.length).forEach(i -> IntStream.range(0, valuesToPlot1[i].length).forEach(j -> {
           variance.clear();
@@ -268,10 +271,9 @@ public class MLPDrawer extends MemoryDrawer<MLPState> {
       }
       double[][] valuesToPlot2 = f2.apply(state);
       if (vT2 > 0) {
-        List<double[][]> valuesList = states.keySet()
-            .stream()
-            .filter(t1 -> t1 <= t && t1 >= t - vT2)
-            .map(t1 -> f2.apply(states.get(t1)))
+        List<double[][]> valuesList = IntStream.range(0, states.size())
+            .filter(k1 -> states.time(k1) <= t && states.time(k1) >= t - vT2)
+            .mapToObj(k1 -> f2.apply(states.value(k1)))
             .toList();
         IntStream.range(0, valuesToPlot1.length).forEach(i -> IntStream.range(0, valuesToPlot2[i].length).forEach(j -> {
           variance.clear();
@@ -288,7 +290,7 @@ public class MLPDrawer extends MemoryDrawer<MLPState> {
           g.fill(new Rectangle2D.Double(x - 2 * cellW, y, 2 * cellW, cellH));
         }
       }
-    });
+    }
   }
 
   private void drawDoubleChannelLegend(
@@ -328,14 +330,14 @@ public class MLPDrawer extends MemoryDrawer<MLPState> {
   }
 
   private void drawHistogram(
-      SortedMap<Double, MLPState> states,
+      TimeWindow<MLPState> states,
       Function<MLPState, double[][]> f,
       double min,
       double max,
       BoundingBox bb,
       Graphics2D g
   ) {
-    double[][] values = f.apply(states.get(states.lastKey()));
+    double[][] values = f.apply(states.last());
     double binSize = (max - min) / N_OF_BINS;
     int[] nOfValuesPerBin = new int[N_OF_BINS];
     Arrays.stream(values)
@@ -436,8 +438,8 @@ public class MLPDrawer extends MemoryDrawer<MLPState> {
   }
 
   @Override
-  protected void innerDraw(double t, Snapshot snapshot, SortedMap<Double, MLPState> memory, Graphics2D g) {
-    MLPState current = memory.get(memory.lastKey());
+  protected void innerDraw(double t, Snapshot snapshot, TimeWindow<MLPState> memory, Graphics2D g) {
+    MLPState current = memory.last();
     //prepare clips
     double textH = g.getFontMetrics().getMaxAscent();
     double textW = g.getFontMetrics().charWidth('m');
@@ -469,7 +471,7 @@ public class MLPDrawer extends MemoryDrawer<MLPState> {
     if (parts.contains(Part.T_AXIS)) {
       g.setColor(axesColor);
       g.draw(new Line2D.Double(pBB.min().x(), pBB.max().y(), pBB.max().x(), pBB.max().y()));
-      double maxT = memory.lastKey();
+      double maxT = memory.lastTime();
       for (double tickT = Math.ceil(maxT - windowT); tickT < maxT; tickT++) {
         g.setColor(axesColor);
         double x = (tickT - maxT + windowT) / windowT * (pBB.max().x() - pBB.min().x()) + pBB.min().x();
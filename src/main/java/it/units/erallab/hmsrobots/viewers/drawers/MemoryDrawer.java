@@ -18,10 +18,9 @@
 package it.units.erallab.hmsrobots.viewers.drawers;
 
 import it.units.erallab.hmsrobots.core.snapshots.Snapshot;
+import it.units.erallab.hmsrobots.util.TimeWindow;
 
 import java.awt.*;
-import java.util.SortedMap;
-import java.util.TreeMap;
 import java.util.function.Function;
 
 /**
@@ -31,24 +30,22 @@ public abstract class MemoryDrawer<K> extends SubtreeDrawer {
 
   protected final double windowT;
   private final Function<Snapshot, K> function;
-  private final SortedMap<Double, K> memory;
+  private final TimeWindow<K> memory;
 
   public MemoryDrawer(Extractor extractor, Function<Snapshot, K> function, double windowT) {
     super(extractor);
     this.function = function;
     this.windowT = windowT;
-    memory = new TreeMap<>();
+    memory = new TimeWindow<>();
   }
 
-  protected abstract void innerDraw(double t, Snapshot snapshot, SortedMap<Double, K> memory, Graphics2D g);
+  protected abstract void innerDraw(double t, Snapshot snapshot, TimeWindow<K> memory, Graphics2D g);
 
   @Override
   protected void innerDraw(double t, Snapshot snapshot, Graphics2D g) {
     K currentReading = function.apply(snapshot);
-    memory.put(t, currentReading);
-    while (memory.firstKey() < (t - windowT)) {
-      memory.remove(memory.firstKey());
-    }
+    memory.add(t, currentReading);
+    memory.evictBefore(t - windowT);
     innerDraw(t, snapshot, memory, g);
   }
 }
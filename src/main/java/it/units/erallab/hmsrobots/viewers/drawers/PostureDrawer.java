@@ -21,12 +21,12 @@ import it.units.erallab.hmsrobots.behavior.BehaviorUtils;
 import it.units.erallab.hmsrobots.core.geometry.BoundingBox;
 import it.units.erallab.hmsrobots.core.snapshots.Snapshot;
 import it.units.erallab.hmsrobots.util.Grid;
+import it.units.erallab.hmsrobots.util.TimeWindow;
 import it.units.erallab.hmsrobots.viewers.DrawingUtils;
 
 import java.awt.*;
 import java.awt.geom.Rectangle2D;
 import java.util.Objects;
-import java.util.SortedMap;
 
 /**
  * @author "Eric Medvet" on 2021/09/22 for 2dhmsr
@@ -61,7 +61,7 @@ public class PostureDrawer extends MemoryDrawer<Grid<Boolean>> {
   }
 
   @Override
-  protected void innerDraw(double t, Snapshot snapshot, SortedMap<Double, Grid<Boolean>> memory, Graphics2D g) {
+  protected void innerDraw(double t, Snapshot snapshot, TimeWindow<Grid<Boolean>> memory, Graphics2D g) {
     //compute aggregate
     Grid<Double> average = Grid.create(
         n,
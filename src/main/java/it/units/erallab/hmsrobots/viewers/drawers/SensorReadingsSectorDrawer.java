@@ -20,6 +20,7 @@ import it.units.erallab.hmsrobots.core.geometry.Point2;
 import it.units.erallab.hmsrobots.core.objects.Voxel;
 import it.units.erallab.hmsrobots.core.snapshots.ScopedReadings;
 import it.units.erallab.hmsrobots.core.snapshots.Snapshot;
+import it.units.erallab.hmsrobots.core.snapshots.SnapshotFilter;
 import it.units.erallab.hmsrobots.core.snapshots.VoxelPoly;
 import it.units.erallab.hmsrobots.util.DoubleRange;
 import it.units.erallab.hmsrobots.viewers.DrawingUtils;
@@ -61,6 +62,11 @@ public class SensorReadingsSectorDrawer extends SubtreeDrawer {
     return sector;
   }
 
+  @Override
+  public SnapshotFilter getSnapshotFilter() {
+    return super.getSnapshotFilter().or(Extractor.needing(ScopedReadings.class, null));
+  }
+
   @Override
   protected void innerDraw(double t, Snapshot snapshot, Graphics2D g) {
     VoxelPoly voxelPoly = (VoxelPoly) snapshot.getContent();
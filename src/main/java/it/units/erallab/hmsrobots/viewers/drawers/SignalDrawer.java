@@ -19,12 +19,12 @@ package it.units.erallab.hmsrobots.viewers.drawers;
 
 import it.units.erallab.hmsrobots.core.geometry.BoundingBox;
 import it.units.erallab.hmsrobots.core.snapshots.Snapshot;
+import it.units.erallab.hmsrobots.util.TimeWindow;
 import it.units.erallab.hmsrobots.viewers.DrawingUtils;
 
 import java.awt.*;
 import java.awt.geom.Line2D;
 import java.util.Arrays;
-import java.util.SortedMap;
 import java.util.function.Function;
 
 /**
@@ -55,7 +55,7 @@ public class SignalDrawer extends MemoryDrawer<Double> {
   }
 
   @Override
-  protected void innerDraw(double t, Snapshot snapshot, SortedMap<Double, Double> memory, Graphics2D g) {
+  protected void innerDraw(double t, Snapshot snapshot, TimeWindow<Double> memory, Graphics2D g) {
     //prepare clips
     double textH = g.getFontMetrics().getMaxAscent();
     double textW = g.getFontMetrics().charWidth('m');
@@ -73,7 +73,7 @@ public class SignalDrawer extends MemoryDrawer<Double> {
     );
     //draw data
     g.setColor(signalColor);
-    double[] ts = memory.keySet().stream().mapToDouble(v -> v).toArray();
+    double[] ts = memory.times();
     double[] vs = memory.values().stream().mapToDouble(v -> v).toArray();
     double minV = Arrays.stream(vs).min().orElse(0d);
     double maxV = Arrays.stream(vs).max().orElse(0d);
@@ -87,7 +87,7 @@ public class SignalDrawer extends MemoryDrawer<Double> {
     //draw x-axis
     g.setColor(axesColor);
     g.draw(new Line2D.Double(pBB.min().x(), pBB.max().y(), pBB.max().x(), pBB.max().y()));
-    double maxT = memory.lastKey();
+    double maxT = memory.lastTime();
     for (double tickT = Math.ceil(maxT - windowT); tickT < maxT; tickT++) {
       g.setColor(axesColor);
       double x = (tickT - maxT + windowT) / windowT * (pBB.max().x() - pBB.min().x()) + pBB.min().x();
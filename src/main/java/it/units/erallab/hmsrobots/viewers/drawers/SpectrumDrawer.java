@@ -21,6 +21,7 @@ import it.units.erallab.hmsrobots.behavior.BehaviorUtils;
 import it.units.erallab.hmsrobots.core.geometry.BoundingBox;
 import it.units.erallab.hmsrobots.core.snapshots.Snapshot;
 import it.units.erallab.hmsrobots.util.DoubleRange;
+import it.units.erallab.hmsrobots.util.TimeWindow;
 import it.units.erallab.hmsrobots.viewers.DrawingUtils;
 
 import java.awt.*;
@@ -88,9 +89,14 @@ public class SpectrumDrawer extends MemoryDrawer<Double> {
   }
 
   @Override
-  protected void innerDraw(double t, Snapshot snapshot, SortedMap<Double, Double> memory, Graphics2D g) {
+  protected void innerDraw(double t, Snapshot snapshot, TimeWindow<Double> memory, Graphics2D g) {
     //compute spectrum
-    SortedMap<DoubleRange, Double> spectrum = BehaviorUtils.computeQuantizedSpectrum(memory, minF, maxF, nBins);
+    double[] signal = new double[memory.size()];
+    for (int i = 0; i < signal.length; i++) {
+      signal[i] = memory.value(i);
+    }
+    double dT = memory.size() > 1 ? (memory.lastTime() - memory.firstTime()) / (memory.size() - 1) : 0d;
+    SortedMap<DoubleRange, Double> spectrum = BehaviorUtils.computeQuantizedSpectrum(signal, dT, minF, maxF, nBins);
     double maxValue = spectrum.values().stream().mapToDouble(d -> d).max().orElse(0d);
     DoubleRange[] domains = spectrum.keySet().toArray(DoubleRange[]::new);
     double[] values = spectrum.values().stream().mapToDouble(d -> d).toArray();
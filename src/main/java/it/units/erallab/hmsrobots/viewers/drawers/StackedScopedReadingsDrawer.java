@@ -20,13 +20,12 @@ package it.units.erallab.hmsrobots.viewers.drawers;
 import it.units.erallab.hmsrobots.core.snapshots.ScopedReadings;
 import it.units.erallab.hmsrobots.core.snapshots.Snapshot;
 import it.units.erallab.hmsrobots.core.snapshots.StackedScopedReadings;
+import it.units.erallab.hmsrobots.util.TimeWindow;
 import it.units.erallab.hmsrobots.viewers.DrawingUtils;
 
 import java.awt.*;
 import java.awt.geom.Rectangle2D;
 import java.util.Arrays;
-import java.util.Map;
-import java.util.SortedMap;
 
 /**
  * @author "Eric Medvet" on 2021/09/07 for 2dhmsr
@@ -50,23 +49,23 @@ public class StackedScopedReadingsDrawer extends MemoryDrawer<StackedScopedReadi
   protected void innerDraw(
       double t,
       Snapshot snapshot,
-      SortedMap<Double, StackedScopedReadings> memory,
+      TimeWindow<StackedScopedReadings> memory,
       Graphics2D g
   ) { //TODO rewrite like MLPState
-    StackedScopedReadings currentReading = memory.get(memory.lastKey());
+    StackedScopedReadings currentReading = memory.last();
     //plot
     double clipX = g.getClip().getBounds2D().getX();
     double clipY = g.getClip().getBounds2D().getY();
     double clipW = g.getClip().getBounds2D().getWidth();
     double clipH = g.getClip().getBounds2D().getHeight();
-    double deltaT = memory.size() == 1 ? (1d / 60d) : ((memory.lastKey() - memory.firstKey()) / (memory.size() - 1));
+    double deltaT = memory.size() == 1 ? (1d / 60d) : ((memory.lastTime() - memory.firstTime()) / (memory.size() - 1));
     double n = Arrays.stream(currentReading.getScopedReadings()).mapToInt(r -> r.getReadings().length).sum();
     double cellW = clipW * deltaT / windowT;
     double cellH = clipH / n;
-    for (Map.Entry<Double, StackedScopedReadings> entry : memory.entrySet()) {
-      double x = 1d - (t - entry.getKey()) / windowT;
+    for (int k = 0; k < memory.size(); k++) {
+      double x = 1d - (t - memory.time(k)) / windowT;
       double c = 0;
-      for (ScopedReadings scopedReadings : entry.getValue().getScopedReadings()) {
+      for (ScopedReadings scopedReadings : memory.value(k).getScopedReadings()) {
         for (int i = 0; i < scopedReadings.getReadings().length; i++) {
           double v = scopedReadings.getDomains()[i].normalize(scopedReadings.getReadings()[i]);
           double y = c / (n + currentReading.getScopedReadings().length - 1);
@@ -17,12 +17,20 @@
 
 package it.units.erallab.hmsrobots.viewers.drawers;
 
-import it.units.erallab.hmsrobots.core.snapshots.Snapshot;
-import it.units.erallab.hmsrobots.core.snapshots.Snapshottable;
+import it.units.erallab.hmsrobots.core.controllers.Controller;
+import it.units.erallab.hmsrobots.core.controllers.DistributedSensing;
+import it.units.erallab.hmsrobots.core.controllers.StepController;
+import it.units.erallab.hmsrobots.core.controllers.TimedRealFunction;
+import it.units.erallab.hmsrobots.core.objects.Robot;
+import it.units.erallab.hmsrobots.core.objects.Voxel;
+import it.units.erallab.hmsrobots.core.sensors.Sensor;
+import it.units.erallab.hmsrobots.core.snapshots.*;
 
 import java.awt.*;
 import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * @author "Eric Medvet" on 2021/08/29 for 2dhmsr
@@ -35,10 +43,74 @@ public abstract class SubtreeDrawer implements Drawer {
     this.extractor = extractor;
   }
 
+  //the kinds of snapshottables, for telling which subtrees may contain a given node
+  private enum Kind {
+    ROBOT, VOXEL, SENSOR, CONTROLLER, OTHER, ANY;
+
+    private static Kind ofContent(Class<?> contentClass) {
+      if (RobotShape.class.isAssignableFrom(contentClass)) {
+        return ROBOT;
+      }
+      if (VoxelPoly.class.isAssignableFrom(contentClass)) {
+        return VOXEL;
+      }
+      if (ScopedReadings.class.isAssignableFrom(contentClass)) {
+        return SENSOR;
+      }
+      if (MLPState.class.isAssignableFrom(contentClass)
+          || StackedScopedReadings.class.isAssignableFrom(contentClass)
+          || DistributedSensing.DistributedSensingState.class.isAssignableFrom(contentClass)
+          || StepController.StepControllerState.class.isAssignableFrom(contentClass)) {
+        return CONTROLLER;
+      }
+      return ANY;
+    }
+
+    private static Kind ofSnapshottable(Class<?> snapshottableClass) {
+      if (Robot.class.isAssignableFrom(snapshottableClass)) {
+        return ROBOT;
+      }
+      if (Voxel.class.isAssignableFrom(snapshottableClass)) {
+        return VOXEL;
+      }
+      if (Sensor.class.isAssignableFrom(snapshottableClass)) {
+        return SENSOR;
+      }
+      if (Controller.class.isAssignableFrom(snapshottableClass)
+          || TimedRealFunction.class.isAssignableFrom(snapshottableClass)) {
+        return CONTROLLER;
+      }
+      if (snapshottableClass.isAssignableFrom(Robot.class)
+          || snapshottableClass.isAssignableFrom(Voxel.class)
+          || snapshottableClass.isAssignableFrom(Sensor.class)) {
+        return ANY;
+      }
+      return OTHER;
+    }
+
+    private Set<Kind> contained(Class<?> contentClass) {
+      return switch (this) {
+        case ROBOT -> EnumSet.of(VOXEL, SENSOR, CONTROLLER);
+        case VOXEL -> (contentClass == null || VoxelPoly.class.isAssignableFrom(contentClass)) ?
+            EnumSet.of(VOXEL, SENSOR) : EnumSet.noneOf(Kind.class);
+        case SENSOR -> EnumSet.of(SENSOR);
+        case CONTROLLER -> EnumSet.of(CONTROLLER);
+        case OTHER, ANY -> EnumSet.noneOf(Kind.class);
+      };
+    }
+  }
+
   @FunctionalInterface
   public interface Extractor {
     List<Snapshot> extract(Snapshot snapshot);
 
+    /**
+     * Tells which subtrees have to be built for this extractor to find its snapshots: by default, all.
+     */
+    default SnapshotFilter getSnapshotFilter() {
+      return SnapshotFilter.all();
+    }
+
     private static void extract(
         List<Snapshot> snapshots,
         Snapshot s,
@@ -59,13 +131,49 @@ public abstract class SubtreeDrawer implements Drawer {
     }
 
     static Extractor matches(Class<?> contentClass, Class<? extends Snapshottable> snapshottableClass, Integer index) {
-      return snapshot -> {
-        List<Snapshot> snapshots = new ArrayList<>();
-        if (matches(snapshot, 0, contentClass, snapshottableClass, index)) {
-          snapshots.add(snapshot);
+      SnapshotFilter filter = needing(contentClass, snapshottableClass);
+      return new Extractor() {
+        @Override
+        public List<Snapshot> extract(Snapshot snapshot) {
+          List<Snapshot> snapshots = new ArrayList<>();
+          if (matches(snapshot, 0, contentClass, snapshottableClass, index)) {
+            snapshots.add(snapshot);
+          }
+          Extractor.extract(snapshots, snapshot, contentClass, snapshottableClass, index);
+          return snapshots;
+        }
+
+        @Override
+        public SnapshotFilter getSnapshotFilter() {
+          return filter;
         }
-        extract(snapshots, snapshot, contentClass, snapshottableClass, index);
-        return snapshots;
+      };
+    }
+
+    /**
+     * Returns a filter including the subtrees whose root matches the given classes (as in
+     * {@link #matches(Class, Class, Integer)}) and those which may contain such roots, e.g., robots for voxels and
+     * voxels for sensors. The subtrees below a matching root are included only if they match too.
+     */
+    static SnapshotFilter needing(Class<?> contentClass, Class<? extends Snapshottable> snapshottableClass) {
+      if (contentClass == null && snapshottableClass == null) {
+        return SnapshotFilter.all();
+      }
+      Kind contentKind = contentClass == null ? Kind.ANY : Kind.ofContent(contentClass);
+      Kind neededKind = snapshottableClass == null ? contentKind : Kind.ofSnapshottable(snapshottableClass);
+      return (sClass, cClass) -> {
+        Kind kind = Kind.ofSnapshottable(sClass);
+        boolean rootMatches = (snapshottableClass == null || snapshottableClass.isAssignableFrom(sClass))
+            && (contentClass == null || (cClass == null ?
+            (kind == contentKind || kind == Kind.ANY || contentKind == Kind.ANY) :
+            contentClass.isAssignableFrom(cClass)));
+        if (rootMatches) {
+          return true;
+        }
+        if (neededKind == Kind.ANY) {
+          return kind == Kind.OTHER || !kind.contained(cClass).isEmpty();
+        }
+        return kind.contained(cClass).contains(neededKind);
       };
     }
 
@@ -86,6 +194,11 @@ public abstract class SubtreeDrawer implements Drawer {
 
   protected abstract void innerDraw(double t, Snapshot snapshot, Graphics2D g);
 
+  @Override
+  public SnapshotFilter getSnapshotFilter() {
+    return extractor.getSnapshotFilter();
+  }
+
   @Override
   public void draw(double t, Snapshot snapshot, Graphics2D g) {
     extractor.extract(snapshot).forEach(s -> innerDraw(t, s, g));
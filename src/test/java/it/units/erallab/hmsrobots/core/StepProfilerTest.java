@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2021 Eric Medvet <eric.medvet@gmail.com> (as Eric Medvet <eric.medvet@gmail.com>)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.units.erallab.hmsrobots.core;
+
+import it.units.erallab.hmsrobots.core.controllers.AbstractController;
+import it.units.erallab.hmsrobots.core.controllers.PhaseSin;
+import it.units.erallab.hmsrobots.core.objects.Robot;
+import it.units.erallab.hmsrobots.core.objects.Voxel;
+import it.units.erallab.hmsrobots.tasks.locomotion.Locomotion;
+import it.units.erallab.hmsrobots.util.Grid;
+import it.units.erallab.hmsrobots.util.RobotUtils;
+import org.dyn4j.dynamics.Settings;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StepProfilerTest {
+
+  private static Locomotion buildLocomotion() {
+    return new Locomotion(1d, Locomotion.createTerrain("flat"), new Settings());
+  }
+
+  private static Grid<Voxel> buildBody() {
+    return RobotUtils.buildSensorizingFunction("uniform-t+a-0").apply(RobotUtils.buildShape("worm-4x1"));
+  }
+
+  @Test
+  public void testMetricsAreUpdatedInPlace() {
+    Grid<Voxel> body = buildBody();
+    List<StepProfiler.Metrics> allMetrics = new ArrayList<>();
+    List<Long> nOfSteps = new ArrayList<>();
+    buildLocomotion().apply(
+        new Robot(new PhaseSin(1d, 1d, Grid.create(body.getW(), body.getH(), 0d)), body),
+        (StepMetricsListener) (t, metrics) -> {
+          allMetrics.add(metrics);
+          nOfSteps.add(metrics.nOfSteps());
+        }
+    );
+    assertTrue(allMetrics.size() > 1);
+    assertTrue(allMetrics.stream().allMatch(m -> m == allMetrics.get(0)));
+    for (int i = 0; i < nOfSteps.size(); i++) {
+      assertEquals(i + 1, nOfSteps.get(i));
+    }
+    StepProfiler.Metrics metrics = allMetrics.get(0);
+    assertEquals(nOfSteps.size(), metrics.phases().get(StepProfiler.Phase.ACT).count());
+    assertEquals(nOfSteps.size(), metrics.controllers().get(PhaseSin.class).count());
+    assertFalse(metrics.sensors().isEmpty());
+  }
+
+  @Test
+  public void testCurrentIsReleasedWhenStepFails() {
+    Grid<Voxel> body = buildBody();
+    AbstractController failingController = new AbstractController() {
+      @Override
+      public Grid<Double> computeControlSignals(double t, Grid<Voxel> voxels) {
+        throw new IllegalStateException("failing on purpose");
+      }
+
+      @Override
+      public void reset() {
+      }
+    };
+    assertThrows(
+        IllegalStateException.class,
+        () -> buildLocomotion().apply(new Robot(failingController, body), (StepMetricsListener) (t, metrics) -> {
+        })
+    );
+    assertNull(StepProfiler.current());
+  }
+
+}
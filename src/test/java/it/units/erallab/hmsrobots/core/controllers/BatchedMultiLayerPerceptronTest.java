@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2021 Eric Medvet <eric.medvet@gmail.com> (as Eric Medvet <eric.medvet@gmail.com>)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.units.erallab.hmsrobots.core.controllers;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.*;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BatchedMultiLayerPerceptronTest {
+
+  private static List<MultiLayerPerceptron> buildMlps(int n, Random random) {
+    return IntStream.range(0, n).mapToObj(i -> {
+      MultiLayerPerceptron mlp = new MultiLayerPerceptron(
+          MultiLayerPerceptron.ActivationFunction.TANH,
+          4,
+          new int[]{5, 3},
+          2
+      );
+      mlp.setParams(random.doubles(mlp.getParams().length, -1, 1).toArray());
+      return mlp;
+    }).toList();
+  }
+
+  @Test
+  public void testApplyIsIdenticalToIndependentMlps() {
+    Random random = new Random(1);
+    List<MultiLayerPerceptron> mlps = buildMlps(7, random);
+    BatchedMultiLayerPerceptron batch = new BatchedMultiLayerPerceptron(mlps);
+    for (int s = 0; s < 10; s++) {
+      double[][] inputs = new double[mlps.size()][];
+      for (int m = 0; m < mlps.size(); m++) {
+        inputs[m] = random.doubles(4, -3, 3).toArray();
+      }
+      double[][] outputs = batch.apply(inputs);
+      for (int m = 0; m < mlps.size(); m++) {
+        assertArrayEquals(mlps.get(m).apply(inputs[m]), outputs[m]);
+      }
+    }
+  }
+
+  @Test
+  public void testMembersGoOnWhenOneLeaves() throws Exception {
+    Random random = new Random(2);
+    List<MultiLayerPerceptron> mlps = buildMlps(3, random);
+    List<BatchedMultiLayerPerceptron.Member> members = new BatchedMultiLayerPerceptron(mlps).members();
+    double[] input = random.doubles(4, -1, 1).toArray();
+    ExecutorService executor = Executors.newFixedThreadPool(members.size());
+    try {
+      List<Future<double[]>> futures = new ArrayList<>();
+      for (BatchedMultiLayerPerceptron.Member member : members) {
+        int nOfSteps = member.getIndex() == 0 ? 2 : 10;
+        futures.add(executor.submit(() -> {
+          double[] output = null;
+          try {
+            for (int s = 0; s < nOfSteps; s++) {
+              output = member.apply(s, input);
+            }
+          } finally {
+            member.leave();
+          }
+          return output;
+        }));
+      }
+      for (int m = 0; m < members.size(); m++) {
+        assertArrayEquals(mlps.get(m).apply(input), futures.get(m).get(5, TimeUnit.SECONDS));
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    assertThrows(IllegalStateException.class, () -> members.get(1).apply(0, input));
+  }
+
+  @Test
+  public void testGroupsGoOnIndependently() throws Exception {
+    Random random = new Random(4);
+    List<MultiLayerPerceptron> mlps = buildMlps(5, random);
+    BatchedMultiLayerPerceptron batch = new BatchedMultiLayerPerceptron(mlps);
+    List<BatchedMultiLayerPerceptron.Member> members = batch.members(2);
+    assertSame(members, batch.members(2));
+    assertEquals(List.of(2, 2, 2, 2, 1), members.stream().map(BatchedMultiLayerPerceptron.Member::getGroupSize).toList());
+    assertEquals(
+        List.of(3, 3, 3, 2, 2),
+        batch.members(3).stream().map(BatchedMultiLayerPerceptron.Member::getGroupSize).toList()
+    );
+    double[] input = random.doubles(4, -1, 1).toArray();
+    //one thread per group at a time: members of the second group never wait for the ones of the first group
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      for (int from = 0; from < members.size(); from = from + 2) {
+        List<Future<double[]>> futures = new ArrayList<>();
+        for (int m = from; m < Math.min(from + 2, members.size()); m++) {
+          BatchedMultiLayerPerceptron.Member member = members.get(m);
+          futures.add(executor.submit(() -> {
+            try {
+              return member.apply(0, input);
+            } finally {
+              member.leave();
+            }
+          }));
+        }
+        for (int m = from; m < Math.min(from + 2, members.size()); m++) {
+          assertArrayEquals(mlps.get(m).apply(input), futures.get(m - from).get(5, TimeUnit.SECONDS));
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testMembersRejoinAfterReset() throws Exception {
+    Random random = new Random(5);
+    List<MultiLayerPerceptron> mlps = buildMlps(3, random);
+    List<BatchedMultiLayerPerceptron.Member> members = new BatchedMultiLayerPerceptron(mlps).members();
+    ExecutorService executor = Executors.newFixedThreadPool(members.size());
+    try {
+      for (int episode = 0; episode < 3; episode++) {
+        double[] input = random.doubles(4, -1, 1).toArray();
+        List<Future<double[]>> futures = new ArrayList<>();
+        for (BatchedMultiLayerPerceptron.Member member : members) {
+          //members of later episodes start one after the other, not all together
+          int nOfSteps = 5 + member.getIndex() * episode;
+          futures.add(executor.submit(() -> {
+            member.reset();
+            double[] output = null;
+            try {
+              for (int s = 0; s < nOfSteps; s++) {
+                double[] newOutput = member.apply(s, input);
+                if (output != null) {
+                  assertSame(output, newOutput);
+                }
+                output = newOutput;
+              }
+            } finally {
+              member.leave();
+            }
+            return output.clone();
+          }));
+        }
+        for (int m = 0; m < members.size(); m++) {
+          assertArrayEquals(mlps.get(m).apply(input), futures.get(m).get(5, TimeUnit.SECONDS));
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testInterruptedMemberDoesNotBlockOthers() throws Exception {
+    Random random = new Random(3);
+    List<MultiLayerPerceptron> mlps = buildMlps(2, random);
+    List<BatchedMultiLayerPerceptron.Member> members = new BatchedMultiLayerPerceptron(mlps).members();
+    double[] input = random.doubles(4, -1, 1).toArray();
+    CountDownLatch latch = new CountDownLatch(1);
+    Thread thread = new Thread(() -> {
+      latch.countDown();
+      members.get(0).apply(0, input); //waits for the other member, which is not running yet
+      assertTrue(Thread.currentThread().isInterrupted());
+      members.get(0).leave();
+    });
+    thread.start();
+    latch.await();
+    thread.interrupt();
+    thread.join(5000);
+    assertFalse(thread.isAlive());
+    assertArrayEquals(mlps.get(1).apply(input), members.get(1).apply(0, input));
+    members.get(1).leave();
+    assertThrows(IllegalStateException.class, () -> members.get(1).apply(0, input));
+  }
+
+}
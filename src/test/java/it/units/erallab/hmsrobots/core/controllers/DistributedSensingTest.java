@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2021 Eric Medvet <eric.medvet@gmail.com> (as Eric Medvet <eric.medvet@gmail.com>)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.units.erallab.hmsrobots.core.controllers;
+
+import it.units.erallab.hmsrobots.core.objects.Robot;
+import it.units.erallab.hmsrobots.core.objects.Voxel;
+import it.units.erallab.hmsrobots.tasks.PhysicsBackend;
+import it.units.erallab.hmsrobots.tasks.locomotion.Locomotion;
+import it.units.erallab.hmsrobots.tasks.locomotion.Outcome;
+import it.units.erallab.hmsrobots.util.Grid;
+import it.units.erallab.hmsrobots.util.RobotUtils;
+import org.apache.commons.lang3.ArrayUtils;
+import org.dyn4j.dynamics.Settings;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class DistributedSensingTest {
+
+  private static final int SIGNALS = 2;
+
+  //the straightforward per-voxel computation, as DistributedSensing used to do it
+  private static class PerVoxelDistributedSensing extends AbstractController {
+    private final int signals;
+    private final boolean directional;
+    private final Grid<TimedRealFunction> functions;
+    private final Grid<double[]> lastSignalsGrid;
+    private final Grid<double[]> currentSignalsGrid;
+    private final Grid<Double> controlSignalsGrid;
+
+    private PerVoxelDistributedSensing(int signals, boolean directional, Grid<TimedRealFunction> functions) {
+      this.signals = signals;
+      this.directional = directional;
+      this.functions = functions;
+      lastSignalsGrid = Grid.create(functions, f -> new double[signals * DistributedSensing.Dir.values().length]);
+      currentSignalsGrid = Grid.create(functions, f -> new double[signals * DistributedSensing.Dir.values().length]);
+      controlSignalsGrid = Grid.create(functions, f -> 0d);
+    }
+
+    @Override
+    public Grid<Double> computeControlSignals(double t, Grid<Voxel> voxels) {
+      for (Grid.Entry<Voxel> entry : voxels) {
+        if (entry.value() != null) {
+          int x = entry.key().x();
+          int y = entry.key().y();
+          double[] inputs = ArrayUtils.addAll(entry.value().getSensorReadings(), getLastSignals(x, y));
+          TimedRealFunction function = functions.get(x, y);
+          double[] outputs = function != null ? function.apply(t, inputs) :
+              new double[1 + (directional ? signals * DistributedSensing.Dir.values().length : signals)];
+          controlSignalsGrid.set(x, y, outputs[0]);
+          System.arraycopy(outputs, 1, currentSignalsGrid.get(x, y), 0, outputs.length - 1);
+        }
+      }
+      for (Grid.Entry<Voxel> entry : voxels) {
+        if (entry.value() != null) {
+          double[] current = currentSignalsGrid.get(entry.key().x(), entry.key().y());
+          System.arraycopy(current, 0, lastSignalsGrid.get(entry.key().x(), entry.key().y()), 0, current.length);
+        }
+      }
+      return Grid.copy(controlSignalsGrid);
+    }
+
+    private double[] getLastSignals(int x, int y) {
+      double[] values = new double[signals * DistributedSensing.Dir.values().length];
+      int c = 0;
+      for (DistributedSensing.Dir dir : DistributedSensing.Dir.values()) {
+        double[] lastSignals = lastSignalsGrid.get(x + dir.dx, y + dir.dy);
+        if (lastSignals != null) {
+          //the adjacent voxel sends its signals along the opposite direction
+          int index = directional ? (dir.ordinal() + 2) % DistributedSensing.Dir.values().length : 0;
+          System.arraycopy(lastSignals, index * signals, values, c, signals);
+        }
+        c = c + signals;
+      }
+      return values;
+    }
+
+    @Override
+    public void reset() {
+      lastSignalsGrid.values().forEach(a -> Arrays.fill(a, 0d));
+      currentSignalsGrid.values().forEach(a -> Arrays.fill(a, 0d));
+    }
+  }
+
+  //a 5x4 body with a hole inside and missing corners
+  private static Grid<Voxel> buildBody() {
+    return RobotUtils.buildSensorizingFunction("uniform-a+vxy+t-0").apply(Grid.create(
+        5,
+        4,
+        (x, y) -> !((x == 2 && y == 1) || (x == 0 && y == 3) || (x == 4 && y == 3) || (x == 3 && y == 0))
+    ));
+  }
+
+  //a shared MLP, evaluated in batch, a few other functions evaluated voxel by voxel, and a voxel without function
+  private static Grid<TimedRealFunction> buildFunctions(Grid<Voxel> body, int nOfOutputs, Random random) {
+    int nOfInputs = DistributedSensing.nOfInputs(body.get(0, 0), SIGNALS);
+    MultiLayerPerceptron sharedMlp = new MultiLayerPerceptron(
+        MultiLayerPerceptron.ActivationFunction.TANH,
+        nOfInputs,
+        new int[]{6},
+        nOfOutputs
+    );
+    sharedMlp.setParams(random.doubles(sharedMlp.getParams().length, -1, 1).toArray());
+    MultiLayerPerceptron ownMlp = new MultiLayerPerceptron(
+        MultiLayerPerceptron.ActivationFunction.SIGMOID,
+        nOfInputs,
+        new int[]{4},
+        nOfOutputs
+    );
+    ownMlp.setParams(random.doubles(ownMlp.getParams().length, -1, 1).toArray());
+    return Grid.create(body.getW(), body.getH(), (x, y) -> {
+      if (body.get(x, y) == null || (x == 1 && y == 2)) {
+        return null;
+      }
+      if (x == 4 && y == 0) {
+        return new DistributedSensing.FunctionWrapper(ownMlp);
+      }
+      if (x == 0) {
+        return (TimedRealFunction) RealFunction.build(
+            in -> {
+              double[] out = new double[nOfOutputs];
+              for (int i = 0; i < out.length; i++) {
+                out[i] = Math.sin(in[i % in.length] + in[in.length - 1 - i % in.length]);
+              }
+              return out;
+            },
+            nOfInputs,
+            nOfOutputs
+        );
+      }
+      return sharedMlp;
+    });
+  }
+
+  private static Outcome run(Controller controller) {
+    double[][] terrain = Locomotion.createTerrain("flat");
+    return new Locomotion(
+        5d,
+        terrain,
+        terrain[0][1] + Locomotion.INITIAL_PLACEMENT_X_GAP,
+        new Settings(),
+        false,
+        PhysicsBackend.DYN4J
+    ).apply(new Robot(controller, buildBody()));
+  }
+
+  private static void assertSameAsPerVoxel(boolean directional) {
+    int nOfOutputs = 1 + SIGNALS * (directional ? DistributedSensing.Dir.values().length : 1);
+    Grid<TimedRealFunction> functions = buildFunctions(buildBody(), nOfOutputs, new Random(1));
+    Grid<Integer> nOfInputGrid = Grid.create(buildBody(), v -> v == null ? 0 : DistributedSensing.nOfInputs(v, SIGNALS));
+    Grid<Integer> nOfOutputGrid = Grid.create(buildBody(), v -> v == null ? 0 : nOfOutputs);
+    DistributedSensing controller = directional ?
+        new DistributedSensing(SIGNALS, nOfInputGrid, nOfOutputGrid, functions) :
+        new DistributedSensingNonDirectional(SIGNALS, nOfInputGrid, nOfOutputGrid, functions);
+    PerVoxelDistributedSensing reference = new PerVoxelDistributedSensing(SIGNALS, directional, functions);
+    //the same voxels are fed to both the controllers, step by step
+    run(new Controller() {
+      @Override
+      public void control(double t, Grid<Voxel> voxels) {
+        Grid<Double> referenceSignals = reference.computeControlSignals(t, voxels);
+        Grid<Double> signals = controller.computeControlSignals(t, voxels);
+        for (Grid.Entry<Voxel> entry : voxels) {
+          if (entry.value() != null) {
+            int x = entry.key().x();
+            int y = entry.key().y();
+            String message = String.format("Different signals at t=%.3f in %d,%d", t, x, y);
+            assertEquals(referenceSignals.get(x, y), signals.get(x, y), 0d, message);
+            assertArrayEquals(reference.getLastSignals(x, y), controller.getLastSignals(x, y), 0d, message);
+            entry.value().applyForce(signals.get(x, y));
+          }
+        }
+      }
+
+      @Override
+      public void reset() {
+        controller.reset();
+        reference.reset();
+      }
+    });
+    //whole episodes are identical too
+    assertEquals(
+        run(new PerVoxelDistributedSensing(SIGNALS, directional, functions)).getDistance(),
+        run(controller).getDistance(),
+        0d
+    );
+  }
+
+  @Test
+  public void testDirectionalIsSameAsPerVoxel() {
+    assertSameAsPerVoxel(true);
+  }
+
+  @Test
+  public void testNonDirectionalIsSameAsPerVoxel() {
+    assertSameAsPerVoxel(false);
+  }
+
+}
@@ -16,9 +16,13 @@
  */
 package it.units.erallab.hmsrobots.core.controllers;
 
+import it.units.erallab.hmsrobots.util.SerializationUtils;
 import org.junit.jupiter.api.Test;
 
+import java.util.Random;
+
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 
 /**
  * @author eric
@@ -64,6 +68,97 @@ public class MultiLayerPerceptronTest {
     assertArrayEquals(expResult, result);
   }
 
+  /**
+   * Test of apply method with output buffer, of class MultiLayerPerceptron.
+   */
+  @Test
+  public void testApplyWithOutput() {
+    System.out.println("apply with output");
+    double[] weights = new double[]{1, 0, 1, 2, 1, -1, 1};
+    MultiLayerPerceptron instance = new MultiLayerPerceptron(
+        MultiLayerPerceptron.ActivationFunction.RELU,
+        1,
+        new int[]{2},
+        1
+    );
+    instance.setParams(weights);
+    double[] output = new double[1];
+    double[] result = instance.apply(new double[]{2});
+    instance.apply(new double[]{3}, output);
+    assertArrayEquals(new double[]{5}, result);
+    assertArrayEquals(new double[]{7}, output);
+    assertArrayEquals(new double[]{1, 7}, instance.getActivationValues()[1]);
+  }
+
+  /**
+   * Test of apply method with many inputs, of class MultiLayerPerceptron.
+   */
+  @Test
+  public void testApplyBatch() {
+    System.out.println("apply batch");
+    MultiLayerPerceptron instance = new MultiLayerPerceptron(
+        MultiLayerPerceptron.ActivationFunction.TANH,
+        3,
+        new int[]{4},
+        2
+    );
+    Random random = new Random(1);
+    instance.setParams(random.doubles(instance.getParams().length, -1, 1).toArray());
+    double[][] inputs = new double[5][];
+    double[][] outputs = new double[5][2];
+    double[][] expResults = new double[5][];
+    for (int m = 0; m < inputs.length; m++) {
+      inputs[m] = random.doubles(3, -2, 2).toArray();
+      expResults[m] = instance.apply(inputs[m]);
+    }
+    double[] expLastHidden = instance.getActivationValues()[1].clone();
+    instance.apply(inputs[0]);
+    instance.apply(inputs, outputs, inputs.length);
+    assertArrayEquals(expResults, outputs);
+    assertArrayEquals(expLastHidden, instance.getActivationValues()[1]);
+  }
+
+  /**
+   * Test of apply method after changing the weights returned by getWeights, of class MultiLayerPerceptron.
+   */
+  @Test
+  public void testApplyAfterWeightsChange() {
+    System.out.println("apply after weights change");
+    MultiLayerPerceptron instance = new MultiLayerPerceptron(
+        MultiLayerPerceptron.ActivationFunction.RELU,
+        1,
+        new int[]{2},
+        1
+    );
+    instance.setParams(new double[]{1, 0, 1, 2, 1, -1, 1});
+    assertArrayEquals(new double[]{5}, instance.apply(new double[]{2}));
+    instance.getWeights()[1][0][0] = 2;
+    assertArrayEquals(new double[]{5}, instance.apply(new double[]{2}));
+    instance.invalidate();
+    assertArrayEquals(new double[]{6}, instance.apply(new double[]{2}));
+    double[][] outputs = new double[1][1];
+    instance.apply(new double[][]{new double[]{2}}, outputs, 1);
+    assertArrayEquals(new double[]{6}, outputs[0]);
+  }
+
+  /**
+   * Test of apply method after a clone through Java serialization, of class MultiLayerPerceptron.
+   */
+  @Test
+  public void testApplyAfterClone() {
+    System.out.println("apply after clone");
+    MultiLayerPerceptron instance = new MultiLayerPerceptron(
+        MultiLayerPerceptron.ActivationFunction.TANH,
+        3,
+        new int[]{4},
+        2
+    );
+    instance.setParams(new Random(1).doubles(instance.getParams().length, -1, 1).toArray());
+    MultiLayerPerceptron clone = SerializationUtils.clone(instance, SerializationUtils.Mode.JAVA);
+    double[] input = new double[]{0.5, -0.1, 0.3};
+    assertArrayEquals(instance.apply(input), clone.apply(input));
+  }
+
   /**
    * Test of flat method, of class MultiLayerPerceptron.
    */
@@ -94,4 +189,15 @@ public class MultiLayerPerceptronTest {
     assertArrayEquals(expResult, result);
   }
 
+  /**
+   * Test of the composition of activation functions, as {@link java.util.function.Function}s.
+   */
+  @Test
+  public void testActivationFunctionComposition() {
+    MultiLayerPerceptron.ActivationFunction f = MultiLayerPerceptron.ActivationFunction.TANH;
+    assertEquals(2d * Math.tanh(1d), f.andThen(x -> 2d * x).apply(1d), 1e-12);
+    assertEquals(Math.tanh(2d), f.compose((Double x) -> 2d * x).apply(1d), 1e-12);
+    assertEquals(f.apply(0.5d), f.getOperator().applyAsDouble(0.5d));
+  }
+
 }
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2021 Eric Medvet <eric.medvet@gmail.com> (as Eric Medvet <eric.medvet@gmail.com>)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.units.erallab.hmsrobots.core.controllers;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+public class SelfAttentionTest {
+
+  private static double[][] referenceAttention(SelfAttention selfAttention, double[] inputs, int n, int din, int dk) {
+    double[] params = selfAttention.getAttentionParams();
+    //attention params are wq, wk, qbias and kbias
+    double[][] wq = SelfAttention.reshapeVector(Arrays.copyOfRange(params, 0, din * dk), din, dk);
+    double[][] wk = SelfAttention.reshapeVector(Arrays.copyOfRange(params, din * dk, 2 * din * dk), din, dk);
+    double[] qbias = Arrays.copyOfRange(params, 2 * din * dk, 2 * din * dk + dk);
+    double[] kbias = Arrays.copyOfRange(params, 2 * din * dk + dk, 2 * din * dk + 2 * dk);
+    double[][] reshaped = SelfAttention.reshapeVector(inputs, n, din);
+    double[][] q = SelfAttention.linearTransform(reshaped, wq, qbias, new double[din][dk]);
+    double[][] k = SelfAttention.linearTransform(reshaped, wk, kbias, new double[din][dk]);
+    double[][] attention = new double[din][din];
+    SelfAttention.matrixMult(q, SelfAttention.matrixTranspose(k), attention);
+    SelfAttention.matrixDiv(attention, Math.sqrt(dk));
+    for (double[] row : attention) {
+      SelfAttention.tanh(row);
+    }
+    double[][] latentCode = new double[din][n];
+    SelfAttention.matrixMult(attention, SelfAttention.matrixTranspose(reshaped), latentCode);
+    return latentCode;
+  }
+
+  @Test
+  public void testApplyMatchesMatrixOperations() {
+    int n = 6;
+    int din = 6;
+    int dk = 3;
+    Random random = new Random(1);
+    MultiLayerPerceptron downstream = new MultiLayerPerceptron(
+        MultiLayerPerceptron.ActivationFunction.TANH,
+        n * din,
+        new int[]{8},
+        2
+    );
+    SelfAttention selfAttention = new SelfAttention(
+        downstream,
+        n,
+        din,
+        dk,
+        new double[din][dk],
+        new double[din][dk],
+        new double[dk],
+        new double[dk]
+    );
+    selfAttention.setParams(random.doubles(selfAttention.getParams().length, -1, 1).toArray());
+    double[] outputs = new double[2];
+    for (int i = 0; i < 10; i++) {
+      double[] inputs = random.doubles(n * din, -2, 2).toArray();
+      double[][] expLatentCode = referenceAttention(selfAttention, inputs, n, din, dk);
+      double[] expOutputs = downstream.apply(SelfAttention.flat(expLatentCode));
+      assertArrayEquals(expOutputs, selfAttention.apply(inputs));
+      selfAttention.apply(inputs, outputs);
+      assertArrayEquals(expOutputs, outputs);
+      assertArrayEquals(expLatentCode, selfAttention.applyAttention(inputs));
+    }
+  }
+
+}
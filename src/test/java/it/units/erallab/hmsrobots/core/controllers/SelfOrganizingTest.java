@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2021 Eric Medvet <eric.medvet@gmail.com> (as Eric Medvet <eric.medvet@gmail.com>)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.units.erallab.hmsrobots.core.controllers;
+
+import it.units.erallab.hmsrobots.core.objects.Voxel;
+import it.units.erallab.hmsrobots.core.sensors.TimeFunction;
+import it.units.erallab.hmsrobots.util.Grid;
+import it.units.erallab.hmsrobots.util.SerializationUtils;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class SelfOrganizingTest {
+
+  private static SelfOrganizing buildController(Random random) {
+    SelfOrganizing controller = new SelfOrganizing(Map.of());
+    for (int x = 0; x < 2; x++) {
+      for (int y = 0; y < 2; y++) {
+        controller.addSensingNeuron(x, y, random.nextInt(2));
+        controller.addHiddenNeuron(MultiLayerPerceptron.ActivationFunction.SIGMOID, x, y);
+        controller.addHiddenNeuron(MultiLayerPerceptron.ActivationFunction.TANH, x, y);
+        controller.addActuatorNeuron(x, y);
+      }
+    }
+    int n = controller.getNeurons().size();
+    for (int i = 0; i < 3 * n; i++) {
+      int source = random.nextInt(n);
+      int target = random.nextInt(n);
+      if (!controller.getNeuronsMap().get(target).isSensing()
+          && !controller.getNeuronsMap().get(target).hasInNeighbour(source)) {
+        controller.addEdge(source, target, random.nextGaussian(), random.nextGaussian());
+      }
+    }
+    return controller;
+  }
+
+  private static Grid<Voxel> buildVoxels() {
+    return Grid.create(2, 2, (x, y) -> new Voxel(List.of(
+        new TimeFunction(t -> Math.sin(t * (x + 1)), -1, 1),
+        new TimeFunction(t -> Math.cos(t * (y + 1)) + Math.sin(t), -2, 2)
+    )));
+  }
+
+  //what control steps did when each neuron read its inputs through the controller
+  private static void control(SelfOrganizing controller, Grid<Voxel> voxels) {
+    for (SelfOrganizing.Neuron neuron : controller.getNeurons()) {
+      double input;
+      if (neuron instanceof SelfOrganizing.SensingNeuron sensingNeuron) {
+        input = voxels.get(neuron.getX(), neuron.getY()).getSensors().stream()
+            .flatMapToDouble(sensor -> Arrays.stream(sensor.getReadings()))
+            .toArray()[sensingNeuron.getNumSensor()];
+      } else {
+        input = neuron.getIngoingEdges().stream()
+            .mapToDouble(e -> controller.getNeuronsMap().get(e.getSource()).send() * e.getParams()[0] + e.getParams()[1])
+            .sum();
+      }
+      neuron.forward(input, voxels);
+    }
+    controller.getNeurons().forEach(SelfOrganizing.Neuron::advance);
+  }
+
+  private static void step(
+      double t,
+      SelfOrganizing compiled,
+      Grid<Voxel> compiledVoxels,
+      SelfOrganizing reference,
+      Grid<Voxel> referenceVoxels
+  ) {
+    compiledVoxels.values().forEach(v -> v.act(t));
+    referenceVoxels.values().forEach(v -> v.act(t));
+    compiled.control(t, compiledVoxels);
+    control(reference, referenceVoxels);
+    for (SelfOrganizing.Neuron neuron : reference.getNeurons()) {
+      assertEquals(neuron.send(), compiled.getNeuronsMap().get(neuron.getIndex()).send(), 1e-9);
+    }
+    for (Grid.Entry<Voxel> entry : referenceVoxels) {
+      assertEquals(
+          entry.value().getLastAppliedForce(),
+          compiledVoxels.get(entry.key().x(), entry.key().y()).getLastAppliedForce(),
+          1e-9
+      );
+    }
+  }
+
+  @Test
+  public void testControlMatchesNeuronForward() {
+    Random random = new Random(1);
+    for (int i = 0; i < 10; i++) {
+      SelfOrganizing compiled = buildController(random);
+      SelfOrganizing reference = new SelfOrganizing(compiled);
+      Grid<Voxel> compiledVoxels = buildVoxels();
+      Grid<Voxel> referenceVoxels = buildVoxels();
+      for (int s = 0; s < 50; s++) {
+        step(s * 0.1, compiled, compiledVoxels, reference, referenceVoxels);
+      }
+      //change weights, then topology
+      SelfOrganizing.Edge edge = compiled.getEdges().get(0);
+      compiled.getNeuronsMap().get(edge.getTarget()).getIngoingEdges().get(0).setParams(List.of(2d, -1d));
+      reference.getNeuronsMap().get(edge.getTarget()).getIngoingEdges().get(0).setParams(List.of(2d, -1d));
+      for (int s = 50; s < 100; s++) {
+        step(s * 0.1, compiled, compiledVoxels, reference, referenceVoxels);
+      }
+      compiled.removeEdge(edge);
+      reference.removeEdge(edge);
+      compiled.removeNeuron(compiled.getNeuronsMap().get(1));
+      reference.removeNeuron(reference.getNeuronsMap().get(1));
+      for (int s = 100; s < 150; s++) {
+        step(s * 0.1, compiled, compiledVoxels, reference, referenceVoxels);
+      }
+    }
+  }
+
+  //applies the same change to the neurons of both controllers, bypassing the controllers
+  private static void change(SelfOrganizing compiled, SelfOrganizing reference, Consumer<SelfOrganizing> change) {
+    change.accept(compiled);
+    change.accept(reference);
+  }
+
+  @Test
+  public void testControlFollowsTopologyChangedOnNeurons() {
+    Random random = new Random(3);
+    SelfOrganizing controller = buildController(random);
+    SelfOrganizing compiled = SerializationUtils.clone(controller, SerializationUtils.Mode.JSON);
+    SelfOrganizing reference = new SelfOrganizing(controller);
+    Grid<Voxel> compiledVoxels = buildVoxels();
+    Grid<Voxel> referenceVoxels = buildVoxels();
+    int target = compiled.getNeurons().stream().filter(n -> !n.isSensing()).findFirst().orElseThrow().getIndex();
+    int source = compiled.getNeurons().stream()
+        .filter(n -> !compiled.getNeuronsMap().get(target).hasInNeighbour(n.getIndex()))
+        .findFirst()
+        .orElseThrow()
+        .getIndex();
+    for (int s = 0; s < 20; s++) {
+      step(s * 0.1, compiled, compiledVoxels, reference, referenceVoxels);
+    }
+    change(compiled, reference, c -> c.getNeuronsMap().get(target).addIngoingEdge(
+        new SelfOrganizing.Edge(source, target, 1.5d, 0.5d)
+    ));
+    for (int s = 20; s < 40; s++) {
+      step(s * 0.1, compiled, compiledVoxels, reference, referenceVoxels);
+    }
+    change(compiled, reference, c -> c.getNeuronsMap().get(target).getIngoingEdges().set(
+        0,
+        new SelfOrganizing.Edge(source, target, -2d, 1d)
+    ));
+    for (int s = 40; s < 60; s++) {
+      step(s * 0.1, compiled, compiledVoxels, reference, referenceVoxels);
+    }
+    change(compiled, reference, c -> c.getNeuronsMap().get(target).getIngoingEdges().clear());
+    for (int s = 60; s < 80; s++) {
+      step(s * 0.1, compiled, compiledVoxels, reference, referenceVoxels);
+    }
+  }
+
+}
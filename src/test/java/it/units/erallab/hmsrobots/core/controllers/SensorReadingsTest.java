@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2021 Eric Medvet <eric.medvet@gmail.com> (as Eric Medvet <eric.medvet@gmail.com>)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.units.erallab.hmsrobots.core.controllers;
+
+import it.units.erallab.hmsrobots.core.objects.Voxel;
+import it.units.erallab.hmsrobots.core.sensors.Sensor;
+import it.units.erallab.hmsrobots.core.sensors.TimeFunction;
+import it.units.erallab.hmsrobots.util.Grid;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SensorReadingsTest {
+
+  private static Voxel buildVoxel(int nOfSensors, double frequency) {
+    List<Sensor> sensors = new ArrayList<>();
+    for (int i = 0; i < nOfSensors; i++) {
+      double phase = i;
+      sensors.add(new TimeFunction(t -> Math.sin(frequency * t + phase), -1, 1));
+    }
+    return new Voxel(sensors);
+  }
+
+  //3x2 with holes and voxels with different numbers of sensors
+  private static Grid<Voxel> buildVoxels() {
+    Grid<Voxel> voxels = Grid.create(3, 2);
+    voxels.set(0, 0, buildVoxel(2, 1d));
+    voxels.set(2, 0, buildVoxel(1, 2d));
+    voxels.set(0, 1, buildVoxel(3, 3d));
+    voxels.set(1, 1, buildVoxel(1, 4d));
+    return voxels;
+  }
+
+  @Test
+  public void testOffsetsAreRowMajor() {
+    Grid<Voxel> voxels = buildVoxels();
+    SensorReadings readings = new SensorReadings(voxels);
+    assertEquals(0, readings.offset(0, 0));
+    assertEquals(2, readings.offset(2, 0));
+    assertEquals(3, readings.offset(0, 1));
+    assertEquals(6, readings.offset(1, 1));
+    assertEquals(2, readings.length(0, 0));
+    assertEquals(1, readings.length(2, 0));
+    assertEquals(3, readings.length(0, 1));
+    assertEquals(1, readings.length(1, 1));
+    assertEquals(7, readings.domains().length);
+    assertArrayEquals(
+        new Voxel[]{voxels.get(0, 0), voxels.get(2, 0), voxels.get(0, 1), voxels.get(1, 1)},
+        readings.voxels()
+    );
+    assertThrows(IllegalArgumentException.class, () -> readings.offset(1, 0));
+    assertThrows(IllegalArgumentException.class, () -> readings.offset(2, 1));
+    assertThrows(IllegalArgumentException.class, () -> readings.offset(3, 0));
+    for (double t = 0d; t < 1d; t = t + 0.1d) {
+      double time = t;
+      voxels.values().stream().filter(Objects::nonNull).forEach(v -> v.act(time));
+      readings.update();
+      for (Grid.Entry<Voxel> entry : voxels) {
+        if (entry.value() != null) {
+          int offset = readings.offset(entry.key().x(), entry.key().y());
+          assertArrayEquals(
+              entry.value().getSensorReadings(),
+              Arrays.copyOfRange(
+                  readings.values(),
+                  offset,
+                  offset + readings.length(entry.key().x(), entry.key().y())
+              )
+          );
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testInvalidatedWhenVoxelsOrSensorsChange() {
+    Grid<Voxel> voxels = buildVoxels();
+    SensorReadings readings = new SensorReadings(voxels);
+    assertTrue(readings.isValidFor(voxels));
+    assertFalse(readings.isValidFor(Grid.copy(voxels)));
+    List<Sensor> sensors = voxels.get(0, 1).getSensors();
+    Sensor sensor = sensors.get(1);
+    sensors.set(1, new TimeFunction(t -> t, 0, 1));
+    assertFalse(readings.isValidFor(voxels));
+    sensors.set(1, sensor);
+    assertTrue(readings.isValidFor(voxels));
+    sensors.add(new TimeFunction(t -> t, 0, 1));
+    assertFalse(readings.isValidFor(voxels));
+    sensors.remove(sensors.size() - 1);
+    assertTrue(readings.isValidFor(voxels));
+    voxels.set(1, 0, buildVoxel(1, 5d));
+    assertFalse(readings.isValidFor(voxels));
+  }
+
+}
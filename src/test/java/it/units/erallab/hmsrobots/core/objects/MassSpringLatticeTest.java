@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2021 Eric Medvet <eric.medvet@gmail.com> (as Eric Medvet <eric.medvet@gmail.com>)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.units.erallab.hmsrobots.core.objects;
+
+import it.units.erallab.hmsrobots.core.controllers.PhaseSin;
+import it.units.erallab.hmsrobots.core.sensors.Touch;
+import it.units.erallab.hmsrobots.tasks.PhysicsBackend;
+import it.units.erallab.hmsrobots.tasks.locomotion.Locomotion;
+import it.units.erallab.hmsrobots.tasks.locomotion.Outcome;
+import it.units.erallab.hmsrobots.util.Grid;
+import it.units.erallab.hmsrobots.util.RobotUtils;
+import org.dyn4j.dynamics.Body;
+import org.dyn4j.dynamics.Settings;
+import org.dyn4j.geometry.Vector2;
+import org.dyn4j.world.World;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MassSpringLatticeTest {
+
+  private static final int N_OF_PLACEMENTS = 3;
+
+  private static Robot buildRobot(String shape, double amplitude) {
+    Grid<Voxel> body = RobotUtils.buildSensorizingFunction("uniform-t+a-0").apply(RobotUtils.buildShape(shape));
+    return new Robot(new PhaseSin(0.5d, amplitude, Grid.create(body.getW(), body.getH(), (x, y) -> x * 0.8d)), body);
+  }
+
+  //the averages of distance and velocity over a few initial placements, since gaits are chaotic also with dyn4j
+  private static double[] distanceAndVelocity(
+      String shape,
+      double amplitude,
+      double finalT,
+      PhysicsBackend physicsBackend
+  ) {
+    double[][] terrain = Locomotion.createTerrain("flat");
+    double[] sums = new double[2];
+    for (int i = 0; i < N_OF_PLACEMENTS; i++) {
+      Locomotion locomotion = new Locomotion(
+          finalT,
+          terrain,
+          terrain[0][1] + Locomotion.INITIAL_PLACEMENT_X_GAP + 0.01d * i,
+          new Settings(),
+          false,
+          physicsBackend
+      );
+      Outcome outcome = locomotion.apply(buildRobot(shape, amplitude));
+      sums[0] = sums[0] + outcome.getDistance() / N_OF_PLACEMENTS;
+      sums[1] = sums[1] + outcome.getVelocity() / N_OF_PLACEMENTS;
+    }
+    return sums;
+  }
+
+  private static void assertSimilarGait(String shape, double relativeTolerance) {
+    double[] dyn4j = distanceAndVelocity(shape, 1d, 10d, PhysicsBackend.DYN4J);
+    double[] massSpring = distanceAndVelocity(shape, 1d, 10d, PhysicsBackend.MASS_SPRING);
+    assertEquals(dyn4j[0], massSpring[0], Math.abs(dyn4j[0]) * relativeTolerance, "Different distance for " + shape);
+    assertEquals(dyn4j[1], massSpring[1], Math.abs(dyn4j[1]) * relativeTolerance, "Different velocity for " + shape);
+  }
+
+  @Test
+  public void testRestingRobotsStayStill() {
+    for (String shape : List.of("worm-5x1", "worm-8x1", "biped-4x3")) {
+      double[] massSpring = distanceAndVelocity(shape, 0d, 5d, PhysicsBackend.MASS_SPRING);
+      assertEquals(0d, massSpring[0], 0.05d, "Moving resting robot " + shape);
+      assertEquals(0d, massSpring[1], 0.01d, "Moving resting robot " + shape);
+    }
+  }
+
+  @Test
+  public void testTouchingGround() {
+    Robot robot = buildRobot("box-2x2", 0d);
+    Ground ground = new Ground(new double[]{0, 100}, new double[]{0, 0});
+    World<Body> world = new World<>();
+    ground.addTo(world);
+    robot.translate(new Vector2(10d, 2d));
+    robot.addTo(world);
+    MassSpringLattice lattice = new MassSpringLattice(world, ground, List.of(robot));
+    for (int i = 0; i < 60; i++) {
+      lattice.step();
+    }
+    assertTrue(Touch.isTouchingGround(robot.getVoxels().get(0, 0)));
+    assertTrue(Touch.isTouchingGround(robot.getVoxels().get(1, 0)));
+    assertFalse(Touch.isTouchingGround(robot.getVoxels().get(0, 1)));
+    assertFalse(Touch.isTouchingGround(robot.getVoxels().get(1, 1)));
+    assertEquals(1d, robot.getVoxels().get(0, 0).getAreaRatio(), 0.05d);
+  }
+
+  @Test
+  public void testGaitsCloseToDyn4jOrRefused() {
+    List<String> supportedShapes = List.of("worm-5x1", "worm-8x1", "biped-4x3");
+    List<String> shapes = List.of(
+        "worm-3x1", "worm-5x1", "worm-8x1", "worm-10x2", "box-4x4", "biped-4x3", "tripod-5x3", "comb-7x2", "ball-5",
+        "t-5x3"
+    );
+    for (String shape : shapes) {
+      if (supportedShapes.contains(shape)) {
+        assertTrue(PhysicsBackend.MASS_SPRING.supports(buildRobot(shape, 1d)), "Unsupported " + shape);
+        assertSimilarGait(shape, 0.1d);
+      } else {
+        assertFalse(PhysicsBackend.MASS_SPRING.supports(buildRobot(shape, 1d)), "Supported " + shape);
+        assertThrows(
+            IllegalArgumentException.class,
+            () -> distanceAndVelocity(shape, 1d, 1d, PhysicsBackend.MASS_SPRING),
+            "Simulated " + shape
+        );
+      }
+      assertTrue(PhysicsBackend.DYN4J.supports(buildRobot(shape, 1d)));
+    }
+  }
+
+  @Test
+  public void testBodiesOfTheSameRobotCollide() {
+    //a 3x1 robot without the central voxel, i.e., two voxels which are not welded, pushed against each other
+    Grid<Voxel> body = Grid.create(3, 1, (x, y) -> x != 1 ? new Voxel(List.of()) : null);
+    Robot robot = new Robot(new PhaseSin(0.5d, 0d, Grid.create(3, 1, 0d)), body);
+    Ground ground = new Ground(new double[]{0, 100}, new double[]{0, 0});
+    World<Body> world = new World<>();
+    ground.addTo(world);
+    robot.translate(new Vector2(10d, 0.1d));
+    robot.addTo(world);
+    for (Body vertexBody : robot.getVoxels().get(2, 0).getVertexBodies()) {
+      vertexBody.setLinearVelocity(-10d, 0d);
+    }
+    MassSpringLattice lattice = new MassSpringLattice(world, ground, List.of(robot));
+    for (int i = 0; i < 120; i++) {
+      lattice.step();
+    }
+    double leftMaxX = robot.getVoxels().get(0, 0).boundingBox().max().x();
+    double rightMinX = robot.getVoxels().get(2, 0).boundingBox().min().x();
+    assertTrue(rightMinX > leftMaxX - 0.1d, "Voxels overlap by " + (leftMaxX - rightMinX));
+  }
+
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2021 Eric Medvet <eric.medvet@gmail.com> (as Eric Medvet <eric.medvet@gmail.com>)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.units.erallab.hmsrobots.core.objects;
+
+import it.units.erallab.hmsrobots.core.controllers.PhaseSin;
+import it.units.erallab.hmsrobots.tasks.Fidelity;
+import it.units.erallab.hmsrobots.tasks.PhysicsBackend;
+import it.units.erallab.hmsrobots.tasks.locomotion.Locomotion;
+import it.units.erallab.hmsrobots.tasks.locomotion.Outcome;
+import it.units.erallab.hmsrobots.util.Grid;
+import it.units.erallab.hmsrobots.util.RobotUtils;
+import org.dyn4j.dynamics.Body;
+import org.dyn4j.dynamics.Settings;
+import org.dyn4j.world.World;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Objects;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RobotStateTest {
+
+  private static final double CHECKPOINT_T = 1d;
+
+  //without touch sensors, whose readings depend on the contacts of the world
+  private static Robot buildRobot(String shape, double amplitude) {
+    Grid<Voxel> body = RobotUtils.buildSensorizingFunction("uniform-a+vxy-0").apply(RobotUtils.buildShape(shape));
+    return new Robot(new PhaseSin(1d, amplitude, Grid.create(body.getW(), body.getH(), (x, y) -> x * 0.8d)), body);
+  }
+
+  private static Locomotion buildLocomotion(String terrain, Fidelity fidelity) {
+    double[][] groundProfile = Locomotion.createTerrain(terrain);
+    return new Locomotion(
+        5d,
+        groundProfile,
+        groundProfile[0][1] + Locomotion.INITIAL_PLACEMENT_X_GAP,
+        new Settings(),
+        false,
+        PhysicsBackend.DYN4J,
+        fidelity
+    );
+  }
+
+  private static List<Voxel> voxels(Robot robot) {
+    return robot.getVoxels().values().stream().filter(Objects::nonNull).toList();
+  }
+
+  private static void assertSameState(RobotState expected, RobotState actual) {
+    assertArrayEquals(expected.getBodies(), actual.getBodies());
+    assertArrayEquals(expected.getRestDistances(), actual.getRestDistances());
+  }
+
+  private static void assertSameVoxels(Robot expected, Robot actual) {
+    List<Voxel> expectedVoxels = voxels(expected);
+    List<Voxel> actualVoxels = voxels(actual);
+    assertEquals(expectedVoxels.size(), actualVoxels.size());
+    for (int i = 0; i < expectedVoxels.size(); i++) {
+      assertEquals(expectedVoxels.get(i).getAreaRatioEnergy(), actualVoxels.get(i).getAreaRatioEnergy());
+      assertEquals(expectedVoxels.get(i).getControlEnergy(), actualVoxels.get(i).getControlEnergy());
+      assertArrayEquals(expectedVoxels.get(i).getSensorReadings(), actualVoxels.get(i).getSensorReadings());
+    }
+  }
+
+  @Test
+  public void testRestoredRobotIsInTheSameState() {
+    for (Fidelity fidelity : List.of(Fidelity.HIGH, Fidelity.LOW)) {
+      Robot robot = buildRobot("biped-4x3", 1d);
+      Locomotion.Checkpoint checkpoint = buildLocomotion("flat", fidelity).checkpoint(robot, CHECKPOINT_T);
+      assertEquals(CHECKPOINT_T, checkpoint.t(), 0.05d);
+      Robot restored = checkpoint.robotState().restore();
+      assertSameState(RobotState.of(robot), RobotState.of(restored));
+      assertSameVoxels(robot, restored);
+      assertEquals(robot.getAssembly(), restored.getAssembly());
+      //the restored robot evolves as the original one: sensors (with windows), controller, and springs
+      World<Body> world = new World<>();
+      restored.addTo(world);
+      robot.act(checkpoint.t() + 0.1d);
+      restored.act(checkpoint.t() + 0.1d);
+      assertSameState(RobotState.of(robot), RobotState.of(restored));
+      assertSameVoxels(robot, restored);
+    }
+  }
+
+  @Test
+  public void testForksAreRepeatable() {
+    Locomotion locomotion = buildLocomotion("flat", Fidelity.HIGH);
+    Locomotion.Checkpoint checkpoint = locomotion.checkpoint(buildRobot("worm-5x1", 1d), CHECKPOINT_T);
+    Outcome outcome1 = locomotion.apply(checkpoint, null);
+    Outcome outcome2 = locomotion.apply(checkpoint, null);
+    assertTrue(outcome1.getTimes()[0] > checkpoint.t());
+    assertEquals(locomotion.getFinalT(), outcome1.getTermination().t(), 1d / 60d);
+    assertEquals(outcome1.getDistance(), outcome2.getDistance());
+    //same terrain, also when it is another task
+    assertEquals(outcome1.getDistance(), buildLocomotion("flat", Fidelity.HIGH).apply(checkpoint, null).getDistance());
+    assertTrue(Double.isFinite(buildLocomotion("uphill-10", Fidelity.HIGH).apply(checkpoint, null).getDistance()));
+  }
+
+  @Test
+  public void testForkContinuesTheEpisode() {
+    Locomotion locomotion = buildLocomotion("flat", Fidelity.HIGH);
+    double distance = locomotion.apply(buildRobot("worm-5x1", 1d)).getDistance();
+    Locomotion.Checkpoint checkpoint = locomotion.checkpoint(buildRobot("worm-5x1", 1d), CHECKPOINT_T);
+    Robot robot = checkpoint.robotState().restore();
+    double distanceBefore = robot.center().x() - locomotion.checkpoint(buildRobot("worm-5x1", 1d), 0d)
+        .robotState()
+        .restore()
+        .center()
+        .x();
+    assertEquals(distance, distanceBefore + locomotion.apply(checkpoint, null).getDistance(), 0.1d);
+  }
+
+  @Test
+  public void testApplyToAnotherRobot() {
+    Locomotion.Checkpoint checkpoint = buildLocomotion("flat", Fidelity.HIGH).checkpoint(
+        buildRobot("biped-4x3", 0d),
+        CHECKPOINT_T
+    );
+    Robot robot = buildRobot("biped-4x3", 1d);
+    checkpoint.robotState().applyTo(robot);
+    assertSameState(checkpoint.robotState(), RobotState.of(robot));
+    for (Voxel voxel : voxels(robot)) {
+      assertEquals(0d, voxel.getControlEnergy());
+    }
+    assertThrows(IllegalArgumentException.class, () -> checkpoint.robotState().applyTo(buildRobot("worm-5x1", 1d)));
+  }
+
+}
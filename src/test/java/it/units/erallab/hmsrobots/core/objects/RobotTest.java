@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2021 Eric Medvet <eric.medvet@gmail.com> (as Eric Medvet <eric.medvet@gmail.com>)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.units.erallab.hmsrobots.core.objects;
+
+import it.units.erallab.hmsrobots.core.controllers.PhaseSin;
+import it.units.erallab.hmsrobots.core.snapshots.VoxelPoly;
+import it.units.erallab.hmsrobots.tasks.locomotion.Locomotion;
+import it.units.erallab.hmsrobots.util.Grid;
+import it.units.erallab.hmsrobots.util.RobotUtils;
+import it.units.erallab.hmsrobots.util.SerializationUtils;
+import org.dyn4j.dynamics.Body;
+import org.dyn4j.dynamics.Settings;
+import org.dyn4j.geometry.Vector2;
+import org.dyn4j.world.World;
+import org.junit.jupiter.api.Test;
+
+import java.util.Objects;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RobotTest {
+
+  private static Robot buildRobot(String shape, double amplitude, Robot.Assembly assembly) {
+    Grid<Voxel> body = RobotUtils.buildSensorizingFunction("uniform-t+a+vxy-0").apply(RobotUtils.buildShape(shape));
+    return new Robot(
+        new PhaseSin(0.5d, amplitude, Grid.create(body.getW(), body.getH(), (x, y) -> x * 0.8d)),
+        body,
+        assembly
+    );
+  }
+
+  @Test
+  public void testSharedVerticesAssembly() {
+    Robot welded = buildRobot("box-4x4", 1d, Robot.Assembly.WELDED_VERTICES);
+    Robot shared = buildRobot("box-4x4", 1d, Robot.Assembly.SHARED_VERTICES);
+    World<Body> weldedWorld = new World<>();
+    welded.addTo(weldedWorld);
+    World<Body> sharedWorld = new World<>();
+    shared.addTo(sharedWorld);
+    assertEquals(64, weldedWorld.getBodyCount());
+    assertEquals(25, sharedWorld.getBodyCount());
+    assertEquals(4 * 4 * 18, sharedWorld.getJointCount());
+    //the inner vertex is shared by 4 voxels
+    assertSame(shared.getVoxels().get(1, 1).getVertexBodies()[0], shared.getVoxels().get(0, 2).getVertexBodies()[2]);
+    assertEquals(4, shared.getVoxels().get(1, 1).getVertexBodies()[0].getFixtureCount());
+    //voxels have the same geometry
+    welded.translate(new Vector2(1d, 2d));
+    shared.translate(new Vector2(1d, 2d));
+    for (int x = 0; x < 4; x++) {
+      for (int y = 0; y < 4; y++) {
+        VoxelPoly weldedPoly = welded.getVoxels().get(x, y).getVoxelPoly();
+        VoxelPoly sharedPoly = shared.getVoxels().get(x, y).getVoxelPoly();
+        assertEquals(weldedPoly.center().x(), sharedPoly.center().x(), 1e-9);
+        assertEquals(weldedPoly.center().y(), sharedPoly.center().y(), 1e-9);
+        assertEquals(weldedPoly.getAreaRatio(), sharedPoly.getAreaRatio(), 1e-9);
+        assertEquals(weldedPoly.getAngle(), sharedPoly.getAngle(), 1e-9);
+      }
+    }
+  }
+
+  @Test
+  public void testSharedVerticesCopy() {
+    Robot robot = buildRobot("biped-4x3", 1d, Robot.Assembly.SHARED_VERTICES);
+    assertEquals(Robot.Assembly.SHARED_VERTICES, SerializationUtils.copy(robot).getAssembly());
+    assertEquals(Robot.Assembly.SHARED_VERTICES, SerializationUtils.clone(robot).getAssembly());
+    assertEquals(
+        Robot.Assembly.SHARED_VERTICES,
+        SerializationUtils.clone(robot, SerializationUtils.Mode.JSON).getAssembly()
+    );
+  }
+
+  @Test
+  public void testSharedVerticesLocomotion() {
+    double[][] terrain = Locomotion.createTerrain("flat");
+    Locomotion locomotion = new Locomotion(10d, terrain, new Settings());
+    for (String shape : new String[]{"worm-5x1", "biped-4x3", "box-4x4"}) {
+      Robot resting = buildRobot(shape, 0d, Robot.Assembly.SHARED_VERTICES);
+      assertEquals(0d, locomotion.apply(resting).getVelocity(), 0.01d, "Moving resting " + shape);
+      resting.getVoxels().values().stream()
+          .filter(Objects::nonNull)
+          .forEach(v -> assertEquals(1d, v.getAreaRatio(), 0.05d));
+      Robot walking = buildRobot(shape, 1d, Robot.Assembly.SHARED_VERTICES);
+      assertTrue(Double.isFinite(locomotion.apply(walking).getVelocity()), "Non finite velocity for " + shape);
+    }
+  }
+
+}
@@ -0,0 +1,313 @@
+/*
+ * Copyright (C) 2021 Eric Medvet <eric.medvet@gmail.com> (as Eric Medvet <eric.medvet@gmail.com>)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.units.erallab.hmsrobots.core.objects;
+
+import it.units.erallab.hmsrobots.util.DoubleRange;
+import org.dyn4j.dynamics.Body;
+import org.dyn4j.dynamics.BodyFixture;
+import org.dyn4j.dynamics.joint.DistanceJoint;
+import org.dyn4j.geometry.MassType;
+import org.dyn4j.geometry.Polygon;
+import org.dyn4j.geometry.Rectangle;
+import org.dyn4j.geometry.Vector2;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class VoxelTemplateTest {
+
+  private static final double TOLERANCE = 1e-12;
+
+  //the anchors of the joints as offsets, in units of half the mass side length, from the centers of the masses
+  private static final int[][] SIDE_INTERNAL_JOINTS = {
+      {0, 1, +1, -1, -1, -1}, {1, 2, -1, -1, -1, +1}, {2, 3, -1, +1, +1, +1}, {3, 0, +1, +1, +1, -1}
+  };
+  private static final int[][] SIDE_EXTERNAL_JOINTS = {
+      {0, 1, +1, +1, -1, +1}, {1, 2, +1, -1, +1, +1}, {2, 3, -1, -1, +1, -1}, {3, 0, -1, +1, -1, -1}
+  };
+  private static final int[][] SIDE_CROSS_JOINTS = {
+      {0, 1, +1, +1, -1, -1}, {0, 1, +1, -1, -1, +1}, {1, 2, +1, -1, -1, +1}, {1, 2, -1, -1, +1, +1},
+      {2, 3, -1, +1, +1, -1}, {2, 3, -1, -1, +1, +1}, {3, 0, -1, +1, +1, -1}, {3, 0, +1, +1, -1, -1}
+  };
+  private static final int[][] CENTRAL_CROSS_JOINTS = {
+      {0, 2, 0, 0, 0, 0}, {1, 3, 0, 0, 0, 0}
+  };
+
+  private record Parameters(
+      double sideLength,
+      double massSideLengthRatio,
+      double springF,
+      double springD,
+      double massLinearDamping,
+      double massAngularDamping,
+      double friction,
+      double restitution,
+      double mass,
+      DoubleRange areaRatioPassiveRange,
+      DoubleRange areaRatioActiveRange,
+      EnumSet<Voxel.SpringScaffolding> springScaffoldings
+  ) {
+    Voxel voxel() {
+      return new Voxel(
+          sideLength,
+          massSideLengthRatio,
+          springF,
+          springD,
+          massLinearDamping,
+          massAngularDamping,
+          friction,
+          restitution,
+          mass,
+          areaRatioPassiveRange,
+          areaRatioActiveRange,
+          springScaffoldings,
+          List.of()
+      );
+    }
+  }
+
+  private static List<Parameters> parameters() {
+    return List.of(
+        new Parameters(
+            Voxel.SIDE_LENGTH, Voxel.MASS_SIDE_LENGTH_RATIO, Voxel.SPRING_F, Voxel.SPRING_D,
+            Voxel.MASS_LINEAR_DAMPING, Voxel.MASS_ANGULAR_DAMPING, Voxel.FRICTION, Voxel.RESTITUTION, Voxel.MASS,
+            Voxel.AREA_RATIO_PASSIVE_RANGE, Voxel.AREA_RATIO_ACTIVE_RANGE, Voxel.SPRING_SCAFFOLDINGS
+        ),
+        new Parameters(
+            2d, 0.2d, 6d, 0.5d, 0.2d, 0.3d, 5d, 0.2d, 2d,
+            DoubleRange.of(0.6d, 1.5d), DoubleRange.of(0.7d, 1.3d),
+            EnumSet.of(Voxel.SpringScaffolding.SIDE_INTERNAL, Voxel.SpringScaffolding.CENTRAL_CROSS)
+        ),
+        new Parameters(
+            4d, 0.3d, 10d, 0.1d, 0d, 0d, 1d, 0.5d, 3d,
+            DoubleRange.of(0.5d, Double.POSITIVE_INFINITY), DoubleRange.of(0.9d, 1.1d),
+            EnumSet.of(Voxel.SpringScaffolding.SIDE_EXTERNAL, Voxel.SpringScaffolding.SIDE_CROSS)
+        )
+    );
+  }
+
+  //builds the bodies as the voxel did before templates
+  private static Body[] baselineBodies(Parameters p) {
+    double massSideLength = p.sideLength * p.massSideLengthRatio;
+    double density = (p.mass / 4) / (massSideLength * massSideLength);
+    double d = p.sideLength / 2d - massSideLength / 2d;
+    double[][] offsets = {{-d, +d}, {+d, +d}, {+d, -d}, {-d, -d}};
+    Body[] bodies = new Body[4];
+    for (int i = 0; i < bodies.length; i++) {
+      bodies[i] = new Body();
+      bodies[i].addFixture(new Rectangle(massSideLength, massSideLength), density, p.friction, p.restitution);
+      bodies[i].translate(offsets[i][0], offsets[i][1]);
+      bodies[i].setMass(MassType.NORMAL);
+      bodies[i].setLinearDamping(p.massLinearDamping);
+      bodies[i].setAngularDamping(p.massAngularDamping);
+    }
+    return bodies;
+  }
+
+  private static Voxel.SpringRange parallelRange(double sideLength, double massSideLength, DoubleRange areaRatioRange) {
+    return new Voxel.SpringRange(
+        Math.sqrt(sideLength * sideLength * areaRatioRange.min()) - 2d * massSideLength,
+        sideLength - 2d * massSideLength,
+        Math.sqrt(sideLength * sideLength * areaRatioRange.max()) - 2d * massSideLength
+    );
+  }
+
+  private static Voxel.SpringRange crossRange(double massSideLength, Voxel.SpringRange parallelRange) {
+    return new Voxel.SpringRange(
+        Math.sqrt(massSideLength * massSideLength + parallelRange.min() * parallelRange.min()),
+        Math.sqrt(massSideLength * massSideLength + parallelRange.rest() * parallelRange.rest()),
+        Math.sqrt(massSideLength * massSideLength + parallelRange.max() * parallelRange.max())
+    );
+  }
+
+  private static Voxel.SpringRange centralRange(double sideLength, double massSideLength, DoubleRange areaRatioRange) {
+    return new Voxel.SpringRange(
+        (Math.sqrt(sideLength * sideLength * areaRatioRange.min()) - massSideLength) * Math.sqrt(2d),
+        (sideLength - massSideLength) * Math.sqrt(2d),
+        (Math.sqrt(sideLength * sideLength * areaRatioRange.max()) - massSideLength) * Math.sqrt(2d)
+    );
+  }
+
+  private static void addJoints(
+      List<DistanceJoint<Body>> joints,
+      Body[] bodies,
+      int[][] specs,
+      double massSideLength,
+      Voxel.SpringRange activeRange,
+      Voxel.SpringRange passiveRange
+  ) {
+    double h = massSideLength / 2d;
+    for (int[] spec : specs) {
+      DistanceJoint<Body> joint = new DistanceJoint<>(
+          bodies[spec[0]],
+          bodies[spec[1]],
+          bodies[spec[0]].getWorldCenter().copy().add(spec[2] * h, spec[3] * h),
+          bodies[spec[1]].getWorldCenter().copy().add(spec[4] * h, spec[5] * h)
+      );
+      joint.setUserData(activeRange);
+      if (passiveRange.min() > Double.NEGATIVE_INFINITY) {
+        joint.setLowerLimit(passiveRange.min());
+        joint.setLowerLimitEnabled(true);
+      }
+      if (passiveRange.max() < Double.POSITIVE_INFINITY) {
+        joint.setUpperLimit(passiveRange.max());
+        joint.setUpperLimitEnabled(true);
+      }
+      joints.add(joint);
+    }
+  }
+
+  //builds the joints as the voxel did before templates
+  private static List<DistanceJoint<Body>> baselineJoints(Parameters p, Body[] bodies) {
+    double massSideLength = p.sideLength * p.massSideLengthRatio;
+    Voxel.SpringRange parallelPassiveRange = parallelRange(p.sideLength, massSideLength, p.areaRatioPassiveRange);
+    Voxel.SpringRange parallelActiveRange = parallelRange(p.sideLength, massSideLength, p.areaRatioActiveRange);
+    List<DistanceJoint<Body>> joints = new ArrayList<>();
+    if (p.springScaffoldings.contains(Voxel.SpringScaffolding.SIDE_INTERNAL)) {
+      addJoints(joints, bodies, SIDE_INTERNAL_JOINTS, massSideLength, parallelActiveRange, parallelPassiveRange);
+    }
+    if (p.springScaffoldings.contains(Voxel.SpringScaffolding.SIDE_EXTERNAL)) {
+      addJoints(joints, bodies, SIDE_EXTERNAL_JOINTS, massSideLength, parallelActiveRange, parallelPassiveRange);
+    }
+    if (p.springScaffoldings.contains(Voxel.SpringScaffolding.SIDE_CROSS)) {
+      addJoints(
+          joints, bodies, SIDE_CROSS_JOINTS, massSideLength,
+          crossRange(massSideLength, parallelActiveRange),
+          crossRange(massSideLength, parallelPassiveRange)
+      );
+    }
+    if (p.springScaffoldings.contains(Voxel.SpringScaffolding.CENTRAL_CROSS)) {
+      addJoints(
+          joints, bodies, CENTRAL_CROSS_JOINTS, massSideLength,
+          centralRange(p.sideLength, massSideLength, p.areaRatioActiveRange),
+          centralRange(p.sideLength, massSideLength, p.areaRatioPassiveRange)
+      );
+    }
+    for (DistanceJoint<Body> joint : joints) {
+      joint.setRestDistance(((Voxel.SpringRange) joint.getUserData()).rest());
+      joint.setCollisionAllowed(true);
+      joint.setFrequency(p.springF);
+      joint.setDampingRatio(p.springD);
+    }
+    return joints;
+  }
+
+  private static void assertSameVector(Vector2 expected, Vector2 actual) {
+    assertEquals(expected.x, actual.x, TOLERANCE);
+    assertEquals(expected.y, actual.y, TOLERANCE);
+  }
+
+  private static void assertSameBody(Body expected, Body actual) {
+    assertSameVector(expected.getWorldCenter(), actual.getWorldCenter());
+    assertEquals(expected.getMass().getMass(), actual.getMass().getMass(), TOLERANCE);
+    assertEquals(expected.getMass().getInertia(), actual.getMass().getInertia(), TOLERANCE);
+    assertEquals(expected.getLinearDamping(), actual.getLinearDamping());
+    assertEquals(expected.getAngularDamping(), actual.getAngularDamping());
+    assertEquals(expected.getFixtureCount(), actual.getFixtureCount());
+    BodyFixture expectedFixture = expected.getFixture(0);
+    BodyFixture actualFixture = actual.getFixture(0);
+    assertEquals(expectedFixture.getDensity(), actualFixture.getDensity(), TOLERANCE);
+    assertEquals(expectedFixture.getFriction(), actualFixture.getFriction());
+    assertEquals(expectedFixture.getRestitution(), actualFixture.getRestitution());
+    Vector2[] expectedVertices = ((Polygon) expectedFixture.getShape()).getVertices();
+    Vector2[] actualVertices = ((Polygon) actualFixture.getShape()).getVertices();
+    assertEquals(expectedVertices.length, actualVertices.length);
+    for (int i = 0; i < expectedVertices.length; i++) {
+      assertSameVector(
+          expected.getTransform().getTransformed(expectedVertices[i]),
+          actual.getTransform().getTransformed(actualVertices[i])
+      );
+    }
+  }
+
+  private static void assertSameJoint(
+      DistanceJoint<Body> expected,
+      Body[] expectedBodies,
+      DistanceJoint<Body> actual,
+      Body[] actualBodies
+  ) {
+    assertEquals(List.of(expectedBodies).indexOf(expected.getBody1()), List.of(actualBodies).indexOf(actual.getBody1()));
+    assertEquals(List.of(expectedBodies).indexOf(expected.getBody2()), List.of(actualBodies).indexOf(actual.getBody2()));
+    assertSameVector(expected.getAnchor1(), actual.getAnchor1());
+    assertSameVector(expected.getAnchor2(), actual.getAnchor2());
+    assertEquals(expected.getRestDistance(), actual.getRestDistance(), TOLERANCE);
+    assertEquals(expected.isLowerLimitEnabled(), actual.isLowerLimitEnabled());
+    assertEquals(expected.isUpperLimitEnabled(), actual.isUpperLimitEnabled());
+    if (expected.isLowerLimitEnabled()) {
+      assertEquals(expected.getLowerLimit(), actual.getLowerLimit(), TOLERANCE);
+    }
+    if (expected.isUpperLimitEnabled()) {
+      assertEquals(expected.getUpperLimit(), actual.getUpperLimit(), TOLERANCE);
+    }
+    assertEquals(expected.getFrequency(), actual.getFrequency());
+    assertEquals(expected.getDampingRatio(), actual.getDampingRatio());
+    assertEquals(expected.isCollisionAllowed(), actual.isCollisionAllowed());
+    assertEquals(expected.getUserData(), actual.getUserData());
+  }
+
+  @Test
+  public void testSameVoxelsAsBaseline() {
+    for (Parameters p : parameters()) {
+      Voxel voxel = p.voxel();
+      Body[] expectedBodies = baselineBodies(p);
+      List<DistanceJoint<Body>> expectedJoints = baselineJoints(p, expectedBodies);
+      for (int i = 0; i < expectedBodies.length; i++) {
+        assertSameBody(expectedBodies[i], voxel.getVertexBodies()[i]);
+      }
+      assertEquals(expectedJoints.size(), voxel.springJoints.size());
+      for (int i = 0; i < expectedJoints.size(); i++) {
+        assertSameJoint(expectedJoints.get(i), expectedBodies, voxel.springJoints.get(i), voxel.getVertexBodies());
+      }
+    }
+  }
+
+  @Test
+  public void testSameVoxelsAsBaselineAfterReset() {
+    for (Parameters p : parameters()) {
+      Voxel voxel = p.voxel();
+      voxel.translate(new Vector2(5d, 7d));
+      voxel.reset();
+      Body[] expectedBodies = baselineBodies(p);
+      for (int i = 0; i < expectedBodies.length; i++) {
+        assertSameBody(expectedBodies[i], voxel.getVertexBodies()[i]);
+      }
+      assertEquals(baselineJoints(p, expectedBodies).size(), voxel.springJoints.size());
+    }
+  }
+
+  private static VoxelTemplate template(double sideLength) {
+    return VoxelTemplate.of(
+        sideLength, Voxel.MASS_SIDE_LENGTH_RATIO, Voxel.SPRING_F, Voxel.SPRING_D,
+        Voxel.MASS_LINEAR_DAMPING, Voxel.MASS_ANGULAR_DAMPING, Voxel.FRICTION, Voxel.RESTITUTION, Voxel.MASS,
+        Voxel.AREA_RATIO_PASSIVE_RANGE, Voxel.AREA_RATIO_ACTIVE_RANGE, Voxel.SPRING_SCAFFOLDINGS
+    );
+  }
+
+  @Test
+  public void testRecentlyUsedTemplatesAreKept() {
+    VoxelTemplate template = template(Voxel.SIDE_LENGTH);
+    for (int i = 0; i < 1000; i++) {
+      template(1d + i / 1000d);
+      assertSame(template, template(Voxel.SIDE_LENGTH));
+    }
+  }
+
+}
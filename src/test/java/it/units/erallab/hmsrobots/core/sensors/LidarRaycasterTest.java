@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2021 Eric Medvet <eric.medvet@gmail.com> (as Eric Medvet <eric.medvet@gmail.com>)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.units.erallab.hmsrobots.core.sensors;
+
+import it.units.erallab.hmsrobots.core.objects.Ground;
+import it.units.erallab.hmsrobots.core.objects.Voxel;
+import it.units.erallab.hmsrobots.tasks.locomotion.Locomotion;
+import org.dyn4j.dynamics.Body;
+import org.dyn4j.dynamics.BodyFixture;
+import org.dyn4j.geometry.Geometry;
+import org.dyn4j.geometry.Ray;
+import org.dyn4j.geometry.Vector2;
+import org.dyn4j.world.DetectFilter;
+import org.dyn4j.world.World;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LidarRaycasterTest {
+
+  //the dyn4j raycast against polygons is iterative, hence approximate
+  private static final double TOLERANCE = 1e-4;
+  private static final int N_OF_RAYS = 10000;
+
+  private static World<Body> buildWorld(String terrainName) {
+    World<Body> world = new World<>();
+    double[][] terrain = Locomotion.createTerrain(terrainName);
+    new Ground(terrain[0], terrain[1]).addTo(world);
+    return world;
+  }
+
+  private static Body buildBox(double x, double y) {
+    Body box = new Body();
+    box.addFixture(Geometry.createRectangle(3d, 3d));
+    box.translate(x, y);
+    return box;
+  }
+
+  private static double raycast(World<Body> world, double x, double y, double angle, double length) {
+    return world.raycast(new Ray(new Vector2(x, y), angle), length, new DetectFilter<>(true, true, null)).stream()
+        .mapToDouble(r -> r.getRaycast().getDistance())
+        .min()
+        .orElse(length);
+  }
+
+  //dyn4j is not consistent on rays starting inside, or on the boundary of, a polygon: it might give a hit at distance 0
+  private static boolean isInsideGround(World<Body> world, double x, double y) {
+    return world.getBodies().stream()
+        .filter(body -> body.getUserData() == Ground.class)
+        .anyMatch(body -> body.contains(new Vector2(x, y)));
+  }
+
+  private static int assertSameAsWorld(World<Body> world, LidarRaycaster raycaster, long seed) {
+    Random random = new Random(seed);
+    int nOfHits = 0;
+    for (int i = 0; i < N_OF_RAYS; i++) {
+      double x = random.nextDouble() * 120d;
+      double y = random.nextDouble() * 40d;
+      if (isInsideGround(world, x, y)) {
+        continue;
+      }
+      double angle = random.nextDouble() * 2d * Math.PI;
+      double length = 1d + random.nextDouble() * 20d;
+      double expected = raycast(world, x, y, angle, length);
+      if (expected == 0d) {
+        continue;
+      }
+      assertEquals(expected, raycaster.cast(world, x, y, angle, length), TOLERANCE);
+      if (expected < length) {
+        nOfHits = nOfHits + 1;
+      }
+    }
+    return nOfHits;
+  }
+
+  @Test
+  public void testSameAsWorldRaycastOnHillyTerrain() {
+    World<Body> world = buildWorld("hilly-3-10-0");
+    int nOfHits = assertSameAsWorld(world, new LidarRaycaster(), 1);
+    assertTrue(nOfHits > N_OF_RAYS / 20);
+  }
+
+  @Test
+  public void testSameAsWorldRaycastWithOtherBodies() {
+    World<Body> world = buildWorld("hilly-3-10-1");
+    world.addBody(buildBox(50d, 20d));
+    assertSameAsWorld(world, new LidarRaycaster(), 2);
+  }
+
+  @Test
+  public void testFollowsChangesOfBodies() {
+    World<Body> world = buildWorld("flat");
+    LidarRaycaster raycaster = new LidarRaycaster();
+    assertSameAsWorld(world, raycaster, 3);
+    //a body is added
+    Body box = buildBox(50d, 20d);
+    world.addBody(box);
+    assertSameAsWorld(world, raycaster, 4);
+    //the ground is replaced by another one
+    World<Body> hillyWorld = buildWorld("hilly-3-10-2");
+    world.removeAllBodies();
+    new ArrayList<>(hillyWorld.getBodies()).forEach(body -> {
+      hillyWorld.removeBody(body);
+      world.addBody(body);
+    });
+    world.addBody(box);
+    assertSameAsWorld(world, raycaster, 5);
+    //the ground is moved
+    world.getBodies().stream().filter(body -> body.getUserData() == Ground.class).forEach(body -> body.translate(0d, 3d));
+    world.getBroadphaseDetector().update(); //otherwise, dyn4j sees the moved bodies only after the next step
+    assertSameAsWorld(world, raycaster, 6);
+  }
+
+  @Test
+  public void testFollowsChangesOfWorld() {
+    LidarRaycaster raycaster = new LidarRaycaster();
+    assertSameAsWorld(buildWorld("flat"), raycaster, 7);
+    assertSameAsWorld(buildWorld("hilly-3-10-3"), raycaster, 8);
+  }
+
+  @Test
+  public void testChecksWorldOncePerStep() {
+    World<Body> world = buildWorld("flat");
+    Lidar lidar = new Lidar(20d, -Math.PI / 2d, -Math.PI / 3d);
+    Voxel voxel = new Voxel(List.of(lidar));
+    voxel.reset();
+    voxel.translate(new Vector2(50d, 10d));
+    voxel.addTo(world);
+    LidarRaycaster raycaster = new LidarRaycaster();
+    raycaster.cast(List.of(lidar), 1d);
+    double[] readings = lidar.sense(1d);
+    double x = voxel.center().x();
+    double y = voxel.center().y();
+    double angle = voxel.getAngle();
+    assertEquals(raycast(world, x, y, angle - Math.PI / 2d, 20d), readings[0], TOLERANCE);
+    //the ground is moved: within the same step, the world is not checked again
+    world.getBodies().stream().filter(body -> body.getUserData() == Ground.class).forEach(body -> body.translate(0d, 3d));
+    world.getBroadphaseDetector().update();
+    raycaster.cast(List.of(lidar), 1d);
+    assertEquals(raycast(world, x, y, angle - Math.PI / 2d, 20d) + 3d, lidar.sense(1d)[0], TOLERANCE);
+    //at the next step, it is, and readings go in the same array
+    raycaster.cast(List.of(lidar), 2d);
+    assertSame(readings, lidar.sense(2d));
+    assertEquals(raycast(world, x, y, angle - Math.PI / 2d, 20d), readings[0], TOLERANCE);
+    assertEquals(raycast(world, x, y, angle - Math.PI / 3d, 20d), readings[1], TOLERANCE);
+    //a lidar sensing alone casts its rays by itself
+    assertSame(readings, lidar.sense(3d));
+    assertEquals(raycast(world, x, y, angle - Math.PI / 2d, 20d), readings[0], TOLERANCE);
+  }
+
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2021 Eric Medvet <eric.medvet@gmail.com> (as Eric Medvet <eric.medvet@gmail.com>)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.units.erallab.hmsrobots.core.sensors;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.ToDoubleFunction;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class MomentsAggregatorTest {
+
+  private static final double DT = 1d / 60d;
+  private static final double INTERVAL = 0.5d;
+
+  private static Sensor buildSensor() {
+    return new TimeFunction(t -> Math.sin(3d * t) + t / 4d, -1d, 2d);
+  }
+
+  //a sensor whose readings are not finite in some spans of time
+  private static Sensor buildNonFiniteSensor() {
+    return new TimeFunction(t -> {
+      if (t >= 0.5d && t < 0.6d) {
+        return Double.NaN;
+      }
+      if (t >= 1.2d && t < 1.3d) {
+        return Double.POSITIVE_INFINITY;
+      }
+      if (t >= 1.5d && t < 1.55d) {
+        return Double.NEGATIVE_INFINITY;
+      }
+      return Math.sin(3d * t) + t / 4d;
+    }, -1d, 2d);
+  }
+
+  private static double mean(List<Double> values) {
+    return values.stream().mapToDouble(Double::doubleValue).average().orElse(Double.NaN);
+  }
+
+  private static double variance(List<Double> values) {
+    double mean = mean(values);
+    return values.stream().mapToDouble(v -> (v - mean) * (v - mean)).sum() / values.size();
+  }
+
+  //compares the readings of the aggregator with the ones computed on the whole window, also across a reset
+  private static void assertSameAsWholeWindow(MomentsAggregator aggregator, ToDoubleFunction<List<Double>> function) {
+    assertSameAsWholeWindow(aggregator, buildSensor(), function);
+  }
+
+  private static void assertSameAsWholeWindow(
+      MomentsAggregator aggregator,
+      Sensor sensor,
+      ToDoubleFunction<List<Double>> function
+  ) {
+    for (int run = 0; run < 2; run++) {
+      aggregator.reset();
+      List<Double> times = new ArrayList<>();
+      List<Double> values = new ArrayList<>();
+      for (int k = 0; k < 200; k++) {
+        double t = k * DT;
+        sensor.act(t);
+        times.add(t);
+        values.add(sensor.getReadings()[0]);
+        while (times.get(0) < t - INTERVAL) {
+          times.remove(0);
+          values.remove(0);
+        }
+        aggregator.act(t);
+        assertEquals(function.applyAsDouble(values), aggregator.getReadings()[0], 1e-9, String.format("t=%.3f", t));
+      }
+    }
+  }
+
+  @Test
+  public void testAverage() {
+    assertSameAsWholeWindow(new Average(buildSensor(), INTERVAL), MomentsAggregatorTest::mean);
+  }
+
+  @Test
+  public void testNonFiniteReadingsLeaveWithTheWindow() {
+    assertSameAsWholeWindow(
+        new Average(buildNonFiniteSensor(), INTERVAL),
+        buildNonFiniteSensor(),
+        MomentsAggregatorTest::mean
+    );
+    assertSameAsWholeWindow(
+        new Variance(buildNonFiniteSensor(), INTERVAL),
+        buildNonFiniteSensor(),
+        MomentsAggregatorTest::variance
+    );
+  }
+
+  @Test
+  public void testStandardDeviation() {
+    assertSameAsWholeWindow(
+        new StandardDeviation(buildSensor(), INTERVAL),
+        values -> Math.sqrt(variance(values))
+    );
+  }
+
+  @Test
+  public void testVariance() {
+    assertSameAsWholeWindow(new Variance(buildSensor(), INTERVAL), MomentsAggregatorTest::variance);
+  }
+
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2021 Eric Medvet <eric.medvet@gmail.com> (as Eric Medvet <eric.medvet@gmail.com>)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.units.erallab.hmsrobots.core.sensors;
+
+import it.units.erallab.hmsrobots.core.controllers.PhaseSin;
+import it.units.erallab.hmsrobots.core.geometry.BoundingBox;
+import it.units.erallab.hmsrobots.core.objects.Ground;
+import it.units.erallab.hmsrobots.core.objects.Robot;
+import it.units.erallab.hmsrobots.core.objects.Voxel;
+import it.units.erallab.hmsrobots.tasks.locomotion.Locomotion;
+import it.units.erallab.hmsrobots.util.Grid;
+import it.units.erallab.hmsrobots.util.RobotUtils;
+import org.dyn4j.dynamics.Body;
+import org.dyn4j.geometry.Vector2;
+import org.dyn4j.world.World;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.BiPredicate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TouchTest {
+
+  private static final double DT = 1d / 60d;
+
+  //what touch queries gave when they went through World.getInContactBodies()
+  private static boolean isTouching(Voxel voxel, BiPredicate<Body, Body> predicate) {
+    for (Body vertexBody : voxel.getVertexBodies()) {
+      for (Body inContactBody : voxel.getWorld().getInContactBodies(vertexBody, false)) {
+        if (predicate.test(vertexBody, inContactBody)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private static boolean isTouching(Voxel voxel) {
+    return isTouching(voxel, (b, o) -> o.getUserData() == null || o.getUserData() != b.getUserData());
+  }
+
+  private static boolean isTouchingGround(Voxel voxel) {
+    return isTouching(voxel, (b, o) -> Ground.class.equals(o.getUserData()));
+  }
+
+  private static boolean isTouchingRobot(Voxel voxel) {
+    return isTouching(voxel, (b, o) -> o.getUserData() instanceof Robot && o.getUserData() != b.getUserData());
+  }
+
+  private static Robot buildRobot(String shape, double phase, double minX, double minY) {
+    Grid<Voxel> body = RobotUtils.buildSensorizingFunction("uniform-t-0").apply(RobotUtils.buildShape(shape));
+    Robot robot = new Robot(new PhaseSin(1d, 1d, Grid.create(body.getW(), body.getH(), (x, y) -> x * phase)), body);
+    BoundingBox boundingBox = robot.boundingBox();
+    robot.translate(new Vector2(minX - boundingBox.min().x(), minY - boundingBox.min().y()));
+    return robot;
+  }
+
+  @Test
+  public void testSameAsInContactBodies() {
+    World<Body> world = new World<>();
+    double[][] terrain = Locomotion.createTerrain("hilly-1-10-0");
+    new Ground(terrain[0], terrain[1]).addTo(world);
+    List<Robot> robots = new ArrayList<>();
+    Robot bottomRobot = buildRobot("biped-4x3", 0.5d, 12d, 5d);
+    bottomRobot.addTo(world);
+    robots.add(bottomRobot);
+    int[] counts = new int[3];
+    for (int i = 0; i < 600; i++) {
+      double t = i * DT;
+      if (i == 100) {
+        //the second robot, added while the world already has contacts, falls on the first one
+        BoundingBox boundingBox = bottomRobot.boundingBox();
+        Robot topRobot = buildRobot("worm-4x1", 1d, boundingBox.min().x(), boundingBox.max().y() + 0.5d);
+        topRobot.addTo(world);
+        robots.add(topRobot);
+      }
+      for (Robot robot : robots) {
+        robot.act(t);
+        for (Voxel voxel : robot.getVoxels().values().stream().filter(Objects::nonNull).toList()) {
+          assertEquals(isTouching(voxel), Touch.isTouching(voxel), String.format("touching at t=%.3f", t));
+          assertEquals(isTouchingGround(voxel), Touch.isTouchingGround(voxel), String.format("ground at t=%.3f", t));
+          assertEquals(isTouchingRobot(voxel), Touch.isTouchingRobot(voxel), String.format("robot at t=%.3f", t));
+          counts[0] = counts[0] + (isTouching(voxel) ? 1 : 0);
+          counts[1] = counts[1] + (isTouchingGround(voxel) ? 1 : 0);
+          counts[2] = counts[2] + (isTouchingRobot(voxel) ? 1 : 0);
+        }
+      }
+      world.step(1);
+    }
+    assertTrue(counts[0] > counts[1]);
+    assertTrue(counts[1] > 0);
+    assertTrue(counts[2] > 0);
+  }
+
+}
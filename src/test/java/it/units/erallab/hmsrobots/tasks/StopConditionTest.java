@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2021 Eric Medvet <eric.medvet@gmail.com> (as Eric Medvet <eric.medvet@gmail.com>)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.units.erallab.hmsrobots.tasks;
+
+import it.units.erallab.hmsrobots.core.controllers.PhaseSin;
+import it.units.erallab.hmsrobots.core.objects.Robot;
+import it.units.erallab.hmsrobots.core.objects.Voxel;
+import it.units.erallab.hmsrobots.tasks.balancing.BalanceOutcome;
+import it.units.erallab.hmsrobots.tasks.balancing.Balancing;
+import it.units.erallab.hmsrobots.tasks.locomotion.Locomotion;
+import it.units.erallab.hmsrobots.tasks.locomotion.Outcome;
+import it.units.erallab.hmsrobots.tasks.locomotion.OutcomeAccumulator;
+import it.units.erallab.hmsrobots.util.Grid;
+import it.units.erallab.hmsrobots.util.RobotUtils;
+import org.dyn4j.dynamics.Settings;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StopConditionTest {
+
+  private static Robot buildRobot(String shape, double amplitude) {
+    Grid<Voxel> body = RobotUtils.buildSensorizingFunction("uniform-t+a-0").apply(RobotUtils.buildShape(shape));
+    return new Robot(new PhaseSin(1d, amplitude, Grid.create(body.getW(), body.getH(), (x, y) -> x * 0.8d)), body);
+  }
+
+  private static Locomotion buildLocomotion(double finalT, List<StopCondition> stopConditions) {
+    return buildLocomotion(finalT, stopConditions, false);
+  }
+
+  private static Locomotion buildLocomotion(
+      double finalT,
+      List<StopCondition> stopConditions,
+      boolean keepObservations
+  ) {
+    double[][] terrain = Locomotion.createTerrain("flat");
+    return new Locomotion(
+        finalT,
+        terrain,
+        terrain[0][1] + Locomotion.INITIAL_PLACEMENT_X_GAP,
+        new Settings(),
+        keepObservations,
+        PhysicsBackend.DYN4J,
+        Fidelity.HIGH,
+        stopConditions
+    );
+  }
+
+  @Test
+  public void testNoStopConditions() {
+    Outcome outcome = buildLocomotion(5d, List.of()).apply(buildRobot("worm-5x1", 1d));
+    assertEquals(Termination.Reason.FINAL_TIME, outcome.getTermination().reason());
+    assertFalse(outcome.getTermination().isEarly());
+    assertEquals(outcome.getDistance() / outcome.getTime(), outcome.getVelocity(), 1e-9);
+  }
+
+  @Test
+  public void testNoProgress() {
+    Locomotion locomotion = buildLocomotion(20d, List.of(StopCondition.noProgress(2d, 0.5d)));
+    Outcome outcome = locomotion.apply(buildRobot("worm-5x1", 0d));
+    assertEquals(Termination.Reason.NO_PROGRESS, outcome.getTermination().reason());
+    assertEquals(2d, outcome.getTermination().t(), 0.1d);
+    assertTrue(outcome.getTermination().isEarly());
+    //the same task, used again, starts from a fresh window
+    assertEquals(outcome.getTermination().t(), locomotion.apply(buildRobot("worm-5x1", 0d)).getTermination().t());
+  }
+
+  @Test
+  public void testVelocityIsExtrapolated() {
+    double finalT = 10d;
+    Outcome outcome = buildLocomotion(finalT, List.of(StopCondition.of(
+        Termination.Reason.COMPUTE_BUDGET,
+        (t, robot, terrainHeight, elapsedSeconds) -> t > 5d
+    )), true).apply(buildRobot("worm-5x1", 1d));
+    Termination termination = outcome.getTermination();
+    assertEquals(Termination.Reason.COMPUTE_BUDGET, termination.reason());
+    assertEquals(5d, termination.t(), 0.1d);
+    assertEquals(finalT, termination.finalT());
+    assertEquals(
+        outcome.getDistance() / (outcome.getTime() + finalT - termination.t()),
+        outcome.getVelocity(),
+        1e-9
+    );
+    //a window ending after the stop is extrapolated to its end, one ending before is not
+    Outcome lateOutcome = outcome.subOutcome(2d, 8d);
+    assertEquals(
+        lateOutcome.getDistance() / (lateOutcome.getTime() + 8d - termination.t()),
+        lateOutcome.getVelocity(),
+        1e-9
+    );
+    Outcome earlyOutcome = outcome.subOutcome(1d, 4d);
+    assertFalse(earlyOutcome.getTermination().isEarly());
+    assertEquals(earlyOutcome.getDistance() / earlyOutcome.getTime(), earlyOutcome.getVelocity(), 1e-9);
+  }
+
+  @Test
+  public void testAccumulatedVelocityIsExtrapolated() {
+    for (boolean keepObservations : List.of(false, true)) {
+      OutcomeAccumulator<Double> velocity = OutcomeAccumulator.velocity();
+      Outcome outcome = buildLocomotion(10d, List.of(StopCondition.of(
+          Termination.Reason.COMPUTE_BUDGET,
+          (t, robot, terrainHeight, elapsedSeconds) -> t > 5d
+      )), keepObservations).apply(buildRobot("worm-5x1", 1d), null, List.of(velocity));
+      assertTrue(outcome.getTermination().isEarly());
+      //the accumulator averages the voxel centers, the outcome the polygon vertices: they differ slightly
+      assertEquals(outcome.getVelocity(), velocity.get(), Math.abs(outcome.getVelocity()) * 0.01d);
+    }
+    //without an early stop, the two are the plain ratio
+    OutcomeAccumulator<Double> velocity = OutcomeAccumulator.velocity();
+    Outcome outcome = buildLocomotion(5d, List.of()).apply(buildRobot("worm-5x1", 1d), null, List.of(velocity));
+    assertEquals(outcome.getVelocity(), velocity.get(), Math.abs(outcome.getVelocity()) * 0.01d);
+  }
+
+  @Test
+  public void testAccumulatedVelocityWithFewSteps() {
+    //no steps at all
+    assertEquals(0d, OutcomeAccumulator.velocity().get());
+    //interrupted before the first step
+    OutcomeAccumulator<Double> velocity = OutcomeAccumulator.velocity();
+    Thread.currentThread().interrupt();
+    Outcome outcome = buildLocomotion(5d, List.of()).apply(buildRobot("worm-5x1", 1d), null, List.of(velocity));
+    assertTrue(Thread.interrupted());
+    assertEquals(Termination.Reason.INTERRUPTED, outcome.getTermination().reason());
+    assertEquals(0d, velocity.get());
+    //ended after one step
+    velocity = OutcomeAccumulator.velocity();
+    buildLocomotion(1d / 60d, List.of()).apply(buildRobot("worm-5x1", 1d), null, List.of(velocity));
+    assertEquals(0d, velocity.get());
+    //stopped after one step
+    velocity = OutcomeAccumulator.velocity();
+    buildLocomotion(5d, List.of(StopCondition.of(
+        Termination.Reason.COMPUTE_BUDGET,
+        (t, robot, terrainHeight, elapsedSeconds) -> true
+    ))).apply(buildRobot("worm-5x1", 1d), null, List.of(velocity));
+    assertEquals(0d, velocity.get());
+  }
+
+  @Test
+  public void testFlippedAndBelowTerrain() {
+    Robot robot = buildRobot("box-2x2", 0d);
+    robot.reset();
+    assertFalse(StopCondition.flipped(Math.PI / 2d).test(0d, robot, 0d, 0d));
+    assertFalse(StopCondition.belowTerrain().test(0d, robot, robot.center().y() - 1d, 0d));
+    assertTrue(StopCondition.belowTerrain().test(0d, robot, robot.center().y() + 1d, 0d));
+  }
+
+  @Test
+  public void testBalancingStopsOnGroundContact() {
+    //the robot is placed beyond the platform, hence it falls on the ground
+    Balancing balancing = new Balancing(5d, 10d, 10d, 30d, 0d, new Settings());
+    BalanceOutcome outcome = balancing.apply(buildRobot("box-2x2", 0d));
+    assertEquals(Termination.Reason.GROUND_CONTACT, outcome.getTermination().reason());
+    double dT = new Settings().getStepFrequency();
+    assertTrue(outcome.getTermination().t() < 5d);
+    assertEquals(1d, outcome.getAngles().get(outcome.getAngles().lastKey()));
+    assertTrue(outcome.getAngles().lastKey() >= 5d - dT - 1e-9);
+    //the robot is observed, still, until the final time, as without stop conditions
+    double[] times = outcome.getTimes();
+    assertTrue(times[times.length - 1] >= 5d - dT - 1e-9);
+    assertEquals(outcome.getAngles().keySet().size(), times.length);
+    int stopIndex = outcome.getTrajectory().indexOf(outcome.getTermination().t());
+    assertEquals(
+        outcome.getTrajectory().centerX(stopIndex),
+        outcome.getTrajectory().centerX(times.length - 1)
+    );
+    assertEquals(0d, outcome.subOutcome(outcome.getTermination().t(), 5d).getDistance(), 1e-9);
+    assertEquals(outcome.getDistance() / (5d - times[0]), outcome.getVelocity(), 1e-9);
+    assertEquals(outcome.getTermination().reason(), outcome.subOutcome(0d, 5d).getTermination().reason());
+  }
+
+}
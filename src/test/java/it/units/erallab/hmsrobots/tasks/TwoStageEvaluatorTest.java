@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2021 Eric Medvet <eric.medvet@gmail.com> (as Eric Medvet <eric.medvet@gmail.com>)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.units.erallab.hmsrobots.tasks;
+
+import it.units.erallab.hmsrobots.core.controllers.PhaseSin;
+import it.units.erallab.hmsrobots.core.objects.Robot;
+import it.units.erallab.hmsrobots.core.objects.Voxel;
+import it.units.erallab.hmsrobots.tasks.locomotion.Locomotion;
+import it.units.erallab.hmsrobots.tasks.locomotion.Outcome;
+import it.units.erallab.hmsrobots.util.Grid;
+import it.units.erallab.hmsrobots.util.RobotUtils;
+import org.dyn4j.dynamics.Settings;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TwoStageEvaluatorTest {
+
+  private static Robot buildRobot(double phaseStep) {
+    Grid<Voxel> body = RobotUtils.buildSensorizingFunction("uniform-t+a-0").apply(RobotUtils.buildShape("worm-5x1"));
+    return new Robot(new PhaseSin(1d, 1d, Grid.create(body.getW(), body.getH(), (x, y) -> x * phaseStep)), body);
+  }
+
+  private static Locomotion buildLocomotion(Fidelity fidelity) {
+    double[][] terrain = Locomotion.createTerrain("flat");
+    return new Locomotion(
+        5d,
+        terrain,
+        terrain[0][1] + Locomotion.INITIAL_PLACEMENT_X_GAP,
+        new Settings(),
+        false,
+        PhysicsBackend.DYN4J,
+        fidelity
+    );
+  }
+
+  @Test
+  public void testRankCorrelation() {
+    assertEquals(1d, TwoStageEvaluator.rankCorrelation(new double[]{1, 2, 3, 4}, new double[]{10, 20, 25, 100}), 1e-9);
+    assertEquals(-1d, TwoStageEvaluator.rankCorrelation(new double[]{1, 2, 3, 4}, new double[]{4, 3, 2, 1}), 1e-9);
+    assertEquals(
+        0.9486832980505138d,
+        TwoStageEvaluator.rankCorrelation(new double[]{1, 2, 2, 3}, new double[]{1, 2, 3, 4}),
+        1e-9
+    );
+    assertTrue(Double.isNaN(TwoStageEvaluator.rankCorrelation(new double[]{1}, new double[]{2})));
+  }
+
+  @Test
+  public void testOnlyTopAreReEvaluated() {
+    List<Double> solutions = List.of(3d, 1d, Double.NaN, 4d, 2d, 0d);
+    TwoStageEvaluator<Double, Double> evaluator = new TwoStageEvaluator<>(
+        s -> s,
+        s -> s.stream().map(v -> v * 10d).toList(),
+        v -> v,
+        0.5d
+    );
+    TwoStageEvaluator.Evaluation<Double> evaluation = evaluator.apply(solutions);
+    assertEquals(solutions, evaluation.lowFidelityOutcomes());
+    assertEquals(
+        List.of(3d, 4d, 2d),
+        IntStream.range(0, solutions.size())
+            .filter(i -> evaluation.highFidelityOutcomes().get(i) != null)
+            .mapToObj(solutions::get)
+            .toList()
+    );
+    assertEquals(List.of(30d, 1d, Double.NaN, 40d, 20d, 0d), evaluation.outcomes());
+    assertEquals(1d, evaluation.rankCorrelation(), 1e-9);
+  }
+
+  @Test
+  public void testLowFidelityLocomotion() {
+    List<Robot> robots = IntStream.range(0, 4).mapToObj(i -> buildRobot(0.4d * i)).toList();
+    TwoStageEvaluator<Robot, Outcome> evaluator = new TwoStageEvaluator<>(
+        buildLocomotion(Fidelity.LOW),
+        buildLocomotion(Fidelity.HIGH),
+        Outcome::getVelocity,
+        0.5d
+    );
+    TwoStageEvaluator.Evaluation<Outcome> evaluation = evaluator.apply(robots);
+    assertEquals(2, evaluation.highFidelityOutcomes().stream().filter(o -> o != null).count());
+    for (Outcome outcome : evaluation.lowFidelityOutcomes()) {
+      assertTrue(Double.isFinite(outcome.getVelocity()));
+    }
+    //the low fidelity does not change the robots
+    for (Robot robot : robots) {
+      robot.reset();
+      assertEquals(Robot.Assembly.WELDED_VERTICES, robot.getAssembly());
+    }
+  }
+
+}
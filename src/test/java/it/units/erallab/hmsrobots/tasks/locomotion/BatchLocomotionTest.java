@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2021 Eric Medvet <eric.medvet@gmail.com> (as Eric Medvet <eric.medvet@gmail.com>)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.units.erallab.hmsrobots.tasks.locomotion;
+
+import it.units.erallab.hmsrobots.core.controllers.BatchedMultiLayerPerceptron;
+import it.units.erallab.hmsrobots.core.controllers.CentralizedSensing;
+import it.units.erallab.hmsrobots.core.controllers.MultiLayerPerceptron;
+import it.units.erallab.hmsrobots.core.controllers.PhaseSin;
+import it.units.erallab.hmsrobots.core.controllers.StepController;
+import it.units.erallab.hmsrobots.core.controllers.TimedRealFunction;
+import it.units.erallab.hmsrobots.core.objects.Robot;
+import it.units.erallab.hmsrobots.core.objects.Voxel;
+import it.units.erallab.hmsrobots.tasks.Fidelity;
+import it.units.erallab.hmsrobots.tasks.PhysicsBackend;
+import it.units.erallab.hmsrobots.tasks.StopCondition;
+import it.units.erallab.hmsrobots.tasks.Termination;
+import it.units.erallab.hmsrobots.util.Grid;
+import it.units.erallab.hmsrobots.util.RobotUtils;
+import org.dyn4j.dynamics.Settings;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BatchLocomotionTest {
+
+  private static final double FINAL_T = 2d;
+
+  private static Locomotion buildLocomotion() {
+    double[][] terrain = Locomotion.createTerrain("flat");
+    return new Locomotion(FINAL_T, terrain, terrain[0][1] + Locomotion.INITIAL_PLACEMENT_X_GAP, new Settings(), false);
+  }
+
+  private static List<Robot> buildRobots(int n) {
+    return IntStream.range(0, n).mapToObj(i -> {
+      Grid<Voxel> body = RobotUtils.buildSensorizingFunction("uniform-t+a-0").apply(RobotUtils.buildShape("worm-4x1"));
+      return new Robot(new PhaseSin(1d, 1d, Grid.create(body.getW(), body.getH(), (x, y) -> x * i / 4d)), body);
+    }).toList();
+  }
+
+  private static Grid<Voxel> buildMlpBody() {
+    return RobotUtils.buildSensorizingFunction("uniform-a+vxy-0").apply(RobotUtils.buildShape("biped-4x3"));
+  }
+
+  private static Robot buildMlpRobot(TimedRealFunction function, boolean stepped) {
+    Grid<Voxel> body = buildMlpBody();
+    CentralizedSensing controller = new CentralizedSensing(body, function);
+    return new Robot(stepped ? new StepController(controller, 0.2d) : controller, body);
+  }
+
+  @Test
+  public void testBatchedMembersGiveSameOutcomesOfIndependentMlps() {
+    //robots with a stepped controller stop early: their members have to leave the batch for the others to go on
+    double[][] terrain = Locomotion.createTerrain("flat");
+    Locomotion locomotion = new Locomotion(
+        FINAL_T,
+        terrain,
+        terrain[0][1] + Locomotion.INITIAL_PLACEMENT_X_GAP,
+        new Settings(),
+        false,
+        PhysicsBackend.DYN4J,
+        Fidelity.HIGH,
+        List.of(StopCondition.of(
+            Termination.Reason.NO_PROGRESS,
+            (t, robot, terrainHeight, elapsedSeconds) -> t > FINAL_T / 2d && robot.getController() instanceof StepController
+        ))
+    );
+    List<MultiLayerPerceptron> mlps = buildMlps(4);
+    List<BatchedMultiLayerPerceptron.Member> members = new BatchedMultiLayerPerceptron(mlps).members();
+    List<Outcome> batchedOutcomes;
+    try (BatchLocomotion batchLocomotion = new BatchLocomotion(locomotion, members.size())) {
+      batchedOutcomes = batchLocomotion.apply(
+          members.stream().map(m -> buildMlpRobot(m, m.getIndex() % 2 == 0)).toList()
+      );
+    }
+    for (int i = 0; i < mlps.size(); i++) {
+      Outcome outcome = locomotion.apply(buildMlpRobot(mlps.get(i), i % 2 == 0), null);
+      assertEquals(outcome.getTermination(), batchedOutcomes.get(i).getTermination());
+      assertEquals(outcome.getDistance(), batchedOutcomes.get(i).getDistance(), 0d);
+    }
+  }
+
+  private static List<MultiLayerPerceptron> buildMlps(int n) {
+    int nOfInputs = CentralizedSensing.nOfInputs(buildMlpBody());
+    int nOfOutputs = CentralizedSensing.nOfOutputs(buildMlpBody());
+    Random random = new Random(1);
+    return IntStream.range(0, n).mapToObj(i -> {
+      MultiLayerPerceptron mlp = new MultiLayerPerceptron(
+          MultiLayerPerceptron.ActivationFunction.TANH,
+          nOfInputs,
+          new int[]{8},
+          nOfOutputs
+      );
+      mlp.setParams(random.doubles(mlp.getParams().length, -1, 1).toArray());
+      return mlp;
+    }).toList();
+  }
+
+  @Test
+  @Timeout(60)
+  public void testBatchedMembersInGroupsRunWithFewerThreadsThanMembers() {
+    Locomotion locomotion = buildLocomotion();
+    List<MultiLayerPerceptron> mlps = buildMlps(5);
+    //members are submitted in reverse order, but the ones of the same group have to get threads together
+    List<BatchedMultiLayerPerceptron.Member> members = new BatchedMultiLayerPerceptron(mlps).members(2);
+    List<Robot> robots = IntStream.range(0, members.size())
+        .mapToObj(i -> buildMlpRobot(members.get(members.size() - 1 - i), false))
+        .toList();
+    List<Outcome> batchedOutcomes;
+    List<Outcome> secondBatchedOutcomes;
+    try (BatchLocomotion batchLocomotion = new BatchLocomotion(locomotion, 2)) {
+      batchedOutcomes = batchLocomotion.apply(robots);
+      //the same members can be evaluated again
+      secondBatchedOutcomes = batchLocomotion.apply(robots);
+    }
+    for (int i = 0; i < mlps.size(); i++) {
+      Outcome outcome = locomotion.apply(buildMlpRobot(mlps.get(i), false), null);
+      assertEquals(outcome.getDistance(), batchedOutcomes.get(mlps.size() - 1 - i).getDistance(), 0d);
+      assertEquals(outcome.getDistance(), secondBatchedOutcomes.get(mlps.size() - 1 - i).getDistance(), 0d);
+    }
+  }
+
+  @Test
+  public void testGroupsLargerThanParallelismAreRejected() {
+    List<BatchedMultiLayerPerceptron.Member> members = new BatchedMultiLayerPerceptron(buildMlps(3)).members();
+    try (BatchLocomotion batchLocomotion = new BatchLocomotion(buildLocomotion(), 2)) {
+      assertThrows(
+          IllegalArgumentException.class,
+          () -> batchLocomotion.apply(members.stream().map(m -> buildMlpRobot(m, false)).toList())
+      );
+    }
+  }
+
+  @Test
+  public void testCloseShutsDownOnlyOwnedExecutors() {
+    BatchLocomotion batchLocomotion = new BatchLocomotion(buildLocomotion(), 2);
+    batchLocomotion.close();
+    assertThrows(RejectedExecutionException.class, () -> batchLocomotion.apply(buildRobots(1)));
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      new BatchLocomotion(buildLocomotion(), executor, Double.POSITIVE_INFINITY).close();
+      assertFalse(executor.isShutdown());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testStepsAreCountedWithoutObservations() {
+    try (BatchLocomotion batchLocomotion = new BatchLocomotion(buildLocomotion(), 2)) {
+      List<Outcome> outcomes = batchLocomotion.apply(buildRobots(3));
+      assertTrue(outcomes.stream().allMatch(Objects::nonNull));
+      long expectedSteps = 3 * Math.round(FINAL_T / new Settings().getStepFrequency());
+      assertEquals(expectedSteps, batchLocomotion.getLastStats().nOfSteps(), 3);
+    }
+  }
+
+  @Test
+  public void testTimeoutDoesNotAffectLaterEpisodes() {
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      Locomotion locomotion = buildLocomotion();
+      List<Outcome> timedOutOutcomes = new BatchLocomotion(locomotion, executor, 1e-3).apply(buildRobots(4));
+      assertTrue(timedOutOutcomes.stream().anyMatch(Objects::isNull));
+      BatchLocomotion batchLocomotion = new BatchLocomotion(locomotion, executor, Double.POSITIVE_INFINITY);
+      List<Outcome> outcomes = batchLocomotion.apply(buildRobots(4));
+      assertTrue(outcomes.stream().allMatch(o -> o != null && o.getTermination().t() >= FINAL_T));
+      assertEquals(0, batchLocomotion.getLastStats().nOfFailedEpisodes());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+}
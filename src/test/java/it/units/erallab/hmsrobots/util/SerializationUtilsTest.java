@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2021 Eric Medvet <eric.medvet@gmail.com> (as Eric Medvet <eric.medvet@gmail.com>)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.units.erallab.hmsrobots.util;
+
+import it.units.erallab.hmsrobots.core.controllers.CentralizedSensing;
+import it.units.erallab.hmsrobots.core.controllers.MultiLayerPerceptron;
+import it.units.erallab.hmsrobots.core.objects.Robot;
+import it.units.erallab.hmsrobots.core.objects.Voxel;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SerializationUtilsTest {
+
+  private static Robot buildRobot() {
+    Grid<Voxel> body = RobotUtils.buildSensorizingFunction("uniform-t+a+cpg+l5-0")
+        .apply(RobotUtils.buildShape("biped-4x3"));
+    MultiLayerPerceptron mlp = new MultiLayerPerceptron(
+        MultiLayerPerceptron.ActivationFunction.TANH,
+        CentralizedSensing.nOfInputs(body),
+        new int[]{5},
+        CentralizedSensing.nOfOutputs(body)
+    );
+    mlp.setParams(new Random(0).doubles(mlp.getParams().length, -1d, 1d).toArray());
+    return new Robot(new CentralizedSensing(body, mlp), body);
+  }
+
+  @Test
+  public void testBinaryPrimitives() {
+    double[][] values = new double[][]{
+        {1d, -0d, Double.NaN, Double.POSITIVE_INFINITY, Double.MIN_VALUE},
+        {},
+        {Double.NEGATIVE_INFINITY}
+    };
+    double[][] cloned = SerializationUtils.clone(values, SerializationUtils.Mode.BINARY);
+    assertEquals(values.length, cloned.length);
+    for (int i = 0; i < values.length; i++) {
+      assertArrayEquals(values[i], cloned[i]);
+    }
+    String[] strings = new String[]{"a", "b", "a", "àè", "a"};
+    assertArrayEquals(strings, SerializationUtils.clone(strings, SerializationUtils.Mode.BINARY));
+    int[] ints = new int[]{0, -1, Integer.MAX_VALUE, Integer.MIN_VALUE};
+    assertArrayEquals(ints, SerializationUtils.clone(ints, SerializationUtils.Mode.BINARY));
+  }
+
+  @Test
+  public void testCopy() {
+    Robot robot = buildRobot();
+    String json = SerializationUtils.serialize(robot, SerializationUtils.Mode.JSON);
+    Robot copy = SerializationUtils.clone(robot);
+    assertNotSame(robot.getController(), copy.getController());
+    assertNotSame(robot.getVoxels().get(0, 0), copy.getVoxels().get(0, 0));
+    assertNotSame(robot.getVoxels().get(0, 0).getSensors().get(0), copy.getVoxels().get(0, 0).getSensors().get(0));
+    assertEquals(json, SerializationUtils.serialize(copy, SerializationUtils.Mode.JSON));
+  }
+
+  @Test
+  public void testModes() throws IOException {
+    Robot robot = buildRobot();
+    String json = SerializationUtils.serialize(robot, SerializationUtils.Mode.JSON);
+    for (SerializationUtils.Mode mode : SerializationUtils.Mode.values()) {
+      Robot fromString = SerializationUtils.deserialize(SerializationUtils.serialize(robot, mode), Robot.class, mode);
+      assertEquals(json, SerializationUtils.serialize(fromString, SerializationUtils.Mode.JSON), mode.toString());
+      ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+      SerializationUtils.serialize(robot, outputStream, mode);
+      Robot fromStream = SerializationUtils.deserialize(
+          new ByteArrayInputStream(outputStream.toByteArray()),
+          Robot.class,
+          mode
+      );
+      assertEquals(json, SerializationUtils.serialize(fromStream, SerializationUtils.Mode.JSON), mode.toString());
+    }
+  }
+
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2022 Eric Medvet <eric.medvet@gmail.com> (as Eric Medvet <eric.medvet@gmail.com>)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.units.erallab.hmsrobots.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class SlidingStatisticsTest {
+
+  private static final int WINDOW = 37;
+
+  @Test
+  public void testSlidingMinMax() {
+    Random random = new Random(1);
+    double[] values = random.doubles(1000, -10, 10).toArray();
+    SlidingMinMax minMax = new SlidingMinMax();
+    for (int i = 0; i < values.length; i++) {
+      minMax.add(values[i]);
+      if (i >= WINDOW) {
+        minMax.remove();
+      }
+      double[] window = Arrays.copyOfRange(values, Math.max(0, i - WINDOW + 1), i + 1);
+      assertEquals(window.length, minMax.size());
+      assertEquals(Arrays.stream(window).min().orElseThrow(), minMax.min());
+      assertEquals(Arrays.stream(window).max().orElseThrow(), minMax.max());
+    }
+  }
+
+  @Test
+  public void testSlidingMoments() {
+    Random random = new Random(1);
+    double[] values = random.doubles(1000, 1e3, 1e3 + 1).toArray();
+    SlidingMoments moments = new SlidingMoments();
+    for (int i = 0; i < values.length; i++) {
+      moments.add(values[i]);
+      if (i >= WINDOW) {
+        moments.remove(values[i - WINDOW]);
+      }
+      double[] window = Arrays.copyOfRange(values, Math.max(0, i - WINDOW + 1), i + 1);
+      double mean = Arrays.stream(window).average().orElseThrow();
+      double variance = Arrays.stream(window).map(v -> (v - mean) * (v - mean)).sum() / window.length;
+      assertEquals(mean, moments.mean(), 1e-9);
+      assertEquals(variance, moments.variance(), 1e-9);
+    }
+  }
+
+  @Test
+  public void testSlidingMomentsWithNonFiniteValues() {
+    Random random = new Random(1);
+    double[] values = random.doubles(1000, -10, 10).toArray();
+    for (int i = 100; i < 900; i = i + 100) {
+      values[i] = Double.NaN;
+      values[i + 10] = Double.POSITIVE_INFINITY;
+      values[i + 20] = Double.NEGATIVE_INFINITY;
+      values[i + 60] = Double.POSITIVE_INFINITY;
+      values[i + 70 + random.nextInt(10)] = Double.NEGATIVE_INFINITY;
+    }
+    SlidingMoments moments = new SlidingMoments();
+    for (int i = 0; i < values.length; i++) {
+      moments.add(values[i]);
+      if (i >= WINDOW) {
+        moments.remove(values[i - WINDOW]);
+      }
+      double[] window = Arrays.copyOfRange(values, Math.max(0, i - WINDOW + 1), i + 1);
+      double sum = Arrays.stream(window).sum();
+      double mean = Arrays.stream(window).average().orElseThrow();
+      double variance = Arrays.stream(window).map(v -> (v - mean) * (v - mean)).sum() / window.length;
+      assertEquals(window.length, moments.size());
+      assertEquals(sum, moments.sum(), 1e-9);
+      assertEquals(mean, moments.mean(), 1e-9);
+      assertEquals(variance, moments.variance(), 1e-9);
+    }
+  }
+
+}
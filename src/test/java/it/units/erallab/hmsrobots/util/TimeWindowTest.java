@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2022 Eric Medvet <eric.medvet@gmail.com> (as Eric Medvet <eric.medvet@gmail.com>)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.units.erallab.hmsrobots.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TimeWindowTest {
+
+  @Test
+  public void testDoubleTimeWindow() {
+    DoubleTimeWindow window = new DoubleTimeWindow(2, 2);
+    for (int i = 0; i < 10; i++) {
+      window.add(i, new double[]{i, -i});
+      window.evictBefore(i - 3);
+    }
+    assertEquals(4, window.size());
+    assertEquals(6d, window.firstTime());
+    assertEquals(9d, window.lastTime());
+    assertEquals(6d, window.value(0, 0));
+    assertEquals(-9d, window.value(3, 1));
+    assertArrayEquals(new double[]{6d, 7d, 8d, 9d}, window.times());
+  }
+
+  @Test
+  public void testTimeWindow() {
+    TimeWindow<String> window = new TimeWindow<>(1);
+    window.add(0, "a");
+    window.add(1, "b");
+    window.add(1, "c");
+    assertEquals(List.of("a", "c"), window.values());
+    window.add(2, "d");
+    assertEquals(1, window.evictBefore(1));
+    assertEquals("c", window.first());
+    assertEquals("d", window.last());
+    window.add(0.5, "e");
+    assertEquals(List.of("e"), window.values());
+    window.clear();
+    assertTrue(window.isEmpty());
+    assertThrows(IllegalStateException.class, window::last);
+  }
+
+}
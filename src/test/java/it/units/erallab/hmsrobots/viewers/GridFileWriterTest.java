@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2021 Eric Medvet <eric.medvet@gmail.com> (as Eric Medvet <eric.medvet@gmail.com>)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.units.erallab.hmsrobots.viewers;
+
+import it.units.erallab.hmsrobots.core.controllers.PhaseSin;
+import it.units.erallab.hmsrobots.core.geometry.BoundingBox;
+import it.units.erallab.hmsrobots.core.objects.Robot;
+import it.units.erallab.hmsrobots.core.objects.Voxel;
+import it.units.erallab.hmsrobots.core.snapshots.Snapshot;
+import it.units.erallab.hmsrobots.core.snapshots.SnapshotListener;
+import it.units.erallab.hmsrobots.tasks.Task;
+import it.units.erallab.hmsrobots.tasks.locomotion.Locomotion;
+import it.units.erallab.hmsrobots.util.Grid;
+import it.units.erallab.hmsrobots.util.RobotUtils;
+import it.units.erallab.hmsrobots.viewers.drawers.Drawer;
+import it.units.erallab.hmsrobots.viewers.drawers.Drawers;
+import org.apache.commons.lang3.tuple.Pair;
+import org.dyn4j.dynamics.Settings;
+import org.jcodec.api.JCodecException;
+import org.jcodec.api.awt.AWTFrameGrab;
+import org.jcodec.common.io.NIOUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class GridFileWriterTest {
+
+  private static final int W = 240;
+  private static final int H = 120;
+  private static final double START_TIME = 0.5d;
+  private static final double FRAME_RATE = 10d;
+
+  private static Robot buildRobot(String shape, double phase) {
+    Grid<Voxel> body = RobotUtils.buildSensorizingFunction("uniform-t+a-0").apply(RobotUtils.buildShape(shape));
+    return new Robot(new PhaseSin(1d, 1d, Grid.create(body.getW(), body.getH(), (x, y) -> x * phase)), body);
+  }
+
+  private static Grid<Robot> buildRobots() {
+    //the empty cell is never drawn and is done from the beginning
+    Grid<Robot> robots = Grid.create(3, 1);
+    robots.set(0, 0, buildRobot("worm-4x1", 0.5d));
+    robots.set(2, 0, buildRobot("biped-4x3", 1d));
+    return robots;
+  }
+
+  private static List<BufferedImage> decode(File file) throws IOException, JCodecException {
+    AWTFrameGrab grab = AWTFrameGrab.createAWTFrameGrab(NIOUtils.readableChannel(file));
+    List<BufferedImage> frames = new ArrayList<>();
+    BufferedImage frame;
+    while ((frame = grab.getFrame()) != null) {
+      frames.add(frame);
+    }
+    return frames;
+  }
+
+  private static void assertSameFrames(List<BufferedImage> expected, List<BufferedImage> actual) {
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      int w = expected.get(i).getWidth();
+      int h = expected.get(i).getHeight();
+      assertArrayEquals(
+          expected.get(i).getRGB(0, 0, w, h, null, 0, w),
+          actual.get(i).getRGB(0, 0, w, h, null, 0, w),
+          String.format("Frame %d differs", i)
+      );
+    }
+  }
+
+  //draws all the frames in memory, cell after cell, and encodes them at the end, as the non-streaming writer did
+  private static void writeBuffered(Task<Robot, ?> task, Grid<Robot> robots, File file) throws IOException {
+    List<BufferedImage> images = new ArrayList<>();
+    for (Grid.Entry<Robot> entry : robots) {
+      if (entry.value() == null) {
+        continue;
+      }
+      Drawer drawer = Drawer.clip(
+          BoundingBox.of(
+              (double) entry.key().x() / (double) robots.getW(),
+              (double) entry.key().y() / (double) robots.getH(),
+              (double) (entry.key().x() + 1) / (double) robots.getW(),
+              (double) (entry.key().y() + 1) / (double) robots.getH()
+          ),
+          Drawers.basic()
+      );
+      List<Double> times = new ArrayList<>();
+      task.apply(entry.value(), new SnapshotListener() {
+        @Override
+        public void listen(double t, Snapshot snapshot) {
+          if (!needsSnapshot(t)) {
+            return;
+          }
+          int frameNumber = (int) Math.round((t - START_TIME) * FRAME_RATE);
+          int lastFrameNumber = times.isEmpty() ? frameNumber : (int) Math.round(
+              (times.get(times.size() - 1) - START_TIME) * FRAME_RATE
+          );
+          times.add(t);
+          while (frameNumber >= images.size()) {
+            images.add(new BufferedImage(W, H, BufferedImage.TYPE_3BYTE_BGR));
+          }
+          for (int i = lastFrameNumber; i <= frameNumber; i++) {
+            Graphics2D g = images.get(i).createGraphics();
+            g.setClip(0, 0, W, H);
+            drawer.draw(t, snapshot, g);
+            g.dispose();
+          }
+        }
+
+        @Override
+        public boolean needsSnapshot(double t) {
+          double lastT = times.isEmpty() ? Double.NEGATIVE_INFINITY : times.get(times.size() - 1);
+          return t >= START_TIME && t - lastT >= 1d / FRAME_RATE;
+        }
+      });
+    }
+    VideoUtils.encodeAndSave(images, FRAME_RATE, file, VideoUtils.EncoderFacility.JCODEC);
+  }
+
+  private static void writeStreamed(
+      Task<Robot, ?> task,
+      Grid<Robot> robots,
+      File file,
+      int nOfThreads,
+      int reorderBufferSize
+  ) {
+    GridFileWriter writer = new GridFileWriter(
+        W, H, START_TIME, FRAME_RATE, VideoUtils.EncoderFacility.JCODEC, file,
+        Grid.create(robots, r -> r == null ? null : "robot"),
+        Grid.create(robots, r -> r == null ? null : Drawers.basic()),
+        Drawers.basic().getSnapshotFilter(),
+        reorderBufferSize
+    );
+    ExecutorService executor = Executors.newFixedThreadPool(nOfThreads);
+    new GridEpisodeRunner<>(
+        Grid.create(robots, r -> Pair.of(r == null ? null : new NamedValue<>("robot", r), task)),
+        writer,
+        executor
+    ).run();
+    executor.shutdownNow();
+  }
+
+  private static void testSameVideoAsBuffered(
+      Path dir,
+      int nOfThreads,
+      int reorderBufferSize
+  ) throws IOException, JCodecException {
+    Locomotion locomotion = new Locomotion(4d, Locomotion.createTerrain("flat"), new Settings());
+    File bufferedFile = dir.resolve("buffered.mp4").toFile();
+    File streamedFile = dir.resolve("streamed.mp4").toFile();
+    writeBuffered(locomotion, buildRobots(), bufferedFile);
+    writeStreamed(locomotion, buildRobots(), streamedFile, nOfThreads, reorderBufferSize);
+    List<BufferedImage> bufferedFrames = decode(bufferedFile);
+    assertTrue(bufferedFrames.size() >= (4d - START_TIME) * FRAME_RATE);
+    assertSameFrames(bufferedFrames, decode(streamedFile));
+  }
+
+  @Test
+  public void testSameVideoAsBufferedWithConcurrentCells(@TempDir Path dir) throws IOException, JCodecException {
+    //a small buffer makes the faster cell wait for the slower one
+    testSameVideoAsBuffered(dir, 2, 2);
+  }
+
+  @Test
+  @Timeout(60)
+  public void testSameVideoAsBufferedWithSingleThreadedCaller(@TempDir Path dir) throws IOException, JCodecException {
+    //both listeners are taken before the first cell is fed: the first cell cannot wait for the second one
+    Locomotion locomotion = new Locomotion(4d, Locomotion.createTerrain("flat"), new Settings());
+    File bufferedFile = dir.resolve("buffered.mp4").toFile();
+    File streamedFile = dir.resolve("streamed.mp4").toFile();
+    writeBuffered(locomotion, buildRobots(), bufferedFile);
+    Grid<Robot> robots = buildRobots();
+    GridFileWriter writer = new GridFileWriter(
+        W, H, START_TIME, FRAME_RATE, VideoUtils.EncoderFacility.JCODEC, streamedFile,
+        Grid.create(robots, r -> r == null ? null : "robot"),
+        Grid.create(robots, r -> r == null ? null : Drawers.basic()),
+        Drawers.basic().getSnapshotFilter(),
+        2
+    );
+    writer.done(1, 0);
+    SnapshotListener firstListener = writer.listener(0, 0);
+    SnapshotListener secondListener = writer.listener(2, 0);
+    locomotion.apply(robots.get(0, 0), firstListener);
+    writer.done(0, 0);
+    locomotion.apply(robots.get(2, 0), secondListener);
+    writer.done(2, 0);
+    writer.flush();
+    assertSameFrames(decode(bufferedFile), decode(streamedFile));
+    //further snapshots are ignored and a further flush does not write the video again
+    byte[] bytes = Files.readAllBytes(streamedFile.toPath());
+    locomotion.apply(robots.get(0, 0), firstListener);
+    writer.flush();
+    assertArrayEquals(bytes, Files.readAllBytes(streamedFile.toPath()));
+  }
+
+  @Test
+  public void testSameVideoAsBufferedWithSequentialCells(@TempDir Path dir) throws IOException, JCodecException {
+    //the second cell starts only after the first is done, hence the buffer grows beyond its size
+    testSameVideoAsBuffered(dir, 1, 2);
+  }
+
+}
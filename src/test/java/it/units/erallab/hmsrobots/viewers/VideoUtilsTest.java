@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2022 Eric Medvet <eric.medvet@gmail.com> (as Eric Medvet <eric.medvet@gmail.com>)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package it.units.erallab.hmsrobots.viewers;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+public class VideoUtilsTest {
+
+  private static Path stub(Path dir, String script) throws IOException {
+    Path stub = dir.resolve("ffmpeg-stub.sh");
+    Files.writeString(stub, "#!/bin/sh\n" + script);
+    assumeTrue(stub.toFile().setExecutable(true));
+    return stub;
+  }
+
+  @Test
+  public void testPipeWriter(@TempDir Path dir) throws IOException {
+    assumeTrue(new File("/bin/sh").canExecute());
+    //the stub copies its standard input to the output file, i.e., the last argument
+    Path stub = stub(dir, "for last; do :; done\ncat > \"$last\"\n");
+    File file = dir.resolve("video.raw").toFile();
+    int nOfFrames = 5;
+    try (VideoUtils.VideoWriter writer = VideoUtils.pipeWriter(stub.toString(), 10, file, 18)) {
+      for (int i = 0; i < nOfFrames; i++) {
+        BufferedImage image = new BufferedImage(4, 3, BufferedImage.TYPE_3BYTE_BGR);
+        Graphics2D g = image.createGraphics();
+        g.setColor(new Color(i, 0, 255));
+        g.fillRect(0, 0, 4, 3);
+        g.dispose();
+        writer.write(image);
+      }
+    }
+    byte[] bytes = Files.readAllBytes(file.toPath());
+    assertEquals(nOfFrames * 4 * 3 * 3, bytes.length);
+    for (int i = 0; i < nOfFrames; i++) {
+      int offset = i * 4 * 3 * 3;
+      assertArrayEquals(new byte[]{(byte) 255, 0, (byte) i}, new byte[]{bytes[offset], bytes[offset + 1], bytes[offset + 2]});
+    }
+  }
+
+  @Test
+  public void testPipeWriterFailure(@TempDir Path dir) throws IOException {
+    assumeTrue(new File("/bin/sh").canExecute());
+    Path stub = stub(dir, "echo failure\nexit 1\n");
+    VideoUtils.VideoWriter writer = VideoUtils.pipeWriter(stub.toString(), 10, dir.resolve("video.mp4").toFile(), 18);
+    IOException exception = assertThrows(IOException.class, () -> {
+      try (writer) {
+        for (int i = 0; i < 100; i++) {
+          writer.write(new BufferedImage(64, 64, BufferedImage.TYPE_3BYTE_BGR));
+        }
+      }
+    });
+    assertNotNull(exception.getMessage());
+  }
+
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2021 Eric Medvet <eric.medvet@gmail.com> (as Eric Medvet <eric.medvet@gmail.com>)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.units.erallab.hmsrobots.viewers.drawers;
+
+import it.units.erallab.hmsrobots.core.controllers.CentralizedSensing;
+import it.units.erallab.hmsrobots.core.controllers.MultiLayerPerceptron;
+import it.units.erallab.hmsrobots.core.geometry.Poly;
+import it.units.erallab.hmsrobots.core.geometry.Vector;
+import it.units.erallab.hmsrobots.core.objects.Ground;
+import it.units.erallab.hmsrobots.core.objects.Robot;
+import it.units.erallab.hmsrobots.core.objects.Voxel;
+import it.units.erallab.hmsrobots.core.snapshots.*;
+import it.units.erallab.hmsrobots.core.sensors.Sensor;
+import it.units.erallab.hmsrobots.tasks.locomotion.Locomotion;
+import it.units.erallab.hmsrobots.util.Grid;
+import it.units.erallab.hmsrobots.util.RobotUtils;
+import it.units.erallab.hmsrobots.viewers.FramesImageBuilder;
+import org.dyn4j.dynamics.Body;
+import org.dyn4j.dynamics.Settings;
+import org.dyn4j.world.World;
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SubtreeDrawerTest {
+
+  private static Robot buildRobot() {
+    Grid<Voxel> body = RobotUtils.buildSensorizingFunction("uniform-t+a+vxy-0").apply(RobotUtils.buildShape("biped-4x3"));
+    MultiLayerPerceptron mlp = new MultiLayerPerceptron(
+        MultiLayerPerceptron.ActivationFunction.TANH,
+        CentralizedSensing.nOfInputs(body),
+        new int[]{4},
+        CentralizedSensing.nOfOutputs(body)
+    );
+    mlp.setParams(new Random(1).doubles(mlp.getParams().length, -1, 1).toArray());
+    return new Robot(new CentralizedSensing(body, mlp), body);
+  }
+
+  private static Robot buildActedRobot() {
+    Robot robot = buildRobot();
+    World<Body> world = new World<>();
+    robot.addTo(world);
+    robot.act(0.1d);
+    return robot;
+  }
+
+  private static List<Snapshot> voxelChildren(Snapshot robotSnapshot) {
+    return robotSnapshot.getChildren().stream()
+        .filter(s -> Voxel.class.isAssignableFrom(s.getSnapshottableClass()))
+        .toList();
+  }
+
+  private static boolean containsContent(Snapshot snapshot, Class<?> contentClass) {
+    return !SubtreeDrawer.Extractor.matches(contentClass, null, null).extract(snapshot).isEmpty();
+  }
+
+  private static boolean containsSnapshottable(Snapshot snapshot, Class<? extends Snapshottable> snapshottableClass) {
+    return !SubtreeDrawer.Extractor.matches(null, snapshottableClass, null).extract(snapshot).isEmpty();
+  }
+
+  @Test
+  public void testExcludingFilter() {
+    SnapshotFilter filter = SnapshotFilter.excluding(Voxel.class, Poly.class).without(Sensor.class, null);
+    assertFalse(filter.includes(Voxel.class, Poly.class));
+    assertTrue(filter.includes(Voxel.class, Vector.class));
+    assertTrue(filter.includes(Voxel.class, null));
+    assertTrue(filter.includes(Robot.class, Poly.class));
+    assertFalse(filter.includes(Sensor.class, null));
+    assertFalse(filter.includes(Sensor.class, ScopedReadings.class));
+  }
+
+  @Test
+  public void testVoxelDrawerNeedsOnlyVoxels() {
+    SnapshotFilter filter = new VoxelDrawer().getSnapshotFilter();
+    Snapshot snapshot = buildActedRobot().getSnapshot(filter);
+    assertEquals(10, voxelChildren(snapshot).size());
+    assertFalse(containsContent(snapshot, Poly.class));
+    assertFalse(containsContent(snapshot, Vector.class));
+    assertFalse(containsSnapshottable(snapshot, Sensor.class));
+    assertFalse(containsSnapshottable(snapshot, CentralizedSensing.class));
+    assertFalse(filter.includes(Ground.class, null));
+    assertTrue(filter.includes(Robot.class, null));
+  }
+
+  @Test
+  public void testWorldDrawerNeedsSensorsButNotVoxelParts() {
+    SnapshotFilter filter = Drawers.basic().getSnapshotFilter();
+    Snapshot snapshot = buildActedRobot().getSnapshot(filter);
+    assertEquals(10, voxelChildren(snapshot).size());
+    assertTrue(voxelChildren(snapshot).stream().allMatch(s -> containsContent(s, ScopedReadings.class)));
+    assertFalse(containsContent(snapshot, Poly.class));
+    assertFalse(containsContent(snapshot, Vector.class));
+    assertFalse(containsContent(snapshot, MLPState.class));
+    assertTrue(filter.includes(Ground.class, null));
+  }
+
+  @Test
+  public void testMLPDrawerNeedsOnlyController() {
+    SnapshotFilter filter = new MLPDrawer(SubtreeDrawer.Extractor.matches(MLPState.class, null, null), 5d)
+        .getSnapshotFilter();
+    Snapshot snapshot = buildActedRobot().getSnapshot(filter);
+    assertTrue(voxelChildren(snapshot).isEmpty());
+    assertTrue(containsContent(snapshot, MLPState.class));
+    assertFalse(containsSnapshottable(snapshot, Sensor.class));
+  }
+
+  @Test
+  public void testUnfilteredDrawerNeedsAll() {
+    Drawer drawer = Drawer.of(Drawer.clear(), (t, snapshot, g) -> {
+    });
+    assertSame(SnapshotFilter.all(), drawer.getSnapshotFilter());
+    Snapshot snapshot = buildActedRobot().getSnapshot(drawer.getSnapshotFilter());
+    assertTrue(containsContent(snapshot, Poly.class));
+    assertTrue(containsContent(snapshot, Vector.class));
+  }
+
+  @Test
+  public void testFilteredSnapshotsAreDrawnAsFullOnes() {
+    Locomotion locomotion = new Locomotion(2d, Locomotion.createTerrain("flat"), new Settings());
+    FramesImageBuilder filtered = new FramesImageBuilder(
+        0.5d, 2d, 0.5d, 200, 100, FramesImageBuilder.Direction.HORIZONTAL, Drawers.basic()
+    );
+    FramesImageBuilder full = new FramesImageBuilder(
+        0.5d, 2d, 0.5d, 200, 100, FramesImageBuilder.Direction.HORIZONTAL, Drawers.basic()
+    ) {
+      @Override
+      public SnapshotFilter getSnapshotFilter() {
+        return SnapshotFilter.all();
+      }
+    };
+    assertNotSame(SnapshotFilter.all(), filtered.getSnapshotFilter());
+    locomotion.apply(buildRobot(), filtered);
+    locomotion.apply(buildRobot(), full);
+    assertArrayEquals(pixels(full.getImage()), pixels(filtered.getImage()));
+  }
+
+  private static byte[] pixels(BufferedImage image) {
+    return ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+  }
+
+}